@@ -0,0 +1,141 @@
+//Title: Joe's Deli Billing Engine
+//Desc: Prices an order (DeliOrder) and writes the bill text for the register. Every amount is a long number of cents, tax is
+//      rounded to the cent once with a fixed rounding rule, and the total is always subtotal plus tax as shown.
+//      The bill is written into a buffer the engine keeps, so pricing an order makes no garbage; one engine per
+//      register, it is not shared between threads.
+//      -DjoesDeli.taxBasisPoints=<n> (default 700 = 7%), -DjoesDeli.taxRounding=HALF_UP|HALF_EVEN|UP|DOWN (default HALF_UP)
+//Author: JIAYUAN YU
+//Date: 05/18/2023
+
+package application;
+
+import java.math.RoundingMode;                  // Names the rounding rule, the arithmetic itself stays in long
+
+
+final class BillingEngine {
+
+  static final int DEFAULT_TAX_BASIS_POINTS = 700;             // 7% sales tax
+  private static final long BASIS_POINTS = 10_000;             // Basis points in a whole
+
+  private final int taxBasisPoints;
+  private final RoundingMode taxRounding;
+  private final String taxLine;                                // "Tax(7%): ", made once
+  private final StringBuilder billText = new StringBuilder(512);   // Reused for every bill, only grows for a longer bill than any before
+
+  private long subtotalCents;
+  private long taxCents;
+  private long totalCents;
+
+
+  BillingEngine() {
+    this(Integer.getInteger("joesDeli.taxBasisPoints", DEFAULT_TAX_BASIS_POINTS),
+        RoundingMode.valueOf(System.getProperty("joesDeli.taxRounding", RoundingMode.HALF_UP.name())));
+  }
+
+  BillingEngine(int taxBasisPoints, RoundingMode taxRounding) {
+    if (taxBasisPoints < 0 || taxBasisPoints > BASIS_POINTS) {
+      throw new IllegalArgumentException("Tax rate must be 0 to 10000 basis points: " + taxBasisPoints);
+    }
+    if (taxRounding != RoundingMode.HALF_UP && taxRounding != RoundingMode.HALF_EVEN && taxRounding != RoundingMode.UP
+        && taxRounding != RoundingMode.DOWN) {
+      throw new IllegalArgumentException("Tax rounding must be HALF_UP, HALF_EVEN, UP or DOWN: " + taxRounding);
+    }
+    this.taxBasisPoints = taxBasisPoints;
+    this.taxRounding = taxRounding;
+    StringBuilder percent = new StringBuilder();
+    appendCents(percent, taxBasisPoints);                      // Basis points are hundredths of a percent, the same digits as cents
+    while (percent.charAt(percent.length() - 1) == '0') {
+      percent.setLength(percent.length() - 1);                 // "7.00" to "7"
+    }
+    if (percent.charAt(percent.length() - 1) == '.') {
+      percent.setLength(percent.length() - 1);
+    }
+    this.taxLine = "Tax(" + percent + "%): ";
+  }
+
+
+  // Write the bill of an order, one line per item and one under it per modifier; the text is valid until the next bill.
+  // The subtotal is the one the order keeps, so only writing the lines depends on the size of the order
+  CharSequence bill(DeliOrder order) {
+    billText.setLength(0);
+    billText.append("------Item Info------\n");
+
+    MenuCatalog menu = order.menu();
+    for (int line = 0; line < order.lineCount(); line++) {
+      MenuCatalog.Item item = menu.itemWithID(order.lineItemID(line));
+      appendLine("", item, order.quantity(item.id));
+      for (int modifierID : item.modifierIDs()) {
+        int quantity = order.quantity(modifierID);
+        if (quantity > 0) {
+          appendLine("  + ", menu.itemWithID(modifierID), quantity);
+        }
+      }
+    }
+    price(order.subtotalCents());
+
+    billText.append("------Bill Info------\n");
+    appendCents(billText.append("Subtotal Cost: "), subtotalCents).append('\n');
+    appendCents(billText.append(taxLine), taxCents).append('\n');
+    appendCents(billText.append("Total Cost: "), totalCents).append('\n');
+    return billText;
+  }
+
+  // Set the subtotal, tax and total of an order whose items add up to the given number of cents
+  void price(long subtotal) {
+    subtotalCents = subtotal;
+    taxCents = taxCents(subtotal);
+    totalCents = subtotal + taxCents;
+  }
+
+  long subtotalCents() {
+    return subtotalCents;
+  }
+
+  long taxCents() {
+    return taxCents;
+  }
+
+  long totalCents() {
+    return totalCents;
+  }
+
+
+  // "Egg Sandwich: $7.99 each", or with more than one unit "3 x Egg Sandwich: $7.99 each = $23.97"
+  private void appendLine(String prefix, MenuCatalog.Item item, int quantity) {
+    billText.append(prefix);
+    if (quantity > 1) {
+      billText.append(quantity).append(" x ");
+    }
+    billText.append(item.name).append(": ").append(item.priceText).append(" each");
+    if (quantity > 1) {
+      appendCents(billText.append(" = $"), quantity * item.priceCents);
+    }
+    billText.append('\n');
+  }
+
+  // Tax on a subtotal, rounded to a whole cent by the rounding rule
+  long taxCents(long subtotal) {
+    long scaled = subtotal * taxBasisPoints;                   // Tax in 1/10000 cents, exact
+    long cents = Math.floorDiv(scaled, BASIS_POINTS);
+    long remainder = Math.floorMod(scaled, BASIS_POINTS);
+    if (remainder == 0) {
+      return cents;
+    }
+    switch (taxRounding) {
+      case UP:        return cents + 1;                        // A subtotal is never negative, so up is away from zero
+      case DOWN:      return cents;
+      case HALF_EVEN: return remainder > BASIS_POINTS / 2 || (remainder == BASIS_POINTS / 2 && (cents & 1) == 1) ? cents + 1 : cents;
+      default:        return remainder >= BASIS_POINTS / 2 ? cents + 1 : cents;
+    }
+  }
+
+  // 1234 as "12.34", straight into the builder
+  static StringBuilder appendCents(StringBuilder text, long cents) {
+    if (cents < 0) {
+      text.append('-');
+      cents = -cents;
+    }
+    long fraction = cents % 100;
+    return text.append(cents / 100).append('.').append((char) ('0' + fraction / 10)).append((char) ('0' + fraction % 10));
+  }
+}
@@ -0,0 +1,423 @@
+// Title: CT Bulk Import
+// Desc: Headless import of a day of CT results exported by the scanner as one CSV file, instead of typing every report
+//       into the CT Scan Tech View. The file is read as a stream of chunks, the chunks are parsed and checked in
+//       parallel, and the reports are saved in batches through the Patient Record Service. Rows that cannot be
+//       imported are written to <csv file>.errors.csv with the line number and the reason.
+//       Usage: java application.HeartHealthSystem --import-ct <csv file> [record directory]
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;                    // Exception class that is thrown when an I/O operation encounters an error or fails
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+class CTBulkImport {
+
+	private static final int CHUNK_ROWS = 2048;                                           // Rows handed to one parse task
+	private static final int BATCH_SIZE = 256;                                            // Reports saved by one call of the record service
+	private static final int WRITE_LANES = 4;                                             // Reports of one patient always go to the same lane, so the last row wins
+	private static final int MAX_BATCHES_IN_FLIGHT = 16;                                  // Batches waiting to be saved before reading pauses
+
+	// Columns of the scanner export, in the order used when the file has no header row
+	private static final String[] COLUMNS = { "patient id", "total", "lm", "lad", "lcx", "rca", "pda" };
+
+	private final PatientRecordService recordService;                                     // Checks patient IDs and saves the reports
+	private final int parseThreads = Runtime.getRuntime().availableProcessors();
+
+	private final Semaphore batchesInFlight = new Semaphore(MAX_BATCHES_IN_FLIGHT);
+	private final AtomicLong importedRows = new AtomicLong();
+	private final AtomicLong rejectedRows = new AtomicLong();
+	private final AtomicLong blankRows = new AtomicLong();
+	private BufferedWriter errorWriter;                                                   // <csv file>.errors.csv
+
+
+	CTBulkImport(PatientRecordService recordService) {
+		this.recordService = recordService;
+	}
+
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: java application.HeartHealthSystem --import-ct <csv file> [record directory]");
+			System.exit(2);
+		}
+
+		Path csvFile = Paths.get(args[0]);
+		Path recordDirectory = Paths.get(args.length > 1 ? args[1] : "");
+
+		int exitCode = 0;
+		try (PatientRecordService recordService = PatientRecordService.open(recordDirectory,
+				Integer.getInteger("heartHealth.patientIDDigits", PatientIDAllocator.DEFAULT_DIGITS),
+				Integer.getInteger("heartHealth.recordCacheSize", PatientRecordCache.DEFAULT_CAPACITY))) {
+			ImportSummary summary = new CTBulkImport(recordService).importFile(csvFile, Paths.get(csvFile + ".errors.csv"));
+			System.out.println(summary);
+			if (summary.rejectedRows > 0) {
+				System.out.println("Rejected rows are listed in " + csvFile + ".errors.csv");
+				exitCode = 1;
+			}
+		}
+		System.exit(exitCode);                                                             // Only once the record service is closed and its log checkpointed
+	}
+
+
+	// Import every row of the CSV file, rows that cannot be imported are written to errorFile
+	ImportSummary importFile(Path csvFile, Path errorFile) throws IOException {
+		long startTime = System.nanoTime();
+		AtomicInteger threadNumber = new AtomicInteger();
+		ExecutorService parsePool = Executors.newFixedThreadPool(parseThreads + 1, task -> {
+			Thread thread = new Thread(task, "ct-import-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		BlockingQueue<Future<ParsedChunk>> parsedChunks = new ArrayBlockingQueue<>(parseThreads * 2);   // Bounds how much of the file is in memory
+		long rowsRead = 0;
+
+		try (BufferedReader csvReader = Files.newBufferedReader(csvFile);
+				BufferedWriter errors = Files.newBufferedWriter(errorFile)) {
+			this.errorWriter = errors;
+			errors.write("line,error,row\n");
+
+			// The dispatcher takes the parsed chunks in file order and routes the reports to the write lanes
+			CompletableFuture<Void> dispatcher = CompletableFuture.runAsync(() -> dispatch(parsedChunks), parsePool);
+
+			long[] lineNumber = { 1 };                                                     // Line the next row starts on
+			String row = readRow(csvReader, lineNumber);
+			int[] columns = row == null ? null : headerColumns(row);
+			if (columns == null) {
+				columns = new int[] { 0, 1, 2, 3, 4, 5, 6 };
+			} else {
+				row = readRow(csvReader, lineNumber);                                      // The first row was a header row
+			}
+
+			final int[] columnOrder = columns;
+			while (row != null) {
+				List<String> rows = new ArrayList<>(CHUNK_ROWS);
+				List<Long> rowLineNumbers = new ArrayList<>(CHUNK_ROWS);
+				while (row != null && rows.size() < CHUNK_ROWS) {
+					rows.add(row);
+					rowLineNumbers.add(lineNumber[0]);
+					row = readRow(csvReader, lineNumber);
+				}
+				rowsRead += rows.size();
+				putChunk(parsedChunks, parsePool.submit(() -> parseChunk(rows, rowLineNumbers, columnOrder)), dispatcher);
+			}
+			putChunk(parsedChunks, CompletableFuture.completedFuture(null), dispatcher);  // End of the file
+
+			dispatcher.join();
+		} finally {
+			parsePool.shutdownNow();
+			this.errorWriter = null;
+		}
+
+		return new ImportSummary(rowsRead, importedRows.get(), rejectedRows.get(), blankRows.get(), System.nanoTime() - startTime);
+	}
+
+
+	// Parse and check one chunk of rows, runs on the parse pool
+	private ParsedChunk parseChunk(List<String> rows, List<Long> lineNumbers, int[] columns) {
+		ParsedChunk parsed = new ParsedChunk(rows.size());
+		int columnCount = 0;
+		for (int column : columns) {
+			columnCount = Math.max(columnCount, column + 1);
+		}
+		for (int i = 0; i < rows.size(); i++) {
+			String row = rows.get(i);
+			long lineNumber = lineNumbers.get(i);
+			if (row.isBlank()) {
+				parsed.blankRows++;
+				continue;
+			}
+
+			String[] fields = csvFields(row);
+			if (fields == null) {
+				parsed.reject(lineNumber, "a quoted field is not closed", row);
+				continue;
+			}
+			if (fields.length < columnCount) {
+				parsed.reject(lineNumber, "expected " + columnCount + " columns but found " + fields.length, row);
+				continue;
+			}
+
+			long patientID = PatientStore.parsePatientID(fields[columns[0]].trim());
+			if (patientID < 0) {
+				parsed.reject(lineNumber, "patient ID is not a number", row);
+				continue;
+			}
+			if (!recordService.isValidPatientID(patientID)) {
+				parsed.reject(lineNumber, "patient " + patientID + " does not exist", row);
+				continue;
+			}
+
+			float[] scores = new float[COLUMNS.length - 1];
+			String invalidScore = null;
+			for (int score = 0; score < scores.length && invalidScore == null; score++) {
+				try {
+					scores[score] = CTScoreRecord.parseScore(fields[columns[score + 1]]);
+				} catch (NumberFormatException event) {
+					invalidScore = COLUMNS[score + 1].toUpperCase(Locale.ROOT) + ": " + event.getMessage();
+				}
+			}
+			if (invalidScore != null) {
+				parsed.reject(lineNumber, invalidScore, row);
+				continue;
+			}
+
+			parsed.accept(lineNumber, new CTScoreRecord(patientID, scores[0], scores[1], scores[2], scores[3], scores[4], scores[5]));
+		}
+		return parsed;
+	}
+
+
+	// Take the parsed chunks in file order, write their errors and save their reports in batches
+	private void dispatch(BlockingQueue<Future<ParsedChunk>> parsedChunks) {
+		List<List<CTScoreRecord>> laneBatches = new ArrayList<>();
+		List<List<Long>> laneLineNumbers = new ArrayList<>();
+		List<CompletableFuture<Void>> laneTails = new ArrayList<>();
+		for (int lane = 0; lane < WRITE_LANES; lane++) {
+			laneBatches.add(new ArrayList<>(BATCH_SIZE));
+			laneLineNumbers.add(new ArrayList<>(BATCH_SIZE));
+			laneTails.add(CompletableFuture.completedFuture(null));
+		}
+
+		try {
+			while (true) {
+				ParsedChunk parsed = parsedChunks.take().get();
+				if (parsed == null) {
+					break;                                                                 // End of the file
+				}
+
+				for (String error : parsed.errors) {
+					writeError(error);
+				}
+				rejectedRows.addAndGet(parsed.errors.size());
+				blankRows.addAndGet(parsed.blankRows);
+
+				for (int i = 0; i < parsed.records.size(); i++) {
+					CTScoreRecord record = parsed.records.get(i);
+					int lane = (int) (record.getPatientID() % WRITE_LANES);
+					laneBatches.get(lane).add(record);
+					laneLineNumbers.get(lane).add(parsed.lineNumbers.get(i));
+					if (laneBatches.get(lane).size() == BATCH_SIZE) {
+						flushLane(lane, laneBatches, laneLineNumbers, laneTails);
+					}
+				}
+			}
+
+			for (int lane = 0; lane < WRITE_LANES; lane++) {
+				if (!laneBatches.get(lane).isEmpty()) {
+					flushLane(lane, laneBatches, laneLineNumbers, laneTails);
+				}
+			}
+			CompletableFuture.allOf(laneTails.toArray(new CompletableFuture<?>[0])).handle((done, failure) -> null).join();
+		} catch (InterruptedException event) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("CT import was interrupted", event);
+		} catch (ExecutionException event) {
+			throw new IllegalStateException("CT import could not parse the file", event.getCause());
+		}
+	}
+
+	// Save the lane's batch after the lane's previous batch, so two rows of one patient are saved in file order
+	private void flushLane(int lane, List<List<CTScoreRecord>> laneBatches, List<List<Long>> laneLineNumbers,
+			List<CompletableFuture<Void>> laneTails) throws InterruptedException {
+		List<CTScoreRecord> batch = laneBatches.set(lane, new ArrayList<>(BATCH_SIZE));
+		List<Long> lineNumbers = laneLineNumbers.set(lane, new ArrayList<>(BATCH_SIZE));
+
+		batchesInFlight.acquire();                                                         // Wait while too many batches are queued
+		CompletableFuture<Void> saved = laneTails.get(lane)
+				.handle((previous, failure) -> null)                                        // A failed batch does not stop the lane
+				.thenCompose(previous -> recordService.savePatientCTScanDataBatch(batch))
+				.whenComplete((done, failure) -> {
+					batchesInFlight.release();
+					if (failure == null) {
+						importedRows.addAndGet(batch.size());
+						return;
+					}
+					rejectedRows.addAndGet(batch.size());
+					for (long lineNumber : lineNumbers) {
+						writeError(lineNumber + "," + csvField("report could not be saved: " + failure.getMessage()) + ",");
+					}
+				});
+		laneTails.set(lane, saved);
+	}
+
+
+	// Blocks while the parse pool and dispatcher catch up, and stops reading if the dispatcher failed
+	private void putChunk(BlockingQueue<Future<ParsedChunk>> parsedChunks, Future<ParsedChunk> chunk, CompletableFuture<Void> dispatcher) throws IOException {
+		try {
+			while (!parsedChunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+				if (dispatcher.isDone()) {
+					dispatcher.join();                                                     // Throws the dispatcher's failure
+					throw new IOException("CT import stopped before the end of the file");
+				}
+			}
+		} catch (InterruptedException event) {
+			Thread.currentThread().interrupt();
+			throw new IOException("CT import was interrupted", event);
+		}
+	}
+
+	private synchronized void writeError(String error) {
+		try {
+			errorWriter.write(error);
+			errorWriter.write('\n');
+		} catch (IOException event) {
+			throw new UncheckedIOException(event);
+		}
+	}
+
+
+	// The next row of the CSV file, more than one line when a quoted field holds a line break; null at the end of the
+	// file. lineNumber[0] is moved past the lines read
+	private static String readRow(BufferedReader csvReader, long[] lineNumber) throws IOException {
+		String row = csvReader.readLine();
+		if (row == null) {
+			return null;
+		}
+		lineNumber[0]++;
+		while (quotesOpen(row)) {
+			String nextLine = csvReader.readLine();
+			if (nextLine == null) {
+				break;                                                                     // Rejected by parseChunk as not closed
+			}
+			row += "\n" + nextLine;
+			lineNumber[0]++;
+		}
+		return row;
+	}
+
+	private static boolean quotesOpen(String row) {
+		boolean open = false;
+		for (int i = 0; i < row.length(); i++) {
+			if (row.charAt(i) == '"') {
+				open = !open;                                                              // An escaped "" closes and opens again
+			}
+		}
+		return open;
+	}
+
+	// Fields of a CSV row as in RFC 4180: a field in double quotes may hold commas, line breaks and "" for a quote.
+	// Returns null if a quoted field is not closed
+	static String[] csvFields(String row) {
+		List<String> fields = new ArrayList<>(COLUMNS.length);
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < row.length(); i++) {
+			char c = row.charAt(i);
+			if (quoted) {
+				if (c != '"') {
+					field.append(c);
+				} else if (i + 1 < row.length() && row.charAt(i + 1) == '"') {
+					field.append('"');
+					i++;
+				} else {
+					quoted = false;
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		if (quoted) {
+			return null;
+		}
+		fields.add(field.toString());
+		return fields.toArray(new String[0]);
+	}
+
+	// Returns the column order of a header row, or null if the line is a data row
+	private static int[] headerColumns(String line) {
+		String[] fields = csvFields(line);
+		if (fields == null || PatientStore.parsePatientID(fields[0].trim()) >= 0) {
+			return null;
+		}
+
+		int[] columns = new int[COLUMNS.length];
+		for (int column = 0; column < COLUMNS.length; column++) {
+			columns[column] = -1;
+			for (int field = 0; field < fields.length; field++) {
+				String name = fields[field].trim().toLowerCase(Locale.ROOT).replace("_", " ").replace("score", "").trim();
+				if (name.startsWith(COLUMNS[column]) || name.startsWith(COLUMNS[column].replace(" ", ""))) {
+					columns[column] = field;
+				}
+			}
+			if (columns[column] < 0) {
+				throw new IllegalArgumentException("CSV header has no \"" + COLUMNS[column] + "\" column: " + line);
+			}
+		}
+		return columns;
+	}
+
+	private static String csvField(String value) {
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+
+	// Reports and errors found in one chunk of rows
+	private static class ParsedChunk {
+		final List<CTScoreRecord> records;
+		final List<Long> lineNumbers;
+		final List<String> errors = new ArrayList<>();
+		int blankRows;                                                                     // Empty lines, neither imported nor rejected
+
+		ParsedChunk(int rows) {
+			records = new ArrayList<>(rows);
+			lineNumbers = new ArrayList<>(rows);
+		}
+
+		void accept(long lineNumber, CTScoreRecord record) {
+			records.add(record);
+			lineNumbers.add(lineNumber);
+		}
+
+		void reject(long lineNumber, String reason, String row) {
+			errors.add(lineNumber + "," + csvField(reason) + "," + csvField(row));
+		}
+	}
+
+
+	// Counts and throughput of one import
+	static class ImportSummary {
+		final long rowsRead, importedRows, rejectedRows, blankRows, elapsedNanos;   // rowsRead = importedRows + rejectedRows + blankRows
+
+		ImportSummary(long rowsRead, long importedRows, long rejectedRows, long blankRows, long elapsedNanos) {
+			this.rowsRead = rowsRead;
+			this.importedRows = importedRows;
+			this.rejectedRows = rejectedRows;
+			this.blankRows = blankRows;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		@Override
+		public String toString() {
+			double seconds = elapsedNanos / 1e9;
+			return String.format(Locale.ROOT, "Read %d rows: %d imported, %d rejected, %d blank in %.2f s (%.0f rows/s)",
+					rowsRead, importedRows, rejectedRows, blankRows, seconds, seconds > 0 ? rowsRead / seconds : 0.0);
+		}
+	}
+}
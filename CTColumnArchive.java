@@ -0,0 +1,352 @@
+// Title: CT Column Archive
+// Desc: Latest CT scan report of every patient, stored column by column in one memory-mapped file (CTResults.columns):
+//       a long column of patient IDs and one float column each for the total, LM, LAD, LCX, RCA and PDA scores.
+//       Population questions such as "mean LAD score across all patients" read one column straight from the mapping
+//       without opening any CTResults.txt file or creating an object per patient. The Patient Record Service keeps the
+//       archive in step with every CT scan report it saves. Several stations can share the archive: every put locks
+//       CTResults.columns.lock and first catches up with the rows the other stations added. The archive file itself is
+//       replaced when it grows, so the lock is on a file of its own, which also counts the replacements; a station
+//       maps the new file before it reads or writes again.
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import java.io.IOException;                    // Exception class that is thrown when an I/O operation encounters an error or fails
+import java.io.UncheckedIOException;           // Carries a failed remap out of the column views
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;                   // Read-only view of one score column
+import java.nio.LongBuffer;                    // Read-only view of the patient ID column
+import java.nio.MappedByteBuffer;              // The archive file mapped into memory
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;             // Keeps two stations from adding a row at the same moment
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+class CTColumnArchive implements AutoCloseable {
+
+	static final String ARCHIVE_FILE_NAME = "CTResults.columns";
+	static final String LOCK_FILE_NAME = "CTResults.columns.lock";                        // Locked by every put, holds the number of times the archive file was replaced
+
+	// Score columns, in file order
+	static final int TOTAL = 0, LM = 1, LAD = 2, LCX = 3, RCA = 4, PDA = 5;
+	static final int SCORE_COLUMNS = 6;
+	static final String[] COLUMN_NAMES = { "Total", "LM", "LAD", "LCX", "RCA", "PDA" };
+
+	private static final int MAGIC = 0x43544341;                                          // "CTCA"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;                                            // magic, version, capacity, row count
+	private static final int ROW_SIZE = Long.BYTES + SCORE_COLUMNS * Float.BYTES;         // Bytes one patient takes across all columns
+	private static final int INITIAL_CAPACITY = 4096;                                     // Rows of a new archive, doubled whenever it is full
+	private static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / ROW_SIZE; // A mapping is limited to 2 GB
+
+	private final Path archiveFile;
+	private final FileChannel lockChannel;                                                // Channel on CTResults.columns.lock, null when read-only
+	private final MappedByteBuffer replacements;                                          // Long at 0: times the archive file was replaced, null when read-only
+	private MappedByteBuffer mapping;                                                     // Whole archive file
+	private long mappedReplacements;                                                      // Value of replacements when the archive file was mapped
+	private int capacity;                                                                 // Rows the file has room for
+	private int rowCount;                                                                 // Rows in use, as this station last saw them
+	private final Map<Long, Integer> rowOfPatient = new HashMap<>();                      // Patient ID -> row, so a new report replaces the old one
+	private final ReentrantLock archiveLock = new ReentrantLock();                        // Guards the mapping and rows; not a monitor, saves block on the lock file
+
+
+	private CTColumnArchive(Path archiveFile, FileChannel lockChannel, MappedByteBuffer replacements) {
+		this.archiveFile = archiveFile;
+		this.lockChannel = lockChannel;
+		this.replacements = replacements;
+	}
+
+
+	// Open (or create) the archive in the given directory, a new archive is filled from the CTResults.txt files
+	@SuppressWarnings("try")
+	static CTColumnArchive open(Path directory) throws IOException {
+		FileChannel lockChannel = FileChannel.open(directory.resolve(LOCK_FILE_NAME),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try (FileLock lock = lockChannel.lock()) {
+			CTColumnArchive archive = new CTColumnArchive(directory.resolve(ARCHIVE_FILE_NAME), lockChannel,
+					lockChannel.map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES));
+			if (Files.exists(archive.archiveFile)) {
+				archive.map();
+			} else {
+				archive.create(INITIAL_CAPACITY);
+				archive.importCTResultsFiles(directory);
+			}
+			return archive;
+		} catch (IOException | RuntimeException event) {
+			lockChannel.close();
+			throw event;
+		}
+	}
+
+	// Open the archive for reading only, as it is now; nothing in the directory is created or changed. Throws
+	// NoSuchFileException if no station has created the archive yet
+	static CTColumnArchive openReadOnly(Path directory) throws IOException {
+		CTColumnArchive archive = new CTColumnArchive(directory.resolve(ARCHIVE_FILE_NAME), null, null);
+		if (!Files.exists(archive.archiveFile)) {
+			throw new NoSuchFileException(archive.archiveFile.toString(), null, "no CT column archive, the Heart Health System creates it at startup");
+		}
+		archive.map();
+		return archive;
+	}
+
+
+	// Store the patient's latest report, replacing the patient's previous one
+	@SuppressWarnings("try")
+	void put(CTScoreRecord record) throws IOException {
+		archiveLock.lock();
+		try {
+			if (lockChannel == null) {
+				throw new IllegalStateException(archiveFile + " is open for reading only");
+			}
+			try (FileLock lock = lockChannel.lock()) {
+				catchUp();                                                                 // Pick up the rows other stations added, and a grown file
+				write(record);
+			}
+		} finally {
+			archiveLock.unlock();
+		}
+	}
+
+	// Store many reports with one lock, in list order
+	@SuppressWarnings("try")
+	void putAll(Collection<CTScoreRecord> records) throws IOException {
+		archiveLock.lock();
+		try {
+			if (lockChannel == null) {
+				throw new IllegalStateException(archiveFile + " is open for reading only");
+			}
+			try (FileLock lock = lockChannel.lock()) {
+				catchUp();
+				for (CTScoreRecord record : records) {
+					write(record);
+				}
+			}
+		} finally {
+			archiveLock.unlock();
+		}
+	}
+
+	// Write the record into the patient's row, or a new row; the caller holds the lock
+	private void write(CTScoreRecord record) throws IOException {
+		Integer row = rowOfPatient.get(record.getPatientID());
+		if (row == null) {
+			if (rowCount == capacity) {
+				grow();
+			}
+			row = rowCount;
+		}
+
+		mapping.putLong(patientIDOffset(row), record.getPatientID());
+		mapping.putFloat(scoreOffset(TOTAL, row), record.getTotalAgatstonCACScore());
+		mapping.putFloat(scoreOffset(LM, row), record.getLM());
+		mapping.putFloat(scoreOffset(LAD, row), record.getLAD());
+		mapping.putFloat(scoreOffset(LCX, row), record.getLCX());
+		mapping.putFloat(scoreOffset(RCA, row), record.getRCA());
+		mapping.putFloat(scoreOffset(PDA, row), record.getPDA());
+
+		if (row == rowCount) {
+			rowCount++;
+			mapping.putInt(12, rowCount);                                                  // Row count last, so a half-written row is never counted
+			rowOfPatient.put(record.getPatientID(), row);
+		}
+	}
+
+
+	// Read-only view of a score column, one entry per row; the view keeps its rows if the archive grows later
+	FloatBuffer column(int column) {
+		archiveLock.lock();
+		try {
+			refresh();
+			ByteBuffer columnBytes = mapping.duplicate().position(scoreOffset(column, 0)).limit(scoreOffset(column, rowCount));
+			return columnBytes.slice().asFloatBuffer().asReadOnlyBuffer();
+		} finally {
+			archiveLock.unlock();
+		}
+	}
+
+	// Read-only view of the patient ID column, row i of this view belongs with row i of every score column
+	LongBuffer patientIDs() {
+		archiveLock.lock();
+		try {
+			refresh();
+			ByteBuffer columnBytes = mapping.duplicate().position(patientIDOffset(0)).limit(patientIDOffset(rowCount));
+			return columnBytes.slice().asLongBuffer().asReadOnlyBuffer();
+		} finally {
+			archiveLock.unlock();
+		}
+	}
+
+	// Copy one row into a reusable record, returns false if the patient has no report
+	boolean read(long patientID, CTScoreRecord into) {
+		archiveLock.lock();
+		try {
+			refresh();
+			Integer row = rowOfPatient.get(patientID);
+			if (row == null) {
+				return false;
+			}
+			into.set(patientID, mapping.getFloat(scoreOffset(TOTAL, row)), mapping.getFloat(scoreOffset(LM, row)),
+					mapping.getFloat(scoreOffset(LAD, row)), mapping.getFloat(scoreOffset(LCX, row)),
+					mapping.getFloat(scoreOffset(RCA, row)), mapping.getFloat(scoreOffset(PDA, row)));
+			return true;
+		} finally {
+			archiveLock.unlock();
+		}
+	}
+
+
+	// Write the mapped pages back to the file
+	void force() {
+		archiveLock.lock();
+		try {
+			if (lockChannel != null) {
+				mapping.force();
+			}
+		} finally {
+			archiveLock.unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		archiveLock.lock();
+		try {
+			if (lockChannel != null) {
+				mapping.force();                                                           // Write the mapped pages back to the file
+				lockChannel.close();
+			}
+		} finally {
+			archiveLock.unlock();
+		}
+	}
+
+
+	private int patientIDOffset(int row) {
+		return HEADER_SIZE + row * Long.BYTES;
+	}
+
+	private int scoreOffset(int column, int row) {
+		return HEADER_SIZE + capacity * Long.BYTES + (column * capacity + row) * Float.BYTES;
+	}
+
+
+	// Rows other stations added since the last call. Rows are written before the row count, so without the lock a
+	// reader may miss the newest row but never sees half of one. A file replaced by a grow is mapped again
+	private void catchUp() throws IOException {
+		if (replacements != null && replacements.getLong(0) != mappedReplacements) {
+			map();
+			return;
+		}
+		int fileRowCount = mapping.getInt(12);
+		if (fileRowCount > capacity) {
+			throw new IOException(archiveFile + " is damaged");
+		}
+		for (int row = rowCount; row < fileRowCount; row++) {
+			rowOfPatient.put(mapping.getLong(patientIDOffset(row)), row);
+		}
+		rowCount = Math.max(rowCount, fileRowCount);
+	}
+
+	private void refresh() {
+		try {
+			catchUp();
+		} catch (IOException event) {
+			throw new UncheckedIOException(event);
+		}
+	}
+
+	// Map the archive file and index its patient IDs
+	private void map() throws IOException {
+		mappedReplacements = replacements == null ? 0 : replacements.getLong(0);          // Read first, a replacement after it is caught by the next catch up
+		if (lockChannel == null) {
+			try (FileChannel channel = FileChannel.open(archiveFile, StandardOpenOption.READ)) {
+				mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+		} else {
+			try (FileChannel channel = FileChannel.open(archiveFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+			}
+		}
+		if (mapping.capacity() < HEADER_SIZE || mapping.getInt(0) != MAGIC || mapping.getInt(4) != VERSION) {
+			throw new IOException(archiveFile + " is not a CT column archive");
+		}
+		capacity = mapping.getInt(8);
+		rowCount = mapping.getInt(12);
+		if ((long) HEADER_SIZE + (long) capacity * ROW_SIZE > mapping.capacity() || rowCount > capacity) {
+			throw new IOException(archiveFile + " is damaged");
+		}
+
+		rowOfPatient.clear();
+		for (int row = 0; row < rowCount; row++) {
+			rowOfPatient.put(mapping.getLong(patientIDOffset(row)), row);
+		}
+	}
+
+	// Write an empty archive with room for the given number of rows
+	private void create(int newCapacity) throws IOException {
+		Path newFile = archiveFile.resolveSibling(ARCHIVE_FILE_NAME + ".new");
+		try (FileChannel channel = FileChannel.open(newFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer newMapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) newCapacity * ROW_SIZE);
+			newMapping.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, newCapacity).putInt(12, 0);
+			newMapping.force();
+		}
+		Files.move(newFile, archiveFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		replaced();
+	}
+
+	// Move every column into a file with twice the room, then switch to it with an atomic rename
+	private void grow() throws IOException {
+		if (capacity >= MAX_CAPACITY) {
+			throw new IOException("CT column archive is full at " + capacity + " patients");
+		}
+		int newCapacity = (int) Math.min((long) capacity * 2, MAX_CAPACITY);
+		Path newFile = archiveFile.resolveSibling(ARCHIVE_FILE_NAME + ".new");
+
+		try (FileChannel channel = FileChannel.open(newFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer newMapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) newCapacity * ROW_SIZE);
+			newMapping.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, newCapacity).putInt(12, rowCount);
+
+			// Patient ID column, then each score column at its new offset
+			newMapping.put(HEADER_SIZE, mapping, patientIDOffset(0), rowCount * Long.BYTES);
+			for (int column = 0; column < SCORE_COLUMNS; column++) {
+				int newOffset = HEADER_SIZE + newCapacity * Long.BYTES + column * newCapacity * Float.BYTES;
+				newMapping.put(newOffset, mapping, scoreOffset(column, 0), rowCount * Float.BYTES);
+			}
+			newMapping.force();
+		}
+		Files.move(newFile, archiveFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		replaced();
+	}
+
+	// Tell the other stations their mapping is of an unlinked file, then map the new one; the caller holds the lock
+	private void replaced() throws IOException {
+		replacements.putLong(0, replacements.getLong(0) + 1);
+		replacements.force();
+		map();
+	}
+
+	// Fill a new archive from the CT scan results files already in the directory
+	private void importCTResultsFiles(Path directory) throws IOException {
+		CTResultsParser parser = new CTResultsParser();
+		CTScoreRecord record = new CTScoreRecord();
+		try (DirectoryStream<Path> ctResultsFiles = Files.newDirectoryStream(directory, "*CTResults.txt")) {
+			for (Path ctResultsFile : ctResultsFiles) {
+				if (parser.parse(ctResultsFile, record)) {
+					write(record);                                                         // open holds the lock
+				}
+			}
+		}
+	}
+}
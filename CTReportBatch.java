@@ -0,0 +1,401 @@
+// Title: CT Report Batch
+// Desc: Nightly job that writes a printable CAC report, as an HTML page and as a one-page PDF, for every patient whose
+//       latest CT scan was saved on a given day, so patients no longer have to log in to the Patient View to see their
+//       results. The report templates are compiled once into literal byte segments and score slots; each report then
+//       only copies bytes and the patient's values, straight into its file. Reports are rendered on every core, and the
+//       number written, the number that failed and the throughput are printed at the end. Failed reports are listed in
+//       <output directory>/report-errors.csv.
+//       Usage: java application.HeartHealthSystem --ct-reports [yyyy-mm-dd] [output directory] [record directory]
+//       The day defaults to today and the output directory to CACReports/<day>. -DheartHealth.reportTemplate=<file>
+//       replaces the HTML template; it may use {{patientID}}, {{patientName}}, {{scanDate}}, {{total}}, {{lm}},
+//       {{lad}}, {{lcx}}, {{rca}}, {{pda}} and {{riskBand}}.
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;                    // Exception class that is thrown when an I/O operation encounters an error or fails
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;       // Escapes a value for HTML or for a PDF string
+
+
+class CTReportBatch {
+
+	private static final int REPORTS_PER_TASK = 64;                                       // Patients a render thread takes from the list at a time
+	private static final int FILE_BUFFER_SIZE = 16 * 1024;
+	private static final DateTimeFormatter REPORT_DATE = DateTimeFormatter.ofPattern("MM/dd/yyyy");
+
+	// Values a template can use, in the order of FIELD_NAMES
+	static final int PATIENT_ID = 0, PATIENT_NAME = 1, SCAN_DATE = 2, TOTAL = 3, LM = 4, LAD = 5, LCX = 6, RCA = 7, PDA = 8, RISK_BAND = 9;
+	static final String[] FIELD_NAMES = { "patientID", "patientName", "scanDate", "total", "lm", "lad", "lcx", "rca", "pda", "riskBand" };
+
+	static final String DEFAULT_HTML_TEMPLATE = """
+			<!DOCTYPE html>
+			<html lang="en">
+			<head>
+			<meta charset="utf-8">
+			<title>CAC Report - {{patientName}}</title>
+			<style>
+			body { font-family: Helvetica, Arial, sans-serif; margin: 2cm; }
+			table { border-collapse: collapse; margin-top: 1em; }
+			th, td { border: 1px solid #999; padding: 6px 18px; text-align: left; }
+			th { background: #eee; }
+			@media print { body { margin: 1cm; } }
+			</style>
+			</head>
+			<body>
+			<h1>Coronary Artery Calcium Report</h1>
+			<p><b>Patient:</b> {{patientName}}<br><b>Patient ID:</b> {{patientID}}<br><b>Scan date:</b> {{scanDate}}</p>
+			<table>
+			<tr><th>Score</th><th>Agatston</th></tr>
+			<tr><td><b>Total Agatston CAC score</b></td><td><b>{{total}}</b></td></tr>
+			<tr><td>LM (left main)</td><td>{{lm}}</td></tr>
+			<tr><td>LAD (left anterior descending)</td><td>{{lad}}</td></tr>
+			<tr><td>LCX (left circumflex)</td><td>{{lcx}}</td></tr>
+			<tr><td>RCA (right coronary artery)</td><td>{{rca}}</td></tr>
+			<tr><td>PDA (posterior descending artery)</td><td>{{pda}}</td></tr>
+			</table>
+			<p><b>CAC risk band:</b> {{riskBand}}</p>
+			<p>Please discuss these results with your doctor.</p>
+			</body>
+			</html>
+			""";
+
+	// Text drawn on the PDF page: Helvetica (F1) and Helvetica-Bold (F2), 72 points to the inch, from the bottom left
+	private static final String PDF_PAGE_TEMPLATE = """
+			BT /F2 22 Tf 72 710 Td (Coronary Artery Calcium Report) Tj ET
+			BT /F1 13 Tf 72 670 Td 18 TL (Patient: {{patientName}}) Tj T* (Patient ID: {{patientID}}) Tj T* (Scan date: {{scanDate}}) Tj ET
+			BT /F2 14 Tf 72 590 Td (Total Agatston CAC score) Tj 260 0 Td ({{total}}) Tj ET
+			BT /F1 13 Tf 72 564 Td 22 TL (LM \\(left main\\)) Tj T* (LAD \\(left anterior descending\\)) Tj T* (LCX \\(left circumflex\\)) Tj T* (RCA \\(right coronary artery\\)) Tj T* (PDA \\(posterior descending artery\\)) Tj ET
+			BT /F1 13 Tf 332 564 Td 22 TL ({{lm}}) Tj T* ({{lad}}) Tj T* ({{lcx}}) Tj T* ({{rca}}) Tj T* ({{pda}}) Tj ET
+			BT /F2 13 Tf 72 430 Td (CAC risk band: {{riskBand}}) Tj ET
+			BT /F1 11 Tf 72 400 Td (Please discuss these results with your doctor.) Tj ET
+			""";
+
+	// One page PDF: five fixed objects, then the page's text as object 6. Only the text and the final offset of the
+	// cross-reference table change from one report to the next, the rest is written from precomputed bytes
+	private static final byte[] PDF_HEAD = latin1("%PDF-1.4\n"
+			+ "1 0 obj\n<< /Type /Catalog /Pages 2 0 R >>\nendobj\n"
+			+ "2 0 obj\n<< /Type /Pages /Kids [3 0 R] /Count 1 >>\nendobj\n"
+			+ "3 0 obj\n<< /Type /Page /Parent 2 0 R /MediaBox [0 0 612 792] /Resources << /Font << /F1 4 0 R /F2 5 0 R >> >> /Contents 6 0 R >>\nendobj\n"
+			+ "4 0 obj\n<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica /Encoding /WinAnsiEncoding >>\nendobj\n"
+			+ "5 0 obj\n<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica-Bold /Encoding /WinAnsiEncoding >>\nendobj\n");
+	private static final byte[] PDF_XREF = pdfCrossReference(PDF_HEAD);
+
+	private final PatientRecordService recordService;                                     // Patients and their latest CT scan reports
+	private final CompiledTemplate htmlTemplate;
+	private final CompiledTemplate pdfPageTemplate = CompiledTemplate.compile(PDF_PAGE_TEMPLATE, StandardCharsets.ISO_8859_1, CTReportBatch::pdfText);
+	private final int renderThreads = Runtime.getRuntime().availableProcessors();
+
+	private final AtomicLong writtenReports = new AtomicLong();
+	private final AtomicLong failedReports = new AtomicLong();
+	private final AtomicLong bytesWritten = new AtomicLong();
+	private BufferedWriter errorWriter;                                                   // <output directory>/report-errors.csv
+
+
+	CTReportBatch(PatientRecordService recordService, String htmlTemplate) {
+		this.recordService = recordService;
+		this.htmlTemplate = CompiledTemplate.compile(htmlTemplate, StandardCharsets.UTF_8, CTReportBatch::htmlText);
+	}
+
+
+	public static void main(String[] args) throws IOException {
+		LocalDate day = args.length > 0 ? LocalDate.parse(args[0]) : LocalDate.now();
+		Path outputDirectory = Paths.get(args.length > 1 ? args[1] : "CACReports/" + day);
+		Path recordDirectory = Paths.get(args.length > 2 ? args[2] : "");
+		String templateFile = System.getProperty("heartHealth.reportTemplate");
+		String htmlTemplate = templateFile == null ? DEFAULT_HTML_TEMPLATE : Files.readString(Paths.get(templateFile));
+
+		int exitCode = 0;
+		try (PatientRecordService recordService = PatientRecordService.open(recordDirectory,
+				Integer.getInteger("heartHealth.patientIDDigits", PatientIDAllocator.DEFAULT_DIGITS),
+				Integer.getInteger("heartHealth.recordCacheSize", PatientRecordCache.DEFAULT_CAPACITY))) {
+			BatchSummary summary = new CTReportBatch(recordService, htmlTemplate).writeReports(day, outputDirectory);
+			System.out.println(summary);
+			if (summary.failedReports > 0) {
+				System.out.println("Failed reports are listed in " + outputDirectory.resolve("report-errors.csv"));
+				exitCode = 1;
+			}
+		}
+		System.exit(exitCode);                                                             // Only once the record service is closed and its log checkpointed
+	}
+
+
+	// Write the HTML and PDF report of every patient whose latest CT scan was saved on the day
+	BatchSummary writeReports(LocalDate day, Path outputDirectory) throws IOException {
+		long startTime = System.nanoTime();
+		long[] patientIDs = recordService.patientsScannedOn(day);
+		Files.createDirectories(outputDirectory);
+
+		AtomicInteger threadNumber = new AtomicInteger();
+		ExecutorService renderPool = Executors.newFixedThreadPool(renderThreads, task -> {
+			Thread thread = new Thread(task, "ct-report-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		AtomicInteger nextReport = new AtomicInteger();
+
+		try (BufferedWriter errors = Files.newBufferedWriter(outputDirectory.resolve("report-errors.csv"))) {
+			this.errorWriter = errors;
+			errors.write("patient id,error\n");
+
+			// Every thread takes the next few patients until the list is done, so a slow disk write does not hold up the others
+			List<Future<?>> renderers = new ArrayList<>();
+			for (int thread = 0; thread < renderThreads; thread++) {
+				renderers.add(renderPool.submit(() -> {
+					ReportBuffers buffers = new ReportBuffers();
+					for (int first = nextReport.getAndAdd(REPORTS_PER_TASK); first < patientIDs.length; first = nextReport.getAndAdd(REPORTS_PER_TASK)) {
+						for (int i = first; i < Math.min(first + REPORTS_PER_TASK, patientIDs.length); i++) {
+							writeReport(patientIDs[i], day, outputDirectory, buffers);
+						}
+					}
+				}));
+			}
+			for (Future<?> renderer : renderers) {
+				renderer.get();
+			}
+		} catch (InterruptedException event) {
+			Thread.currentThread().interrupt();
+			throw new IOException("CT reports were interrupted", event);
+		} catch (ExecutionException event) {
+			throw new IOException("CT reports stopped: " + event.getCause(), event.getCause());
+		} finally {
+			renderPool.shutdownNow();
+			this.errorWriter = null;
+		}
+
+		return new BatchSummary(patientIDs.length, writtenReports.get(), failedReports.get(), bytesWritten.get(), System.nanoTime() - startTime);
+	}
+
+
+	// Both files of one patient; a report that fails leaves no file behind
+	private void writeReport(long patientID, LocalDate day, Path outputDirectory, ReportBuffers buffers) {
+		Path htmlFile = outputDirectory.resolve(patientID + "_CACReport.html");
+		Path pdfFile = outputDirectory.resolve(patientID + "_CACReport.pdf");
+		try {
+			PatientRecord patientRecord = recordService.loadLatestRecord(patientID);
+			if (patientRecord == null) {
+				throw new IOException("no patient or CT scan report");
+			}
+			String[] values = valuesOf(patientRecord, day);
+
+			long bytes;
+			try (OutputStream html = new BufferedOutputStream(Files.newOutputStream(htmlFile), FILE_BUFFER_SIZE)) {
+				bytes = htmlTemplate.render(values, html);
+			}
+			try (OutputStream pdf = new BufferedOutputStream(Files.newOutputStream(pdfFile), FILE_BUFFER_SIZE)) {
+				bytes += writePdf(values, pdf, buffers);
+			}
+			writtenReports.incrementAndGet();
+			bytesWritten.addAndGet(bytes);
+		} catch (IOException | RuntimeException event) {
+			failedReports.incrementAndGet();
+			deleteQuietly(htmlFile);
+			deleteQuietly(pdfFile);
+			writeError(patientID + "," + csvField(event.getMessage() != null ? event.getMessage() : event.toString()));
+		}
+	}
+
+	private static String[] valuesOf(PatientRecord patientRecord, LocalDate day) {
+		CTScoreRecord scores = patientRecord.getCTScores();
+		String[] values = new String[FIELD_NAMES.length];
+		values[PATIENT_ID] = patientRecord.getPatient().getPatientID();
+		values[PATIENT_NAME] = patientRecord.getPatientName();
+		values[SCAN_DATE] = day.format(REPORT_DATE);
+		values[TOTAL] = CTScoreRecord.formatScore(scores.getTotalAgatstonCACScore());
+		values[LM] = CTScoreRecord.formatScore(scores.getLM());
+		values[LAD] = CTScoreRecord.formatScore(scores.getLAD());
+		values[LCX] = CTScoreRecord.formatScore(scores.getLCX());
+		values[RCA] = CTScoreRecord.formatScore(scores.getRCA());
+		values[PDA] = CTScoreRecord.formatScore(scores.getPDA());
+		values[RISK_BAND] = CTRiskAnalytics.RISK_BANDS[CTRiskAnalytics.riskBand(scores.getTotalAgatstonCACScore())];
+		return values;
+	}
+
+
+	private long writePdf(String[] values, OutputStream pdf, ReportBuffers buffers) throws IOException {
+		buffers.pageText.reset();
+		pdfPageTemplate.render(values, buffers.pageText);                                  // The stream's length comes before the stream
+
+		byte[] streamHead = latin1("6 0 obj\n<< /Length " + buffers.pageText.size() + " >>\nstream\n");
+		byte[] streamTail = latin1("\nendstream\nendobj\n");
+		long crossReferenceOffset = PDF_HEAD.length + streamHead.length + buffers.pageText.size() + streamTail.length;
+		byte[] trailer = latin1("startxref\n" + crossReferenceOffset + "\n%%EOF\n");
+
+		pdf.write(PDF_HEAD);
+		pdf.write(streamHead);
+		buffers.pageText.writeTo(pdf);
+		pdf.write(streamTail);
+		pdf.write(PDF_XREF);
+		pdf.write(trailer);
+		return crossReferenceOffset + PDF_XREF.length + trailer.length;
+	}
+
+	// Offsets of objects 1 to 5 are fixed; object 6 starts right after them
+	private static byte[] pdfCrossReference(byte[] head) {
+		String text = new String(head, StandardCharsets.ISO_8859_1);
+		StringBuilder crossReference = new StringBuilder("xref\n0 7\n0000000000 65535 f \n");
+		for (int object = 1; object <= 5; object++) {
+			crossReference.append(String.format(Locale.ROOT, "%010d 00000 n \n", text.indexOf("\n" + object + " 0 obj") + 1));
+		}
+		crossReference.append(String.format(Locale.ROOT, "%010d 00000 n \n", head.length));
+		return latin1(crossReference.append("trailer\n<< /Size 7 /Root 1 0 R >>\n").toString());
+	}
+
+
+	// Text inside a PDF string: brackets and backslashes escaped, characters Helvetica cannot draw become '?'
+	private static String pdfText(String value) {
+		StringBuilder text = new StringBuilder(value.length() + 8);
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '(' || c == ')' || c == '\\') {
+				text.append('\\').append(c);
+			} else if (c < ' ' || (c >= 0x7F && c < 0xA0) || c > 0xFF) {
+				text.append('?');
+			} else {
+				text.append(c);
+			}
+		}
+		return text.toString();
+	}
+
+	private static String htmlText(String value) {
+		StringBuilder text = new StringBuilder(value.length() + 8);
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '&':  text.append("&amp;"); break;
+				case '<':  text.append("&lt;"); break;
+				case '>':  text.append("&gt;"); break;
+				case '"':  text.append("&quot;"); break;
+				case '\'': text.append("&#39;"); break;
+				default:   text.append(c);
+			}
+		}
+		return text.toString();
+	}
+
+	private static byte[] latin1(String text) {
+		return text.getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	private static String csvField(String value) {
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+	private static void deleteQuietly(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException event) {
+			// Left for the next run to overwrite
+		}
+	}
+
+	private synchronized void writeError(String error) {
+		try {
+			errorWriter.write(error);
+			errorWriter.write('\n');
+		} catch (IOException event) {
+			throw new UncheckedIOException(event);
+		}
+	}
+
+
+	// A template split once into its literal text, already encoded, and the fields between it
+	static class CompiledTemplate {
+		private final byte[][] literals;                                                  // literals[i] comes before fields[i], the last one ends the template
+		private final int[] fields;
+		private final Charset charset;
+		private final UnaryOperator<String> escape;
+
+		private CompiledTemplate(byte[][] literals, int[] fields, Charset charset, UnaryOperator<String> escape) {
+			this.literals = literals;
+			this.fields = fields;
+			this.charset = charset;
+			this.escape = escape;
+		}
+
+		// IllegalArgumentException for a {{name}} that is not one of FIELD_NAMES
+		static CompiledTemplate compile(String template, Charset charset, UnaryOperator<String> escape) {
+			List<byte[]> literals = new ArrayList<>();
+			List<Integer> fields = new ArrayList<>();
+			int literalStart = 0;
+			int open;
+			while ((open = template.indexOf("{{", literalStart)) >= 0) {
+				int close = template.indexOf("}}", open + 2);
+				if (close < 0) {
+					throw new IllegalArgumentException("Report template has an unclosed {{ at offset " + open);
+				}
+				String name = template.substring(open + 2, close).strip();
+				int field = List.of(FIELD_NAMES).indexOf(name);
+				if (field < 0) {
+					throw new IllegalArgumentException("Report template has an unknown field {{" + name + "}}, known fields are " + List.of(FIELD_NAMES));
+				}
+				literals.add(template.substring(literalStart, open).getBytes(charset));
+				fields.add(field);
+				literalStart = close + 2;
+			}
+			literals.add(template.substring(literalStart).getBytes(charset));
+			return new CompiledTemplate(literals.toArray(new byte[0][]), fields.stream().mapToInt(Integer::intValue).toArray(), charset, escape);
+		}
+
+		// Write the template with the values filled in, returns the number of bytes written
+		long render(String[] values, OutputStream out) throws IOException {
+			long bytes = 0;
+			for (int i = 0; i < fields.length; i++) {
+				out.write(literals[i]);
+				byte[] value = escape.apply(values[fields[i]]).getBytes(charset);
+				out.write(value);
+				bytes += literals[i].length + value.length;
+			}
+			out.write(literals[fields.length]);
+			return bytes + literals[fields.length].length;
+		}
+	}
+
+	// Reused by one render thread for every report it writes
+	private static class ReportBuffers {
+		final ByteArrayOutputStream pageText = new ByteArrayOutputStream(2048);
+	}
+
+
+	// Counts and throughput of one run
+	static class BatchSummary {
+		final long patients, writtenReports, failedReports, bytesWritten, elapsedNanos;
+
+		BatchSummary(long patients, long writtenReports, long failedReports, long bytesWritten, long elapsedNanos) {
+			this.patients = patients;
+			this.writtenReports = writtenReports;
+			this.failedReports = failedReports;
+			this.bytesWritten = bytesWritten;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		@Override
+		public String toString() {
+			double seconds = elapsedNanos / 1e9;
+			return String.format(Locale.ROOT, "%d patients scanned: %d reports written (HTML and PDF, %.1f MB), %d failed in %.2f s (%.0f reports/s)",
+					patients, writtenReports, bytesWritten / 1e6, failedReports, seconds, seconds > 0 ? writtenReports / seconds : 0.0);
+		}
+	}
+}
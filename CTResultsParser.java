@@ -0,0 +1,174 @@
+// Title: CT Results Parser
+// Desc: Reads xxxxxCTResults.txt files straight into a CTScoreRecord. The file is read into a buffer that is reused
+//       for every file and the labels and numbers are matched byte by byte, so no String is created per line.
+//       A parser keeps its buffer between calls, so each thread needs its own parser.
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import java.io.IOException;                    // Exception class that is thrown when an I/O operation encounters an error or fails
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+class CTResultsParser {
+
+	// Labels written by savePatientCTScanDataToFile, in the order of the fields they fill
+	private static final byte[][] LABELS = {
+			label("Patient ID:"), label("Total Agatston CAC score:"), label("LM Score:"),
+			label("LAD Score:"), label("LCX Score:"), label("RCA Score:"), label("PDA Score:")
+	};
+	private static final int PATIENT_ID = 0, TOTAL = 1, LM = 2, LAD = 3, LCX = 4, RCA = 5, PDA = 6;
+
+	private static final double[] POWERS_OF_TEN = { 1, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9 };
+
+	private ByteBuffer fileBuffer = ByteBuffer.allocate(512);                             // Reused for every file, grown when a file does not fit
+	private final float[] scores = new float[LABELS.length];                              // Values found in the file being parsed
+	private int foundFields;                                                              // One bit per label found in the file being parsed
+
+
+	// Read a CT scan results file into the record, returns false if a field is missing or not a number
+	boolean parse(Path ctResultsFile, CTScoreRecord into) throws IOException {
+		long start = System.nanoTime();
+		try (FileChannel channel = FileChannel.open(ctResultsFile, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > fileBuffer.capacity()) {
+				fileBuffer = ByteBuffer.allocate((int) Math.max(size, fileBuffer.capacity() * 2L));
+			}
+			fileBuffer.clear();
+			while (fileBuffer.hasRemaining() && channel.read(fileBuffer) > 0) {
+				// Keep reading until the whole file is in the buffer
+			}
+		}
+		Metrics.FILE_READ.recordSince(start);
+		Metrics.BYTES_READ.add(fileBuffer.position());
+		return parse(fileBuffer.array(), 0, fileBuffer.position(), into);
+	}
+
+	// Parse the content of a CT scan results file held in bytes[offset, offset + length)
+	boolean parse(byte[] bytes, int offset, int length, CTScoreRecord into) {
+		foundFields = 0;
+		long patientID = -1;
+		int end = offset + length;
+
+		for (int lineStart = offset; lineStart < end; ) {
+			int lineEnd = lineStart;
+			while (lineEnd < end && bytes[lineEnd] != '\n') {
+				lineEnd++;
+			}
+
+			for (int field = 0; field < LABELS.length; field++) {
+				byte[] label = LABELS[field];
+				if (startsWith(bytes, lineStart, lineEnd, label)) {
+					int valueStart = lineStart + label.length;
+					if (field == PATIENT_ID) {
+						patientID = parseLong(bytes, valueStart, lineEnd);
+						if (patientID < 0) {
+							return false;
+						}
+					} else {
+						float score = parseFloat(bytes, valueStart, lineEnd);
+						if (score < 0) {
+							return false;
+						}
+						scores[field] = score;
+					}
+					foundFields |= 1 << field;
+					break;
+				}
+			}
+			lineStart = lineEnd + 1;
+		}
+
+		if (foundFields != (1 << LABELS.length) - 1) {
+			return false;                                                                  // A label is missing from the file
+		}
+		into.set(patientID, scores[TOTAL], scores[LM], scores[LAD], scores[LCX], scores[RCA], scores[PDA]);
+		return true;
+	}
+
+
+	private static boolean startsWith(byte[] bytes, int start, int end, byte[] label) {
+		if (end - start < label.length) {
+			return false;
+		}
+		for (int i = 0; i < label.length; i++) {
+			if (bytes[start + i] != label[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Digits surrounded by optional blanks, returns -1 for anything else
+	private static long parseLong(byte[] bytes, int start, int end) {
+		start = skipBlanks(bytes, start, end);
+		end = trimBlanks(bytes, start, end);
+		if (start == end || end - start > 18) {
+			return -1;
+		}
+		long value = 0;
+		for (int i = start; i < end; i++) {
+			int digit = bytes[i] - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	// A score such as 120 or 37.5 surrounded by optional blanks, returns -1 for anything else
+	private static float parseFloat(byte[] bytes, int start, int end) {
+		start = skipBlanks(bytes, start, end);
+		end = trimBlanks(bytes, start, end);
+		long mantissa = 0;
+		int digits = 0, fractionDigits = 0;
+		boolean fraction = false;
+
+		for (int i = start; i < end; i++) {
+			byte b = bytes[i];
+			if (b == '.' && !fraction) {
+				fraction = true;
+			} else if (b >= '0' && b <= '9') {
+				if (digits == 18) {
+					return -1;                                                             // Too many digits for a score
+				}
+				mantissa = mantissa * 10 + (b - '0');
+				digits++;
+				if (fraction) {
+					fractionDigits++;
+				}
+			} else {
+				return -1;
+			}
+		}
+
+		if (digits == 0 || fractionDigits >= POWERS_OF_TEN.length) {
+			return -1;
+		}
+		return (float) (mantissa / POWERS_OF_TEN[fractionDigits]);                        // In double, so a saved score such as 19.800001 reads back as the same float
+	}
+
+	private static int skipBlanks(byte[] bytes, int start, int end) {
+		while (start < end && (bytes[start] == ' ' || bytes[start] == '\t')) {
+			start++;
+		}
+		return start;
+	}
+
+	private static int trimBlanks(byte[] bytes, int start, int end) {
+		while (end > start && (bytes[end - 1] == ' ' || bytes[end - 1] == '\t' || bytes[end - 1] == '\r')) {
+			end--;
+		}
+		return end;
+	}
+
+	private static byte[] label(String label) {
+		return label.getBytes(StandardCharsets.US_ASCII);
+	}
+}
@@ -0,0 +1,245 @@
+// Title: CT Risk Analytics
+// Desc: Population view of every stored CT scan report. Patients are put into the standard CAC risk bands by their
+//       total Agatston score (0, (0, 100), [100, 400), 400 and above), and each score column gets its mean, maximum,
+//       percentiles and a histogram. The columns are read straight from the CT column archive: counting runs as
+//       fork/join tasks over row ranges and the percentiles come from a parallel sort, so the work spreads over
+//       every core of the ForkJoinPool common pool (-Djava.util.concurrent.ForkJoinPool.common.parallelism=<n>).
+//       Usage: java application.HeartHealthSystem --ct-analytics [record directory]
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import java.io.IOException;                    // Exception class that is thrown when an I/O operation encounters an error or fails
+import java.nio.FloatBuffer;
+import java.nio.file.NoSuchFileException;      // No station has created the CT column archive yet
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
+
+
+class CTRiskAnalytics {
+
+	// CAC risk bands of the total Agatston score. Scores are not whole numbers, so the bands are intervals: 0.5 is mild
+	static final String[] RISK_BANDS = { "0 no CAC", "(0, 100) mild", "[100, 400) moderate", "400+ severe" };
+
+	// Histogram bins of every score column: 0, (0, 10), [10, 100), [100, 400), [400, 1000), 1000 and above
+	static final float[] HISTOGRAM_EDGES = { 0, 0, 10, 100, 400, 1000 };
+	static final String[] HISTOGRAM_BINS = { "0", "(0, 10)", "[10, 100)", "[100, 400)", "[400, 1000)", "1000+" };
+
+	static final double[] PERCENTILES = { 25, 50, 75, 90, 99 };
+
+	private static final int ROWS_PER_TASK = 64 * 1024;                                   // Rows counted by one fork/join task without splitting further
+
+
+	public static void main(String[] args) throws IOException {
+		Path recordDirectory = Paths.get(args.length > 0 ? args[0] : "");
+		try (CTColumnArchive ctArchive = CTColumnArchive.openReadOnly(recordDirectory)) {             // A report never writes to the record directory
+			System.out.println(summarize(ctArchive));
+		} catch (NoSuchFileException event) {
+			System.err.println(event.getFile() + ": " + event.getReason());
+			System.exit(1);
+		}
+	}
+
+
+	// Classify and describe every patient in the archive
+	static RiskSummary summarize(CTColumnArchive ctArchive) {
+		long startTime = System.nanoTime();
+
+		FloatBuffer[] columns = new FloatBuffer[CTColumnArchive.SCORE_COLUMNS];
+		int rows = Integer.MAX_VALUE;
+		for (int column = 0; column < columns.length; column++) {
+			columns[column] = ctArchive.column(column);
+			rows = Math.min(rows, columns[column].limit());                               // Rows added between two views are left out
+		}
+
+		Counts counts = ForkJoinPool.commonPool().invoke(new CountTask(columns, 0, rows));
+
+		// Percentiles need every value in order, each column is copied out of the mapping and sorted in parallel
+		int patients = rows;
+		float[][] percentiles = new float[columns.length][];
+		IntStream.range(0, columns.length).parallel().forEach(column -> {
+			float[] sorted = new float[patients];
+			columns[column].duplicate().get(sorted);
+			Arrays.parallelSort(sorted);
+			percentiles[column] = new float[PERCENTILES.length];
+			for (int i = 0; i < PERCENTILES.length; i++) {
+				percentiles[column][i] = patients == 0 ? 0 : sorted[percentileIndex(PERCENTILES[i], patients)];
+			}
+		});
+
+		return new RiskSummary(patients, counts, percentiles, System.nanoTime() - startTime);
+	}
+
+
+	static int riskBand(float totalAgatstonCACScore) {
+		if (totalAgatstonCACScore == 0) {
+			return 0;
+		} else if (totalAgatstonCACScore < 100) {
+			return 1;
+		} else if (totalAgatstonCACScore < 400) {
+			return 2;
+		}
+		return 3;
+	}
+
+	// Only a score of exactly 0 goes into the first bin, the same as the first risk band
+	static int histogramBin(float score) {
+		if (score == 0) {
+			return 0;
+		}
+		int bin = HISTOGRAM_EDGES.length - 1;
+		while (bin > 1 && score < HISTOGRAM_EDGES[bin]) {
+			bin--;
+		}
+		return bin;
+	}
+
+	// Nearest-rank percentile
+	private static int percentileIndex(double percentile, int count) {
+		int rank = (int) Math.ceil(percentile / 100 * count);
+		return Math.max(rank, 1) - 1;
+	}
+
+
+	// Counts of one range of rows, merged up the fork/join tree
+	private static class Counts {
+		final long[] riskBands = new long[RISK_BANDS.length];
+		final long[][] histograms = new long[CTColumnArchive.SCORE_COLUMNS][HISTOGRAM_EDGES.length];
+		final double[] sums = new double[CTColumnArchive.SCORE_COLUMNS];
+		final float[] maximums = new float[CTColumnArchive.SCORE_COLUMNS];
+
+		Counts add(Counts other) {
+			for (int band = 0; band < riskBands.length; band++) {
+				riskBands[band] += other.riskBands[band];
+			}
+			for (int column = 0; column < sums.length; column++) {
+				for (int bin = 0; bin < HISTOGRAM_EDGES.length; bin++) {
+					histograms[column][bin] += other.histograms[column][bin];
+				}
+				sums[column] += other.sums[column];
+				maximums[column] = Math.max(maximums[column], other.maximums[column]);
+			}
+			return this;
+		}
+	}
+
+	@SuppressWarnings("serial")                                                           // Only run on the pool, never serialized
+	private static class CountTask extends RecursiveTask<Counts> {
+		private final FloatBuffer[] columns;
+		private final int fromRow, toRow;
+
+		CountTask(FloatBuffer[] columns, int fromRow, int toRow) {
+			this.columns = columns;
+			this.fromRow = fromRow;
+			this.toRow = toRow;
+		}
+
+		@Override
+		protected Counts compute() {
+			if (toRow - fromRow > ROWS_PER_TASK) {
+				int middleRow = (fromRow + toRow) >>> 1;
+				CountTask firstHalf = new CountTask(columns, fromRow, middleRow);
+				firstHalf.fork();
+				Counts secondHalf = new CountTask(columns, middleRow, toRow).compute();
+				return secondHalf.add(firstHalf.join());
+			}
+
+			Counts counts = new Counts();
+			FloatBuffer totals = columns[CTColumnArchive.TOTAL];
+			for (int row = fromRow; row < toRow; row++) {
+				counts.riskBands[riskBand(totals.get(row))]++;
+			}
+			for (int column = 0; column < columns.length; column++) {                       // One column at a time, so each loop reads memory in order
+				FloatBuffer scores = columns[column];
+				long[] histogram = counts.histograms[column];
+				double sum = 0;
+				float maximum = 0;
+				for (int row = fromRow; row < toRow; row++) {
+					float score = scores.get(row);
+					histogram[histogramBin(score)]++;
+					sum += score;
+					maximum = Math.max(maximum, score);
+				}
+				counts.sums[column] = sum;
+				counts.maximums[column] = maximum;
+			}
+			return counts;
+		}
+	}
+
+
+	static class RiskSummary {
+		final int patients;
+		final long[] riskBands;                                                           // Patients per risk band
+		final long[][] histograms;                                                        // [score column][histogram bin]
+		final double[] means;
+		final float[] maximums;
+		final float[][] percentiles;                                                      // [score column][PERCENTILES index]
+		final long elapsedNanos;
+
+		private RiskSummary(int patients, Counts counts, float[][] percentiles, long elapsedNanos) {
+			this(patients, counts.riskBands, counts.histograms, means(counts, patients), counts.maximums, percentiles, elapsedNanos);
+		}
+
+		// A summary received from a Heart Health server
+		RiskSummary(int patients, long[] riskBands, long[][] histograms, double[] means, float[] maximums, float[][] percentiles, long elapsedNanos) {
+			this.patients = patients;
+			this.riskBands = riskBands;
+			this.histograms = histograms;
+			this.means = means;
+			this.maximums = maximums;
+			this.percentiles = percentiles;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		private static double[] means(Counts counts, int patients) {
+			double[] means = new double[counts.sums.length];
+			for (int column = 0; column < means.length; column++) {
+				means[column] = patients == 0 ? 0 : counts.sums[column] / patients;
+			}
+			return means;
+		}
+
+		double riskBandPercent(int band) {
+			return patients == 0 ? 0 : 100.0 * riskBands[band] / patients;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder text = new StringBuilder();
+			text.append(String.format(Locale.ROOT, "CT risk summary of %d patients (%.1f ms)%n%n", patients, elapsedNanos / 1e6));
+
+			text.append("Risk band (total Agatston CAC score)\n");
+			for (int band = 0; band < riskBands.length; band++) {
+				text.append(String.format(Locale.ROOT, "  %-20s %10d  %5.1f%%%n", RISK_BANDS[band], riskBands[band], riskBandPercent(band)));
+			}
+
+			text.append(String.format(Locale.ROOT, "%n%-6s %9s %9s", "Score", "Mean", "Max"));
+			for (double percentile : PERCENTILES) {
+				text.append(String.format(Locale.ROOT, " %8s", "P" + (int) percentile));
+			}
+			for (String bin : HISTOGRAM_BINS) {
+				text.append(String.format(Locale.ROOT, " %11s", bin));
+			}
+			text.append('\n');
+			for (int column = 0; column < means.length; column++) {
+				text.append(String.format(Locale.ROOT, "%-6s %9.1f %9s", CTColumnArchive.COLUMN_NAMES[column], means[column],
+						CTScoreRecord.formatScore(maximums[column])));
+				for (float value : percentiles[column]) {
+					text.append(String.format(Locale.ROOT, " %8s", CTScoreRecord.formatScore(value)));
+				}
+				for (long count : histograms[column]) {
+					text.append(String.format(Locale.ROOT, " %11d", count));
+				}
+				text.append('\n');
+			}
+			return text.toString();
+		}
+	}
+}
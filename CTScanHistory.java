@@ -0,0 +1,517 @@
+// Title: CT Scan History
+// Desc: Every CT scan report a patient has ever had, instead of only the last one. Each report is appended to
+//       CTResults.history as a new version with the time it was saved; nothing is ever overwritten. A version is stored
+//       as the difference from the patient's previous version: the time since it, and each score's change in
+//       hundredths as a variable-length number, so a follow-up scan takes about 20 bytes instead of 40. The offsets of
+//       each patient's versions and their latest scores are kept in memory, so the latest report is a map lookup and a
+//       patient's trend reads only that patient's entries, never the whole history. Like ExamBookings.log, every append
+//       locks the file and first catches up with what the other stations appended.
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import java.io.IOException;                    // Exception class that is thrown when an I/O operation encounters an error or fails
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;             // Keeps two stations from appending at the same offset
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+class CTScanHistory implements AutoCloseable {
+
+	static final String HISTORY_FILE_NAME = "CTResults.history";                          // Append-only list of every CT scan report version
+
+	private static final int SCORES = CTColumnArchive.SCORE_COLUMNS;                      // Total, LM, LAD, LCX, RCA and PDA, in archive column order
+	private static final int MAX_ENTRY_SIZE = 1 + 10 + 10 + 1 + SCORES * 10;             // Length byte, then the longest possible payload
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	// Entry: byte payload length, then the payload:
+	//   varint patient ID
+	//   varint zig-zag milliseconds since the patient's previous version (since 1970 for the first one)
+	//   byte   bit i set if score i is stored as a change in hundredths, clear if it is stored as the raw float
+	//   per score: varint zig-zag change in hundredths, or 4 bytes of float
+	// The first version of a patient is stored as the difference from all scores being 0
+
+	private final FileChannel historyChannel;                                             // Channel on CTResults.history
+	private final Map<Long, PatientHistory> historyOfPatient = new HashMap<>();
+	private long historyRead;                                                             // Bytes of CTResults.history already applied
+	private long versions;                                                                // Versions of every patient together
+	private final ReentrantLock historyLock = new ReentrantLock();                        // Guards the versions in memory; not a monitor, appends block on the file
+
+
+	private CTScanHistory(FileChannel historyChannel) {
+		this.historyChannel = historyChannel;
+	}
+
+
+	// Open (or create) the history in the given directory. A new history starts with the latest report of every patient
+	// in the CT column archive, dated when its CTResults.txt file was last changed
+	@SuppressWarnings("try")
+	static CTScanHistory open(Path directory, CTColumnArchive ctArchive) throws IOException {
+		Path historyFile = directory.resolve(HISTORY_FILE_NAME);
+		boolean newFile = !Files.exists(historyFile);
+		FileChannel historyChannel = FileChannel.open(historyFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		CTScanHistory history = new CTScanHistory(historyChannel);
+		try (FileLock lock = historyChannel.lock()) {
+			history.readHistory();
+			if (newFile && history.historyRead == 0) {
+				history.importArchive(directory, ctArchive);
+			}
+		} catch (IOException | RuntimeException event) {
+			historyChannel.close();
+			throw event;
+		}
+		return history;
+	}
+
+
+	// Append a version saved at the given time, returns false if the patient already has a version at that time or later,
+	// which is how a replay of the write-ahead log leaves the history as it was
+	@SuppressWarnings("try")
+	boolean append(CTScoreRecord scores, long time) throws IOException {
+		historyLock.lock();
+		try (FileLock lock = historyChannel.lock()) {
+			readHistory();                                                                 // Pick up the versions other stations appended since the last call
+			PatientHistory history = historyOfPatient.get(scores.getPatientID());
+			if (history != null && history.latestTime >= time) {
+				return false;
+			}
+			write(scores, time);
+			return true;
+		} finally {
+			historyLock.unlock();
+		}
+	}
+
+	// Append a report found in a CTResults.txt file changed at the given time, for stations that do not keep a history
+	// yet. A station that does appends each version before it writes the file, so the file is skipped if it has the
+	// latest scores or a version was saved after the file changed
+	@SuppressWarnings("try")
+	boolean appendIfChanged(CTScoreRecord scores, long changedAt) throws IOException {
+		historyLock.lock();
+		try (FileLock lock = historyChannel.lock()) {
+			readHistory();
+			PatientHistory history = historyOfPatient.get(scores.getPatientID());
+			if (history != null && (history.latestTime >= changedAt || Arrays.equals(history.latestScores, scoresOf(scores)))) {
+				return false;
+			}
+			write(scores, history == null ? changedAt : Math.max(changedAt, history.latestTime + 1));
+			return true;
+		} finally {
+			historyLock.unlock();
+		}
+	}
+
+	// Append a version saved live at the given time, or just after the patient's latest version if one was appended
+	// since the time was picked (a CTResults.txt file of a station without a history); returns the time it was saved at
+	long appendSaved(CTScoreRecord scores, long time) throws IOException {
+		historyLock.lock();
+		try {
+			long[] times = { time };
+			appendSaved(List.of(scores), times);
+			return times[0];
+		} finally {
+			historyLock.unlock();
+		}
+	}
+
+	// Same for many versions, in list order and in one write; a time moved past a version appended since it was
+	// picked is changed in times
+	@SuppressWarnings("try")
+	void appendSaved(List<CTScoreRecord> batch, long[] times) throws IOException {
+		historyLock.lock();
+		try (FileLock lock = historyChannel.lock()) {
+			readHistory();
+			ByteBuffer entries = ByteBuffer.allocate(Math.min(READ_BUFFER_SIZE, batch.size() * MAX_ENTRY_SIZE));
+			for (int i = 0; i < batch.size(); i++) {
+				CTScoreRecord scores = batch.get(i);
+				PatientHistory history = historyOfPatient.get(scores.getPatientID());
+				times[i] = history == null ? times[i] : Math.max(times[i], history.latestTime + 1);
+				if (entries.remaining() < MAX_ENTRY_SIZE) {
+					PatientStore.writeFully(historyChannel, entries.flip(), historyRead);
+					historyRead += entries.limit();
+					entries.clear();
+				}
+				int start = entries.position();
+				entries.put((byte) 0);
+				encode(entries, scores.getPatientID(), times[i], scoresOf(scores), history);
+				entries.put(start, (byte) (entries.position() - start - 1));
+				apply(scores.getPatientID(), historyRead + start, times[i], scoresOf(scores));
+			}
+			PatientStore.writeFully(historyChannel, entries.flip(), historyRead);
+			historyRead += entries.limit();
+		} finally {
+			historyLock.unlock();
+		}
+	}
+
+	// Time to save the patient's next version at, after catching up with the other stations: now, unless the clock is
+	// behind the patient's latest version
+	@SuppressWarnings("try")
+	long nextVersionTime(long patientID) throws IOException {
+		historyLock.lock();
+		try {
+			try (FileLock lock = historyChannel.lock()) {
+				readHistory();
+			}
+			return nextVersionTime(historyOfPatient.get(patientID));
+		} finally {
+			historyLock.unlock();
+		}
+	}
+
+	// Times to save a batch of versions at, in list order: a patient who is in the batch twice gets a later time for the
+	// second version
+	@SuppressWarnings("try")
+	long[] nextVersionTimes(List<CTScoreRecord> batch) throws IOException {
+		historyLock.lock();
+		try {
+			try (FileLock lock = historyChannel.lock()) {
+				readHistory();
+			}
+			long[] times = new long[batch.size()];
+			Map<Long, Long> batchTimes = new HashMap<>();
+			for (int i = 0; i < times.length; i++) {
+				long patientID = batch.get(i).getPatientID();
+				Long earlier = batchTimes.get(patientID);
+				times[i] = earlier == null ? nextVersionTime(historyOfPatient.get(patientID)) : Math.max(System.currentTimeMillis(), earlier + 1);
+				batchTimes.put(patientID, times[i]);
+			}
+			return times;
+		} finally {
+			historyLock.unlock();
+		}
+	}
+
+	// True if the scores are the patient's latest version as this station last saw it, without reading the file
+	boolean isLatest(CTScoreRecord scores) {
+		historyLock.lock();
+		try {
+			PatientHistory history = historyOfPatient.get(scores.getPatientID());
+			return history != null && Arrays.equals(history.latestScores, scoresOf(scores));
+		} finally {
+			historyLock.unlock();
+		}
+	}
+
+	// The patient's latest version as this station last saw it, or null if the patient has no report
+	Version latest(long patientID) {
+		historyLock.lock();
+		try {
+			PatientHistory history = historyOfPatient.get(patientID);
+			if (history == null) {
+				return null;
+			}
+			return new Version(Instant.ofEpochMilli(history.latestTime), recordOf(patientID, history.latestScores));
+		} finally {
+			historyLock.unlock();
+		}
+	}
+
+	// Patients whose latest version was saved at or after from and before to, in patient ID order
+	long[] patientsScannedBetween(long from, long to) {
+		historyLock.lock();
+		try {
+			return historyOfPatient.entrySet().stream()
+					.filter(patient -> patient.getValue().latestTime >= from && patient.getValue().latestTime < to)
+					.mapToLong(Map.Entry::getKey).sorted().toArray();
+		} finally {
+			historyLock.unlock();
+		}
+	}
+
+	int versionCount(long patientID) {
+		historyLock.lock();
+		try {
+			PatientHistory history = historyOfPatient.get(patientID);
+			return history == null ? 0 : history.versions;
+		} finally {
+			historyLock.unlock();
+		}
+	}
+
+	// Versions of every patient together
+	long versionCount() {
+		historyLock.lock();
+		try {
+			return versions;
+		} finally {
+			historyLock.unlock();
+		}
+	}
+
+	// Every version of the patient, oldest first; reads only the patient's own entries
+	List<Version> trend(long patientID) throws IOException {
+		long[] offsets;
+		historyLock.lock();
+		try {
+			PatientHistory history = historyOfPatient.get(patientID);
+			if (history == null) {
+				return List.of();
+			}
+			offsets = Arrays.copyOf(history.offsets, history.versions);
+		} finally {
+			historyLock.unlock();
+		}
+
+		// Entries are never changed once written, so they are read without the lock
+		List<Version> trend = new ArrayList<>(offsets.length);
+		ByteBuffer entry = ByteBuffer.allocate(MAX_ENTRY_SIZE);
+		long time = 0;
+		float[] scores = new float[SCORES];
+		for (long offset : offsets) {
+			entry.clear().limit((int) Math.min(MAX_ENTRY_SIZE, historyChannel.size() - offset));
+			PatientStore.readFully(historyChannel, entry, offset);
+			entry.flip();
+			int payloadLength = entry.get();
+			entry.limit(1 + payloadLength);
+			readVarLong(entry);                                                            // Patient ID, known already
+			time = decode(entry, time, scores);
+			trend.add(new Version(Instant.ofEpochMilli(time), recordOf(patientID, scores)));
+		}
+		return trend;
+	}
+
+
+	void force() throws IOException {
+		historyLock.lock();
+		try {
+			historyChannel.force(false);
+		} finally {
+			historyLock.unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		historyLock.lock();
+		try {
+			historyChannel.close();
+		} finally {
+			historyLock.unlock();
+		}
+	}
+
+
+	private static long nextVersionTime(PatientHistory history) {
+		long now = System.currentTimeMillis();
+		return history == null ? now : Math.max(now, history.latestTime + 1);
+	}
+
+	// Encode the version against the patient's latest one, append it and apply it; called with the file locked
+	private void write(CTScoreRecord record, long time) throws IOException {
+		ByteBuffer entry = ByteBuffer.allocate(MAX_ENTRY_SIZE);
+		entry.put((byte) 0);                                                               // Placeholder for the payload length
+		encode(entry, record.getPatientID(), time, scoresOf(record), historyOfPatient.get(record.getPatientID()));
+		entry.put(0, (byte) (entry.position() - 1)).flip();
+
+		long offset = historyRead;
+		PatientStore.writeFully(historyChannel, entry, offset);
+		historyRead += entry.limit();
+		apply(record.getPatientID(), offset, time, scoresOf(record));
+	}
+
+	private static void encode(ByteBuffer entry, long patientID, long time, float[] scores, PatientHistory previous) {
+		long previousTime = previous == null ? 0 : previous.latestTime;
+		writeVarLong(entry, patientID);
+		writeVarLong(entry, zigZag(time - previousTime));
+
+		int maskPosition = entry.position();
+		entry.put((byte) 0);
+		int mask = 0;
+		for (int score = 0; score < SCORES; score++) {
+			float previousScore = previous == null ? 0 : previous.latestScores[score];
+			long hundredths = Math.round(scores[score] * 100.0);
+			if ((float) (hundredths / 100.0) == scores[score]) {
+				mask |= 1 << score;                                                        // Typed scores such as 120 or 12.5 are whole hundredths
+				writeVarLong(entry, zigZag(hundredths - Math.round(previousScore * 100.0)));
+			} else {
+				entry.putFloat(scores[score]);
+			}
+		}
+		entry.put(maskPosition, (byte) mask);
+	}
+
+	// Decode one payload after its patient ID into scores, which hold the previous version's; returns the version's time
+	private static long decode(ByteBuffer payload, long previousTime, float[] scores) {
+		long time = previousTime + unZigZag(readVarLong(payload));
+		int mask = payload.get();
+		for (int score = 0; score < SCORES; score++) {
+			if ((mask & (1 << score)) != 0) {
+				scores[score] = (float) ((Math.round(scores[score] * 100.0) + unZigZag(readVarLong(payload))) / 100.0);
+			} else {
+				scores[score] = payload.getFloat();
+			}
+		}
+		return time;
+	}
+
+	private void apply(long patientID, long offset, long time, float[] scores) {
+		PatientHistory history = historyOfPatient.computeIfAbsent(patientID, id -> new PatientHistory());
+		if (history.versions == history.offsets.length) {
+			history.offsets = Arrays.copyOf(history.offsets, history.versions * 2);
+		}
+		history.offsets[history.versions++] = offset;
+		history.latestTime = time;
+		System.arraycopy(scores, 0, history.latestScores, 0, SCORES);
+		versions++;
+	}
+
+
+	// Apply every version appended to CTResults.history since the last read; called with the file locked, so an entry
+	// cut short at the end was left by a crash and is cut off
+	private void readHistory() throws IOException {
+		long end = historyChannel.size();
+		ByteBuffer entries = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		float[] scores = new float[SCORES];
+		long bufferStart = historyRead;                                                    // File offset of the first byte in the buffer
+		long readTo = historyRead;
+		while (readTo < end || entries.position() > 0) {
+			int read = 0;
+			if (readTo < end) {
+				entries.limit((int) Math.min(entries.capacity(), entries.position() + end - readTo));
+				read = entries.remaining();
+				PatientStore.readFully(historyChannel, entries, readTo);
+				readTo += read;
+			}
+			entries.flip();
+
+			while (entries.remaining() >= 1) {
+				int start = entries.position();
+				int payloadLength = entries.get(start);
+				if (payloadLength <= 0 || 1 + payloadLength > MAX_ENTRY_SIZE) {
+					throw new IOException(HISTORY_FILE_NAME + " is damaged at offset " + (bufferStart + start));
+				}
+				if (entries.remaining() < 1 + payloadLength) {
+					break;
+				}
+				ByteBuffer payload = entries.duplicate().position(start + 1).limit(start + 1 + payloadLength);
+				long patientID = readVarLong(payload);
+				PatientHistory history = historyOfPatient.get(patientID);
+				if (history != null) {
+					System.arraycopy(history.latestScores, 0, scores, 0, SCORES);
+				} else {
+					Arrays.fill(scores, 0);
+				}
+				long time = decode(payload, history == null ? 0 : history.latestTime, scores);
+				apply(patientID, bufferStart + start, time, scores);
+				entries.position(start + 1 + payloadLength);
+				historyRead = bufferStart + entries.position();
+			}
+
+			if (read == 0 && entries.hasRemaining()) {
+				historyChannel.truncate(historyRead);                                     // Torn entry of a station that crashed while appending
+				return;
+			}
+			bufferStart += entries.position();
+			entries.compact();
+		}
+	}
+
+	// Start the history with the archive's reports, in one write
+	private void importArchive(Path directory, CTColumnArchive ctArchive) throws IOException {
+		LongBuffer patientIDs = ctArchive.patientIDs();
+		FloatBuffer[] columns = new FloatBuffer[SCORES];
+		for (int column = 0; column < SCORES; column++) {
+			columns[column] = ctArchive.column(column);
+		}
+
+		ByteBuffer entries = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		for (int row = 0; row < patientIDs.limit(); row++) {
+			long patientID = patientIDs.get(row);
+			float[] scores = new float[SCORES];
+			for (int column = 0; column < SCORES; column++) {
+				scores[column] = columns[column].get(row);
+			}
+			long time;
+			try {
+				time = Files.getLastModifiedTime(directory.resolve(patientID + RecordCatalog.CT_RESULTS_SUFFIX)).toMillis();
+			} catch (NoSuchFileException event) {
+				time = System.currentTimeMillis();
+			}
+
+			if (entries.remaining() < MAX_ENTRY_SIZE) {
+				PatientStore.writeFully(historyChannel, entries.flip(), historyRead);
+				historyRead += entries.limit();
+				entries.clear();
+			}
+			int start = entries.position();
+			entries.put((byte) 0);
+			encode(entries, patientID, time, scores, historyOfPatient.get(patientID));
+			entries.put(start, (byte) (entries.position() - start - 1));
+			apply(patientID, historyRead + start, time, scores);
+		}
+		PatientStore.writeFully(historyChannel, entries.flip(), historyRead);
+		historyRead += entries.limit();
+	}
+
+
+	private static float[] scoresOf(CTScoreRecord record) {
+		return new float[] { record.getTotalAgatstonCACScore(), record.getLM(), record.getLAD(), record.getLCX(), record.getRCA(), record.getPDA() };
+	}
+
+	private static CTScoreRecord recordOf(long patientID, float[] scores) {
+		return new CTScoreRecord(patientID, scores[0], scores[1], scores[2], scores[3], scores[4], scores[5]);
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);                                               // Small changes either way take few bytes
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static void writeVarLong(ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private static long readVarLong(ByteBuffer buffer) {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IllegalStateException(HISTORY_FILE_NAME + " has a number longer than 10 bytes");
+	}
+
+
+	// Where one patient's versions are, and the latest scores the next version is encoded against
+	private static class PatientHistory {
+		long[] offsets = new long[2];
+		int versions;
+		long latestTime;                                                                   // Milliseconds since 1970
+		final float[] latestScores = new float[SCORES];
+	}
+
+	// One CT scan report and when it was saved
+	static class Version {
+		final Instant savedAt;
+		final CTScoreRecord scores;
+
+		Version(Instant savedAt, CTScoreRecord scores) {
+			this.savedAt = savedAt;
+			this.scores = scores;
+		}
+	}
+}
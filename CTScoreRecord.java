@@ -0,0 +1,137 @@
+// Title: CT Score Record
+// Desc: Typed form of a CT scan report: the patient ID and the six Agatston CAC scores as primitives. A record can be
+//       reused for every report a job reads, and has a fixed 32 byte binary encoding for fast storage.
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import java.math.BigDecimal;                   // Writes a score without an exponent
+import java.nio.ByteBuffer;                    // Target and source of the binary encoding
+
+
+class CTScoreRecord {
+
+	static final int BINARY_SIZE = Long.BYTES + 6 * Float.BYTES;                          // Patient ID followed by the six scores
+	static final float MAX_SCORE = 100_000;                                               // Far above any Agatston score ever measured
+	static final int SCORE_DECIMALS = 4;                                                  // Decimals a typed or imported score may have
+
+	private long patientID;                                                               // Patient the report belongs to
+	private float totalAgatstonCACScore, lm, lad, lcx, rca, pda;                          // Total and vessel level Agatston CAC scores
+
+
+	public CTScoreRecord() {
+	}
+
+	public CTScoreRecord(long patientID, float totalAgatstonCACScore, float lm, float lad, float lcx, float rca, float pda) {
+		set(patientID, totalAgatstonCACScore, lm, lad, lcx, rca, pda);
+	}
+
+
+	// Fill every field at once, so one record can be reused for every report
+	void set(long patientID, float totalAgatstonCACScore, float lm, float lad, float lcx, float rca, float pda) {
+		this.patientID = patientID;
+		this.totalAgatstonCACScore = totalAgatstonCACScore;
+		this.lm = lm;
+		this.lad = lad;
+		this.lcx = lcx;
+		this.rca = rca;
+		this.pda = pda;
+	}
+
+	// Convert the text entered in the CT Scan Tech View, throws NumberFormatException for a score that is not a number
+	static CTScoreRecord from(ctScanData scanData) {
+		long patientID = PatientStore.parsePatientID(scanData.getPatientID());
+		if (patientID < 0) {
+			throw new NumberFormatException("Patient ID must be numeric: " + scanData.getPatientID());
+		}
+		return new CTScoreRecord(patientID, parseScore(scanData.getTotalAgatstionCACScore()), parseScore(scanData.getLM()),
+				parseScore(scanData.getLAD()), parseScore(scanData.getLCX()), parseScore(scanData.getRCA()), parseScore(scanData.getPDA()));
+	}
+
+	// Convert back to the text form used by the CT scan results file
+	ctScanData toCTScanData() {
+		return new ctScanData(String.valueOf(patientID), formatScore(totalAgatstonCACScore), formatScore(lm), formatScore(lad),
+				formatScore(lcx), formatScore(rca), formatScore(pda));
+	}
+
+
+	public long getPatientID() {                                                          // getter method that returns the patient's ID
+		return patientID;
+	}
+	public float getTotalAgatstonCACScore() {                                             // getter method that returns the total Agatston CAC score
+		return totalAgatstonCACScore;
+	}
+	public float getLM() {                                                                // getter method that returns the LM score
+		return lm;
+	}
+	public float getLAD() {                                                               // getter method that returns the LAD score
+		return lad;
+	}
+	public float getLCX() {                                                               // getter method that returns the LCX score
+		return lcx;
+	}
+	public float getRCA() {                                                               // getter method that returns the RCA score
+		return rca;
+	}
+	public float getPDA() {                                                               // getter method that returns the PDA score
+		return pda;
+	}
+
+
+	// True if every score equals the other report's, the patient ID is not compared
+	boolean sameScores(CTScoreRecord other) {
+		return totalAgatstonCACScore == other.totalAgatstonCACScore && lm == other.lm && lad == other.lad
+				&& lcx == other.lcx && rca == other.rca && pda == other.pda;
+	}
+
+
+	// Binary encoding: long patient ID, then total, LM, LAD, LCX, RCA and PDA as floats
+	void writeTo(ByteBuffer buffer) {
+		buffer.putLong(patientID)
+				.putFloat(totalAgatstonCACScore).putFloat(lm).putFloat(lad)
+				.putFloat(lcx).putFloat(rca).putFloat(pda);
+	}
+
+	void readFrom(ByteBuffer buffer) {
+		set(buffer.getLong(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat(),
+				buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+	}
+
+
+	// A score as the technician types it or a scanner exports it: digits with at most SCORE_DECIMALS decimals, up to
+	// MAX_SCORE. Exponents, signs and more decimals are refused, so every score saved can be read back by CTResultsParser
+	static float parseScore(String score) {
+		String text = score.trim();
+		int point = text.indexOf('.');
+		int digits = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c >= '0' && c <= '9') {
+				digits++;
+			} else if (i != point) {
+				throw new NumberFormatException("Agatston CAC score must be a number of 0 or more: " + score);
+			}
+		}
+		if (digits == 0 || (point >= 0 && text.length() - point - 1 > SCORE_DECIMALS)) {
+			throw new NumberFormatException("Agatston CAC score must be a number with at most " + SCORE_DECIMALS + " decimals: " + score);
+		}
+		float value = Float.parseFloat(text);
+		if (value > MAX_SCORE) {
+			throw new NumberFormatException("Agatston CAC score must be " + formatScore(MAX_SCORE) + " or less: " + score);
+		}
+		return value;
+	}
+
+	// Whole scores are shown without decimals, the way the technician typed them, and no score is written with an
+	// exponent, which CTResultsParser does not read
+	static String formatScore(float score) {
+		if (score == (long) score) {
+			return String.valueOf((long) score);
+		}
+		if (Float.isNaN(score) || Float.isInfinite(score)) {
+			return String.valueOf(score);                                                  // Never read back, only shown
+		}
+		return new BigDecimal(Float.toString(score)).stripTrailingZeros().toPlainString();
+	}
+}
@@ -0,0 +1,168 @@
+//Title: Joe's Deli Billing Benchmark
+//Desc: JMH benchmarks of the register's old bill (double prices, 7% tax with preTaxTotalCost * 0.07, a StringBuilder
+//      and three String.format calls) against BillingEngine, on the same random orders from the default menu, one bill
+//      per call. Run with JMH's gc profiler (main adds it) for the bytes allocated per bill. main first prices every
+//      possible order both ways and lists any order whose subtotal, tax or total differ, so a change of rounding shows up.
+//      Usage: java application.DeliBillingBenchmark [results file]
+//      or any JMH options: java -jar benchmarks/target/benchmarks.jar DeliBillingBenchmark -prof gc -rf json
+//Author: JIAYUAN YU
+//Date: 05/18/2023
+
+package application;
+
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeliBillingBenchmark {
+
+  private static final int ORDERS = 4096;                      // Random orders the bills cycle through
+
+  // The old register's menu, in catalog order of MenuCatalog.DEFAULT_MENU
+  private static final String[] OLD_LINES = { "Egg Sandwich: $7.99 each\n", "Chicken Sandwich: $9.99 each\n", "Bagel: $2.50 each\n",
+      "Potato Salad: $4.49 each \n", "Black Tea: $1.25 each\n", "Green Tea: $0.99 each\n", "Coffee: $1.99 each\n", "Orange Juice: $2.25 each\n" };
+  private static final double[] OLD_PRICES = { 7.99, 9.99, 2.50, 4.49, 1.25, 0.99, 1.99, 2.25 };
+
+  private final MenuCatalog menu = MenuCatalog.parse(MenuCatalog.DEFAULT_MENU.lines().toList(), 0);
+  private final boolean[][] selectedItems = new boolean[ORDERS][];   // The orders as the old register saw them, one flag per check box and radio button
+  private final int[][] itemIDs = new int[ORDERS][];                 // The same orders as item IDs
+  private final DeliOrder order = new DeliOrder(menu);                // Rung up again for every bill
+  private final BillingEngine billingEngine = new BillingEngine(BillingEngine.DEFAULT_TAX_BASIS_POINTS, RoundingMode.HALF_UP);
+  private int next;                                                  // Order the next bill is for
+
+
+  public static void main(String[] args) throws Exception {
+    new DeliBillingBenchmark().compareAmounts();
+    new Runner(new OptionsBuilder()
+        .include(DeliBillingBenchmark.class.getSimpleName())
+        .addProfiler(GCProfiler.class)
+        .resultFormat(ResultFormatType.JSON)
+        .result(args.length > 0 ? args[0] : "deli-billing-results.json")
+        .build()).run();
+  }
+
+
+  // Random orders as a customer would place them: any of the eat items, at most one drink
+  public DeliBillingBenchmark() {
+    SplittableRandom random = new SplittableRandom(42);
+    for (int order = 0; order < ORDERS; order++) {
+      boolean[] selected = new boolean[OLD_PRICES.length];
+      for (int item = 0; item < 4; item++) {
+        selected[item] = random.nextInt(3) == 0;
+      }
+      int drink = random.nextInt(5);                           // 4 means no drink
+      if (drink < 4) {
+        selected[4 + drink] = true;
+      }
+      selectedItems[order] = selected;
+      itemIDs[order] = itemIDsOf(selected);
+    }
+  }
+
+  @Benchmark
+  public String oldBill() {
+    return oldBill(selectedItems[next++ & (ORDERS - 1)]);
+  }
+
+  @Benchmark
+  public CharSequence billingEngine() {
+    return billingEngine.bill(ringUp(itemIDs[next++ & (ORDERS - 1)]));
+  }
+
+  @Benchmark
+  public String billingEngineToString() {                      // Plus the one String the TextArea needs
+    return billingEngine.bill(ringUp(itemIDs[next++ & (ORDERS - 1)])).toString();
+  }
+
+
+  private int[] itemIDsOf(boolean[] selected) {
+    int count = 0;
+    int[] ids = new int[selected.length];
+    for (int item = 0; item < selected.length; item++) {
+      if (selected[item]) {
+        ids[count++] = menu.item(item).id;
+      }
+    }
+    return Arrays.copyOf(ids, count);
+  }
+
+  // The order as the register builds it while the cashier clicks, one unit of each item
+  private DeliOrder ringUp(int[] orderItemIDs) {
+    order.clear();
+    for (int itemID : orderItemIDs) {
+      order.add(itemID, 1);
+    }
+    return order;
+  }
+
+
+  // Every combination the old register allowed, priced both ways; prints those where the old amounts are not the engine's
+  private void compareAmounts() {
+    int orders = 0, different = 0;
+    for (int eat = 0; eat < 16; eat++) {
+      for (int drink = -1; drink < 4; drink++) {
+        boolean[] selected = new boolean[OLD_PRICES.length];
+        for (int item = 0; item < 4; item++) {
+          selected[item] = (eat & (1 << item)) != 0;
+        }
+        if (drink >= 0) {
+          selected[4 + drink] = true;
+        }
+        int[] orderItemIDs = itemIDsOf(selected);
+        String engineBill = billingEngine.bill(ringUp(orderItemIDs)).toString();
+        String oldBill = oldBill(selected);
+        String oldAmounts = oldBill.substring(oldBill.indexOf("Subtotal Cost: ")).strip().replace('\n', ' ');
+        String engineAmounts = engineBill.substring(engineBill.indexOf("Subtotal Cost: ")).strip().replace('\n', ' ');
+        orders++;
+        if (!oldAmounts.equals(engineAmounts)) {
+          different++;
+          System.out.println("Order " + Arrays.toString(orderItemIDs) + ": old bill " + oldAmounts + ", billing engine " + engineAmounts);
+        }
+      }
+    }
+    System.out.println(different + " of " + orders + " possible orders have a different subtotal, tax or total on the old bill");
+  }
+
+
+  // The bill exactly as the old placeCustomerOrder made it
+  static String oldBill(boolean[] selected) {
+    double preTaxTotalCost = 0.0;
+    StringBuilder textInfoAppend = new StringBuilder();
+    textInfoAppend.append("------Item Info------\n");
+    for (int item = 0; item < selected.length; item++) {
+      if (selected[item]) {
+        preTaxTotalCost += OLD_PRICES[item];
+        textInfoAppend.append(OLD_LINES[item]);
+      }
+    }
+    double taxCost = (preTaxTotalCost * 0.07);
+    double totalCost = (preTaxTotalCost + taxCost);
+    textInfoAppend.append("------Bill Info------\n");
+    textInfoAppend.append("Subtotal Cost: ").append(String.format("%.2f\n", preTaxTotalCost));
+    textInfoAppend.append("Tax(7%): ").append(String.format("%.2f\n", taxCost));
+    textInfoAppend.append("Total Cost: ").append(String.format("%.2f\n", totalCost));
+    return textInfoAppend.toString();
+  }
+}
@@ -0,0 +1,509 @@
+//Title: Joe's Deli Lunch Rush Simulator
+//Desc: Many registers serving a lunch rush, without a cashier: customers arrive at each register at random (a Poisson
+//      process at the given rate), and the register rings their order up one spinner click at a time, prices it for
+//      the running total after every click, places it (the bill) and then confirms or cancels it. Confirmed orders go
+//      through a kitchen queue drained by a kitchen display and into an order journal, as at the counter. Orders are
+//      a mix of the menu's eat and drink items, a few with modifiers, now and then a catering order of dozens of units.
+//      Reports customers and orders per second and the p50, p99 and p99.9 latency of pricing, placing and
+//      confirming, and of confirm to kitchen display. A confirm finding the kitchen queue full is retried like a
+//      cashier would, and a customer's wait counts from arrival, so a register falling behind shows in the numbers.
+//      Results are also written as JSON in the layout JMH uses.
+//      By default the registers make the same DeliOrder, BillingEngine and DeliOrderService calls as hw1, with no
+//      window. With -Dbenchmark.window=true the rush is served by hw1 itself on Monocle's headless screen
+//      (-Dglass.platform=Monocle -Dmonocle.platform=Headless, set unless given): its spinners are set and its Order,
+//      Cancel and Confirm buttons fired on the JavaFX thread, and the dialog a confirm shows is closed, so the
+//      latencies include hw1's handlers, the spinner listeners and the wait for the JavaFX thread, which the kitchen
+//      window shares. One window, so one register, at 50 customers/s by default. Neither mode needs a display.
+//      Usage: java application.DeliLunchRushSimulator [results file]
+//      -Dbenchmark.registers=<n> (default 6) -Dbenchmark.customersPerSecond=<n> (all registers together, default 300)
+//      -Dbenchmark.seconds=<n> (default 30) -Dbenchmark.cancelPercent=<n> (default 10) -Dbenchmark.journalDir=<dir>
+//      (default a temporary directory, deleted after) -DjoesDeli.menuFile=<path> (default the built-in menu)
+//      -DjoesDeli.kitchenQueueSize=<n> -Dbenchmark.window=true
+//Author: JIAYUAN YU
+//Date: 05/18/2023
+
+package application;
+
+import java.io.IOException;                     // Thrown when the menu or the journal cannot be read or written
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+import javafx.application.Application;          // Starts hw1 in the window mode
+import javafx.application.Platform;             // Runs the cashier's clicks on the JavaFX thread
+import javafx.scene.Node;
+import javafx.scene.Parent;
+import javafx.scene.control.Button;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.DialogPane;
+import javafx.scene.control.Spinner;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+
+
+class DeliLunchRushSimulator {
+
+  private static final boolean WINDOW = Boolean.getBoolean("benchmark.window");                // hw1 on Monocle instead of the service calls
+  private static final int REGISTERS = WINDOW ? 1 : Integer.getInteger("benchmark.registers", 6);
+  private static final int CUSTOMERS_PER_SECOND = Integer.getInteger("benchmark.customersPerSecond", WINDOW ? 50 : 300);
+  private static final int SECONDS = Integer.getInteger("benchmark.seconds", 30);
+  private static final int CANCEL_PERCENT = Integer.getInteger("benchmark.cancelPercent", 10);
+  private static final long CONFIRM_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(5);   // A cashier tries again after a moment
+  private static final long WINDOW_OPEN_NANOS = TimeUnit.SECONDS.toNanos(30);          // Time hw1 has to show its window
+
+  // Every latency is also a metric, so a run can be watched in JConsole
+  private static final Metrics.Latency PRICE = Metrics.latency("lunchRush.price");        // One quantity change and the running total
+  private static final Metrics.Latency PLACE = Metrics.latency("lunchRush.place");        // The bill of the whole order
+  private static final Metrics.Latency CONFIRM = Metrics.latency("lunchRush.confirm");    // Kitchen queue and journal, with retries
+  private static final Metrics.Latency CUSTOMER = Metrics.latency("lunchRush.customer");  // Arrival to confirmed or cancelled, with the wait in line
+
+  private final MenuCatalog menu;
+  private final int[] eatItems, drinkItems;                    // Item IDs by category, the most popular first
+  private final IntFunction<Register> openRegister;            // Register by number, from 1
+  private final LongAdder confirmed = new LongAdder();
+  private final LongAdder cancelled = new LongAdder();
+  private final LongAdder kitchenFull = new LongAdder();       // Confirms that found the kitchen queue full and were retried
+  private final LongAdder units = new LongAdder();
+  private volatile boolean rushOn = true;
+
+
+  // What a cashier does at a register; the order is the customer's, as the cashier rang it up so far
+  private interface Register {
+    void price(DeliOrder order, int itemID, int quantity);     // A spinner click, and the running total
+    void place(DeliOrder order);                               // Order: the bill
+    boolean confirm(DeliOrder order);                          // Confirm: false if the kitchen queue is full, the order stays
+    void cancel(DeliOrder order);                              // Cancel: the order is cleared
+  }
+
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Path resultsFile = Paths.get(args.length > 0 ? args[0] : "deli-lunch-rush-results.json");
+    String menuFile = System.getProperty("joesDeli.menuFile");
+    MenuCatalog menu = menuFile != null ? MenuCatalog.load(Paths.get(menuFile)) : MenuCatalog.parse(MenuCatalog.DEFAULT_MENU.lines().toList(), 0);
+    String journalDirectory = System.getProperty("benchmark.journalDir");
+    Path journalPath = journalDirectory != null ? Paths.get(journalDirectory) : Files.createTempDirectory("lunch-rush");
+
+    List<String> report;
+    try {
+      report = WINDOW ? serveOnWindow(menu, menuFile, journalPath) : serveWithoutWindow(menu, journalPath);
+    } finally {
+      if (journalDirectory == null) {
+        for (Path file : OrderJournal.files(journalPath)) {
+          Files.deleteIfExists(file);
+        }
+        Files.deleteIfExists(journalPath);
+      }
+    }
+    report.forEach(System.out::println);
+
+    Files.write(resultsFile, toJson().getBytes(StandardCharsets.UTF_8));
+    System.out.println("Results written to " + resultsFile.toAbsolutePath());
+  }
+
+  // The registers' calls to DeliOrderService, each register on its own thread
+  private static List<String> serveWithoutWindow(MenuCatalog menu, Path journalPath) throws IOException, InterruptedException {
+    KitchenQueue kitchenQueue = new KitchenQueue(Integer.getInteger("joesDeli.kitchenQueueSize", KitchenQueue.DEFAULT_CAPACITY));
+    KitchenDisplay kitchenDisplay = new KitchenDisplay(kitchenQueue, (batch, shown) -> shown.run());
+    try (OrderJournal orderJournal = OrderJournal.open(journalPath)) {
+      DeliOrderService orderService = new DeliOrderService(menu, new BillingEngine(), kitchenQueue, orderJournal);
+      return new DeliLunchRushSimulator(menu, number -> new ServiceRegister("Register " + number, orderService)).run();
+    } finally {
+      kitchenDisplay.close();
+    }
+  }
+
+  // hw1 with its own kitchen queue, kitchen window and order journal, in the journal directory
+  private static List<String> serveOnWindow(MenuCatalog menu, String menuFile, Path journalPath) throws IOException, InterruptedException {
+    setIfAbsent("glass.platform", "Monocle");
+    setIfAbsent("monocle.platform", "Headless");
+    setIfAbsent("prism.order", "sw");                          // No GPU on a headless screen
+    Path windowMenuFile = menuFile != null ? null : Files.createTempFile("lunch-rush-menu", ".txt");
+    if (windowMenuFile != null) {
+      Files.writeString(windowMenuFile, MenuCatalog.DEFAULT_MENU, StandardCharsets.UTF_8);
+      System.setProperty("joesDeli.menuFile", windowMenuFile.toString());
+    }
+    System.setProperty("joesDeli.journalDir", journalPath.toString());
+
+    Thread javaFX = new Thread(() -> Application.launch(hw1.class), "register-window");
+    javaFX.start();
+    try {
+      WindowRegister register = WindowRegister.open(menu);
+      return new DeliLunchRushSimulator(menu, number -> register).run();
+    } finally {
+      Platform.exit();                                         // hw1.stop() closes its journal and kitchen display
+      javaFX.join();
+      if (windowMenuFile != null) {
+        Files.deleteIfExists(windowMenuFile);
+      }
+    }
+  }
+
+  private static void setIfAbsent(String property, String value) {
+    if (System.getProperty(property) == null) {
+      System.setProperty(property, value);
+    }
+  }
+
+
+  DeliLunchRushSimulator(MenuCatalog menu, IntFunction<Register> openRegister) {
+    this.menu = menu;
+    this.openRegister = openRegister;
+    this.eatItems = menu.itemsIn(MenuCatalog.EAT).stream().mapToInt(item -> item.id).toArray();
+    this.drinkItems = menu.itemsIn(MenuCatalog.DRINK).stream().mapToInt(item -> item.id).toArray();
+    if (eatItems.length == 0 && drinkItems.length == 0) {
+      throw new IllegalArgumentException("The menu has no items to order");
+    }
+  }
+
+
+  // Open the registers for the rush, then wait for the last customers in line; returns the report lines
+  private List<String> run() throws InterruptedException {
+    for (Metrics.Latency latency : new Metrics.Latency[] { PRICE, PLACE, CONFIRM, CUSTOMER, KitchenDisplay.CONFIRM_TO_DISPLAY }) {
+      latency.reset();
+    }
+    Thread[] registers = new Thread[REGISTERS];
+    for (int register = 0; register < REGISTERS; register++) {
+      int number = register + 1;
+      Register cashRegister = openRegister.apply(number);
+      registers[register] = new Thread(() -> serveCustomers(number, cashRegister), "register-" + number);
+    }
+    long start = System.nanoTime();
+    for (Thread register : registers) {
+      register.start();
+    }
+    Thread.sleep(TimeUnit.SECONDS.toMillis(SECONDS));
+    rushOn = false;
+    for (Thread register : registers) {
+      register.join();
+    }
+    while (KitchenDisplay.CONFIRM_TO_DISPLAY.getCount() < confirmed.sum()) {
+      Thread.sleep(10);                                        // The last tickets reaching the kitchen
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    List<String> report = new ArrayList<>();
+    long customers = confirmed.sum() + cancelled.sum();
+    report.add(String.format(Locale.ROOT, "%d registers%s, %d customers/s offered, %.1f s, %d%% cancelled, %d menu items",
+        REGISTERS, WINDOW ? " (the hw1 window on Monocle)" : "", CUSTOMERS_PER_SECOND, seconds, CANCEL_PERCENT, eatItems.length + drinkItems.length));
+    report.add(String.format(Locale.ROOT, "%d customers (%.0f/s): %d orders confirmed (%.0f/s, %d units), %d cancelled, %d confirms retried on a full kitchen queue",
+        customers, customers / seconds, confirmed.sum(), confirmed.sum() / seconds, units.sum(), cancelled.sum(), kitchenFull.sum()));
+    report.add(String.format(Locale.ROOT, "%-24s %10s %10s %10s %10s %10s", "Latency (ms)", "count", "p50", "p99", "p99.9", "max"));
+    for (Metrics.Latency latency : new Metrics.Latency[] { PRICE, PLACE, CONFIRM, KitchenDisplay.CONFIRM_TO_DISPLAY, CUSTOMER }) {
+      report.add(String.format(Locale.ROOT, "%-24s %10d %10.3f %10.3f %10.3f %10.3f", latency.name(), latency.getCount(),
+          latency.percentileNanos(0.50) / 1e6, latency.percentileNanos(0.99) / 1e6, latency.percentileNanos(0.999) / 1e6,
+          latency.getMaxMillis()));
+    }
+    report.add("Percentiles are bucket upper bounds, at most 12.5% high (see Metrics)");
+    return report;
+  }
+
+  // One register: the next customer arrives after a random gap, or is already waiting if the register is behind
+  private void serveCustomers(int number, Register register) {
+    SplittableRandom random = new SplittableRandom(number);
+    DeliOrder order = new DeliOrder(menu);
+    double meanGapNanos = 1e9 * REGISTERS / CUSTOMERS_PER_SECOND;
+    long arrival = System.nanoTime();
+    while (rushOn) {
+      arrival += (long) (-Math.log(1 - random.nextDouble()) * meanGapNanos);
+      long wait = arrival - System.nanoTime();
+      if (wait > 0) {
+        LockSupport.parkNanos(wait);
+      }
+
+      // Place: ring up every unit the customer asks for, the running total after each click
+      order.clear();
+      ringUp(order, register, random);
+      long placeStart = System.nanoTime();
+      register.place(order);
+      PLACE.recordSince(placeStart);
+
+      if (random.nextInt(100) < CANCEL_PERCENT) {
+        register.cancel(order);
+        cancelled.increment();
+      } else {
+        long confirmStart = System.nanoTime();
+        while (!register.confirm(order)) {
+          kitchenFull.increment();
+          LockSupport.parkNanos(CONFIRM_RETRY_NANOS);
+        }
+        CONFIRM.recordSince(confirmStart);
+        confirmed.increment();
+        units.add(order.units());
+      }
+      CUSTOMER.recordSince(arrival);
+    }
+  }
+
+  // A breakfast or lunch order: one or two eat items and usually a drink, sometimes a modifier, and one order in a
+  // hundred a catering order of 20 to 60 of a few items. Earlier items on the menu are picked more often
+  private void ringUp(DeliOrder order, Register register, SplittableRandom random) {
+    boolean catering = random.nextInt(100) == 0;
+    int eats = eatItems.length == 0 ? 0 : 1 + random.nextInt(catering ? 3 : 2);
+    for (int item = 0; item < eats; item++) {
+      click(order, register, popular(eatItems, random), catering ? 20 + random.nextInt(41) : 1 + (random.nextInt(4) == 0 ? 1 : 0), random);
+    }
+    if (drinkItems.length > 0 && (eats == 0 || random.nextInt(10) < 7)) {
+      click(order, register, popular(drinkItems, random), catering ? 20 + random.nextInt(41) : 1, random);
+    }
+  }
+
+  private static int popular(int[] itemIDs, SplittableRandom random) {
+    int pick = random.nextInt(itemIDs.length);
+    return itemIDs[Math.min(pick, random.nextInt(itemIDs.length))];   // The smaller of two picks favors the first items
+  }
+
+  // The cashier clicks the item's spinner up unit by unit, then maybe adds a modifier; each click is priced
+  private void click(DeliOrder order, Register register, int itemID, int quantity, SplittableRandom random) {
+    MenuCatalog.Item item = menu.itemWithID(itemID);
+    for (int unit = 0; unit < quantity && order.quantity(itemID) < item.maxQuantity; unit++) {
+      price(order, register, itemID, order.quantity(itemID) + 1);
+    }
+    int[] modifierIDs = item.modifierIDs();
+    if (modifierIDs.length > 0 && random.nextInt(10) < 3) {
+      int modifierID = modifierIDs[random.nextInt(modifierIDs.length)];
+      price(order, register, modifierID, Math.min(order.quantity(itemID), menu.itemWithID(modifierID).maxQuantity));
+    }
+  }
+
+  private static void price(DeliOrder order, Register register, int itemID, int quantity) {
+    long start = System.nanoTime();
+    register.price(order, itemID, quantity);
+    PRICE.recordSince(start);
+  }
+
+
+  // A register without a window: the calls hw1 makes, with a BillingEngine of its own as in hw1
+  private static final class ServiceRegister implements Register {
+    private final String name;
+    private final DeliOrderService orderService;
+    private final BillingEngine billingEngine = new BillingEngine();
+
+    ServiceRegister(String name, DeliOrderService orderService) {
+      this.name = name;
+      this.orderService = orderService;
+    }
+
+    @Override
+    public void price(DeliOrder order, int itemID, int quantity) {
+      order.setQuantity(itemID, quantity);
+      DeliOrderService.Quote quote = orderService.quote(order);
+      if (quote.totalCents < quote.subtotalCents) {
+        throw new IllegalStateException("Negative tax on " + quote.subtotalCents + " cents");
+      }
+    }
+
+    @Override
+    public void place(DeliOrder order) {
+      if (billingEngine.bill(order).length() == 0) {
+        throw new IllegalStateException("Empty bill");
+      }
+    }
+
+    @Override
+    public boolean confirm(DeliOrder order) {
+      return orderService.confirm(name, order, 0);
+    }
+
+    @Override
+    public void cancel(DeliOrder order) {
+      order.clear();
+    }
+  }
+
+  // hw1's register window. Every click runs on the JavaFX thread and is waited for, as a cashier waits for the window;
+  // the order here follows the spinners, so the rush knows what the window shows
+  private static final class WindowRegister implements Register {
+    private static final String REGISTER_TITLE = "Joe's Deli";
+    private static final String KITCHEN_FULL = "The kitchen has";  // Start of the warning a confirm shows when the queue is full
+
+    private final Spinner<?>[] spinners;                       // Quantity spinner of every item and modifier, by item ID
+    private final Button orderButton, cancelButton, confirmButton;
+
+    private WindowRegister(Spinner<?>[] spinners, Button orderButton, Button cancelButton, Button confirmButton) {
+      this.spinners = spinners;
+      this.orderButton = orderButton;
+      this.cancelButton = cancelButton;
+      this.confirmButton = confirmButton;
+    }
+
+    // Wait for hw1 to show its window, then find the spinners and buttons in it
+    static WindowRegister open(MenuCatalog menu) throws InterruptedException {
+      long deadline = System.nanoTime() + WINDOW_OPEN_NANOS;
+      while (true) {
+        try {
+          WindowRegister register = fromWindow(() -> find(menu));
+          if (register != null) {
+            return register;
+          }
+        } catch (IllegalStateException notStarted) {
+          // JavaFX is still starting
+        }
+        if (System.nanoTime() > deadline) {
+          throw new IllegalStateException("hw1 did not show its window, is Monocle on the class path?");
+        }
+        Thread.sleep(100);
+      }
+    }
+
+    @Override
+    public void price(DeliOrder order, int itemID, int quantity) {
+      int ordered = order.setQuantity(itemID, quantity);
+      onWindow(() -> setValue(spinners[itemID], ordered));
+    }
+
+    @Override
+    public void place(DeliOrder order) {
+      onWindow(orderButton::fire);
+    }
+
+    // The dialog the confirm shows is closed from the event loop it waits in
+    @Override
+    public boolean confirm(DeliOrder order) {
+      String message = fromWindow(() -> {
+        String[] shown = new String[1];
+        Platform.runLater(() -> shown[0] = closeDialog());
+        confirmButton.fire();
+        return shown[0];
+      });
+      if (message == null) {
+        throw new IllegalStateException("Confirm showed no dialog");
+      }
+      return !message.startsWith(KITCHEN_FULL);
+    }
+
+    @Override
+    public void cancel(DeliOrder order) {
+      order.clear();
+      onWindow(cancelButton::fire);
+    }
+
+
+    // The spinners are in menu order, as hw1 adds them: eat items then drink items, each followed by its modifiers
+    private static WindowRegister find(MenuCatalog menu) {
+      Stage stage = null;
+      for (Window window : Window.getWindows()) {
+        if (window instanceof Stage && REGISTER_TITLE.equals(((Stage) window).getTitle()) && window.isShowing()) {
+          stage = (Stage) window;
+        }
+      }
+      if (stage == null || stage.getScene() == null) {
+        return null;
+      }
+
+      List<Spinner<?>> spinnersShown = new ArrayList<>();
+      List<Button> buttons = new ArrayList<>();
+      collect(stage.getScene().getRoot(), spinnersShown, buttons);
+      Spinner<?>[] spinners = new Spinner<?>[menu.maxItemID() + 1];
+      int next = 0;
+      for (String category : new String[] { MenuCatalog.EAT, MenuCatalog.DRINK }) {
+        for (MenuCatalog.Item item : menu.itemsIn(category)) {
+          spinners[item.id] = spinnersShown.get(next++);
+          for (int modifierID : item.modifierIDs()) {
+            spinners[modifierID] = spinnersShown.get(next++);
+          }
+        }
+      }
+      if (next != spinnersShown.size()) {
+        throw new IllegalStateException("hw1 shows " + spinnersShown.size() + " spinners, the menu has " + next + " items and modifiers");
+      }
+      return new WindowRegister(spinners, button(buttons, "Order"), button(buttons, "Cancel"), button(buttons, "Confirm"));
+    }
+
+    private static void collect(Parent parent, List<Spinner<?>> spinners, List<Button> buttons) {
+      for (Node node : parent.getChildrenUnmodifiable()) {
+        if (node instanceof Spinner) {
+          spinners.add((Spinner<?>) node);
+        } else if (node instanceof Button) {
+          buttons.add((Button) node);
+        } else if (node instanceof Parent) {
+          collect((Parent) node, spinners, buttons);
+        }
+      }
+    }
+
+    private static Button button(List<Button> buttons, String text) {
+      for (Button button : buttons) {
+        if (text.equals(button.getText())) {
+          return button;
+        }
+      }
+      throw new IllegalStateException("hw1 has no " + text + " button");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void setValue(Spinner<?> spinner, int quantity) {
+      ((Spinner<Integer>) spinner).getValueFactory().setValue(quantity);   // Calls hw1's quantityChanged, as a click does
+    }
+
+    // Press OK on the dialog showing, returns its message, null if none is showing
+    private static String closeDialog() {
+      for (Window window : Window.getWindows()) {
+        if (window.isShowing() && window.getScene() != null && window.getScene().getRoot() instanceof DialogPane) {
+          DialogPane dialog = (DialogPane) window.getScene().getRoot();
+          String message = dialog.getContentText();
+          ((Button) dialog.lookupButton(ButtonType.OK)).fire();
+          return message;
+        }
+      }
+      return null;
+    }
+
+    private static void onWindow(Runnable click) {
+      fromWindow(() -> {
+        click.run();
+        return null;
+      });
+    }
+
+    // Run on the JavaFX thread and wait for it to finish
+    private static <T> T fromWindow(Supplier<T> action) {
+      CompletableFuture<T> result = new CompletableFuture<>();
+      Platform.runLater(() -> {
+        try {
+          result.complete(action.get());
+        } catch (RuntimeException | Error failed) {
+          result.completeExceptionally(failed);
+        }
+      });
+      return result.join();
+    }
+  }
+
+
+  // JSON array in the layout of JMH's -rf json output, sample mode in milliseconds
+  private static String toJson() {
+    StringBuilder json = new StringBuilder("[\n");
+    Metrics.Latency[] latencies = { PRICE, PLACE, CONFIRM, KitchenDisplay.CONFIRM_TO_DISPLAY, CUSTOMER };
+    for (int i = 0; i < latencies.length; i++) {
+      Metrics.Latency latency = latencies[i];
+      json.append(String.format(Locale.ROOT,
+          "  {\n"
+          + "    \"benchmark\" : \"application.DeliLunchRushSimulator.%s\",\n"
+          + "    \"mode\" : \"sample\",\n"
+          + "    \"threads\" : %d,\n"
+          + "    \"params\" : { \"registers\" : \"%d\", \"customersPerSecond\" : \"%d\", \"cancelPercent\" : \"%d\", \"window\" : \"%b\" },\n"
+          + "    \"primaryMetric\" : {\n"
+          + "      \"score\" : %.6f,\n"
+          + "      \"scoreUnit\" : \"ms/op\",\n"
+          + "      \"scorePercentiles\" : { \"50.0\" : %.6f, \"99.0\" : %.6f, \"99.9\" : %.6f, \"100.0\" : %.6f },\n"
+          + "      \"operations\" : %d\n"
+          + "    }\n"
+          + "  }%s\n",
+          latency.name(), REGISTERS, REGISTERS, CUSTOMERS_PER_SECOND, CANCEL_PERCENT, WINDOW, latency.getMeanMillis(),
+          latency.percentileNanos(0.50) / 1e6, latency.percentileNanos(0.99) / 1e6, latency.percentileNanos(0.999) / 1e6,
+          latency.getMaxMillis(), latency.getCount(), i < latencies.length - 1 ? "," : ""));
+    }
+    return json.append("]\n").toString();
+  }
+}
@@ -0,0 +1,171 @@
+//Title: Joe's Deli Order
+//Desc: The order on a register: a quantity for every item and modifier on the menu, kept in an int array indexed by
+//      item ID, and the line items (the items with a quantity, in the order they were rung up). The subtotal is kept
+//      up to date as quantities change, so changing a quantity costs the same for a coffee as for a catering order
+//      of hundreds of units; only writing the bill goes over the lines.
+//Author: JIAYUAN YU
+//Date: 05/18/2023
+
+package application;
+
+import java.util.Arrays;
+
+
+final class DeliOrder {
+
+  private MenuCatalog menu;
+  private int[] quantities;                                    // Units of every item and modifier, by item ID
+  private int[] lineItemIDs;                                   // Items with a quantity, in the order they were added; never modifiers
+  private int[] linePositions;                                 // Position of every item in lineItemIDs by item ID, -1 if not on the order
+  private int lineCount;
+  private long subtotalCents;                                  // Sum of quantity times price over every item and modifier
+  private int units;                                           // Units of items, modifiers are not counted
+
+
+  DeliOrder(MenuCatalog menu) {
+    setMenu(menu);
+  }
+
+
+  int quantity(int itemID) {
+    return itemID >= 0 && itemID < quantities.length ? quantities[itemID] : 0;
+  }
+
+  // Set the units of an item or modifier, returns the units the order has now. A modifier can only be added to units of
+  // its item that are on the order, so its quantity is capped by the item's; lowering an item's quantity lowers its
+  // modifiers' with it. Throws IllegalArgumentException for an ID that is not on the menu or a quantity over the limit
+  int setQuantity(int itemID, int quantity) {
+    MenuCatalog.Item item = menu.itemWithID(itemID);
+    if (item == null) {
+      throw new IllegalArgumentException("Item " + itemID + " is not on the menu");
+    }
+    if (quantity < 0 || quantity > item.maxQuantity) {
+      throw new IllegalArgumentException(item.name + " can be ordered 0 to " + item.maxQuantity + " times, not " + quantity);
+    }
+
+    if (item.isModifier()) {
+      quantity = Math.min(quantity, quantities[item.modifiesID]);
+    } else {
+      for (int modifierID : item.modifierIDs()) {
+        if (quantities[modifierID] > quantity) {
+          change(menu.itemWithID(modifierID), quantity);
+        }
+      }
+      if (quantity > 0 && linePositions[itemID] < 0) {
+        addLine(itemID);
+      } else if (quantity == 0 && linePositions[itemID] >= 0) {
+        removeLine(itemID);
+      }
+      units += quantity - quantities[itemID];
+    }
+    change(item, quantity);
+    return quantity;
+  }
+
+  // Add (or with a negative count, take away) units of an item or modifier, within its limit; returns the units now
+  int add(int itemID, int count) {
+    MenuCatalog.Item item = menu.itemWithID(itemID);
+    if (item == null) {
+      throw new IllegalArgumentException("Item " + itemID + " is not on the menu");
+    }
+    return setQuantity(itemID, Math.max(0, Math.min(item.maxQuantity, quantity(itemID) + count)));
+  }
+
+  // Empty the order, in time proportional to its lines
+  void clear() {
+    for (int line = 0; line < lineCount; line++) {
+      int itemID = lineItemIDs[line];
+      quantities[itemID] = 0;
+      linePositions[itemID] = -1;
+      for (int modifierID : menu.itemWithID(itemID).modifierIDs()) {
+        quantities[modifierID] = 0;
+      }
+    }
+    lineCount = 0;
+    subtotalCents = 0;
+    units = 0;
+  }
+
+  // Price the order with a new menu: items still on it keep their quantities (capped by their new limit), the others
+  // are dropped from the order
+  void setMenu(MenuCatalog newMenu) {
+    int[] oldQuantities = quantities;
+    int[] oldLines = lineItemIDs;
+    int oldLineCount = lineCount;
+
+    menu = newMenu;
+    quantities = new int[newMenu.maxItemID() + 1];
+    lineItemIDs = new int[8];
+    linePositions = new int[newMenu.maxItemID() + 1];
+    Arrays.fill(linePositions, -1);
+    lineCount = 0;
+    subtotalCents = 0;
+    units = 0;
+
+    for (int line = 0; line < oldLineCount; line++) {
+      int itemID = oldLines[line];
+      MenuCatalog.Item item = newMenu.itemWithID(itemID);
+      if (item == null || item.isModifier()) {
+        continue;
+      }
+      setQuantity(itemID, Math.min(oldQuantities[itemID], item.maxQuantity));
+      for (int modifierID : item.modifierIDs()) {
+        if (modifierID < oldQuantities.length && oldQuantities[modifierID] > 0) {
+          setQuantity(modifierID, Math.min(oldQuantities[modifierID], newMenu.itemWithID(modifierID).maxQuantity));
+        }
+      }
+    }
+  }
+
+
+  MenuCatalog menu() {
+    return menu;
+  }
+
+  long subtotalCents() {
+    return subtotalCents;
+  }
+
+  // Units of items on the order, not counting modifiers
+  int units() {
+    return units;
+  }
+
+  int lineCount() {
+    return lineCount;
+  }
+
+  // Item ID of a line, 0 <= line < lineCount(); its modifiers are the item's modifierIDs() with a quantity
+  int lineItemID(int line) {
+    return lineItemIDs[line];
+  }
+
+  boolean isEmpty() {
+    return lineCount == 0;
+  }
+
+
+  private void change(MenuCatalog.Item item, int quantity) {
+    subtotalCents += (quantity - quantities[item.id]) * item.priceCents;
+    quantities[item.id] = quantity;
+  }
+
+  private void addLine(int itemID) {
+    if (lineCount == lineItemIDs.length) {
+      lineItemIDs = Arrays.copyOf(lineItemIDs, lineCount * 2);
+    }
+    linePositions[itemID] = lineCount;
+    lineItemIDs[lineCount++] = itemID;
+  }
+
+  // Keeps the order of the other lines, a register order has a handful of lines
+  private void removeLine(int itemID) {
+    int position = linePositions[itemID];
+    System.arraycopy(lineItemIDs, position + 1, lineItemIDs, position, lineCount - position - 1);
+    lineCount--;
+    for (int line = position; line < lineCount; line++) {
+      linePositions[lineItemIDs[line]] = line;
+    }
+    linePositions[itemID] = -1;
+  }
+}
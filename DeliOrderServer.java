@@ -0,0 +1,289 @@
+//Title: Joe's Deli Order Server
+//Desc: Online ordering for phone and web orders: a local HTTP/JSON API on the JDK's HTTP server, one virtual thread
+//      per request, that quotes and confirms orders through the same DeliOrderService as the register, so an online
+//      order costs what it would at the counter. Confirmed orders reach the same kitchen queue and order journal.
+//      Run on its own it prints the kitchen tickets; a register started with -DjoesDeli.apiPort=<port> serves the
+//      API itself and shows online orders on its kitchen window.
+//      Usage: java application.DeliOrderServer [journal directory]
+//      -DjoesDeli.apiPort=<port> (default 8361), -DjoesDeli.apiAddress=<address> (default 127.0.0.1),
+//      -DjoesDeli.menuFile=<path>, -DjoesDeli.quietKitchen=true (do not print the tickets)
+//
+//      GET  /menu      Every item and modifier: [{"id": 7, "name": "Coffee", "category": "drink", "priceCents": 199,
+//                      "limit": 999, "modifies": 0}, ...]
+//      POST /quotes    Price an order: {"items": [{"id": 7, "quantity": 2}, {"id": 101, "quantity": 1}]}, returns
+//                      {"lines": [{"id": 7, "name": "Coffee", "quantity": 2, "priceCents": 199, "amountCents": 398,
+//                      "modifies": 0}, ...], "units": 2, "subtotalCents": 473, "taxCents": 33, "totalCents": 506}
+//      POST /orders    Confirm an order, the same body plus an optional "register": "Web" (default "Online"),
+//                      returns the quote with 201 once the kitchen has it
+//
+//      Errors are {"error": "..."} with 400 (invalid JSON, an item not on the menu or a quantity over its limit),
+//      413 (body too large), 503 (the kitchen is a full queue behind, try again) or 500.
+//Author: JIAYUAN YU
+//Date: 05/18/2023
+
+package application;
+
+import com.sun.net.httpserver.HttpExchange;     // One HTTP request and its response
+import com.sun.net.httpserver.HttpServer;       // HTTP server built into the JDK
+
+import java.io.IOException;                     // Thrown when a request or response cannot be read or written
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+
+final class DeliOrderServer implements AutoCloseable {
+
+  static final int DEFAULT_PORT = 8361;
+  private static final int MAX_BODY_BYTES = 64 * 1024;         // Larger request bodies are refused with 413
+  private static final int BACKLOG = 1024;                     // Connections waiting to be accepted
+  private static final long CONFIRM_WAIT_MILLIS = 2000;        // Longest a confirm waits for room in the kitchen queue before 503
+  private static final Metrics.Latency REQUESTS = Metrics.latency("deli.http.request");   // Every request, from routing to the response sent
+
+  private final DeliOrderService orderService;
+  private final HttpServer httpServer;
+  private final ExecutorService requestExecutor = Executors.newVirtualThreadPerTaskExecutor();   // A new virtual thread per request
+
+  static {
+    // Without TCP_NODELAY every response on a kept-alive connection waits for the client's delayed ACK (see HeartHealthServer)
+    if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+  }
+
+
+  DeliOrderServer(DeliOrderService orderService, InetSocketAddress address) throws IOException {
+    this.orderService = orderService;
+    this.httpServer = HttpServer.create(address, BACKLOG);
+    this.httpServer.setExecutor(requestExecutor);
+    this.httpServer.createContext("/", this::handle);
+  }
+
+  // The address of -DjoesDeli.apiAddress and -DjoesDeli.apiPort
+  static InetSocketAddress configuredAddress() {
+    return new InetSocketAddress(System.getProperty("joesDeli.apiAddress", "127.0.0.1"), Integer.getInteger("joesDeli.apiPort", DEFAULT_PORT));
+  }
+
+
+  public static void main(String[] args) throws IOException {
+    Path journalDirectory = Paths.get(args.length > 0 ? args[0] : System.getProperty("joesDeli.journalDir", OrderJournal.DEFAULT_DIRECTORY));
+    Path menuFile = Paths.get(System.getProperty("joesDeli.menuFile", MenuCatalog.DEFAULT_FILE_NAME));
+    OrderJournal orderJournal = OrderJournal.open(journalDirectory);
+    KitchenQueue kitchenQueue = KitchenQueue.shared();
+    DeliOrderService orderService = new DeliOrderService(MenuCatalog.loadOrCreate(menuFile), new BillingEngine(), kitchenQueue, orderJournal);
+    MenuCatalog.watch(menuFile, orderService.menu(), orderService::setMenu);
+
+    // The kitchen of a server without a register: tickets are printed, or only counted with -DjoesDeli.quietKitchen=true
+    boolean quietKitchen = Boolean.getBoolean("joesDeli.quietKitchen");
+    KitchenDisplay kitchenDisplay = new KitchenDisplay(kitchenQueue, (batch, shown) -> {
+      if (!quietKitchen) {
+        StringBuilder tickets = new StringBuilder();
+        for (KitchenQueue.KitchenTicket ticket : batch) {
+          tickets.append(ticket).append("\n\n");
+        }
+        System.out.print(tickets);
+      }
+      shown.run();
+    });
+
+    Metrics.startLogging(Integer.getInteger("joesDeli.metricsLogSeconds", 300));
+    InetSocketAddress address = configuredAddress();
+    DeliOrderServer server = new DeliOrderServer(orderService, address);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      server.close();
+      kitchenDisplay.close();
+      try {
+        orderJournal.close();
+      } catch (IOException event) {
+        System.err.println("Order journal could not be closed: " + event.getMessage());
+      }
+    }, "deli-order-server-shutdown"));
+    server.start();
+    System.out.println("Joe's Deli order server listening on http://" + address.getHostString() + ":" + server.port());
+  }
+
+
+  void start() {
+    httpServer.start();
+  }
+
+  int port() {
+    return httpServer.getAddress().getPort();
+  }
+
+  // Stop taking requests and give running ones a second to finish
+  @Override
+  public void close() {
+    httpServer.stop(1);
+    requestExecutor.shutdown();
+  }
+
+
+  private void handle(HttpExchange exchange) throws IOException {
+    long requestStart = System.nanoTime();
+    try {
+      route(exchange, exchange.getRequestMethod(), exchange.getRequestURI().getPath());
+    } catch (RuntimeException event) {
+      sendError(exchange, statusOf(event), event.getMessage() != null ? event.getMessage() : event.toString());
+    } finally {
+      exchange.close();
+      REQUESTS.recordSince(requestStart);
+    }
+  }
+
+  private void route(HttpExchange exchange, String method, String path) throws IOException {
+    if (path.equals("/menu") && method.equals("GET")) {
+      send(exchange, 200, menuJson(orderService.menu()));
+
+    } else if (path.equals("/quotes") && method.equals("POST")) {
+      DeliOrder order = orderFrom(Json.parseObject(readBody(exchange)));
+      send(exchange, 200, quoteJson(order, orderService.quote(order)));
+
+    } else if (path.equals("/orders") && method.equals("POST")) {
+      Map<String, Object> json = Json.parseObject(readBody(exchange));
+      DeliOrder order = orderFrom(json);
+      Object register = json.getOrDefault("register", "Online");
+      if (!(register instanceof String) || ((String) register).isBlank()) {
+        throw new IllegalArgumentException("register must be a name");
+      }
+      if (!orderService.confirm((String) register, order, CONFIRM_WAIT_MILLIS)) {
+        sendError(exchange, 503, "The kitchen has " + orderService.kitchenQueueCapacity() + " orders waiting, please try again in a moment");
+        return;
+      }
+      send(exchange, 201, quoteJson(order, orderService.quote(order)));
+
+    } else {
+      sendError(exchange, 404, "No such resource: " + method + " " + path);
+    }
+  }
+
+
+  // {"items": [{"id": 7, "quantity": 2}, ...]} as an order on the current menu. Items are added before modifiers, so
+  // the order of the list does not matter; a modifier over its item's quantity is refused rather than cut down
+  private DeliOrder orderFrom(Map<String, Object> json) {
+    if (!(json.get("items") instanceof List<?> items) || items.isEmpty()) {
+      throw new IllegalArgumentException("items must be a list of {\"id\": ..., \"quantity\": ...}");
+    }
+    DeliOrder order = orderService.newOrder();
+    MenuCatalog menu = order.menu();
+    for (boolean modifiers : new boolean[] { false, true }) {
+      for (Object entry : items) {
+        if (!(entry instanceof Map<?, ?> line)) {
+          throw new IllegalArgumentException("items must be a list of {\"id\": ..., \"quantity\": ...}");
+        }
+        int itemID = wholeNumber(line.get("id"), "id");
+        int quantity = line.containsKey("quantity") ? wholeNumber(line.get("quantity"), "quantity") : 1;
+        MenuCatalog.Item item = menu.itemWithID(itemID);
+        if (item == null) {
+          throw new IllegalArgumentException("Item " + itemID + " is not on the menu");
+        }
+        if (item.isModifier() != modifiers) {
+          continue;
+        }
+        long wanted = (long) order.quantity(itemID) + quantity;   // An item listed twice is ordered twice
+        if (order.setQuantity(itemID, (int) Math.min(wanted, item.maxQuantity + 1)) != wanted) {   // Over the limit throws
+          throw new IllegalArgumentException(item.name + ": " + wanted + " is more than the " + order.quantity(item.modifiesID)
+              + " " + menu.itemWithID(item.modifiesID).name + " on the order");
+        }
+      }
+    }
+    return order;
+  }
+
+  private static int wholeNumber(Object value, String name) {
+    if (!(value instanceof Double number) || number != Math.rint(number) || number < 0 || number > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException(name + " must be a whole number, not " + value);
+    }
+    return number.intValue();
+  }
+
+
+  private static String menuJson(MenuCatalog menu) {
+    StringBuilder json = new StringBuilder(64 * menu.size()).append('[');
+    for (int index = 0; index < menu.size(); index++) {
+      MenuCatalog.Item item = menu.item(index);
+      json.append(index == 0 ? "" : ",").append("{\"id\":").append(item.id).append(",\"name\":").append(Json.quote(item.name))
+          .append(",\"category\":").append(Json.quote(item.category)).append(",\"priceCents\":").append(item.priceCents)
+          .append(",\"limit\":").append(item.maxQuantity).append(",\"modifies\":").append(item.modifiesID).append('}');
+    }
+    return json.append(']').toString();
+  }
+
+  // Lines in the order of the bill, each modifier after its item
+  private static String quoteJson(DeliOrder order, DeliOrderService.Quote quote) {
+    MenuCatalog menu = order.menu();
+    StringBuilder json = new StringBuilder(256).append("{\"lines\":[");
+    for (int line = 0; line < order.lineCount(); line++) {
+      MenuCatalog.Item item = menu.itemWithID(order.lineItemID(line));
+      appendLine(json, item, order.quantity(item.id), line == 0);
+      for (int modifierID : item.modifierIDs()) {
+        if (order.quantity(modifierID) > 0) {
+          appendLine(json, menu.itemWithID(modifierID), order.quantity(modifierID), false);
+        }
+      }
+    }
+    return json.append("],\"units\":").append(quote.units).append(",\"subtotalCents\":").append(quote.subtotalCents)
+        .append(",\"taxCents\":").append(quote.taxCents).append(",\"totalCents\":").append(quote.totalCents).append('}').toString();
+  }
+
+  private static void appendLine(StringBuilder json, MenuCatalog.Item item, int quantity, boolean first) {
+    json.append(first ? "" : ",").append("{\"id\":").append(item.id).append(",\"name\":").append(Json.quote(item.name))
+        .append(",\"quantity\":").append(quantity).append(",\"priceCents\":").append(item.priceCents)
+        .append(",\"amountCents\":").append(quantity * item.priceCents).append(",\"modifies\":").append(item.modifiesID).append('}');
+  }
+
+
+  private static int statusOf(RuntimeException failure) {
+    if (failure instanceof IllegalArgumentException) {
+      return 400;                                              // Invalid JSON, an unknown item or a quantity over its limit
+    } else if (failure instanceof BodyTooLargeException) {
+      return 413;
+    } else if (failure instanceof RejectedExecutionException) {
+      return 503;
+    }
+    return 500;
+  }
+
+  private static String readBody(HttpExchange exchange) {
+    try (InputStream body = exchange.getRequestBody()) {
+      byte[] bytes = body.readNBytes(MAX_BODY_BYTES + 1);
+      if (bytes.length > MAX_BODY_BYTES) {
+        throw new BodyTooLargeException();
+      }
+      return new String(bytes, StandardCharsets.UTF_8);
+    } catch (IOException event) {
+      throw new UncheckedIOException(event);
+    }
+  }
+
+  private static void send(HttpExchange exchange, int status, String json) throws IOException {
+    byte[] body = json.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream responseBody = exchange.getResponseBody()) {
+      responseBody.write(body);
+    }
+  }
+
+  private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+    send(exchange, status, "{\"error\":" + Json.quote(message) + "}");
+  }
+
+
+  private static class BodyTooLargeException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    BodyTooLargeException() {
+      super("Request body is larger than " + MAX_BODY_BYTES + " bytes");
+    }
+  }
+}
@@ -0,0 +1,95 @@
+//Title: Joe's Deli Order Service
+//Desc: Quotes and confirms orders without any window, for the register (hw1) and the online order API
+//      (DeliOrderServer) alike, so a phone or web order is priced exactly like one rung up at the counter: the
+//      subtotal kept by DeliOrder and the tax of BillingEngine's rate and rounding rule. A confirmed order goes to
+//      the kitchen queue and then to the order journal. Any number of threads may quote and confirm at once.
+//Author: JIAYUAN YU
+//Date: 05/18/2023
+
+package application;
+
+import java.io.IOException;                     // Thrown when a confirmed order cannot be journaled
+import java.util.concurrent.TimeUnit;
+
+import application.KitchenQueue.KitchenTicket;
+
+
+final class DeliOrderService {
+
+  private final BillingEngine billingEngine;                   // Only its tax rule is used here, which keeps no state
+  private final KitchenQueue kitchenQueue;
+  private final OrderJournal orderJournal;                     // null if orders are not journaled
+  private volatile MenuCatalog menu;                           // Swapped when the catalog file is edited
+
+
+  DeliOrderService(MenuCatalog menu, BillingEngine billingEngine, KitchenQueue kitchenQueue, OrderJournal orderJournal) {
+    this.menu = menu;
+    this.billingEngine = billingEngine;
+    this.kitchenQueue = kitchenQueue;
+    this.orderJournal = orderJournal;
+  }
+
+
+  // The menu new orders are priced with; an order keeps the menu it was made with
+  MenuCatalog menu() {
+    return menu;
+  }
+
+  void setMenu(MenuCatalog newMenu) {
+    menu = newMenu;
+  }
+
+  // A new, empty order on the current menu
+  DeliOrder newOrder() {
+    return new DeliOrder(menu);
+  }
+
+
+  // Subtotal, tax and total of an order
+  static final class Quote {
+    final long subtotalCents;
+    final long taxCents;
+    final long totalCents;
+    final int units;                                           // Units of items, not counting modifiers
+
+    private Quote(long subtotalCents, long taxCents, int units) {
+      this.subtotalCents = subtotalCents;
+      this.taxCents = taxCents;
+      this.totalCents = subtotalCents + taxCents;
+      this.units = units;
+    }
+  }
+
+  Quote quote(DeliOrder order) {
+    return new Quote(order.subtotalCents(), billingEngine.taxCents(order.subtotalCents()), order.units());
+  }
+
+  // Send an order to the kitchen, waiting up to waitMillis for room in the kitchen queue, and journal it. Returns
+  // false if the kitchen stayed a full queue behind: the order is not confirmed, the customer can try again. Throws
+  // IllegalArgumentException for an empty order
+  boolean confirm(String register, DeliOrder order, long waitMillis) {
+    if (order.isEmpty()) {
+      throw new IllegalArgumentException("Nothing to confirm, the order has no items");
+    }
+    KitchenTicket ticket = KitchenTicket.of(register, order);
+    if (waitMillis > 0 ? !kitchenQueue.publish(ticket, waitMillis, TimeUnit.MILLISECONDS) : !kitchenQueue.offer(ticket)) {
+      if (waitMillis <= 0) {
+        KitchenQueue.REJECTED.increment();                     // publish counts its own
+      }
+      return false;
+    }
+
+    if (orderJournal != null) {
+      try {
+        orderJournal.append(register, System.currentTimeMillis(), order, billingEngine.taxCents(order.subtotalCents()));
+      } catch (IOException event) {
+        System.err.println("Order could not be journaled: " + event.getMessage());   // The kitchen already has it, so it stays confirmed
+      }
+    }
+    return true;
+  }
+
+  int kitchenQueueCapacity() {
+    return kitchenQueue.capacity();
+  }
+}
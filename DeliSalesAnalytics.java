@@ -0,0 +1,386 @@
+//Title: Joe's Deli Sales Analytics
+//Desc: End-of-day (or end-of-year) sales from the order journal: units and revenue of every item and modifier,
+//      orders and revenue by hour of the day, the average ticket, tax collected and the items most often ordered
+//      together. The journal files are mapped and their records located in parallel, then counted as fork/join
+//      tasks over record ranges on the ForkJoinPool common pool, so a year of orders takes seconds at most
+//      (-Djava.util.concurrent.ForkJoinPool.common.parallelism=<n>). Items are named from the current menu;
+//      pairings are counted between items on it. Every register keeps its own journal directory, so the sales of
+//      the deli are the union of several: each directory given is read along with the directories right under it,
+//      and the parent of the registers' journal directories covers them all.
+//      Usage: java application.DeliSalesAnalytics [journal directory ...] [first day [last day]], days as 2023-05-18,
+//      today if no day is given. -DjoesDeli.menuFile=<path>
+//Author: JIAYUAN YU
+//Date: 05/18/2023
+
+package application;
+
+import java.io.IOException;                     // Thrown when a journal file cannot be read
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+
+
+class DeliSalesAnalytics {
+
+  static final int TOP_PAIRINGS = 10;
+
+  private static final int RECORDS_PER_TASK = 16 * 1024;       // Orders counted by one fork/join task without splitting further
+  private static final long HOUR_MILLIS = 3_600_000;
+
+
+  public static void main(String[] args) throws IOException {
+    int dayArguments = 0;                                      // The last one or two arguments if they are days
+    while (dayArguments < Math.min(2, args.length) && isDay(args[args.length - 1 - dayArguments])) {
+      dayArguments++;
+    }
+    List<Path> directories = new ArrayList<>();
+    for (int argument = 0; argument < args.length - dayArguments; argument++) {
+      directories.add(Paths.get(args[argument]));
+    }
+    if (directories.isEmpty()) {
+      directories.add(Paths.get(System.getProperty("joesDeli.journalDir", OrderJournal.DEFAULT_DIRECTORY)));
+    }
+    LocalDate firstDay = dayArguments > 0 ? LocalDate.parse(args[args.length - dayArguments]) : LocalDate.now();
+    LocalDate lastDay = dayArguments > 1 ? LocalDate.parse(args[args.length - 1]) : firstDay;
+
+    MenuCatalog menu;
+    Path menuFile = Paths.get(System.getProperty("joesDeli.menuFile", MenuCatalog.DEFAULT_FILE_NAME));
+    try {
+      menu = MenuCatalog.load(menuFile);
+    } catch (IOException | IllegalArgumentException event) {
+      menu = MenuCatalog.parse(MenuCatalog.DEFAULT_MENU.lines().toList(), 0);
+    }
+
+    System.out.println(summarize(journalFiles(directories, firstDay, lastDay), menu, firstDay, lastDay));
+  }
+
+  private static boolean isDay(String argument) {
+    try {
+      LocalDate.parse(argument);
+      return true;
+    } catch (DateTimeParseException notADay) {
+      return false;
+    }
+  }
+
+  // Journal files of the days, in the directories and the directories right under them (one per register); a
+  // directory reached twice is read once
+  static List<Path> journalFiles(List<Path> directories, LocalDate firstDay, LocalDate lastDay) throws IOException {
+    Set<Path> journalDirectories = new LinkedHashSet<>();
+    for (Path directory : directories) {
+      if (!Files.isDirectory(directory)) {
+        throw new IOException("No journal directory " + directory);
+      }
+      journalDirectories.add(directory.toRealPath());
+      try (DirectoryStream<Path> registers = Files.newDirectoryStream(directory, Files::isDirectory)) {
+        for (Path register : registers) {
+          journalDirectories.add(register.toRealPath());
+        }
+      }
+    }
+
+    List<Path> files = new ArrayList<>();
+    for (Path directory : journalDirectories) {
+      for (Path file : OrderJournal.files(directory)) {
+        LocalDate day = OrderJournal.dayOf(file);
+        if (!day.isBefore(firstDay) && !day.isAfter(lastDay)) {
+          files.add(file);
+        }
+      }
+    }
+    return files;
+  }
+
+
+  // Count every order of the journal files, which may be given in any order and have several files of one day
+  static SalesSummary summarize(List<Path> files, MenuCatalog menu, LocalDate firstDay, LocalDate lastDay) throws IOException {
+    long startTime = System.nanoTime();
+
+    ByteBuffer[] journals = new ByteBuffer[files.size()];
+    for (int file = 0; file < journals.length; file++) {
+      journals[file] = OrderJournal.map(files.get(file));
+    }
+
+    // Record starts of every file, found in parallel; a record is then known by its number across all the files
+    int[][] recordStarts = new int[journals.length][];
+    IntStream.range(0, journals.length).parallel().forEach(file -> recordStarts[file] = OrderJournal.recordStarts(journals[file]));
+    int[] firstRecordOfFile = new int[journals.length + 1];
+    long[] dayStartMillis = new long[journals.length];
+    Set<LocalDate> daysWithOrders = new HashSet<>();
+    ZoneId zone = ZoneId.systemDefault();
+    for (int file = 0; file < journals.length; file++) {
+      firstRecordOfFile[file + 1] = Math.addExact(firstRecordOfFile[file], recordStarts[file].length);
+      LocalDate day = OrderJournal.dayOf(journals[file]);
+      if (recordStarts[file].length > 0) {
+        daysWithOrders.add(day);
+      }
+      dayStartMillis[file] = day.atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+
+    // Pairings are counted in a square of the items on the menu
+    int[] pairingIndexOfItem = new int[MenuCatalog.MAX_ITEM_ID + 1];
+    Arrays.fill(pairingIndexOfItem, -1);
+    int[] itemOfPairingIndex = new int[menu.size()];
+    int pairingItems = 0;
+    for (int index = 0; index < menu.size(); index++) {
+      MenuCatalog.Item item = menu.item(index);
+      if (!item.isModifier()) {
+        pairingIndexOfItem[item.id] = pairingItems;
+        itemOfPairingIndex[pairingItems++] = item.id;
+      }
+    }
+
+    Sales sales = ForkJoinPool.commonPool().invoke(new SalesTask(journals, recordStarts, firstRecordOfFile, dayStartMillis,
+        pairingIndexOfItem, pairingItems, 0, firstRecordOfFile[journals.length]));
+    return new SalesSummary(menu, firstDay, lastDay, daysWithOrders.size(), journals.length, sales, Arrays.copyOf(itemOfPairingIndex, pairingItems),
+        System.nanoTime() - startTime);
+  }
+
+
+  // Counts of one range of orders, merged up the fork/join tree
+  private static class Sales {
+    final long[] unitsByItem = new long[MenuCatalog.MAX_ITEM_ID + 1];
+    final long[] revenueByItem = new long[MenuCatalog.MAX_ITEM_ID + 1];           // Cents, at the prices the orders were confirmed at
+    final long[] ordersByHour = new long[24];
+    final long[] revenueByHour = new long[24];
+    final long[] pairings;                                     // [first item's pairing index * items + second item's], first < second
+    long orders;
+    long itemUnits;                                            // Units of items, not modifiers
+    long subtotalCents;
+    long taxCents;
+    long damagedOrders;                                        // Records that failed their checksum
+
+    Sales(int pairingItems) {
+      pairings = new long[pairingItems * pairingItems];
+    }
+
+    Sales add(Sales other) {
+      for (int item = 0; item < unitsByItem.length; item++) {
+        unitsByItem[item] += other.unitsByItem[item];
+        revenueByItem[item] += other.revenueByItem[item];
+      }
+      for (int hour = 0; hour < ordersByHour.length; hour++) {
+        ordersByHour[hour] += other.ordersByHour[hour];
+        revenueByHour[hour] += other.revenueByHour[hour];
+      }
+      for (int pair = 0; pair < pairings.length; pair++) {
+        pairings[pair] += other.pairings[pair];
+      }
+      orders += other.orders;
+      itemUnits += other.itemUnits;
+      subtotalCents += other.subtotalCents;
+      taxCents += other.taxCents;
+      damagedOrders += other.damagedOrders;
+      return this;
+    }
+  }
+
+  @SuppressWarnings("serial")                                  // Forked and joined in this JVM, never serialized
+  private static class SalesTask extends RecursiveTask<Sales> {
+    private final ByteBuffer[] journals;
+    private final int[][] recordStarts;
+    private final int[] firstRecordOfFile;
+    private final long[] dayStartMillis;
+    private final int[] pairingIndexOfItem;
+    private final int pairingItems;
+    private final int fromRecord, toRecord;
+
+    SalesTask(ByteBuffer[] journals, int[][] recordStarts, int[] firstRecordOfFile, long[] dayStartMillis,
+        int[] pairingIndexOfItem, int pairingItems, int fromRecord, int toRecord) {
+      this.journals = journals;
+      this.recordStarts = recordStarts;
+      this.firstRecordOfFile = firstRecordOfFile;
+      this.dayStartMillis = dayStartMillis;
+      this.pairingIndexOfItem = pairingIndexOfItem;
+      this.pairingItems = pairingItems;
+      this.fromRecord = fromRecord;
+      this.toRecord = toRecord;
+    }
+
+    @Override
+    protected Sales compute() {
+      if (toRecord - fromRecord > RECORDS_PER_TASK) {
+        int middleRecord = (fromRecord + toRecord) >>> 1;
+        SalesTask firstHalf = new SalesTask(journals, recordStarts, firstRecordOfFile, dayStartMillis, pairingIndexOfItem,
+            pairingItems, fromRecord, middleRecord);
+        firstHalf.fork();
+        Sales secondHalf = new SalesTask(journals, recordStarts, firstRecordOfFile, dayStartMillis, pairingIndexOfItem,
+            pairingItems, middleRecord, toRecord).compute();
+        return secondHalf.add(firstHalf.join());
+      }
+
+      Sales sales = new Sales(pairingItems);
+      OrderJournal.JournalRecord order = new OrderJournal.JournalRecord();
+      CRC32C checksum = new CRC32C();
+      int[] orderedItems = new int[16];                        // Pairing indexes of the items of one order
+      int file = Arrays.binarySearch(firstRecordOfFile, fromRecord);
+      file = file >= 0 ? file : -file - 2;
+      for (int record = fromRecord; record < toRecord; record++) {
+        while (record >= firstRecordOfFile[file + 1]) {
+          file++;                                              // Past the last record of this file (an empty file has none)
+        }
+        if (!OrderJournal.read(journals[file], recordStarts[file][record - firstRecordOfFile[file]], order, checksum)) {
+          sales.damagedOrders++;
+          continue;
+        }
+
+        long subtotal = order.subtotalCents();
+        int hour = (int) Math.max(0, Math.min(23, Math.floorDiv(order.confirmedMillis() - dayStartMillis[file], HOUR_MILLIS)));
+        sales.orders++;
+        sales.subtotalCents += subtotal;
+        sales.taxCents += order.taxCents();
+        sales.ordersByHour[hour]++;
+        sales.revenueByHour[hour] += subtotal;
+
+        int orderedCount = 0;
+        for (int line = 0, lines = order.lineCount(); line < lines; line++) {
+          int itemID = order.itemID(line);
+          if (itemID <= 0 || itemID >= sales.unitsByItem.length) {
+            continue;
+          }
+          int quantity = order.quantity(line);
+          sales.unitsByItem[itemID] += quantity;
+          sales.revenueByItem[itemID] += quantity * order.priceCents(line);
+          if (order.modifiesID(line) == 0) {
+            sales.itemUnits += quantity;
+            if (pairingIndexOfItem[itemID] >= 0) {
+              if (orderedCount == orderedItems.length) {
+                orderedItems = Arrays.copyOf(orderedItems, orderedCount * 2);
+              }
+              orderedItems[orderedCount++] = pairingIndexOfItem[itemID];
+            }
+          }
+        }
+        for (int first = 0; first < orderedCount; first++) {   // Every item of an order has one line, so no pair is counted twice
+          for (int second = first + 1; second < orderedCount; second++) {
+            int low = Math.min(orderedItems[first], orderedItems[second]);
+            int high = Math.max(orderedItems[first], orderedItems[second]);
+            sales.pairings[low * pairingItems + high]++;
+          }
+        }
+      }
+      return sales;
+    }
+  }
+
+
+  static class SalesSummary {
+    final MenuCatalog menu;
+    final LocalDate firstDay, lastDay;
+    final int days;                                            // Days with at least one order
+    final int journals;                                        // Journal files read, one per register and day
+    final long orders;
+    final long itemUnits;
+    final long subtotalCents;
+    final long taxCents;
+    final long damagedOrders;
+    final long[] unitsByItem;                                  // By item ID
+    final long[] revenueByItem;
+    final long[] ordersByHour;
+    final long[] revenueByHour;
+    final int[] pairingItemIDs;                                // Item ID of every row and column of pairings
+    final long[] pairings;
+    final long elapsedNanos;
+
+    private SalesSummary(MenuCatalog menu, LocalDate firstDay, LocalDate lastDay, int days, int journals, Sales sales,
+        int[] pairingItemIDs, long elapsedNanos) {
+      this.menu = menu;
+      this.firstDay = firstDay;
+      this.lastDay = lastDay;
+      this.days = days;
+      this.journals = journals;
+      this.orders = sales.orders;
+      this.itemUnits = sales.itemUnits;
+      this.subtotalCents = sales.subtotalCents;
+      this.taxCents = sales.taxCents;
+      this.damagedOrders = sales.damagedOrders;
+      this.unitsByItem = sales.unitsByItem;
+      this.revenueByItem = sales.revenueByItem;
+      this.ordersByHour = sales.ordersByHour;
+      this.revenueByHour = sales.revenueByHour;
+      this.pairingItemIDs = pairingItemIDs;
+      this.pairings = sales.pairings;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    // Subtotal plus tax of the average order, in cents
+    long averageTicketCents() {
+      return orders == 0 ? 0 : Math.round((subtotalCents + taxCents) / (double) orders);
+    }
+
+    double averageItemsPerOrder() {
+      return orders == 0 ? 0 : itemUnits / (double) orders;
+    }
+
+    String nameOf(int itemID) {
+      MenuCatalog.Item item = menu.itemWithID(itemID);
+      return item == null ? "Item " + itemID + " (not on the menu)" : item.isModifier() ? "  + " + item.name : item.name;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder text = new StringBuilder();
+      text.append(String.format(Locale.ROOT, "Sales of %s (%d %s with orders, %d orders from %d journal %s, %.1f ms)%n%n",
+          firstDay.equals(lastDay) ? firstDay.toString() : firstDay + " to " + lastDay, days, days == 1 ? "day" : "days",
+          orders, journals, journals == 1 ? "file" : "files", elapsedNanos / 1e6));
+      if (damagedOrders > 0) {
+        text.append(damagedOrders).append(" damaged orders were left out\n\n");
+      }
+
+      // Items by revenue, the most first
+      Integer[] itemIDs = IntStream.range(1, unitsByItem.length).filter(id -> unitsByItem[id] > 0).boxed().toArray(Integer[]::new);
+      Arrays.sort(itemIDs, (first, second) -> Long.compare(revenueByItem[second], revenueByItem[first]));
+      text.append(String.format(Locale.ROOT, "%-28s %10s %14s %7s%n", "Item", "Units", "Revenue", "Share"));
+      for (int itemID : itemIDs) {
+        text.append(String.format(Locale.ROOT, "%-28s %10d %14s %6.1f%%%n", nameOf(itemID), unitsByItem[itemID],
+            dollars(revenueByItem[itemID]), subtotalCents == 0 ? 0 : 100.0 * revenueByItem[itemID] / subtotalCents));
+      }
+
+      text.append(String.format(Locale.ROOT, "%n%-28s %14s%n", "Subtotal", dollars(subtotalCents)));
+      text.append(String.format(Locale.ROOT, "%-28s %14s%n", "Tax collected", dollars(taxCents)));
+      text.append(String.format(Locale.ROOT, "%-28s %14s%n", "Total", dollars(subtotalCents + taxCents)));
+      text.append(String.format(Locale.ROOT, "%-28s %14s  (%.2f items)%n", "Average ticket", dollars(averageTicketCents()),
+          averageItemsPerOrder()));
+
+      text.append(String.format(Locale.ROOT, "%n%-6s %10s %12s %14s%n", "Hour", "Orders", "Orders/day", "Revenue"));
+      for (int hour = 0; hour < ordersByHour.length; hour++) {
+        if (ordersByHour[hour] > 0) {
+          text.append(String.format(Locale.ROOT, "%02d:00  %10d %12.1f %14s%n", hour, ordersByHour[hour],
+              ordersByHour[hour] / (double) Math.max(days, 1), dollars(revenueByHour[hour])));
+        }
+      }
+
+      // Pairs ordered together the most
+      int items = pairingItemIDs.length;
+      Integer[] pairs = IntStream.range(0, pairings.length).filter(pair -> pairings[pair] > 0).boxed().toArray(Integer[]::new);
+      Arrays.sort(pairs, (first, second) -> Long.compare(pairings[second], pairings[first]));
+      text.append(String.format(Locale.ROOT, "%n%-44s %10s %9s%n", "Ordered together", "Orders", "Of all"));
+      for (int rank = 0; rank < Math.min(TOP_PAIRINGS, pairs.length); rank++) {
+        int pair = pairs[rank];
+        String names = nameOf(pairingItemIDs[pair / items]) + " + " + nameOf(pairingItemIDs[pair % items]);
+        text.append(String.format(Locale.ROOT, "%-44s %10d %8.1f%%%n", names, pairings[pair], 100.0 * pairings[pair] / orders));
+      }
+      return text.toString();
+    }
+
+    private static String dollars(long cents) {
+      return BillingEngine.appendCents(new StringBuilder("$"), cents).toString();
+    }
+  }
+}
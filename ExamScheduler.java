@@ -0,0 +1,330 @@
+// Title: Exam Scheduler
+// Desc: Books each new patient into the earliest free CT scanner slot at or after the lead time (3 days by default),
+//       instead of putting every patient on the same day. The scanner has a fixed number of slots per day
+//       (-DheartHealth.scannerSlotsPerDay, default 16, one every 30 minutes from 08:00). Fully booked days are kept as
+//       merged runs in a TreeMap, so finding the next day with a free slot is one floor lookup however many future
+//       bookings there are. Bookings and cancellations are appended to ExamBookings.log; like PatientIDs.used, every
+//       call locks the file and first catches up with what the other stations appended. The scheduler, not the stored
+//       patient record, knows the upcoming exam: a patient's date is served from it after a cancellation or a new booking.
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import java.io.IOException;                    // Exception class that is thrown when an I/O operation encounters an error or fails
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;             // Keeps two intake stations from booking the same slot
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.BitSet;                       // Taken slots of one day
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+class ExamScheduler implements AutoCloseable {
+
+	static final String BOOKINGS_FILE_NAME = "ExamBookings.log";                          // Append-only list of bookings and cancellations
+	static final int SLOTS_PER_DAY = Integer.getInteger("heartHealth.scannerSlotsPerDay", 16);
+	static final int LEAD_DAYS = Integer.getInteger("heartHealth.examLeadDays", 3);        // Earliest exam is this many days after intake
+	static final LocalTime FIRST_EXAM_TIME = LocalTime.of(8, 0);
+	static final int EXAM_MINUTES = 30;
+
+	private static final int ENTRY_SIZE = 16;                                             // long patient ID, int epoch day, int slot
+	private static final int CANCELLED = -1;                                              // Slot written for a cancellation
+
+	private final int slotsPerDay;
+	private final FileChannel bookingsChannel;                                            // Channel on ExamBookings.log
+	private final long firstDay;                                                          // Today when opened, earlier bookings are history and not loaded
+	private final Map<Long, Booking> bookingOfPatient = new HashMap<>();
+	private final Set<Long> cancelledPatients = new HashSet<>();                          // Last entry of the patient is a cancellation
+	private final Map<Long, BitSet> takenSlots = new HashMap<>();                         // Epoch day -> slots booked that day
+	private final TreeMap<Long, Long> fullDays = new TreeMap<>();                         // First epoch day of a run of fully booked days -> last day of the run
+	private long bookingsRead;                                                            // Bytes of ExamBookings.log already applied
+	private final ReentrantLock schedulerLock = new ReentrantLock();                      // Held across the file lock without pinning a virtual thread
+
+
+	private ExamScheduler(int slotsPerDay, FileChannel bookingsChannel) {
+		this.slotsPerDay = slotsPerDay;
+		this.bookingsChannel = bookingsChannel;
+		this.firstDay = LocalDate.now().toEpochDay();
+	}
+
+
+	// Open the scheduler with the given number of scanner slots per day. A new bookings file is filled with the
+	// upcoming exam dates of the patients already in the store, each in the first slot left on that day
+	@SuppressWarnings("try")
+	static ExamScheduler open(Path directory, int slotsPerDay, PatientStore patientStore) throws IOException {
+		if (slotsPerDay < 1) {
+			throw new IllegalArgumentException("The scanner needs at least 1 slot per day: " + slotsPerDay);
+		}
+
+		Path bookingsFile = directory.resolve(BOOKINGS_FILE_NAME);
+		boolean newFile = !Files.exists(bookingsFile);
+		FileChannel bookingsChannel = FileChannel.open(bookingsFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		ExamScheduler scheduler = new ExamScheduler(slotsPerDay, bookingsChannel);
+		try (FileLock lock = bookingsChannel.lock()) {
+			scheduler.readBookings();
+			if (newFile && scheduler.bookingsRead == 0) {
+				scheduler.importExamDates(patientStore);
+			}
+		} catch (IOException | RuntimeException event) {
+			bookingsChannel.close();
+			throw event;
+		}
+		return scheduler;
+	}
+
+
+	// Book the earliest free slot on or after the given day, a patient who already has an exam is moved to the new one
+	@SuppressWarnings("try")
+	Booking book(long patientID, LocalDate earliest) throws IOException {
+		schedulerLock.lock();
+		try (FileLock lock = bookingsChannel.lock()) {
+			readBookings();                                                                // Pick up the bookings other stations made since the last call
+			Booking previous = bookingOfPatient.get(patientID);
+			if (previous != null) {
+				release(previous);
+				append(patientID, previous.date.toEpochDay(), CANCELLED);
+			}
+
+			long day = nextFreeDay(Math.max(earliest.toEpochDay(), firstDay));
+			int slot = takenSlots.computeIfAbsent(day, d -> new BitSet(slotsPerDay)).nextClearBit(0);
+			Booking booking = new Booking(patientID, LocalDate.ofEpochDay(day), slot);
+			take(booking);
+			append(patientID, day, slot);
+			return booking;
+		} finally {
+			schedulerLock.unlock();
+		}
+	}
+
+	// Free the patient's slot, returns false if the patient has no upcoming exam
+	@SuppressWarnings("try")
+	boolean cancel(long patientID) throws IOException {
+		schedulerLock.lock();
+		try (FileLock lock = bookingsChannel.lock()) {
+			readBookings();
+			Booking booking = bookingOfPatient.get(patientID);
+			if (booking == null) {
+				return false;
+			}
+			release(booking);
+			append(patientID, booking.date.toEpochDay(), CANCELLED);
+			cancelledPatients.add(patientID);
+			return true;
+		} finally {
+			schedulerLock.unlock();
+		}
+	}
+
+	// Date of the patient's upcoming exam, catching up with the other stations first: the booked date, none if the exam
+	// was cancelled, otherwise the date the patient was saved with (an exam date typed in at intake is not booked)
+	@SuppressWarnings("try")
+	LocalDate upcomingExamDate(long patientID, LocalDate savedExamDate) throws IOException {
+		schedulerLock.lock();
+		try {
+			try (FileLock lock = bookingsChannel.lock()) {
+				readBookings();
+			}
+			Booking booking = bookingOfPatient.get(patientID);
+			if (booking != null) {
+				return booking.date;
+			}
+			boolean upcoming = savedExamDate != null && savedExamDate.toEpochDay() >= LocalDate.now().toEpochDay();
+			return upcoming && cancelledPatients.contains(patientID) ? null : savedExamDate;
+		} finally {
+			schedulerLock.unlock();
+		}
+	}
+
+	int slotsPerDay() {
+		return slotsPerDay;
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		schedulerLock.lock();
+		try {
+			bookingsChannel.close();
+		} finally {
+			schedulerLock.unlock();
+		}
+	}
+
+
+	// Fully booked days are merged into runs, so the day after the run holding this day is never full
+	private long nextFreeDay(long day) {
+		Map.Entry<Long, Long> run = fullDays.floorEntry(day);
+		return run != null && run.getValue() >= day ? run.getValue() + 1 : day;
+	}
+
+	private void take(Booking booking) {
+		long day = booking.date.toEpochDay();
+		BitSet taken = takenSlots.computeIfAbsent(day, d -> new BitSet(slotsPerDay));
+		taken.set(booking.slot);
+		bookingOfPatient.put(booking.patientID, booking);
+		cancelledPatients.remove(booking.patientID);
+		if (taken.cardinality() == slotsPerDay) {
+			markFull(day);
+		}
+	}
+
+	private void release(Booking booking) {
+		long day = booking.date.toEpochDay();
+		BitSet taken = takenSlots.get(day);
+		boolean wasFull = taken.cardinality() == slotsPerDay;
+		taken.clear(booking.slot);
+		if (taken.isEmpty()) {
+			takenSlots.remove(day);
+		}
+		bookingOfPatient.remove(booking.patientID);
+		if (wasFull) {
+			markNotFull(day);
+		}
+	}
+
+	// Join the day to the runs that end the day before and start the day after
+	private void markFull(long day) {
+		long start = day;
+		long end = day;
+		Map.Entry<Long, Long> before = fullDays.floorEntry(day - 1);
+		if (before != null && before.getValue() == day - 1) {
+			start = before.getKey();
+		}
+		Long after = fullDays.remove(day + 1);
+		if (after != null) {
+			end = after;
+		}
+		fullDays.put(start, end);
+	}
+
+	// Split the run holding the day around it
+	private void markNotFull(long day) {
+		Map.Entry<Long, Long> run = fullDays.floorEntry(day);
+		fullDays.remove(run.getKey());
+		if (run.getKey() < day) {
+			fullDays.put(run.getKey(), day - 1);
+		}
+		if (run.getValue() > day) {
+			fullDays.put(day + 1, run.getValue());
+		}
+	}
+
+
+	// Apply every booking and cancellation appended to ExamBookings.log since the last read
+	private void readBookings() throws IOException {
+		long end = bookingsChannel.size() - bookingsChannel.size() % ENTRY_SIZE;
+		if (end <= bookingsRead) {
+			return;
+		}
+
+		ByteBuffer entries = ByteBuffer.allocate((int) Math.min(end - bookingsRead, ENTRY_SIZE * 4096));
+		while (bookingsRead < end) {
+			entries.clear().limit((int) Math.min(entries.capacity(), end - bookingsRead));
+			PatientStore.readFully(bookingsChannel, entries, bookingsRead);
+			bookingsRead += entries.flip().remaining();
+			while (entries.hasRemaining()) {
+				apply(entries.getLong(), entries.getInt(), entries.getInt());
+			}
+		}
+	}
+
+	private void apply(long patientID, long day, int slot) {
+		Booking previous = bookingOfPatient.get(patientID);
+		if (previous != null) {
+			release(previous);                                                             // A cancellation, or the patient was moved
+		}
+		if (slot == CANCELLED) {
+			cancelledPatients.add(patientID);
+			return;
+		}
+		cancelledPatients.remove(patientID);
+		if (day < firstDay || slot >= slotsPerDay) {
+			return;                                                                        // Past exams, and slots the scanner no longer has, take no room
+		}
+		BitSet taken = takenSlots.get(day);
+		if (taken != null && taken.get(slot)) {
+			slot = taken.nextClearBit(0);                                                  // Two stations never book one slot, but keep the count right if they did
+			if (slot >= slotsPerDay) {
+				return;
+			}
+		}
+		take(new Booking(patientID, LocalDate.ofEpochDay(day), slot));
+	}
+
+	private void append(long patientID, long day, int slot) throws IOException {
+		ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+		entry.putLong(patientID).putInt((int) day).putInt(slot).flip();
+		PatientStore.writeFully(bookingsChannel, entry, bookingsRead);
+		bookingsRead += ENTRY_SIZE;
+	}
+
+	// Book the upcoming exam of every stored patient on the date they were given, in one write. A patient whose day is
+	// already full is written as cancelled, so no station shows the date, and is reported to be booked again
+	private void importExamDates(PatientStore patientStore) throws IOException {
+		ByteBuffer entries = ByteBuffer.allocate(ENTRY_SIZE * 4096);
+		List<Long> notBooked = new ArrayList<>();
+		for (long patientID : patientStore.patientIDs()) {
+			Patient patient = patientStore.find(String.valueOf(patientID));
+			if (patient == null || patient.examDate() == null || patient.examDate().toEpochDay() < firstDay) {
+				continue;
+			}
+			long day = patient.examDate().toEpochDay();
+			int slot = takenSlots.computeIfAbsent(day, d -> new BitSet(slotsPerDay)).nextClearBit(0);
+			if (slot >= slotsPerDay) {
+				slot = CANCELLED;                                                          // Already overbooked under the fixed 3 day rule
+				cancelledPatients.add(patientID);
+				notBooked.add(patientID);
+			} else {
+				take(new Booking(patientID, patient.examDate(), slot));
+			}
+
+			if (!entries.hasRemaining()) {
+				PatientStore.writeFully(bookingsChannel, entries.flip(), bookingsRead);
+				bookingsRead += entries.limit();
+				entries.clear();
+			}
+			entries.putLong(patientID).putInt((int) day).putInt(slot);
+		}
+		PatientStore.writeFully(bookingsChannel, entries.flip(), bookingsRead);
+		bookingsRead += entries.limit();
+
+		if (!notBooked.isEmpty()) {
+			notBooked.sort(null);
+			System.err.println(notBooked.size() + " upcoming exams could not be booked, the scanner's " + slotsPerDay
+					+ " slots on their day are taken; book these patients again: " + notBooked);
+		}
+	}
+
+
+	// One exam: the day and the scanner slot on that day
+	static class Booking {
+		final long patientID;
+		final LocalDate date;
+		final int slot;                                                                   // 0 is the first exam of the day
+		final LocalTime time;
+
+		Booking(long patientID, LocalDate date, int slot) {
+			this(patientID, date, slot, FIRST_EXAM_TIME.plusMinutes((long) slot * EXAM_MINUTES));
+		}
+
+		// A booking received from a Heart Health server, which may open the scanner at another time
+		Booking(long patientID, LocalDate date, int slot, LocalTime time) {
+			this.patientID = patientID;
+			this.date = date;
+			this.slot = slot;
+			this.time = time;
+		}
+	}
+}
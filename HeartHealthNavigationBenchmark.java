@@ -0,0 +1,215 @@
+// Title: Heart Health Navigation Benchmark
+// Desc: Time from a click on the main view's buttons to the new view's first layout, in the Heart Health System
+//       itself on Monocle's headless screen (-Dglass.platform=Monocle -Dmonocle.platform=Headless, set unless given),
+//       so it needs no display. The system is started on an empty temporary record directory, then every cycle
+//       clicks Patient Intake, Back, CT Scan Tech View, Back, Patient View, Back on the JavaFX thread; a click is
+//       timed like -DheartHealth.logNavigationTime does, up to the post-layout pulse of the scene it shows. The first
+//       fifth of the cycles warm up and are not counted. Reports the p50, p99 and max per button, and writes them as
+//       JSON in the layout JMH uses.
+//       Usage: java application.HeartHealthNavigationBenchmark [results file]
+//       -Dbenchmark.cycles=<n> (default 500)
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import java.io.IOException;                    // Exception class that is thrown when an I/O operation encounters an error or fails
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.scene.Node;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+
+
+public class HeartHealthNavigationBenchmark {
+
+	private static final Metrics.Latency TO_INTAKE = Metrics.latency("navigation.patientIntake");
+	private static final Metrics.Latency TO_CT_TECH = Metrics.latency("navigation.ctScanTechView");
+	private static final Metrics.Latency TO_PATIENT_VIEW = Metrics.latency("navigation.patientView");   // The patient login, shown first
+	private static final Metrics.Latency BACK = Metrics.latency("navigation.back");       // Any view back to the main view
+	private static final Metrics.Latency[] LATENCIES = { TO_INTAKE, TO_CT_TECH, TO_PATIENT_VIEW, BACK };
+
+	// One cycle: the button clicked and where its time goes
+	private static final String[] CLICKS = { "Patient Intake", "Back", "CT Scan Tech View", "Back", "Patient View", "Back" };
+	private static final Metrics.Latency[] CLICK_LATENCIES = { TO_INTAKE, BACK, TO_CT_TECH, BACK, TO_PATIENT_VIEW, BACK };
+	private static final int CYCLES = Integer.getInteger("benchmark.cycles", 500);
+	private static final long WINDOW_OPEN_NANOS = TimeUnit.SECONDS.toNanos(30);          // Time the system has to show its main view
+	private static final long CLICK_TIMEOUT_SECONDS = 10;                                 // A view that is not laid out by then never will be
+
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Path resultsFile = Paths.get(args.length > 0 ? args[0] : "navigation-results.json");
+		setIfAbsent("glass.platform", "Monocle");
+		setIfAbsent("monocle.platform", "Headless");
+		setIfAbsent("prism.order", "sw");                                                  // No GPU on a headless screen
+		Path recordDirectory = Files.createTempDirectory("heart-health-navigation");
+		System.setProperty("heartHealth.recordDirectory", recordDirectory.toString());
+		System.setProperty("heartHealth.metricsLogSeconds", "0");
+
+		Thread javaFX = new Thread(() -> Application.launch(HeartHealthSystem.class), "heart-health-window");
+		javaFX.start();
+		try {
+			waitForMainView();
+			int warmupCycles = CYCLES / 5;
+			for (int cycle = 0; cycle < warmupCycles + CYCLES; cycle++) {
+				for (int click = 0; click < CLICKS.length; click++) {
+					long nanos = click(CLICKS[click]);
+					if (cycle >= warmupCycles) {
+						CLICK_LATENCIES[click].record(nanos);
+					}
+				}
+			}
+		} finally {
+			Platform.exit();                                                               // HeartHealthSystem.stop() closes the record files
+			javaFX.join();
+			try (Stream<Path> files = Files.walk(recordDirectory)) {
+				for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+					Files.delete(file);
+				}
+			}
+		}
+
+		List<String> report = new ArrayList<>();
+		report.add(String.format(Locale.ROOT, "%d cycles of %s, after %d warmup cycles", CYCLES, String.join(", ", CLICKS), CYCLES / 5));
+		report.add(String.format(Locale.ROOT, "%-26s %10s %10s %10s %10s", "Click to layout (ms)", "count", "p50", "p99", "max"));
+		for (Metrics.Latency latency : LATENCIES) {
+			report.add(String.format(Locale.ROOT, "%-26s %10d %10.3f %10.3f %10.3f", latency.name(), latency.getCount(),
+					latency.percentileNanos(0.50) / 1e6, latency.percentileNanos(0.99) / 1e6, latency.getMaxMillis()));
+		}
+		report.add("Percentiles are bucket upper bounds, at most 12.5% high (see Metrics)");
+		report.forEach(System.out::println);
+
+		Files.write(resultsFile, toJson().getBytes(StandardCharsets.UTF_8));
+		System.out.println("Results written to " + resultsFile.toAbsolutePath());
+	}
+
+	private static void setIfAbsent(String property, String value) {
+		if (System.getProperty(property) == null) {
+			System.setProperty(property, value);
+		}
+	}
+
+
+	// Wait until the system's stage shows a scene, JavaFX refuses runLater until it has started
+	private static void waitForMainView() throws InterruptedException {
+		long deadline = System.nanoTime() + WINDOW_OPEN_NANOS;
+		while (true) {
+			try {
+				if (fromWindow(() -> stage() != null && stage().getScene() != null)) {
+					return;
+				}
+			} catch (IllegalStateException notStarted) {
+				// JavaFX is still starting
+			}
+			if (System.nanoTime() > deadline) {
+				throw new IllegalStateException("HeartHealthSystem did not show its window, is Monocle on the class path?");
+			}
+			Thread.sleep(100);
+		}
+	}
+
+	// Fire the button of the shown view, returns the nanoseconds until the scene it leads to has been laid out
+	private static long click(String buttonText) {
+		CompletableFuture<Long> laidOut = new CompletableFuture<>();
+		fromWindow(() -> {
+			Stage stage = stage();
+			Button button = find(stage.getScene().getRoot(), buttonText);
+			if (button == null) {
+				throw new IllegalStateException("No \"" + buttonText + "\" button on " + stage.getTitle());
+			}
+			long clickStart = System.nanoTime();
+			button.fire();
+			Scene scene = stage.getScene();                                                // The new view's scene once the click has been handled
+			scene.addPostLayoutPulseListener(new Runnable() {
+				public void run() {
+					scene.removePostLayoutPulseListener(this);
+					laidOut.complete(System.nanoTime() - clickStart);
+				}
+			});
+			Platform.requestNextPulse();
+			return null;
+		});
+		try {
+			return laidOut.get(CLICK_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		} catch (Exception event) {
+			throw new IllegalStateException("\"" + buttonText + "\" did not lead to a laid out view", event);
+		}
+	}
+
+	private static Stage stage() {
+		for (Window window : Window.getWindows()) {
+			if (window instanceof Stage && window.isShowing()) {
+				return (Stage) window;
+			}
+		}
+		return null;
+	}
+
+	private static Button find(Parent parent, String text) {
+		for (Node node : parent.getChildrenUnmodifiable()) {
+			if (node instanceof Button && text.equals(((Button) node).getText())) {
+				return (Button) node;
+			}
+			if (node instanceof Parent) {
+				Button button = find((Parent) node, text);
+				if (button != null) {
+					return button;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static <T> T fromWindow(Supplier<T> action) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+		Platform.runLater(() -> {
+			try {
+				result.complete(action.get());
+			} catch (RuntimeException | Error failed) {
+				result.completeExceptionally(failed);
+			}
+		});
+		return result.join();
+	}
+
+
+	// JSON array in the layout of JMH's -rf json output, sample mode in milliseconds
+	private static String toJson() {
+		StringBuilder json = new StringBuilder("[\n");
+		for (int i = 0; i < LATENCIES.length; i++) {
+			Metrics.Latency latency = LATENCIES[i];
+			json.append(String.format(Locale.ROOT,
+					"  {\n"
+					+ "    \"benchmark\" : \"application.HeartHealthNavigationBenchmark.%s\",\n"
+					+ "    \"mode\" : \"sample\",\n"
+					+ "    \"threads\" : 1,\n"
+					+ "    \"params\" : { \"cycles\" : \"%d\" },\n"
+					+ "    \"primaryMetric\" : {\n"
+					+ "      \"score\" : %.6f,\n"
+					+ "      \"scoreUnit\" : \"ms/op\",\n"
+					+ "      \"scorePercentiles\" : { \"50.0\" : %.6f, \"99.0\" : %.6f, \"100.0\" : %.6f },\n"
+					+ "      \"operations\" : %d\n"
+					+ "    }\n"
+					+ "  }%s\n",
+					latency.name(), CYCLES, latency.getMeanMillis(), latency.percentileNanos(0.50) / 1e6,
+					latency.percentileNanos(0.99) / 1e6, latency.getMaxMillis(), latency.getCount(), i < LATENCIES.length - 1 ? "," : ""));
+		}
+		return json.append("]\n").toString();
+	}
+}
@@ -0,0 +1,281 @@
+// Title: Heart Health Server
+// Desc: Headless service mode: one process owns the record directory and answers patient intake, CT scan report saves,
+//       patient lookups and score queries as a local HTTP/JSON API, built on the JDK's HTTP server with one virtual
+//       thread per request. The JavaFX stations can run as thin clients against it (-DheartHealth.server=<url>).
+//       Usage: java application.HeartHealthSystem --serve [record directory]
+//       -DheartHealth.serverPort=<port> (default 8360), -DheartHealth.serverAddress=<address> (default 127.0.0.1)
+//
+//       GET  /info                    {"patientIDDigits": 5}
+//       POST /patient-ids             New patient ID: {"patientID": "12345"}
+//       POST /patients                Intake: new patient ID and the earliest free exam slot from the lead time on, or
+//                                     from examDate if that is later; returns {"patient": {...}, "exam": {...}}
+//       GET  /patients?q=smi          Search: patients whose name, email, phone or insurance ID starts with q, up to 20
+//                                     (or equals q, with &exact=true)
+//       PUT  /patients/{id}           Save a patient under an ID from /patient-ids, any other ID is refused with 400
+//       GET  /patients/{id}           Patient and CT scan report: {"patient": {...}, "ctScores": {...} or null}
+//       PUT  /patients/{id}/ct        Save a CT scan report: {"total": 120, "lm": 10, "lad": 20, ...}
+//       GET  /patients/{id}/ct        The patient's CT scan report
+//       GET  /patients/{id}/ct/history Every CT scan report of the patient, oldest first: {"versions": [{"savedAt": ..., "ctScores": {...}}]}
+//       POST /patients/{id}/exam      Book the earliest free exam slot: {"examDate": "2023-06-07", "slot": 0, "examTime": "08:00"}
+//       DELETE /patients/{id}/exam    Cancel the patient's upcoming exam
+//       GET  /ct/risk-summary         CAC risk bands and score distributions of every patient
+//
+//       Errors are {"error": "..."} with 400 (invalid input), 404 (unknown patient or report), 409 (ID already
+//       used), 413 (body too large), 503 (too busy) or 500.
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import com.sun.net.httpserver.HttpExchange;    // One HTTP request and its response
+import com.sun.net.httpserver.HttpServer;      // HTTP server built into the JDK
+
+import java.io.IOException;                    // Exception class that is thrown when an I/O operation encounters an error or fails
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+
+class HeartHealthServer implements AutoCloseable {
+
+	static final int DEFAULT_PORT = 8360;
+	private static final int MAX_BODY_BYTES = 64 * 1024;                                  // Larger request bodies are refused with 413
+	private static final int BACKLOG = 1024;                                              // Connections waiting to be accepted
+	private static final Metrics.Latency REQUESTS = Metrics.latency("http.request");       // Every request, from routing to the response sent
+
+	private final PatientRecordService recordService;
+	private final HttpServer httpServer;
+	private final ExecutorService requestExecutor = Executors.newVirtualThreadPerTaskExecutor();   // A new virtual thread per request, blocking on a record call is cheap
+
+	static {
+		// The JDK server writes the headers and the body of a response separately; without TCP_NODELAY every response on a
+		// kept-alive connection waits ~40 ms for the client's delayed ACK. Read once, when the first server is created
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+
+	HeartHealthServer(PatientRecordService recordService, InetSocketAddress address) throws IOException {
+		this.recordService = recordService;
+		this.httpServer = HttpServer.create(address, BACKLOG);
+		this.httpServer.setExecutor(requestExecutor);
+		this.httpServer.createContext("/", this::handle);
+	}
+
+
+	public static void main(String[] args) throws IOException {
+		Path recordDirectory = Paths.get(args.length > 0 ? args[0] : "");
+		InetSocketAddress address = new InetSocketAddress(System.getProperty("heartHealth.serverAddress", "127.0.0.1"),
+				Integer.getInteger("heartHealth.serverPort", DEFAULT_PORT));
+
+		// Record calls also run on virtual threads, so thousands of lookups can wait on the disk at once
+		PatientRecordService recordService = PatientRecordService.open(recordDirectory,
+				Integer.getInteger("heartHealth.patientIDDigits", PatientIDAllocator.DEFAULT_DIGITS),
+				Integer.getInteger("heartHealth.recordCacheSize", PatientRecordCache.DEFAULT_CAPACITY),
+				Executors.newVirtualThreadPerTaskExecutor());
+		System.out.println(recordService.catalog().readyReport(recordService.patientCount()));
+		Metrics.startLogging(Integer.getInteger("heartHealth.metricsLogSeconds", 300));      // Also over JMX, like a station
+		HeartHealthServer server = new HeartHealthServer(recordService, address);
+		Runtime.getRuntime().addShutdownHook(new Thread(server::close, "heart-health-server-shutdown"));
+		server.start();
+		System.out.println("Heart Health server listening on http://" + address.getHostString() + ":" + server.port());
+	}
+
+
+	void start() {
+		httpServer.start();
+	}
+
+	int port() {
+		return httpServer.getAddress().getPort();
+	}
+
+	// Stop taking requests, give running ones a second to finish, then close the record files
+	@Override
+	public void close() {
+		httpServer.stop(1);
+		requestExecutor.shutdown();
+		try {
+			recordService.close();
+		} catch (IOException event) {
+			System.err.println("Record files could not be closed: " + event.getMessage());
+		}
+	}
+
+
+	private void handle(HttpExchange exchange) throws IOException {
+		long requestStart = System.nanoTime();
+		try {
+			route(exchange, exchange.getRequestMethod(), exchange.getRequestURI().getPath().split("/"));
+		} catch (RuntimeException event) {
+			Throwable cause = event instanceof CompletionException && event.getCause() != null ? event.getCause() : event;
+			sendError(exchange, statusOf(cause), cause.getMessage() != null ? cause.getMessage() : cause.toString());
+		} finally {
+			exchange.close();
+			REQUESTS.recordSince(requestStart);
+		}
+	}
+
+	// path is the request path split on '/', path[0] is the empty text before the first '/'
+	private void route(HttpExchange exchange, String method, String[] path) throws IOException {
+		if (path.length == 2 && path[1].equals("info") && method.equals("GET")) {
+			send(exchange, 200, "{\"patientIDDigits\":" + recordService.patientIDDigits() + "}");
+
+		} else if (path.length == 2 && path[1].equals("patient-ids") && method.equals("POST")) {
+			send(exchange, 201, "{\"patientID\":" + Json.quote(recordService.allocatePatientID().join()) + "}");
+
+		} else if (path.length == 2 && path[1].equals("patients") && method.equals("POST")) {
+			Map<String, Object> json = Json.parseObject(readBody(exchange));
+			String patientID = recordService.allocatePatientID().join();
+			ExamScheduler.Booking booking = null;
+			Patient newPatient;
+			try {
+				// Every exam is booked with the scheduler, the same as the Patient Intake view, so no two patients get one
+				// slot; an exam date that is given is only the earliest day to book
+				Patient intake = RecordJson.patientFrom(patientID, json);
+				booking = recordService.bookExam(patientID, intake.examDate() != null ? intake.examDate() : LocalDate.now()).join();
+				newPatient = new Patient(patientID, intake.getFirstName(), intake.getLastName(), intake.getEmail(),
+						intake.getPhoneNumber(), intake.getHealthHistory(), intake.getInsuranceID(), booking.date);
+				recordService.savePatientInfo(newPatient).join();
+			} catch (RuntimeException event) {
+				if (booking != null) {
+					recordService.cancelExam(patientID);                                      // Give the slot back
+				}
+				recordService.releasePatientID(patientID);                                 // And the ID, no patient has it
+				throw event;
+			}
+			send(exchange, 201, "{\"patient\":" + RecordJson.toJson(newPatient) + ",\"exam\":" + RecordJson.toJson(booking) + "}");
+
+		} else if (path.length == 2 && path[1].equals("patients") && method.equals("GET")) {
+			String text = queryParameter(exchange, "q");
+			if (text == null || text.isBlank()) {
+				throw new IllegalArgumentException("Missing search text q");
+			}
+			boolean exact = Boolean.parseBoolean(queryParameter(exchange, "exact"));
+			send(exchange, 200, RecordJson.toJson(recordService.searchPatients(text, exact).join()));
+
+		} else if (path.length == 3 && path[1].equals("patients") && method.equals("PUT")) {
+			recordService.savePatientInfo(RecordJson.patientFrom(path[2], Json.parseObject(readBody(exchange)))).join();
+			send(exchange, 204, null);
+
+		} else if (path.length == 3 && path[1].equals("patients") && method.equals("GET")) {
+			PatientRecord patientRecord = recordService.loadPatientRecord(path[2]).join();
+			if (patientRecord == null) {
+				sendError(exchange, 404, "No patient with ID " + path[2]);
+			} else {
+				send(exchange, 200, RecordJson.toJson(patientRecord));
+			}
+
+		} else if (path.length == 4 && path[1].equals("patients") && path[3].equals("ct") && method.equals("PUT")) {
+			recordService.savePatientCTScanData(RecordJson.ctScoresFrom(path[2], Json.parseObject(readBody(exchange)))).join();
+			send(exchange, 204, null);
+
+		} else if (path.length == 4 && path[1].equals("patients") && path[3].equals("ct") && method.equals("GET")) {
+			PatientRecord patientRecord = recordService.loadPatientRecord(path[2]).join();
+			if (patientRecord == null) {
+				sendError(exchange, 404, "No patient with ID " + path[2]);
+			} else if (!patientRecord.isReportExist()) {
+				sendError(exchange, 404, "Report unavailable for patient " + path[2]);
+			} else {
+				send(exchange, 200, RecordJson.ctReportToJson(patientRecord));
+			}
+
+		} else if (path.length == 5 && path[1].equals("patients") && path[3].equals("ct") && path[4].equals("history") && method.equals("GET")) {
+			send(exchange, 200, RecordJson.historyToJson(recordService.loadCTHistory(path[2]).join()));
+
+		} else if (path.length == 4 && path[1].equals("patients") && path[3].equals("exam") && method.equals("POST")) {
+			send(exchange, 201, RecordJson.toJson(recordService.bookExam(path[2]).join()));     // Intake books before the patient is saved
+
+		} else if (path.length == 4 && path[1].equals("patients") && path[3].equals("exam") && method.equals("DELETE")) {
+			if (recordService.cancelExam(path[2]).join()) {
+				send(exchange, 204, null);
+			} else {
+				sendError(exchange, 404, "No upcoming exam for patient " + path[2]);
+			}
+
+		} else if (path.length == 3 && path[1].equals("ct") && path[2].equals("risk-summary") && method.equals("GET")) {
+			send(exchange, 200, RecordJson.toJson(recordService.summarizeCTRisk().join()));
+
+		} else {
+			sendError(exchange, 404, "No such resource: " + method + " " + exchange.getRequestURI().getPath());
+		}
+	}
+
+
+	private static int statusOf(Throwable failure) {
+		if (failure instanceof IllegalArgumentException || failure instanceof DateTimeException) {
+			return 400;                                                                    // Invalid JSON, a missing field or a score that is not a number
+		} else if (failure instanceof IllegalStateException) {
+			return 409;                                                                    // Patient ID already used, or no patient IDs left
+		} else if (failure instanceof BodyTooLargeException) {
+			return 413;
+		} else if (failure instanceof RejectedExecutionException) {
+			return 503;
+		}
+		return 500;                                                                        // UncheckedIOException from the record files, or a bug
+	}
+
+	// Decoded value of a query parameter, or null
+	private static String queryParameter(HttpExchange exchange, String name) {
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query != null) {
+			for (String parameter : query.split("&")) {
+				if (parameter.startsWith(name + "=")) {
+					return URLDecoder.decode(parameter.substring(name.length() + 1), StandardCharsets.UTF_8);
+				}
+			}
+		}
+		return null;
+	}
+
+	private static String readBody(HttpExchange exchange) {
+		try (InputStream body = exchange.getRequestBody()) {
+			byte[] bytes = body.readNBytes(MAX_BODY_BYTES + 1);
+			if (bytes.length > MAX_BODY_BYTES) {
+				throw new BodyTooLargeException();
+			}
+			return new String(bytes, StandardCharsets.UTF_8);
+		} catch (IOException event) {
+			throw new UncheckedIOException(event);
+		}
+	}
+
+	private static void send(HttpExchange exchange, int status, String json) throws IOException {
+		if (json == null) {
+			exchange.sendResponseHeaders(status, -1);                                     // No body
+			return;
+		}
+		byte[] body = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream responseBody = exchange.getResponseBody()) {
+			responseBody.write(body);
+		}
+	}
+
+	private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+		send(exchange, status, "{\"error\":" + Json.quote(message) + "}");
+	}
+
+
+	private static class BodyTooLargeException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		BodyTooLargeException() {
+			super("Request body is larger than " + MAX_BODY_BYTES + " bytes");
+		}
+	}
+}
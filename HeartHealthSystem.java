@@ -7,27 +7,31 @@
 package application;
 
 import javafx.application.Application;         // Entry point of the application in JavaFX  
+import javafx.application.Platform;            // Posts the result of a background save or load back to the JavaFX application thread
 import javafx.geometry.Insets;                 // Specify the amount of space or padding around the edges of a GUI component
 import javafx.geometry.Pos;                    // Provides various pre-defined value for alignment,(center, top, bottom, right, etc) 
 import javafx.scene.Scene;                     // To create and manage the content and properties of a graphical scene
 import javafx.scene.control.*;                 // Allows user interface controls, such as button, labels, text fields, combo boxes, list view, table views...
+import javafx.scene.input.KeyCode;              // Keyboard shortcut to the diagnostics
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
 import javafx.scene.layout.*;                  // Contains classes that represent various layout containers used for organizing and positioning UI elements within a scene
 import javafx.scene.text.Font;                 // Set font size for the label or buttons
 import javafx.scene.paint.Color;               // Set color for three view buttons
 import javafx.stage.Stage;                     // Displaying the user interface and handling the interaction with the operating system
 
 
-import java.io.File;                           // File class provide abstraction for working with files and directories in the file system, used to create,delete, rename, and query properties of Files and directories
-import java.io.FileWriter;                     // Used for writing character data to file, it allows to write text data to a file in a sequential manner.
-import java.io.FileReader;                     // Used to read patient's data from the file
-import java.io.BufferedReader;                 // Used to read file element
 import java.io.IOException;                    // Exception class that is thrown when an I/O operation encounters an error or fails
-import java.util.List;                         // Provides methods for adding, removing, and accessing elements in a list, store and manipulate collections of data, such as lines read from a file.
-import java.util.Random;                       // To generate random patient ID
-import java.time.LocalDate;                    // To schedule a exam for the patient after collected all the required information
-import java.util.Map;
-import java.util.HashMap;
+import java.time.ZoneId;                        // CT scan versions are shown on the local date they were saved
 import java.time.format.DateTimeFormatter;
+import java.nio.file.Paths;                    // Locates the patient store in the working directory
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;                       // Numbers on the risk summary and navigation times always use a decimal point
+import java.util.concurrent.CompletableFuture; // Result of a save or load running on the background I/O threads
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 
             
@@ -36,11 +40,67 @@ import java.time.format.DateTimeFormatter;
 public class HeartHealthSystem extends Application {
 	private Stage primaryStage;                                                              // Declares a private instance variable primaryStage of type Stage. The Stage represents the main window or stage of the JavaFX application
 	private DateTimeFormatter dateFormatter;                                                 // The DateTimeFormatter class is used for formatting and parsing dates and times
+	private RecordService recordService;                                                     // Runs every patient and CT scan record call off the JavaFX application thread
+	private final PatientViewModel patientViewModel = new PatientViewModel();                // Patient shown by the Patient View, the view's labels are bound to it
 	
-	public static void main(String[] args) {
+	// Every view is built the first time it is shown and reused after that, showing a view again only swaps the scene
+	// and refreshes its data. -DheartHealth.logNavigationTime=true prints the time from a click to the new view's first layout;
+	// HeartHealthNavigationBenchmark measures it headless, per view
+	private static final boolean LOG_NAVIGATION_TIME = Boolean.getBoolean("heartHealth.logNavigationTime");
+	private Scene mainViewScene, patientIntakeScene, ctScanTechViewScene, patientViewScene, patientLoginScene, riskSummaryScene, diagnosticsScene;
+	private TextField[] patientIntakeTextFields, ctScanTextFields;                           // Cleared every time their view is shown
+	private TextField patientIDInputTextField;                                               // Cleared every time the login is shown
+	private Button riskSummaryRefreshButton;                                                 // Fired every time the risk summary is shown
+	private GridPane patientHistoryGrid;                                                     // One row per CT scan of the patient shown, filled when the history is loaded
+	private TextArea diagnosticsTextArea;                                                    // Metrics report, refreshed every time the diagnostics are shown
+	
+	// Latency of each UI action, see Metrics; file reads and writes are recorded by the record files themselves
+	private static final Metrics.Latency INTAKE_SAVE = Metrics.latency("ui.intakeSave");
+	private static final Metrics.Latency CT_SAVE = Metrics.latency("ui.ctSave");
+	private static final Metrics.Latency LOGIN = Metrics.latency("ui.login");
+	private static final Metrics.Latency RISK_SUMMARY = Metrics.latency("ui.riskSummary");
+	private static final Metrics.Latency NAVIGATION = Metrics.latency("ui.navigation");     // Click to the new view's first layout
+	private static final Metrics.Latency ALERT_OPEN = Metrics.latency("ui.alertOpen");      // Time a modal alert waits for the user
+	
+	public static void main(String[] args) throws IOException {
+		if (args.length > 0 && args[0].equals("--import-ct")) {
+			CTBulkImport.main(java.util.Arrays.copyOfRange(args, 1, args.length));          // Headless import of a scanner CSV export, no window is opened
+			return;
+		}
+		if (args.length > 0 && args[0].equals("--serve")) {
+			HeartHealthServer.main(java.util.Arrays.copyOfRange(args, 1, args.length));     // Headless HTTP/JSON service owning the record directory
+			return;
+		}
+		if (args.length > 0 && args[0].equals("--ct-reports")) {
+			CTReportBatch.main(java.util.Arrays.copyOfRange(args, 1, args.length));         // Headless HTML and PDF reports of the day's CT scans
+			return;
+		}
+		if (args.length > 0 && args[0].equals("--ct-analytics")) {
+			CTRiskAnalytics.main(java.util.Arrays.copyOfRange(args, 1, args.length));       // Headless risk summary of every stored CT scan report
+			return;
+		}
 		launch(args);                                                                        // Starts the JavaFX application by invoking the start method
 	}
 
+	public void init() throws IOException {
+		// Runs on the launcher thread before start, so loading the patient index does not hold up the JavaFX application thread
+		// Patient ID width can be changed with -DheartHealth.patientIDDigits=<n>
+		// Number of patient records kept in memory can be changed with -DheartHealth.recordCacheSize=<n>
+		// With -DheartHealth.server=http://host:8360 the station is a thin client of a Heart Health server and opens no record files
+		// Metrics are printed every 300 seconds, -DheartHealth.metricsLogSeconds=<n> changes that and 0 turns it off
+		// Record files are kept in the working directory, -DheartHealth.recordDirectory=<dir> keeps them elsewhere
+		Metrics.startLogging(Integer.getInteger("heartHealth.metricsLogSeconds", 300));
+		String server = System.getProperty("heartHealth.server");
+		if (server != null) {
+			this.recordService = RemoteRecordService.connect(server);
+			return;
+		}
+		PatientRecordService localRecords = PatientRecordService.open(Paths.get(System.getProperty("heartHealth.recordDirectory", "")), Integer.getInteger("heartHealth.patientIDDigits", PatientIDAllocator.DEFAULT_DIGITS),
+				Integer.getInteger("heartHealth.recordCacheSize", PatientRecordCache.DEFAULT_CAPACITY));
+		System.out.println(localRecords.catalog().readyReport(localRecords.patientCount()));
+		this.recordService = localRecords;
+	}
+
 	public void start(Stage primaryStage) {
 		this.primaryStage = primaryStage;                                                    // This allows other methods in the class to access and manipulate the primary stage.
 		this.dateFormatter = DateTimeFormatter.ofPattern("MM/dd/yyyy");                      // Initializes the dateFormatter instance variable with a DateTimeFormatter object that formats dates using the pattern "MM/dd/yyyy".
@@ -48,9 +108,21 @@ public class HeartHealthSystem extends Application {
 		showSystemMainView();                                                                // Displaying the main view of the heart health system.
 	}
 	
+	public void stop() throws IOException {
+		if (recordService != null) {
+			recordService.close();                                                           // Finish pending saves and release the record files when the application exits
+		}
+	}
+	
 	public void showSystemMainView() {
-		
-		primaryStage.setTitle("Heart Health Imaging and Recording System");                  // Create the title for the UI system
+		long navigationStart = System.nanoTime();
+		if (mainViewScene == null) {
+			mainViewScene = buildView("mainView", this::buildSystemMainView);
+		}
+		showScene("Heart Health Imaging and Recording System", mainViewScene, navigationStart);   // Create the title for the UI system
+	}
+	
+	private Scene buildSystemMainView() {
 		
 		Label systemLabel = new Label("Welcome to Heart Health Imaging and Recording System"); // Create the title label for the main view
 		systemLabel.setStyle("-fx-font-weight: bold;");                                      // Set label to bold
@@ -63,6 +135,9 @@ public class HeartHealthSystem extends Application {
 		
 		Button patientViewButton = new Button("Patient View");                               // Create the button named Patient View
 		patientViewButton.setOnAction(event -> patientLogin());                               // sets showPatientView method as the action to be performed when the view button is clicked
+		
+		Button riskSummaryButton = new Button("Risk Summary");                               // Create the button named Risk Summary, for clinicians
+		riskSummaryButton.setOnAction(event -> ctRiskSummaryView());                         // sets ctRiskSummaryView method as the action to be performed when the button is clicked
 
 	    
 		// Set Font Size
@@ -78,6 +153,7 @@ public class HeartHealthSystem extends Application {
 		patientIntakeButton.setStyle(setButtonBlue);                                          // Set "Patient Intake" button background to blue and keep text "Patient Intake" white
 		ctScanTechViewButton.setStyle(setButtonBlue);                                         // Set "CT Scan Tech View" button background to blue and keep text "CT Scan Tech View" white
 		patientViewButton.setStyle(setButtonBlue);                                            // Set "Patient View" button background to blue and keep text "Patient View" white
+		riskSummaryButton.setStyle(setButtonBlue);                                            // Set "Risk Summary" button background to blue and keep text "Risk Summary" white
 		
 		
 		// Set view box spacing to 40 pixels and set all nodes to stacked vertically within the VBox
@@ -100,61 +176,39 @@ public class HeartHealthSystem extends Application {
 		patientViewButton.setPrefHeight(150);                                                 // Set patient view button width height to 330 pixel
 		
 		
+		// Risk Summary button sits at the top right corner, away from the three main views
+		HBox setRiskSummaryButton = new HBox(riskSummaryButton);
+		setRiskSummaryButton.setPadding(new Insets(10));                                      // Sets the padding around the HBox to 10 pixels on all sides
+		setRiskSummaryButton.setAlignment(Pos.TOP_RIGHT);                                     // Set node to top right
+		
+		BorderPane mainViewLayout = new BorderPane();
+		mainViewLayout.setTop(setRiskSummaryButton);
+		mainViewLayout.setCenter(setMainView);
+		
+		
 		// Set Scene length                         
-		Scene mainViewScene = new Scene(setMainView, 750, 500);                               // The length of the scene is set to 750 pixels and the height is set to 500 pixels
-		primaryStage.setScene(mainViewScene);                                                 // Sets the created scene as the mainViewScene to be displayed on the primaryStage stage
-		primaryStage.show();                                                                  // Display the primary stage along with the configured scene
+		Scene mainView = new Scene(mainViewLayout, 750, 500);                                  // The length of the scene is set to 750 pixels and the height is set to 500 pixels
+		
+		// Hidden from patients and staff: Ctrl+Shift+D opens the diagnostics
+		mainView.getAccelerators().put(new KeyCodeCombination(KeyCode.D, KeyCombination.CONTROL_DOWN, KeyCombination.SHIFT_DOWN), this::diagnosticsView);
+		return mainView;
 					
 	}
 	
 	
-	// A private class to hold patient's information
-	private class Patient {
-		private String patientID, FirstName, LastName, Email, PhoneNumber, HealthHistory, InsuranceID;  // private instance variables for storing the patient's info
-		private LocalDate examDate;
-		
-		// constructor of the Patient class takes the necessary information to create a Patient object and initializes the instance variables with the provided values
-		public Patient (String patientID, String FirstName, String LastName, String Email, String PhoneNumber, String HealthHistory, String InsuranceID, LocalDate examDate) {
-			this.patientID = patientID;                                                      
-			this.FirstName =  FirstName;                                                      
-			this.LastName = LastName;                                                         
-			this.Email = Email;                                                               
-			this.PhoneNumber = PhoneNumber;                                                   
-			this.HealthHistory = HealthHistory;                                               
-			this.InsuranceID = InsuranceID;                                                   
-			this.examDate = examDate;	                                                      
-		}
-		
-		public String getPatientID() {                                                        // getter method that returns the patient's ID
-			return patientID;
-		} 
-		public String getFirstName() {                                                        // getter method that returns the patient's first name
-			return FirstName;
-		}
-		public String getLastName() {                                                         // getter method that returns the patient's last name
-			return LastName;
-		}
-		public String getEmail() {                                                            // getter method that returns the patient's email
-			return Email;
-		}
-		public String getPhoneNumber() {                                                      // getter method that returns the patient's phone number
-			return PhoneNumber;			
-		}
-		public String getHealthHistory() {                                                    // getter method that returns the patient's health history
-			return HealthHistory;
-		}
-		public String getInsuranceID() {                                                      // getter method that returns the patient's insurance ID
-			return InsuranceID;
+	// Patient Intake (One of the views from Main system)
+	private void patientIntakeView() { 
+		long navigationStart = System.nanoTime();
+		if (patientIntakeScene == null) {
+			patientIntakeScene = buildView("patientIntake", this::buildPatientIntakeView);
 		}
-		public LocalDate examDate() {                                                         // getter method that returns the patient's exam date
-			return examDate;
+		for (TextField textField : patientIntakeTextFields) {
+			textField.clear();                                                                // Start every intake with an empty form
 		}
+		showScene("Heart Health System - Patient Intake", patientIntakeScene, navigationStart);   // Set UI title for Patient Intake view
 	}
 	
-	
-	// Patient Intake (One of the views from Main system)
-	private void patientIntakeView() { 
-		primaryStage.setTitle("Heart Health System - Patient Intake");                        // Set UI title for Patient Intake view
+	private Scene buildPatientIntakeView() { 
 		 
 		// Title
 	    Label patientIntakeLabel = new Label("Patient Intake Form");                          // Create patient intake label
@@ -204,13 +258,29 @@ public class HeartHealthSystem extends Application {
 		Label insuranceID = new Label("Insurance ID: ");                                      // Create Insurance ID label
 		TextField insuranceIDTextField = new TextField();                                     // Create text field for insurance ID
 		insuranceIDTextField.setPrefHeight(48);                                               // Set height of the text field to 48 pixels
+		
+		// Search box so the receptionist can check whether the patient is already registered before saving them again
+		TextField intakeSearchTextField = new TextField();
+		VBox patientSearchBox = buildPatientSearchBox(intakeSearchTextField, existingPatient -> {
+			Alert existingAlert = new Alert(Alert.AlertType.INFORMATION);
+			existingAlert.setTitle("Patient Search");
+			existingAlert.setHeaderText("Already registered");
+			existingAlert.setContentText("Patient Name: " + existingPatient.getFirstName() + " " + existingPatient.getLastName() + "\nPatient ID: " + existingPatient.getPatientID()
+					+ (existingPatient.examDate() == null ? "" : "\nExam Date: " + existingPatient.examDate().format(dateFormatter)) + "\nContact Number: " + existingPatient.getPhoneNumber());
+			showAndWait(existingAlert);
+		});
+		
+		patientIntakeTextFields = new TextField[] { firstNameTextField, lastNameTextField, emailTextField, phoneNumberTextField, healthHistoryTextField, insuranceIDTextField, intakeSearchTextField };
 	
 		VBox setBackButton = new VBox(20, backButton);                                        // Set box spacing to 20 pixels
 		setBackButton.setPadding(new Insets(20));                                             // Sets the padding around the VBox to 20 pixels on all sides.
 		setBackButton.setAlignment(Pos.BOTTOM_LEFT);                                          // Set node(Back) centered horizontally and aligned to the bottom right vertically with the box
 		
 		
-		VBox setSaveButton = new VBox(20, savePatientIntakeButton);                           // Set box spacing to 20 pixels
+		ProgressIndicator saveProgress = new ProgressIndicator();                             // Spinner shown while the patient is being saved
+		saveProgress.setVisible(false);
+		
+		VBox setSaveButton = new VBox(20, savePatientIntakeButton, saveProgress, patientSearchBox);   // Set box spacing to 20 pixels
 		setSaveButton.setPadding(new Insets(20));                                             // Sets the padding around the VBox to 20 pixels on all sides.
 		setSaveButton.setAlignment(Pos.TOP_RIGHT);                                            // Set node(Save) centered horizontally and aligned to the bottom right vertically with the box
 		 
@@ -268,7 +338,7 @@ public class HeartHealthSystem extends Application {
 				errorAlert.setTitle("Error");                                                  // Display string Error as alert title
 				errorAlert.setHeaderText("Missing Information!");                              // Display Missing Information as alert header
 				errorAlert.setContentText("Please fill in all the required text field!");      // Display message on the alert content
-				errorAlert.showAndWait();
+				showAndWait(errorAlert);
 				return;
 		
 			}
@@ -276,127 +346,131 @@ public class HeartHealthSystem extends Application {
 			
 			else {
 				
-				// Generate 5 digit patient ID if all required text fields are filled
-				String patientID = generate5DigitID();                                      // Generate 5 digit patient ID
+				// Generate a patient ID no other patient has, book the earliest free CT scanner slot for the exam, then save patient
+				// information, all on the background I/O threads; the slot is given back if the patient cannot be saved
+				CompletableFuture<ExamScheduler.Booking> savePatient = recordService.allocatePatientID().thenCompose(patientID ->
+					recordService.bookExam(patientID).thenCompose(booking -> {
+						Patient newPatient = new Patient(patientID, firstNameText, lastNameText, emailText, phoneNumberText, healthHistoryText, insuranceIDText, booking.date);
+						return recordService.savePatientInfo(newPatient).whenComplete((saved, failure) -> {
+							if (failure != null) {
+								recordService.cancelExam(patientID);
+							}
+						}).thenApply(saved -> booking);
+					}));
 				
-				// Schedule an appointment after new patient ID is generated
-				LocalDate examDate = LocalDate.now().plusDays(3);                          // Schedule an appointment 3 days from today	
-				
-				// Create patient information FILE based on the intake form
-				Patient newPatient = new Patient(patientID, firstNameText, lastNameText, emailText, phoneNumberText, healthHistoryText, insuranceIDText, examDate);    
-				
-				// Save patient information to a file
-				savePatientInfoToFile(newPatient);
+				whenRecordCallDone(INTAKE_SAVE, savePatient, saveProgress, savePatientIntakeButton, "Patient could not be saved!", booking -> {
 					
-				// Display success message after save button is clicked
-				Alert intakeAlert = new Alert(Alert.AlertType.INFORMATION);
-				intakeAlert.setTitle("Patient Intake");
-				intakeAlert.setHeaderText("Saved successfully!");
-				intakeAlert.setContentText("Patient Name: " + firstNameText + " " + lastNameText + "\nPatient ID: " + patientID + 
-						"\nExam Date: " + examDate.format(dateFormatter) + "\nContact Number: " + phoneNumberText);
-				intakeAlert.showAndWait();
+					// Display success message after the patient is saved
+					Alert intakeAlert = new Alert(Alert.AlertType.INFORMATION);
+					intakeAlert.setTitle("Patient Intake");
+					intakeAlert.setHeaderText("Saved successfully!");
+					intakeAlert.setContentText("Patient Name: " + firstNameText + " " + lastNameText + "\nPatient ID: " + booking.patientID + 
+							"\nExam Date: " + booking.date.format(dateFormatter) + " at " + booking.time + "\nContact Number: " + phoneNumberText);
+					showAndWait(intakeAlert);
+						
 					
-				
-				// Clear the input fields after patient info saved 
-				firstNameTextField.clear();                                               // Clear first name text field
-				lastNameTextField.clear();                                                // Clear last name text field
-				emailTextField.clear();                                                   // Clear email text field
-				phoneNumberTextField.clear();                                             // Clear phone number text field
-				healthHistoryTextField.clear();                                           // Clear health history text field
-				insuranceIDTextField.clear();                                             // Clear insurance ID text field
+					// Clear the input fields after patient info saved 
+					firstNameTextField.clear();                                               // Clear first name text field
+					lastNameTextField.clear();                                                // Clear last name text field
+					emailTextField.clear();                                                   // Clear email text field
+					phoneNumberTextField.clear();                                             // Clear phone number text field
+					healthHistoryTextField.clear();                                           // Clear health history text field
+					insuranceIDTextField.clear();                                             // Clear insurance ID text field
+					
+					showSystemMainView();                                                     // Call the main system view(means the system page will jump back to the main view 
+					                                                                          // after the patient is saved	
+				});
 
 			}
-		
-			showSystemMainView();                                                         // Call the main system view(means the system page will jump back to the main view 
-                                                                                          // after the save button is clicked	
 		}); 
 		
 		
-		// Create scene and sets it on a Stage to display the GUI
+		// Create scene once, showScene sets it on the Stage to display the GUI
 		// Create a new scene object name patientIntakeScene with specified patientIntakeLayout
 		// The width of the scene is set to 1000 pixels and the height is set to 600 pixels
-		Scene patientIntakeScene = new Scene(patientIntakeLayout, 1000, 600);                                              
-		primaryStage.setScene(patientIntakeScene);                                         // Sets the created scene as the patientIntakeScene to be displayed on the primaryStage stage
-		primaryStage.show();                                                               // Display the primary stage along with the configured scene
+		return new Scene(patientIntakeLayout, 1000, 600);
 		
 
 	} 
 	
-	// Create a method to generate 5 digit patient ID randomly (Integer)
-	private String generate5DigitID() {
-		Random randomPatientID = new Random();
-		int patientID = randomPatientID.nextInt(90000) + 10000;
-		return String.valueOf(patientID);
-		
+	// Run the action on the JavaFX application thread once a background save or load is done,
+	// the progress spinner is shown and the button disabled while the call is in flight
+	// The latency recorded is the time the user waits for the spinner, up to the result being on the JavaFX application thread
+	private <T> void whenRecordCallDone(Metrics.Latency latency, CompletableFuture<T> recordCall, ProgressIndicator progress, Button button, String failureHeader, Consumer<T> action) {
+		long callStart = System.nanoTime();
+		progress.setVisible(true);
+		button.setDisable(true);
+		
+		recordCall.whenComplete((result, failure) -> Platform.runLater(() -> {
+			latency.recordSince(callStart);
+			progress.setVisible(false);
+			button.setDisable(false);
+			
+			if (failure == null) {
+				action.accept(result);
+				return;
+			}
+			
+			// Display error message instead of printing the stack trace
+			Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+			Alert errorAlert = new Alert(Alert.AlertType.ERROR);
+			errorAlert.setTitle("Error");
+			errorAlert.setHeaderText(failureHeader);
+			errorAlert.setContentText(cause.getMessage() != null ? cause.getMessage() : cause.toString());
+			showAndWait(errorAlert);
+		}));
 	}
 	
-	// Create an action for save button and display the properly message
-
-	private void savePatientInfoToFile(Patient newPatient) {
-		String patientFileName = newPatient.getPatientID() + "_PatientInfo.txt";           // Create a patient file named xxxxx_PatientInfo.txt
+	// Swap a built view onto the stage, the scene graph itself is reused
+	private void showScene(String title, Scene scene, long navigationStart) {
+		primaryStage.setTitle(title);
+		primaryStage.setScene(scene);                                                         // Sets the scene to be displayed on the primaryStage stage
+		primaryStage.show();                                                                  // Display the primary stage along with the configured scene
 		
-		try (FileWriter fileWriter = new FileWriter(patientFileName)) {                    // Open try block and used for exception handling and ensures fileWriter resource is used properly
-			
-			fileWriter.write("Patient ID: " + newPatient.getPatientID());                  // writes the patient ID string concatenated with the patient's Patient ID retrieved using the getPatientID() method to the file
-			fileWriter.write("\nFirst Name: " + newPatient.getFirstName());                // writes the First Name string concatenated with the patient's first name retrieved using the getFirstName() method to the file
-			fileWriter.write("\nLast Name: " + newPatient.getLastName());                  // writes the Last Name string concatenated with the patient's last name retrieved using the getLastName() method to the file
-			fileWriter.write("\nEmail: " + newPatient.getEmail());                         // writes the Email string concatenated with the patient's email retrieved using the getEmail() method to the file
-			fileWriter.write("\nPhone Number: " + newPatient.getPhoneNumber());            // writes the Phone Number string concatenated with the patient's phone number retrieved using the getPhoneNumber() method to the file
-			fileWriter.write("\nHealth History: " + newPatient.getHealthHistory());        // writes the Health History string concatenated with the patient's health history retrieved using the getHealthHistory() method to the file
-			fileWriter.write("\nInsurance ID: " + newPatient.getInsuranceID());            // writes the Insurance ID string concatenated with the patient's Insurance ID retrieved using the getInsuranceID() method to the file
-			fileWriter.write("\nExam Date: " + newPatient.examDate());                     // writes the Exam Date string concatenated with the patient's exam date retrieved using the examDate() method to the file
-				 
-		} catch (IOException event) {                                                      // This line starts a catch block and specifies that if an IOException occurs within the try block, the following code will handle the exception
-			event.printStackTrace();                                                       // prints the stack trace of the exception that occurred, providing information about where and how the exception was thrown
-		}
+		// The view is ready once the next pulse has laid it out
+		scene.addPostLayoutPulseListener(new Runnable() {
+			public void run() {
+				scene.removePostLayoutPulseListener(this);
+				NAVIGATION.recordSince(navigationStart);
+				if (LOG_NAVIGATION_TIME) {
+					System.out.printf(Locale.ROOT, "Navigation to \"%s\": %.2f ms%n", title, (System.nanoTime() - navigationStart) / 1e6);
+				}
+			}
+		});
 	}
 	
-
+	// Build a view the first time it is shown, the time it takes goes into the view.build.<view> histogram
+	private static Scene buildView(String view, Supplier<Scene> build) {
+		long buildStart = System.nanoTime();
+		Scene scene = build.get();
+		Metrics.latency("view.build." + view).recordSince(buildStart);
+		return scene;
+	}
 	
+	// Every modal alert goes through here, so the diagnostics show how long a flow was waiting on the user
+	private static void showAndWait(Alert alert) {
+		long shownAt = System.nanoTime();
+		alert.showAndWait();                                                                  // Display the alert and wait for the user to close it
+		ALERT_OPEN.recordSince(shownAt);
+	}
 	
-	    // A private class to hold CT Scan data 
-		private class ctScanData {
-			private String PatientID, TotalAgatstionCACScore, LM, LAD, LCX, RCA, PDA;     // private instance variables for storing the patient's CT scan data
-			
-			// constructor of the Patient class takes the necessary information to create a Patient object and initializes the instance variables with the provided values
-			public ctScanData (String PatientID, String TotalAgatstionCACScore, String LM, String LAD, String LCX, String RCA, String PDA) {
-				this.PatientID = PatientID;
-				this.TotalAgatstionCACScore =  TotalAgatstionCACScore;
-				this.LM = LM;
-				this.LAD = LAD;
-				this.LCX = LCX;
-				this.RCA = RCA;
-				this.PDA = PDA;	
-			}
-			
-			public String getPatientID() {                                               // getter method that returns the patient's ID
-				return PatientID;
-			}
-			public String getTotalAgatstionCACScore() {                                  // getter method that returns the patient's total agatstion CAC Score
-				return TotalAgatstionCACScore;
-			}
-			public String getLM() {                                                      // getter method that returns the patient's LM Score
-				return LM;
-			}
-			public String getLAD() {                                                     // getter method that returns the patient's LAD Score
-				return LAD;
-			}
-			public String getLCX() {                                                     // getter method that returns the patient's LCX Score
-				return LCX;			
-			} 
-			public String getRCA() {                                                     // getter method that returns the patient's RCA Score
-				return RCA;
-			}
-			public String getPDA() {                                                     // getter method that returns the patient's PDA Score
-				return PDA;
-			}
-		
-		}
+	
+
 	
 	
 	// CT Scan Tech View (One of the views from Main system)
 	private void ctScanTechView() {
-		primaryStage.setTitle("Heart Health System - CT Scan Tech View");                    // Create the title for the UI system
+		long navigationStart = System.nanoTime();
+		if (ctScanTechViewScene == null) {
+			ctScanTechViewScene = buildView("ctScanTechView", this::buildCTScanTechView);
+		}
+		for (TextField textField : ctScanTextFields) {
+			textField.clear();                                                               // Start every report with an empty form
+		}
+		showScene("Heart Health System - CT Scan Tech View", ctScanTechViewScene, navigationStart);   // Create the title for the UI system
+	}
+	
+	private Scene buildCTScanTechView() {
 		
 		 // Save Button
 		Button saveCTScanButton = new Button("Save");                                        // Create button named Save
@@ -474,6 +548,8 @@ public class HeartHealthSystem extends Application {
 		pdaLabel.setStyle("-fx-font-weight: bold;");                                          // Set font to bold
 		pdaLabel.setFont(Font.font(18));                                                      // Set font to 18
 		
+		ctScanTextFields = new TextField[] { patientIDTextField, totalAgatstionCACScoreTextField, lmTextField, ladTextField, lcxTextField, rcaTextField, pdaTextField };
+		
 		
 		// Create a GridPane layout 
 		GridPane techViewGridPane = new GridPane();                                           // creates an empty grid pane that can be used to organize components in a grid-like layout.
@@ -502,6 +578,10 @@ public class HeartHealthSystem extends Application {
 		techViewGridPane.add(backButton, 0, 14);                                              // Adds a back button to the grid pane at column 0, row 14
 		techViewGridPane.add(saveCTScanButton, 3, 14);                                        // Adds a saveCTScanButton to the grid pane at column 3, row 14
 		
+		ProgressIndicator saveProgress = new ProgressIndicator();                             // Spinner shown while the CT report is being saved
+		saveProgress.setVisible(false);
+		techViewGridPane.add(saveProgress, 3, 15);                                            // Adds the spinner to the grid pane at column 3, row 15
+		
 		
 		
 		// Create a button action when save button is clicked
@@ -523,7 +603,7 @@ public class HeartHealthSystem extends Application {
 				errorAlert.setTitle("Error");                                                  // Display string Error as alert title
 				errorAlert.setHeaderText("Missing Information!");                              // Display Missing Information as alert header
 				errorAlert.setContentText("Please fill in all the required text field!");      // Display message on the alert content
-				errorAlert.showAndWait();
+				showAndWait(errorAlert);
 				return;
 		
 			}
@@ -535,93 +615,135 @@ public class HeartHealthSystem extends Application {
 				// Create patient CT Scan data FILE based on the technician's recording
 				ctScanData newPatientData = new ctScanData(patientIDText, totalAgatstionCACScoreText, lmText, ladText, lcxText, rcaText, pdaText);    
 				
-				// Save patient CT scan data to a file
-				savePatientCTScanDataToFile(newPatientData);
-					
-				// Display success message after save button is clicked
-				Alert intakeAlert = new Alert(Alert.AlertType.INFORMATION);
-				intakeAlert.setTitle("CT Scan Report");
-				intakeAlert.setHeaderText("Saved");
-				intakeAlert.setContentText("CT Report has been saved successfully!");
-				intakeAlert.showAndWait();
-				
+				// Check that the patient ID and every score is a number before saving
+				CTScoreRecord newPatientScores;
+				try {
+					newPatientScores = CTScoreRecord.from(newPatientData);
+				} catch (NumberFormatException invalidScore) {
+					Alert errorAlert = new Alert(Alert.AlertType.ERROR);
+					errorAlert.setTitle("Error");                                              // Display string Error as alert title
+					errorAlert.setHeaderText("Invalid Information!");                          // Display Invalid Information as alert header
+					errorAlert.setContentText("Patient ID and all scores must be numbers!");   // Display message on the alert content
+					showAndWait(errorAlert);
+					return;
+				}
 				
-				// Clear the input fields after patient info saved 
-				patientIDTextField.clear();                                                    // Clear first name text field
-				totalAgatstionCACScoreTextField.clear();                                       // Clear last name text field
-				lmTextField.clear();                                                           // Clear email text field
-				ladTextField.clear();                                                          // Clear phone number text field
-				lcxTextField.clear();                                                          // Clear health history text field
-				rcaTextField.clear();                                                          // Clear insurance ID text field
-				pdaTextField.clear();  
+				// Save patient CT scan data to a file on the background I/O threads
+				whenRecordCallDone(CT_SAVE, recordService.savePatientCTScanData(newPatientScores), saveProgress, saveCTScanButton, "CT Report could not be saved!", saved -> {
+					
+					// Display success message after the report is saved
+					Alert intakeAlert = new Alert(Alert.AlertType.INFORMATION);
+					intakeAlert.setTitle("CT Scan Report");
+					intakeAlert.setHeaderText("Saved");
+					intakeAlert.setContentText("CT Report has been saved successfully!");
+					showAndWait(intakeAlert);
+					
+					
+					// Clear the input fields after patient info saved 
+					patientIDTextField.clear();                                                    // Clear first name text field
+					totalAgatstionCACScoreTextField.clear();                                       // Clear last name text field
+					lmTextField.clear();                                                           // Clear email text field
+					ladTextField.clear();                                                          // Clear phone number text field
+					lcxTextField.clear();                                                          // Clear health history text field
+					rcaTextField.clear();                                                          // Clear insurance ID text field
+					pdaTextField.clear();  
+					
+					showSystemMainView();                                                          // Call the main system view(means the system page will jump back to the main view 
+					                                                                               // after the report is saved
+				});
 
 			}
-		
-			showSystemMainView();                                                              // Call the main system view(means the system page will jump back to the main view 
-                                                                                               // after the save button is clicked
 			
 		});
 		
-		// Create scene and sets it on a Stage to display the GUI
+		// Create scene once, showScene sets it on the Stage to display the GUI
 	    // Create a new scene object name patientIntakeScene with specified patientIntakeLayout
 	    // The width of the scene is set to 1000 pixels and the height is set to 600 pixels
-		Scene ctScanTechViewScene = new Scene(techViewGridPane, 1000, 600);
-		primaryStage.setScene(ctScanTechViewScene);                                            // Sets the created scene as the ctScanTechViewScene to be displayed on the primaryStage stage
-		primaryStage.show();                                                                   // Display the primary stage along with the configured scene
+		return new Scene(techViewGridPane, 1000, 600);
 		    
 	}
 	
-	private void savePatientCTScanDataToFile(ctScanData newPatientData) {
-		String patientCTScanFileName = newPatientData.getPatientID() + "CTResults.txt";                         // Create a patient file named xxxxxCTResults.txt
-		
-		try (FileWriter fileWriter = new FileWriter(patientCTScanFileName)) {                    	            // Open try block and used for exception handling and ensures fileWriter resource is used properly
-			
-			fileWriter.write("Patient ID: " + newPatientData.getPatientID());                                   // writes the patient ID string concatenated with the PatientID retrieved using the getPatientID() method to the file
-			fileWriter.write("\nTotal Agatston CAC score: " + newPatientData.getTotalAgatstionCACScore());      // writes the Total Agatstion CAC Score string concatenated with the getTotalAgatstionCACScore retrieved using the getTotalAgatstionCACScore() method to the file
-			fileWriter.write("\nLM Score: " + newPatientData.getLM());                                          // writes the LM Score string concatenated with the patient's LM Score retrieved using the getLM() method to the file
-			fileWriter.write("\nLAD Score: " + newPatientData.getLAD());                         				// writes the LAD score string concatenated with the patient's LAD score retrieved using the getLAD() method to the file
-			fileWriter.write("\nLCX Score: " + newPatientData.getLCX());           								// writes the LCX score string concatenated with the patient's LCX score retrieved using the getLCX() method to the file
-			fileWriter.write("\nRCA Score: " + newPatientData.getRCA());        								// writes the RCA score string concatenated with the patient's RCA score retrieved using the getRCA() method to the file
-			fileWriter.write("\nPDA Score: " + newPatientData.getPDA());                                        // writes the PDA score string concatenated with the patient's PDA score retrieved using the getPDA() method to the file
-			
-			
-		} catch (IOException event) {                                                                           // This line starts a catch block and specifies that if an IOException occurs within the try block, the following code will handle the exception
-			event.printStackTrace();                                                                            // prints the stack trace of the exception that occurred, providing information about where and how the exception was thrown
-		}
-		
-    }
-	
-	
-
-	
 	// Patient View (One of the views from Main system)
-    private void patientView(String patientLoginID) {
-    	primaryStage.setTitle("Heart Health System - Patient View");                                    // Create the title for the UI system
+    // The patient's record has already been loaded by the login on the background I/O threads
+    private void patientView(PatientRecord patientRecord) {
+    	long navigationStart = System.nanoTime();
+    	if (patientViewScene == null) {
+    		patientViewScene = buildView("patientView", this::buildPatientView);
+    	}
+    	patientViewModel.setPatientRecord(patientRecord);                                              // The bound labels show the new patient
+    	patientHistoryGrid.getChildren().clear();
+    	showScene("Heart Health System - Patient View", patientViewScene, navigationStart);            // Create the title for the UI system
+    	
+    	// Earlier scans are loaded after the view is shown, only this patient's versions are read
+    	String patientID = patientRecord.getPatient().getPatientID();
+    	recordService.loadCTHistory(patientID).whenComplete((history, failure) -> Platform.runLater(() -> {
+    		if (failure != null || !patientViewModel.isShowing(patientID)) {
+    			return;                                                                                // The latest report is shown either way, or the patient logged out
+    		}
+    		patientViewModel.setHistory(history, dateFormatter);
+    		showCTHistory(history);
+    	}));
+    }
+    
+    // Newest scan first: date, every score, and the change of the total score since the scan before
+    private void showCTHistory(List<CTScanHistory.Version> history) {
+    	patientHistoryGrid.getChildren().clear();
+    	if (history.size() < 2) {
+    		return;                                                                                    // Nothing to compare the report with
+    	}
+    	int gridColumn = 0;
+    	patientHistoryGrid.add(boldLabel("Date"), gridColumn++, 0);
+    	for (String columnName : CTColumnArchive.COLUMN_NAMES) {
+    		patientHistoryGrid.add(boldLabel(columnName), gridColumn++, 0);
+    	}
+    	patientHistoryGrid.add(boldLabel("Change"), gridColumn, 0);
     	
-		String patientName = getPatientName(patientLoginID);                                            // Call getPatientName method to get patient's full name based on the patient ID entered
+    	for (int i = history.size() - 1, gridRow = 1; i >= 0; i--, gridRow++) {
+    		CTScanHistory.Version version = history.get(i);
+    		CTScoreRecord scores = version.scores;
+    		gridColumn = 0;
+    		patientHistoryGrid.add(new Label(version.savedAt.atZone(ZoneId.systemDefault()).toLocalDate().format(dateFormatter)), gridColumn++, gridRow);
+    		for (float score : new float[] { scores.getTotalAgatstonCACScore(), scores.getLM(), scores.getLAD(), scores.getLCX(), scores.getRCA(), scores.getPDA() }) {
+    			patientHistoryGrid.add(new Label(CTScoreRecord.formatScore(score)), gridColumn++, gridRow);
+    		}
+    		if (i > 0) {
+    			float change = scores.getTotalAgatstonCACScore() - history.get(i - 1).scores.getTotalAgatstonCACScore();
+    			patientHistoryGrid.add(new Label(PatientViewModel.signedChange(change)), gridColumn, gridRow);
+    		}
+    	}
+    }
+    
+    // Labels are styled once here and bound to patientViewModel
+    private Scene buildPatientView() {
 			
     	// Create all labels for Patient View
-    	Label patientViewTitle = new Label("Hello <" + patientName +">" );                              // Create label for the patient view title, display patient name
+    	Label patientViewTitle = new Label();                                                           // Create label for the patient view title, display patient name
+    	patientViewTitle.textProperty().bind(patientViewModel.greeting);
     	patientViewTitle.setFont(Font.font(30));                                                        // Set font to 30
     	patientViewTitle.setStyle("-fx-font-weight: bold;");                                            // Set font to bold
 	
 		
 		Button logoutButton = new Button("Log Out");                                                    // Create Log Out button
 		logoutButton.setOnAction(event -> {                                                             // Take user back to main system view when logout button is clicked
+			patientViewModel.clear();                                                                   // The next user of the kiosk must not see this patient's report
+			patientHistoryGrid.getChildren().clear();
 			showSystemMainView();
 		});
 		
 
-		// Retrieve the Agatston CAC scores
-		Map<String, String> agatstonScores = getAgatstonScores(patientLoginID);
-		
-        // Create labels for each score and set their text
-        Label totalScoreLabel = new Label("Total Agatston CAC score: " + agatstonScores.get("Total Agatston CAC score"));
-        Label lmLabel = new Label("LM: " + agatstonScores.get("LM Score"));
-        Label ladLabel = new Label("LAD: " + agatstonScores.get("LAD Score"));
-        Label lcxLabel = new Label("LCX: " + agatstonScores.get("LCX Score"));
-        Label rcaLabel = new Label("RCA: " + agatstonScores.get("RCA Score"));
-        Label pdaLabel = new Label("PDA: " + agatstonScores.get("PDA Score"));
+        // Create labels for each score and bind their text to the patient shown
+        Label totalScoreLabel = new Label();
+        Label lmLabel = new Label();
+        Label ladLabel = new Label();
+        Label lcxLabel = new Label();
+        Label rcaLabel = new Label();
+        Label pdaLabel = new Label();
+        totalScoreLabel.textProperty().bind(patientViewModel.totalAgatstonCACScore);
+        lmLabel.textProperty().bind(patientViewModel.lm);
+        ladLabel.textProperty().bind(patientViewModel.lad);
+        lcxLabel.textProperty().bind(patientViewModel.lcx);
+        rcaLabel.textProperty().bind(patientViewModel.rca);
+        pdaLabel.textProperty().bind(patientViewModel.pda);
 		
         
 		// Set all labels font to 25 and bold style
@@ -651,113 +773,261 @@ public class HeartHealthSystem extends Application {
         VBox setAllCACScores = new VBox(40, totalScoreLabel, lmLabel, ladLabel, lcxLabel, rcaLabel, pdaLabel);
         setAllCACScores.setPadding(new Insets(25));
         setAllCACScores.setAlignment(Pos.CENTER);
+        
+        // Progression over every earlier scan, scrolls for patients with many follow-ups
+        Label progressionLabel = new Label();
+        progressionLabel.textProperty().bind(patientViewModel.progression);
+        progressionLabel.setFont(Font.font(18));                                                       // Set font to 18
+        progressionLabel.setStyle("-fx-font-weight: bold;");                                            // Set font to bold
+        patientHistoryGrid = new GridPane();
+        patientHistoryGrid.setHgap(14);                                                                 // Set spacing between columns to 14 pixels
+        patientHistoryGrid.setVgap(6);                                                                  // Set spacing between rows to 6 pixels
+        ScrollPane historyScrollPane = new ScrollPane(patientHistoryGrid);
+        historyScrollPane.setPrefSize(480, 380);                                                        // Room for about 15 scans before it scrolls
+        
+        VBox setCTHistory = new VBox(15, progressionLabel, historyScrollPane);
+        setCTHistory.setPadding(new Insets(25));
+        setCTHistory.setAlignment(Pos.CENTER);
     	
        
 	    BorderPane patientViewLayout = new BorderPane();
         patientViewLayout.setTop(setPatientViewTitle);
         patientViewLayout.setCenter(setAllCACScores);
+        patientViewLayout.setRight(setCTHistory);
         patientViewLayout.setBottom(setLogoutButton);
         
         
 		
-		// Create scene and sets it on a Stage to display the GUI
+		// Create scene once, showScene sets it on the Stage to display the GUI
 		// Create a new scene object name patientIntakeScene with specified patientIntakeLayout
 		// The width of the scene is set to 1000 pixels and the height is set to 600 pixels
-		Scene patientViewScene = new Scene(patientViewLayout, 1000, 600);                                              
-		primaryStage.setScene(patientViewScene);                                                       // Sets the created scene as the patientIntakeScene to be displayed on the primaryStage stage
-		primaryStage.show();                                                                           // Display the primary stage along with the configured scene
+		return new Scene(patientViewLayout, 1000, 600);
     	
     }
     
-    private Map<String, String> getAgatstonScores(String patientLoginID) {
-        Map<String, String> agatstonCACScores = new HashMap<>();
-        String ctResultsFilePath = patientLoginID + "CTResults.txt";
-
-        try (BufferedReader agatstonCACReader = new BufferedReader(new FileReader(ctResultsFilePath))) {
-            String line;
-
-            while ((line = agatstonCACReader.readLine()) != null) {
-                if (line.startsWith("Total Agatston CAC score:")) {
-                    String totalScore = line.substring(line.indexOf(":") + 1).trim();
-                    agatstonCACScores.put("Total Agatston CAC score", totalScore);
-                } else if (line.startsWith("LM Score:")) {
-                    String lmScore = line.substring(line.indexOf(":") + 1).trim();
-                    agatstonCACScores.put("LM Score", lmScore);
-                } else if (line.startsWith("LAD Score:")) {
-                    String ladScore = line.substring(line.indexOf(":") + 1).trim();
-                    agatstonCACScores.put("LAD Score", ladScore);
-                } else if (line.startsWith("LCX Score:")) {
-                    String lcxScore = line.substring(line.indexOf(":") + 1).trim();
-                    agatstonCACScores.put("LCX Score", lcxScore);
-                } else if (line.startsWith("RCA Score:")) {
-                    String rcaScore = line.substring(line.indexOf(":") + 1).trim();
-                    agatstonCACScores.put("RCA Score", rcaScore);
-                } else if (line.startsWith("PDA Score:")) {
-                    String pdaScore = line.substring(line.indexOf(":") + 1).trim();
-                    agatstonCACScores.put("PDA Score", pdaScore);
-                }
-            }
-        } 
-        
-        catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return agatstonCACScores;
-    }
- 
+    // Diagnostics (support staff only, reached with Ctrl+Shift+D on the main view)
+    // Shows every latency histogram and counter of this station, the same numbers JMX and the metrics log show
+	private void diagnosticsView() {
+		long navigationStart = System.nanoTime();
+		if (diagnosticsScene == null) {
+			diagnosticsScene = buildView("diagnostics", this::buildDiagnosticsView);
+		}
+		diagnosticsTextArea.setText(diagnosticsReport());
+		showScene("Heart Health System - Diagnostics", diagnosticsScene, navigationStart);
+	}
 	
-
-    // Create a getPatientName method to get patient infomation from the text file
-	private String getPatientName(String patientLoginID) {
+	private Scene buildDiagnosticsView() {
 		
-		String patientInfoFilePath = patientLoginID + "_PatientInfo.txt";
+		Label diagnosticsTitle = new Label("Diagnostics");                                             // Create the title label for the diagnostics
+		diagnosticsTitle.setFont(Font.font(30));                                                       // Set font size to 30
+		diagnosticsTitle.setStyle("-fx-font-weight: bold;");                                           // Set font to bold
 		
-		try (BufferedReader fileReader = new BufferedReader(new FileReader(patientInfoFilePath))) {
-			
-			String line;
-			
-			// Read the first line (patient ID)
-			fileReader.readLine();                                                                   
-			
-	        // Initialize first name and last name variables
-	        String patientFirstName = "";
-	        String patientLastName = "";
-
-	        // Read the lines until the end of the file
-	        while ((line = fileReader.readLine()) != null) {
-	            if (line.startsWith("First Name:")) {
-	            	
-	                // Extract the first name by removing the "First Name:" label
-	            	patientFirstName = line.substring("First Name:".length()).trim();
-	                
-	            } 
-	            else if (line.startsWith("Last Name:")) {
-	            	
-	                // Extract the last name by removing the "Last Name:" label
-	            	patientLastName = line.substring("Last Name:".length()).trim();
-	            }
-	        }
-	        
-	        // Combine first name and last name
-			String patientFullName = patientFirstName + " " + patientLastName;                       
-			
-			return patientFullName.trim();				
+		diagnosticsTextArea = new TextArea();                                                          // One line per metric, columns line up in a monospaced font
+		diagnosticsTextArea.setEditable(false);
+		diagnosticsTextArea.setFont(Font.font("Monospaced", 13));
+		
+		Button refreshButton = new Button("Refresh");                                                  // Create a button named Refresh, reads the metrics again
+		refreshButton.setOnAction(event -> diagnosticsTextArea.setText(diagnosticsReport()));
+		
+		Button backButton = new Button("Back");                                                        // Create a button named Back to Main System
+		backButton.setOnAction(event -> {                                                              // When user click on back button, it will take user back to the main system view
+			showSystemMainView();
+		});
+		
+		HBox setDiagnosticsButtons = new HBox(20, backButton, refreshButton);                          // Set box spacing to 20 pixels
+		setDiagnosticsButtons.setPadding(new Insets(20));                                              // Sets the padding around the HBox to 20 pixels on all sides
+		setDiagnosticsButtons.setAlignment(Pos.BOTTOM_LEFT);
+		
+		VBox setDiagnostics = new VBox(15, diagnosticsTitle, diagnosticsTextArea);
+		setDiagnostics.setPadding(new Insets(20));                                                     // Sets the padding around the VBox to 20 pixels on all sides
+		
+		BorderPane diagnosticsLayout = new BorderPane();
+		diagnosticsLayout.setCenter(setDiagnostics);
+		diagnosticsLayout.setBottom(setDiagnosticsButtons);
+		return new Scene(diagnosticsLayout, 1000, 600);
+	}
+	
+	private String diagnosticsReport() {
+		String report = Metrics.report();
+		return (recordService instanceof RemoteRecordService ? "Thin client, file metrics are on the server\n\n" : "")
+				+ (report.isEmpty() ? "Nothing recorded yet" : report);
+	}
+	
+	
+    // Risk Summary (clinician view of every stored CT scan report)
+    // The summary is computed from the CT column archive on the fork/join pool, never on the JavaFX application thread
+	private void ctRiskSummaryView() {
+		long navigationStart = System.nanoTime();
+		if (riskSummaryScene == null) {
+			riskSummaryScene = buildView("riskSummary", this::buildCTRiskSummaryView);
 		}
-		catch (IOException event) {
-			event.printStackTrace();		
-		}	
+		showScene("Heart Health System - Risk Summary", riskSummaryScene, navigationStart);            // Create the title for the UI system
+		riskSummaryRefreshButton.fire();                                                               // Compute a fresh summary every time the view opens
+	}
+	
+	private Scene buildCTRiskSummaryView() {
 		
-		return " "; 
-    }
-    
-       
-    
+		Label riskSummaryTitle = new Label("CAC Risk Summary");                                        // Create the title label for the risk summary
+		riskSummaryTitle.setFont(Font.font(30));                                                       // Set font size to 30
+		riskSummaryTitle.setStyle("-fx-font-weight: bold;");                                           // Set font to bold
+		
+		Label patientCountLabel = new Label();                                                         // Number of patients and time taken, filled in when the summary is ready
+		patientCountLabel.setFont(Font.font(18));                                                      // Set font size to 18
+		
+		GridPane riskBandGrid = new GridPane();                                                        // One row per CAC risk band
+		riskBandGrid.setHgap(30);                                                                      // Set spacing between columns to 30 pixels
+		riskBandGrid.setVgap(8);                                                                       // Set spacing between rows to 8 pixels
+		
+		GridPane scoreGrid = new GridPane();                                                           // One row per score column: mean, max, percentiles and histogram
+		scoreGrid.setHgap(18);                                                                         // Set spacing between columns to 18 pixels
+		scoreGrid.setVgap(8);                                                                          // Set spacing between rows to 8 pixels
+		
+		
+		String setButtonBlue = "-fx-background-color: blue; -fx-text-fill: white";                     // Set the buttons background to blue and keep the white text
+		Button refreshButton = new Button("Refresh");                                                  // Create a button named Refresh, recomputes the summary
+		refreshButton.setStyle(setButtonBlue);                                                         // Set "Refresh" button background to blue and keep text "Refresh" white
+		refreshButton.setPrefWidth(100);                                                               // Set Refresh button width to 100 pixels
+		refreshButton.setPrefHeight(50);                                                               // Set Refresh button height to 50 pixels
+		refreshButton.setFont(Font.font(20));                                                          // Set font size to 20
+		riskSummaryRefreshButton = refreshButton;
+		
+		Button backButton = new Button("Back");                                                        // Create a button named Back to Main System
+		backButton.setStyle(setButtonBlue);                                                            // Set "Back" button background to blue and keep text "Back" white
+		backButton.setPrefWidth(100);                                                                  // Set Back button width to 100 pixels
+		backButton.setPrefHeight(50);                                                                  // Set Back button height to 50 pixels
+		backButton.setFont(Font.font(20));                                                             // Set font size to 20
+		backButton.setOnAction(event -> {                                                              // When user click on back button, it will take user back to the main system view
+			showSystemMainView();
+		});
+		
+		ProgressIndicator summaryProgress = new ProgressIndicator();                                   // Spinner shown while the summary is being computed
+		summaryProgress.setVisible(false);
+		
+		
+		refreshButton.setOnAction(event -> {
+			whenRecordCallDone(RISK_SUMMARY, recordService.summarizeCTRisk(), summaryProgress, refreshButton, "Risk summary failed!", summary -> {
+				patientCountLabel.setText(summary.patients + " patients with a CT scan report"
+						+ String.format(Locale.ROOT, " (computed in %.1f ms)", summary.elapsedNanos / 1e6));
+				
+				// Risk bands: band, patients, share of all patients
+				riskBandGrid.getChildren().clear();
+				riskBandGrid.add(boldLabel("Risk band"), 0, 0);
+				riskBandGrid.add(boldLabel("Patients"), 1, 0);
+				riskBandGrid.add(boldLabel("Share"), 2, 0);
+				for (int band = 0; band < CTRiskAnalytics.RISK_BANDS.length; band++) {
+					riskBandGrid.add(new Label(CTRiskAnalytics.RISK_BANDS[band]), 0, band + 1);
+					riskBandGrid.add(new Label(String.valueOf(summary.riskBands[band])), 1, band + 1);
+					riskBandGrid.add(new Label(String.format(Locale.ROOT, "%.1f%%", summary.riskBandPercent(band))), 2, band + 1);
+				}
+				
+				// Scores: mean, max, percentiles, then the patients in each histogram bin
+				scoreGrid.getChildren().clear();
+				int gridColumn = 0;
+				scoreGrid.add(boldLabel("Score"), gridColumn++, 0);
+				scoreGrid.add(boldLabel("Mean"), gridColumn++, 0);
+				scoreGrid.add(boldLabel("Max"), gridColumn++, 0);
+				for (double percentile : CTRiskAnalytics.PERCENTILES) {
+					scoreGrid.add(boldLabel("P" + (int) percentile), gridColumn++, 0);
+				}
+				for (String bin : CTRiskAnalytics.HISTOGRAM_BINS) {
+					scoreGrid.add(boldLabel(bin), gridColumn++, 0);
+				}
+				for (int column = 0; column < CTColumnArchive.SCORE_COLUMNS; column++) {
+					gridColumn = 0;
+					scoreGrid.add(boldLabel(CTColumnArchive.COLUMN_NAMES[column]), gridColumn++, column + 1);
+					scoreGrid.add(new Label(String.format(Locale.ROOT, "%.1f", summary.means[column])), gridColumn++, column + 1);
+					scoreGrid.add(new Label(CTScoreRecord.formatScore(summary.maximums[column])), gridColumn++, column + 1);
+					for (float value : summary.percentiles[column]) {
+						scoreGrid.add(new Label(CTScoreRecord.formatScore(value)), gridColumn++, column + 1);
+					}
+					for (long count : summary.histograms[column]) {
+						scoreGrid.add(new Label(String.valueOf(count)), gridColumn++, column + 1);
+					}
+				}
+			});
+		});
+		
+		
+		VBox setSummaryTitle = new VBox(10, riskSummaryTitle, patientCountLabel);
+		setSummaryTitle.setPadding(new Insets(20));                                                    // Sets the padding around the VBox to 20 pixels on all sides
+		setSummaryTitle.setAlignment(Pos.TOP_CENTER);                                                  // Set nodes to top centered
+		
+		VBox setSummaryTables = new VBox(30, riskBandGrid, scoreGrid);
+		setSummaryTables.setPadding(new Insets(20));                                                   // Sets the padding around the VBox to 20 pixels on all sides
+		setSummaryTables.setAlignment(Pos.TOP_CENTER);                                                 // Set nodes to top centered
+		
+		HBox setSummaryButtons = new HBox(20, backButton, summaryProgress, refreshButton);
+		setSummaryButtons.setPadding(new Insets(20));                                                  // Sets the padding around the HBox to 20 pixels on all sides
+		setSummaryButtons.setAlignment(Pos.BOTTOM_RIGHT);                                              // Set nodes to bottom right
+		
+		BorderPane riskSummaryLayout = new BorderPane();
+		riskSummaryLayout.setTop(setSummaryTitle);
+		riskSummaryLayout.setCenter(setSummaryTables);
+		riskSummaryLayout.setBottom(setSummaryButtons);
+		
+		return new Scene(riskSummaryLayout, 1000, 600);
+	}
+	
+	// Patient search for the staff's intake view: every change of the text looks patients up by name, email, phone
+	// number or insurance ID on the background I/O threads, and choosing a result passes the patient to onChoose
+	private VBox buildPatientSearchBox(TextField searchTextField, Consumer<Patient> onChoose) {
+		Label searchLabel = new Label("Find Patient: ");                                               // Create search label
+		searchLabel.setFont(Font.font(20));                                                            // Set font size to 20
+		searchTextField.setPromptText("Name, email, phone number or insurance ID");
+		
+		ListView<String> searchResults = new ListView<>();                                             // One line per patient found
+		searchResults.setPrefHeight(150);                                                              // Set height to 150 pixels
+		List<Patient> foundPatients = new ArrayList<>();                                               // Patient shown on each line
+		
+		searchTextField.textProperty().addListener((observable, oldText, newText) -> {
+			if (newText == null || newText.isBlank()) {
+				foundPatients.clear();
+				searchResults.getItems().clear();
+				return;
+			}
+			recordService.searchPatients(newText, false).whenComplete((patients, failure) -> Platform.runLater(() -> {
+				if (failure != null || !newText.equals(searchTextField.getText())) {
+					return;                                                                            // Failed, or the text changed and a newer search is on its way
+				}
+				foundPatients.clear();
+				foundPatients.addAll(patients);
+				List<String> lines = new ArrayList<>();
+				for (Patient patient : patients) {
+					lines.add(patient.getPatientID() + "   " + patient.getLastName() + ", " + patient.getFirstName() + "   " + patient.getEmail() + "   " + patient.getPhoneNumber());
+				}
+				searchResults.getItems().setAll(lines);
+			}));
+		});
+		
+		searchResults.getSelectionModel().selectedItemProperty().addListener((observable, oldLine, newLine) -> {
+			int index = newLine == null ? -1 : searchResults.getItems().indexOf(newLine);               // Lines start with the patient ID, so they are all different
+			if (index >= 0 && index < foundPatients.size()) {
+				onChoose.accept(foundPatients.get(index));
+			}
+		});
+		
+		return new VBox(10, searchLabel, searchTextField, searchResults);                              // Set box spacing to 10 pixels
+	}
+	
+	private static Label boldLabel(String text) {
+		Label label = new Label(text);
+		label.setStyle("-fx-font-weight: bold;");                                                      // Set font to bold
+		return label;
+	}
+	
     // Create patient login panel and check if patient id is entered correctly                                                                                                                             
 	private void patientLogin() {
-		primaryStage.setTitle("Heart Health System - Patient Login");                                  // Create the title for the UI system
+		long navigationStart = System.nanoTime();
+		if (patientLoginScene == null) {
+			patientLoginScene = buildView("patientLogin", this::buildPatientLogin);
+		}
+		patientIDInputTextField.clear();                                                               // Never show the previous patient's ID
+		showScene("Heart Health System - Patient Login", patientLoginScene, navigationStart);          // Create the title for the UI system
+	}
+	
+	private Scene buildPatientLogin() {
 		
-		Label loginPanelTitle = new Label("Please enter the 5 digit patient ID to login");             // Create the label for patient Login panel
+		Label loginPanelTitle = new Label("Please enter the " + recordService.patientIDDigits() + " digit patient ID to login");   // Create the label for patient Login panel
 		loginPanelTitle.setFont(Font.font(30));                                                        // Set font size to 30
 		loginPanelTitle.setStyle("-fx-font-weight: bold;");                                            // Set font to bold
 		
@@ -765,7 +1035,7 @@ public class HeartHealthSystem extends Application {
 		patientIDInputTextLabel.setFont(Font.font(35));                                                // Set font size to 35
 		patientIDInputTextLabel.setStyle("-fx-font-weight: bold;");                                    // Set font to bold
 		
-		TextField patientIDInputTextField = new TextField();                                           // Create patient ID text field 
+		patientIDInputTextField = new TextField();                                                     // Create patient ID text field 
 		patientIDInputTextField.setPrefHeight(60);                                                     // Set height to 60 pixels
 		patientIDInputTextField.setPrefWidth(100);                                                     // Set width to 100 pixels
 		
@@ -793,14 +1063,18 @@ public class HeartHealthSystem extends Application {
 		setPanelTitle.setPadding(new Insets(20));                                                      // Sets the padding around the VBox to 20 pixels on all sides.
 		setPanelTitle.setAlignment(Pos.TOP_CENTER);                                                    // Set node to top centered
 		
-		// Code to set label and text field section
+		// Code to set label and text field section. There is no patient search here: the ID is all a patient logs in with,
+		// so a patient who forgot it asks the front desk, whose intake view can search
 		VBox setPatientIDLabel = new VBox(80, patientIDInputTextLabel,patientIDInputTextField);        // Set box spacing to 50 pixels
 		setPatientIDLabel.setPadding(new Insets(50));                                                  // Sets the padding around the VBox to 50 pixels on all sides
 		setPatientIDLabel.setAlignment(Pos.CENTER);                                                    // Set node to centered
 		
 
 		// Code to set Login button
-		VBox setLoginButton = new VBox(loginButton);                                                   // Set box spacing to 20 pixels
+		ProgressIndicator loginProgress = new ProgressIndicator();                                     // Spinner shown while the patient's records are being loaded
+		loginProgress.setVisible(false);
+		
+		VBox setLoginButton = new VBox(20, loginProgress, loginButton);                                // Set box spacing to 20 pixels
 		setLoginButton.setPadding(new Insets(20));                                                     // Sets the padding around the VBox to 10 pixels on all sides
 		setLoginButton.setAlignment(Pos.BOTTOM_RIGHT);                                                 // Set node to bottom right
 		
@@ -827,78 +1101,55 @@ public class HeartHealthSystem extends Application {
 				Alert loginAlert = new Alert(Alert.AlertType.ERROR);
 				loginAlert.setTitle("Login Error");
 				loginAlert.setHeaderText("Please enter your patient ID!");
-				loginAlert.showAndWait();
+				showAndWait(loginAlert);
 				return;
 			}
 			
-			// Check if patient ID is entered correctly
-			if (!isValidPatientID(patientLoginID) ) {
+			// Load the patient's information and report in one pass on the background I/O threads
+			whenRecordCallDone(LOGIN, recordService.loadPatientRecord(patientLoginID), loginProgress, loginButton, "Login failed!", patientRecord -> {
 				
-				// Display error message after login is clicked
-				Alert loginAlert = new Alert(Alert.AlertType.ERROR);
-				loginAlert.setTitle("Login Error");
-				loginAlert.setHeaderText("Wrong patient ID entered");
-				loginAlert.setContentText("Please confrim your patient ID!");
-				loginAlert.showAndWait();
-				return;
-			}
-			
-			else if (!isPatientReportExist(patientLoginID)) {
+				// Check if patient ID is entered correctly
+				if (patientRecord == null) {
+					
+					// Display error message after login is clicked
+					Alert loginAlert = new Alert(Alert.AlertType.ERROR);
+					loginAlert.setTitle("Login Error");
+					loginAlert.setHeaderText("Wrong patient ID entered");
+					loginAlert.setContentText("Please confrim your patient ID!");
+					showAndWait(loginAlert);
+					return;
+				}
 				
-				// Display error message if patient report is not exist
-				Alert reportAlert = new Alert(Alert.AlertType.ERROR);
-				reportAlert.setTitle("Report Error");
-				reportAlert.setHeaderText("Patient ID: " + patientLoginID);
-				reportAlert.setContentText("Report unavailable!");
-				reportAlert.showAndWait();
-				return;
-			}
-			
-			else {
-				patientView(patientLoginID);
-			}
+				else if (!patientRecord.isReportExist()) {
+					
+					// Display error message if patient report is not exist
+					Alert reportAlert = new Alert(Alert.AlertType.ERROR);
+					reportAlert.setTitle("Report Error");
+					reportAlert.setHeaderText("Patient ID: " + patientLoginID);
+					reportAlert.setContentText("Report unavailable!");
+					showAndWait(reportAlert);
+					return;
+				}
+				
+				else {
+					patientView(patientRecord);
+				}
+			});
 		});   
 	
 
 		
 		// controlling the amount of space between components vertically.
-		// Create scene and sets it on a Stage to display the GUI
+		// Create scene once, showScene sets it on the Stage to display the GUI
 		// Create a new scene object name patientIntakeScene with specified patientIntakeLayout
 		// The width of the scene is set to 1000 pixels and the height is set to 600 pixels
-		Scene patientLoginScene = new Scene(patientLoginLayout, 1000, 600);                                              
-		primaryStage.setScene(patientLoginScene);                                                        // Sets the created scene as the patientIntakeScene to be displayed on the primaryStage stage
-		primaryStage.show();                                                                             // Display the primary stage along with the configured scene
+		return new Scene(patientLoginLayout, 1000, 600);
 			
 	}
 	
 	
 	
 	
-    private boolean isValidPatientID(String patientLoginID) {
-    	
-    	String patientInfoFilePath = patientLoginID + "_PatientInfo.txt";
-  
-        // Check if patient info file exists
-        File patientInfoFile = new File(patientInfoFilePath);
-        if (!patientInfoFile.exists()) {
-            return false;
-        }
-
-        return true;    
-    }
-    
-    
-    private boolean isPatientReportExist(String patientLoginID) {
-    	
-        String ctResultsFilePath = patientLoginID + "CTResults.txt";
-    	
-        // Check if CT scan results file exists
-        File ctResultsFile = new File(ctResultsFilePath);
-        if (!ctResultsFile.exists()) {
-            return false;
-        }
-    	return true;
-    }
     		
     	
  }
@@ -1,6 +1,12 @@
 
 //Title: Joe's Deli Breakfast 
 //Desc: Develop the breakfast ordering application for Joe's Deli using javaFX
+//      The menu comes from the catalog file (see MenuCatalog), -DjoesDeli.menuFile=<path> picks another one
+//      Confirmed orders go to the kitchen display window through the kitchen queue (see KitchenQueue, KitchenDisplay),
+//      -DjoesDeli.register=<name> names the register on the tickets
+//      Every confirmed order is also kept in the order journal (see OrderJournal), -DjoesDeli.journalDir=<dir>
+//      Orders are quoted and confirmed through DeliOrderService, the same as online orders; -DjoesDeli.apiPort=<port>
+//      also serves the online order API (see DeliOrderServer) from this register
 //Author: JIAYUAN YU
 //Date: 05/18/2023
 
@@ -9,6 +15,7 @@ package application;
 
 
 import javafx.application.Application;   // Entry point of the application in JavaFX
+import javafx.application.Platform;      // Swaps a reloaded menu in on the JavaFX application thread
 import javafx.geometry.Insets;           // Specify the amount of space or padding around the edges of a GUI component
 import javafx.geometry.Pos;              // Provides various pre-defined value for alignment,(center, top, bottom, right, etc) 
 import javafx.scene.Scene;               // To create and manage the content and properties of a graphical scene
@@ -16,21 +23,35 @@ import javafx.scene.control.*;           // Allows user interface controls, such
 import javafx.scene.layout.*;            // Contains classes that represent various layout containers used for organizing and positioning UI elements within a scene
 import javafx.stage.Stage;               // Displaying the user interface and handling the interaction with the operating system
 
+import java.io.IOException;              // Thrown when the menu catalog file cannot be read
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchService;       // Watches the menu catalog file for edits
+import java.util.List;
+
+import application.KitchenQueue.KitchenTicket;
+
 
 public class hw1 extends Application {
 
-  // List for Eat Section, CheckBox control (when the user select one or more options)
-  private CheckBox eggSandwichCheckBox;     		// Checkbox for egg sandwich
-  private CheckBox chickenSandwichCheckBox; 		// Checkbox for chicken sandwich
-  private CheckBox bagelCheckBox;           		// Checkbox for bagel
-  private CheckBox potatoSaladCheckBox;     		// Checkbox for potato salad
+  // Menu, loaded from the catalog file; a quantity Spinner for every item, and under it one for each of its modifiers
+  // (oat milk, extra shot...), from 0 to the item's limit
+  private MenuCatalog menu;                      // Catalog the spinners were generated from
+  private WatchService menuWatcher;              // Reloads the menu when the catalog file is edited
+  private VBox setVBoxForEatSection;             // Eat section, its spinners are replaced when the menu is
+  private VBox setVBoxForDrinkSection;           // Drink section, the same
+  private Spinner<Integer>[] quantitySpinners;   // Spinner of every item and modifier, by item ID
+  private DeliOrder order;                       // Quantities of the order, its subtotal follows every spinner click
+  private final BillingEngine billingEngine = new BillingEngine();   // Prices the order and writes the bill, reusing one buffer
   
-
-  // List for drink section, RadioButton (single option for the user)
-  private RadioButton blackTeaRadioButton;  		// Radio button for black tea
-  private RadioButton greenTeaRadioButton;  		// Radio button for green tea
-  private RadioButton coffeeRadioButton;    		// Radio button for coffee
-  private RadioButton orangeJuiceRadioButton;    // Radio button for orange juice
+  // Kitchen, the confirmed orders of every register in this process go through the one queue
+  private final String registerName = System.getProperty("joesDeli.register", "Register 1");
+  private final KitchenQueue kitchenQueue = KitchenQueue.shared();
+  private KitchenDisplay kitchenDisplay;         // Drains the queue into the kitchen window
+  private ListView<String> kitchenTickets;       // Tickets on the kitchen window, oldest first
+  private OrderJournal orderJournal;             // Sales record of every confirmed order, null if the journal could not be opened
+  private DeliOrderService orderService;         // Confirms orders for this register and the online order API
+  private DeliOrderServer orderServer;           // Online order API, null unless -DjoesDeli.apiPort is given
   
 
   // Buttons to manipulate from the order platform
@@ -41,6 +62,7 @@ public class hw1 extends Application {
 
   // TextArea (to create a multi-line text input control)
   private TextArea billTextArea;                 // TextArea to display the bill
+  private Label runningTotalLabel;               // Units and total of the order so far, updated with every quantity change
   
   
   
@@ -50,25 +72,18 @@ public class hw1 extends Application {
  	
  	 // Set title(label) and name for each check box and button
  	 
- 	 // List for Eat Section
+ 	 // List for Eat Section, the items are added by showMenu
  	 Label eatSectionLabel = new Label("Eat:");                       // Set eat section's label
- 	 eggSandwichCheckBox = new CheckBox("Egg Sandwich");              // Set name for egg sandwich
- 	 chickenSandwichCheckBox = new CheckBox("Chicken Sandwich");      // Set name for chicken sandwich
- 	 bagelCheckBox = new CheckBox("Bagel");                           // Set name for bagel
- 	 potatoSaladCheckBox = new CheckBox("Potato Salad");              // Set name for potato salad
  	 
  	 
- 	 // List for Drink Section
+ 	 // List for Drink Section, the items are added by showMenu
  	 Label drinkSectionLabel = new Label("Drink:");                   // Set drink's section label
- 	 blackTeaRadioButton = new RadioButton("Black Tea");              // Set name for black tea
- 	 greenTeaRadioButton = new RadioButton("Green Tea");              // Set name for green tea
- 	 coffeeRadioButton = new RadioButton("Coffee");                   // Set name for coffee
- 	 orangeJuiceRadioButton = new RadioButton("Orange Juice");        // Set name for orange juice
  	 
  	 // Bill Section
  	 Label billDisplayLabel = new Label("Bill");                      // Set title for bill display area
  	 billTextArea = new TextArea();                                   // create a text area where the bill will displayed
  	 billTextArea.setEditable(false);                                 // set editable of the text area to false (to prevent users edit the text in the text area)
+ 	 runningTotalLabel = new Label();                                 // Filled in by showMenu and every quantity change
  	 
  	 // List to manipulate order (Order, Cancel, Confirm)
  	 orderButton = new Button("Order");                               // Set name for order button
@@ -82,21 +97,21 @@ public class hw1 extends Application {
  	 
  	 // Positioning for Eat Section
  	 // Set each eat box spacing to 15 pixels and set all nodes to stacked vertically within the VBox
- 	 VBox setVBoxForEatSection = new VBox(15, eatSectionLabel, eggSandwichCheckBox, chickenSandwichCheckBox, bagelCheckBox, potatoSaladCheckBox); 
+ 	 setVBoxForEatSection = new VBox(15, eatSectionLabel); 
  	 setVBoxForEatSection.setPadding(new Insets(15));                // Sets the padding around the VBox to 15 pixels on all sides.
  	 setVBoxForEatSection.setAlignment(Pos.CENTER_LEFT);             // Set all nodes(Eat) centered horizontally and aligned to the left vertically within the VBox
  	 
  	 
  	 // Positioning for Drink Section
  	 // Set each drink box spacing to 15 pixels and set all nodes to stacked vertically within the VBox
- 	 VBox setVBoxForDrinkSection = new VBox(15, drinkSectionLabel, blackTeaRadioButton, greenTeaRadioButton, coffeeRadioButton, orangeJuiceRadioButton);
+ 	 setVBoxForDrinkSection = new VBox(15, drinkSectionLabel);
  	 setVBoxForDrinkSection.setPadding(new Insets(15));              // Sets the padding around the VBox to 15 pixels on all sides.
  	 setVBoxForDrinkSection.setAlignment(Pos.CENTER_LEFT);           // Set all nodes(Drink) centered horizontally and aligned to the left vertically within the VBox
  	 
  	  
  	 // Positioning for bill display section
  	 // Set each eat box spacing to 15 pixels and set all nodes to stacked vertically within the VBox
- 	 VBox setBillDisplayArea = new VBox(15, billDisplayLabel, billTextArea);
+ 	 VBox setBillDisplayArea = new VBox(15, billDisplayLabel, billTextArea, runningTotalLabel);
  	 setBillDisplayArea.setPadding(new Insets(15));                  // Sets the padding around the VBox to 15 pixels on all sides.
  	 setBillDisplayArea.setAlignment(Pos.CENTER_LEFT);               // Set all nodes(bill) centered horizontally and aligned to the left vertically within the VBox
  	 
@@ -109,14 +124,19 @@ public class hw1 extends Application {
  	 
  	 
  	 
- 	 // Set Toggle function for drink order (Only one type of drink can be selected)
- 	 ToggleGroup drinkListToggle = new ToggleGroup();               // Use toggle group function to enforce that only one drink can be selected at once
- 	 
- 	 // Assign function to each drink item to ensures that selecting one radio button will deselect the others
- 	 blackTeaRadioButton.setToggleGroup(drinkListToggle);           
- 	 greenTeaRadioButton.setToggleGroup(drinkListToggle);
- 	 coffeeRadioButton.setToggleGroup(drinkListToggle);
- 	 orangeJuiceRadioButton.setToggleGroup(drinkListToggle);
+ 	 // Generate the quantity spinners from the menu catalog, and swap in the new menu whenever the file is edited
+ 	 Path menuFile = Paths.get(System.getProperty("joesDeli.menuFile", MenuCatalog.DEFAULT_FILE_NAME));
+ 	 try {
+ 	   showMenu(MenuCatalog.loadOrCreate(menuFile));
+ 	 } catch (IOException | IllegalArgumentException event) {
+ 	   System.err.println("Menu " + menuFile + " could not be loaded, using the built-in menu: " + event.getMessage());
+ 	   showMenu(MenuCatalog.parse(MenuCatalog.DEFAULT_MENU.lines().toList(), 0));
+ 	 }
+ 	 try {
+ 	   menuWatcher = MenuCatalog.watch(menuFile, menu, reloaded -> Platform.runLater(() -> showMenu(reloaded)));
+ 	 } catch (IOException event) {
+ 	   System.err.println("Menu " + menuFile + " is not watched, edits need a restart of the register: " + event.getMessage());
+ 	 }
  	 
  	 
  	 
@@ -140,93 +160,143 @@ public class hw1 extends Application {
  	 orderButton.setOnAction(event->placeCustomerOrder());          // sets placecustomerOrder method as the action to be performed when the orderButton is clicked
  	 cancelButton.setOnAction(event->cancelCustomerOrder());        // Sets cancelCustomerOrder method as the action to be performed when the orderButton is clicked
  	 confirmButton.setOnAction(event->confirmCustomerOrder());      // Sets confirmCustomerOrder method as the action to be performed when the orderButton is clicked
+ 	 
+ 	 
+ 	 // Kitchen window, next to the register
+ 	 kitchenTickets = new ListView<>();
+ 	 Stage kitchenStage = new Stage();
+ 	 kitchenStage.setTitle("Joe's Deli Kitchen");
+ 	 kitchenStage.setScene(new Scene(new VBox(15, new Label("Orders:"), kitchenTickets), 400, 500));
+ 	 kitchenStage.show();
+ 	 kitchenDisplay = new KitchenDisplay(kitchenQueue, (batch, shown) -> Platform.runLater(() -> showTickets(batch, shown)));
+ 	 
+ 	 // Order journal, today's file is recovered if the register was closed or crashed earlier today
+ 	 Path journalDirectory = Paths.get(System.getProperty("joesDeli.journalDir", OrderJournal.DEFAULT_DIRECTORY));
+ 	 try {
+ 	   orderJournal = OrderJournal.open(journalDirectory);
+ 	 } catch (IOException event) {
+ 	   System.err.println("Order journal " + journalDirectory + " could not be opened, orders are not recorded: " + event.getMessage());
+ 	 }
+ 	 orderService = new DeliOrderService(menu, billingEngine, kitchenQueue, orderJournal);
+ 	 
+ 	 // Online orders, priced by the same service and shown on this register's kitchen window
+ 	 if (System.getProperty("joesDeli.apiPort") != null) {
+ 	   try {
+ 	     orderServer = new DeliOrderServer(orderService, DeliOrderServer.configuredAddress());
+ 	     orderServer.start();
+ 	   } catch (IOException event) {
+ 	     System.err.println("Online order API could not be started: " + event.getMessage());
+ 	   }
+ 	 }
  	  	    	     	 
   }
   
   // Method to place customer's order
+  // Only the items with a quantity are priced; amounts stay in cents and the tax is rounded once (see BillingEngine)
   private void placeCustomerOrder() {
-       double preTaxTotalCost = 0.0;                                 // Initialized the preTaxTotalCost to 0
-       StringBuilder textInfoAppend = new StringBuilder();           // Create object named textInfoAppend to store the bill infomation as string
-       textInfoAppend.append("------Item Info------\n");
-       
-       // Add 7.99 to the preTaxTotalCost when eggSandwichCheckBox is clicked
-       if (eggSandwichCheckBox.isSelected()) {
-     	  preTaxTotalCost += 7.99;   
-     	  textInfoAppend.append("Egg Sandwich: $7.99 each\n");      // Show text info when eggSandwichCheckBox is clicked    	  
-       }
-       
-       // Add 9.99 to the preTaxTotalCost when chickenSandwichCheckBox is clicked
-       if (chickenSandwichCheckBox.isSelected()) {
-     	  preTaxTotalCost += 9.99;
-     	  textInfoAppend.append("Chicken Sandwich: $9.99 each\n");  // Show text info when chickenSandwichCheckBox is clicked
-       }
-       
-       // Add 2.50 to the preTaxTotalCost when bagelCheckBox is clicked
-       if (bagelCheckBox.isSelected()) {
-     	  preTaxTotalCost += 2.50;
-     	  textInfoAppend.append("Bagel: $2.50 each\n");             // Show text info when bagelCheckBox is clicked
-       }
-       
-       // Add 4.49 to the preTaxTotalCost when potatoSaladCheckBox is clicked
-       if (potatoSaladCheckBox.isSelected()) {
-     	  preTaxTotalCost += 4.49;
-     	  textInfoAppend.append("Potato Salad: $4.49 each \n");     // Show text info when potatoSaladCheckBox is clicked
-       }
-       
-       // Add 1.25 to the preTaxTotalCost when blackTeaRadioButton is clicked
-       if (blackTeaRadioButton.isSelected()) {
-     	  preTaxTotalCost += 1.25;                                  
-     	  textInfoAppend.append("Black Tea: $1.25 each\n");         // Show text info when blackTeaRadioButton is clicked
-       }
- 	 
-       // Add 0.99 to the preTaxTotalCost when blackTeaRadioButton is clicked
-       if (greenTeaRadioButton.isSelected()) {
-     	  preTaxTotalCost += 0.99;                                  
-     	  textInfoAppend.append("Green Tea: $0.99 each\n");         // Show text info when greenTeaRadioButton is clicked
-       }          
-       
-       // Add 1.99 to the preTaxTotalCost when coffeeRadioButton is clicked
-       if (coffeeRadioButton.isSelected()) {
-     	  preTaxTotalCost += 1.99;
-     	  textInfoAppend.append("Coffee: $1.99 each\n");            // Show text info when coffeeRadioButton is clicked
-       }
-       
-       // Add 2.25 to the preTaxTotalCost when orangeJuiceRadioButton is clicked
-       if (orangeJuiceRadioButton.isSelected()) {
-     	  preTaxTotalCost += 2.25;  
-     	  textInfoAppend.append("Orange Juice: $2.25 each\n");      // Show text info when orangeJuiceRadioButton is clicked
-       }
-       
-       double taxCost = (preTaxTotalCost * 0.07);                    // Calculate the tax amount(7%)
-       double totalCost = (preTaxTotalCost + taxCost);               // Calculate the total cost after tax
-       
-       // Append the separate line for subtotal, tax amount and final total cost, and format the decimal value to two places
-       textInfoAppend.append("------Bill Info------\n");
-       textInfoAppend.append("Subtotal Cost: ").append(String.format("%.2f\n", preTaxTotalCost));
-       textInfoAppend.append("Tax(7%): ").append(String.format("%.2f\n", taxCost));
-       textInfoAppend.append("Total Cost: ").append(String.format("%.2f\n", totalCost));
-       
+       CharSequence billText = billingEngine.bill(order);
        
        // Sets the generated bill text info to the billTextArea for display
-       billTextArea.setText(textInfoAppend.toString());
+       billTextArea.setText(billText.toString());
                                                             
   }
   
   // Method to cancel customer's order
   private void cancelCustomerOrder() {
- 	 eggSandwichCheckBox.setSelected(false);                       // Set the eggSandwichCheckBox to be deselected (unchecked)
- 	 chickenSandwichCheckBox.setSelected(false);                   // Set the chickenSandwichCheckBox to be deselected (unchecked)
- 	 bagelCheckBox.setSelected(false);                             // Set the bagelCheckBox to be deselected (unchecked)
- 	 potatoSaladCheckBox.setSelected(false);                       // Set the potatoSaladCheckBox to be deselected (unchecked)
- 	 blackTeaRadioButton.setSelected(false);                       // Set the blackTeaRadioButton to be deselected (unchecked)
- 	 greenTeaRadioButton.setSelected(false);                       // Set the greenTeaRadioButton to be deselected (unchecked)
- 	 coffeeRadioButton.setSelected(false);                         // Set the coffeeRadioButton to be deselected (unchecked)
- 	 orangeJuiceRadioButton.setSelected(false);                    // Set orangeJuiceRadioButton to be deselected (unchecked)
+ 	 order.clear();                                                // First, so the spinners going back to 0 find nothing to change
+ 	 for (Spinner<Integer> spinner : quantitySpinners) {
+ 	   if (spinner != null && spinner.getValue() != 0) {
+ 	     spinner.getValueFactory().setValue(0);                    // Set every item's and modifier's spinner back to 0
+ 	   }
+ 	 }
+ 	 showRunningTotal();
  	 billTextArea.setText(" ");                                    // Clears the content of the billTextArea
   }  
   
+  // Method to generate the quantity spinners of a menu, replacing those of the menu shown before
+  // Items that stay on the menu keep their quantities, and a bill on screen is priced again with the new prices
+  @SuppressWarnings("unchecked")
+  private void showMenu(MenuCatalog newMenu) {
+ 	 if (order == null) {
+ 	   order = new DeliOrder(newMenu);
+ 	 } else {
+ 	   order.setMenu(newMenu);                                     // Quantities are kept by item ID, catalog indexes can change between menus
+ 	 }
+ 	 
+ 	 menu = newMenu;
+ 	 if (orderService != null) {
+ 	   orderService.setMenu(newMenu);                              // Online orders are priced with the new menu too
+ 	 }
+ 	 quantitySpinners = (Spinner<Integer>[]) new Spinner<?>[newMenu.maxItemID() + 1];
+ 	 setVBoxForEatSection.getChildren().subList(1, setVBoxForEatSection.getChildren().size()).clear();       // Keep the section label
+ 	 setVBoxForDrinkSection.getChildren().subList(1, setVBoxForDrinkSection.getChildren().size()).clear();
+ 	 
+ 	 for (String category : new String[] { MenuCatalog.EAT, MenuCatalog.DRINK }) {
+ 	   VBox section = category.equals(MenuCatalog.EAT) ? setVBoxForEatSection : setVBoxForDrinkSection;
+ 	   for (MenuCatalog.Item item : newMenu.itemsIn(category)) {
+ 	     section.getChildren().add(quantityRow(item, ""));
+ 	     for (int modifierID : item.modifierIDs()) {
+ 	       section.getChildren().add(quantityRow(newMenu.itemWithID(modifierID), "    + "));   // Indented under its item
+ 	     }
+ 	   }
+ 	 }
+ 	 showRunningTotal();
+ 	 
+ 	 if (!billTextArea.getText().isBlank()) {
+ 	   placeCustomerOrder();
+ 	 }
+  }
+  
+  // A spinner from 0 to the item's limit and the item's name, the spinner starts at the order's quantity
+  private HBox quantityRow(MenuCatalog.Item item, String indent) {
+ 	 Spinner<Integer> spinner = new Spinner<>(0, item.maxQuantity, order.quantity(item.id));
+ 	 spinner.setEditable(true);                                    // Type 40 for a catering order instead of clicking 40 times
+ 	 spinner.setPrefWidth(70);
+ 	 spinner.valueProperty().addListener((observable, oldQuantity, newQuantity) -> quantityChanged(item, newQuantity));
+ 	 quantitySpinners[item.id] = spinner;
+ 	 return new HBox(10, new Label(indent), spinner, new Label(item.name));
+  }
+  
+  // Put a spinner's quantity on the order; only this item's line and its modifiers change, never the whole order
+  private void quantityChanged(MenuCatalog.Item item, int quantity) {
+ 	 int ordered = order.setQuantity(item.id, quantity);
+ 	 if (ordered != quantity) {
+ 	   quantitySpinners[item.id].getValueFactory().setValue(ordered);   // A modifier cannot go over its item's units
+ 	 }
+ 	 if (!item.isModifier()) {
+ 	   for (int modifierID : item.modifierIDs()) {
+ 	     if (quantitySpinners[modifierID].getValue() != order.quantity(modifierID)) {
+ 	       quantitySpinners[modifierID].getValueFactory().setValue(order.quantity(modifierID));   // Lowered with its item
+ 	     }
+ 	   }
+ 	 }
+ 	 showRunningTotal();
+  }
+  
+  // "3 items   Subtotal: $12.97   Tax: $0.91   Total: $13.88", the subtotal is kept by the order
+  private void showRunningTotal() {
+ 	 long subtotal = order.subtotalCents();
+ 	 long tax = billingEngine.taxCents(subtotal);
+ 	 StringBuilder total = new StringBuilder(64).append(order.units()).append(order.units() == 1 ? " item" : " items");
+ 	 BillingEngine.appendCents(total.append("   Subtotal: $"), subtotal);
+ 	 BillingEngine.appendCents(total.append("   Tax: $"), tax);
+ 	 BillingEngine.appendCents(total.append("   Total: $"), subtotal + tax);
+ 	 runningTotalLabel.setText(total.toString());
+  }
+  
   // Method to confirm customer's order
+  // The order goes to the kitchen and the register starts on the next one; if the kitchen queue is full the order
+  // stays on the register, so the cashier can confirm it again once the kitchen catches up
   private void confirmCustomerOrder() {
+ 	 if (order.isEmpty()) {
+ 	   showWarning("Nothing to confirm, add an item to the order first.");
+ 	   return;
+ 	 }
+ 	 if (!orderService.confirm(registerName, order, 0)) {            // Never wait on the JavaFX thread, the cashier is told instead
+ 	   showWarning("The kitchen has " + orderService.kitchenQueueCapacity() + " orders waiting. Please confirm again in a moment.");
+ 	   return;
+ 	 }
+ 	 cancelCustomerOrder();                                        // Sent, clear the spinners and the bill for the next customer
  	 
  	 Alert orderConfirm = new Alert(Alert.AlertType.INFORMATION);  // Create an instance of Alert with the INFOMATION type, which display an information icon in the dialog
  	 orderConfirm.setTitle("Order Confirm");                       // Set the alert title to order confirm
@@ -236,11 +306,49 @@ public class hw1 extends Application {
  	                                                               // waits for the user to close it before continuing the execution of the code
   }
   
+  private void showWarning(String message) {
+ 	 Alert warning = new Alert(Alert.AlertType.WARNING);
+ 	 warning.setTitle("Order Confirm");
+ 	 warning.setHeaderText(null);
+ 	 warning.setContentText(message);
+ 	 warning.showAndWait();
+  }
+  
+  // Add a batch of tickets to the kitchen window, keeping the last 100, and tell the kitchen display they are shown
+  private void showTickets(List<KitchenTicket> batch, Runnable shown) {
+ 	 for (KitchenTicket ticket : batch) {
+ 	   kitchenTickets.getItems().add(ticket.toString());
+ 	 }
+ 	 int extra = kitchenTickets.getItems().size() - 100;
+ 	 if (extra > 0) {
+ 	   kitchenTickets.getItems().subList(0, extra).clear();
+ 	 }
+ 	 kitchenTickets.scrollTo(kitchenTickets.getItems().size() - 1);
+ 	 shown.run();
+  }
+  
   
   
   
   
   
+  // Stop the online order API, watching the menu catalog file and draining the kitchen queue, and flush the journal,
+  // when the register closes
+  public void stop() throws IOException {
+ 	 if (orderServer != null) {
+ 	   orderServer.close();
+ 	 }
+ 	 if (menuWatcher != null) {
+ 	   menuWatcher.close();
+ 	 }
+ 	 if (kitchenDisplay != null) {
+ 	   kitchenDisplay.close();
+ 	 }
+ 	 if (orderJournal != null) {
+ 	   orderJournal.close();
+ 	 }
+  }
+  
 	 public static void main(String[] args) {
 	     launch(args);                                                 // launch javaFX application and start the javaFX runtime system
 	}
@@ -0,0 +1,216 @@
+// Title: Json
+// Desc: The small part of JSON the Heart Health server and its thin client exchange: objects, arrays, strings,
+//       numbers, true/false and null. parse() turns text into Map, List, String, Double, Boolean or null, and quote()
+//       writes a string value. Numbers are written by the caller with String.valueOf or CTScoreRecord.formatScore.
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+class Json {
+
+	private final String text;
+	private int position;
+
+
+	private Json(String text) {
+		this.text = text;
+	}
+
+
+	// Parse a whole JSON document, throws IllegalArgumentException if it is not valid JSON
+	static Object parse(String text) {
+		Json parser = new Json(text);
+		Object value = parser.readValue();
+		parser.skipWhitespace();
+		if (parser.position != text.length()) {
+			throw parser.error("end of document");
+		}
+		return value;
+	}
+
+	// Parse a document that must be a JSON object
+	@SuppressWarnings("unchecked")
+	static Map<String, Object> parseObject(String text) {
+		Object value = parse(text);
+		if (!(value instanceof Map)) {
+			throw new IllegalArgumentException("JSON object expected");
+		}
+		return (Map<String, Object>) value;
+	}
+
+	// String value with quotes and escapes, or null
+	static String quote(String value) {
+		if (value == null) {
+			return "null";
+		}
+		StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"':  quoted.append("\\\""); break;
+				case '\\': quoted.append("\\\\"); break;
+				case '\n': quoted.append("\\n"); break;
+				case '\r': quoted.append("\\r"); break;
+				case '\t': quoted.append("\\t"); break;
+				default:
+					if (c < 0x20) {
+						quoted.append(String.format("\\u%04x", (int) c));
+					} else {
+						quoted.append(c);
+					}
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+
+	private Object readValue() {
+		skipWhitespace();
+		if (position == text.length()) {
+			throw error("a value");
+		}
+		char c = text.charAt(position);
+		switch (c) {
+			case '{': return readObject();
+			case '[': return readArray();
+			case '"': return readString();
+			case 't': return readWord("true", Boolean.TRUE);
+			case 'f': return readWord("false", Boolean.FALSE);
+			case 'n': return readWord("null", null);
+			default:  return readNumber();
+		}
+	}
+
+	private Map<String, Object> readObject() {
+		Map<String, Object> object = new LinkedHashMap<>();
+		position++;                                                                       // {
+		skipWhitespace();
+		if (peek('}')) {
+			position++;
+			return object;
+		}
+		while (true) {
+			skipWhitespace();
+			if (!peek('"')) {
+				throw error("a member name");
+			}
+			String name = readString();
+			skipWhitespace();
+			expect(':');
+			object.put(name, readValue());
+			skipWhitespace();
+			if (peek(',')) {
+				position++;
+			} else {
+				expect('}');
+				return object;
+			}
+		}
+	}
+
+	private List<Object> readArray() {
+		List<Object> array = new ArrayList<>();
+		position++;                                                                       // [
+		skipWhitespace();
+		if (peek(']')) {
+			position++;
+			return array;
+		}
+		while (true) {
+			array.add(readValue());
+			skipWhitespace();
+			if (peek(',')) {
+				position++;
+			} else {
+				expect(']');
+				return array;
+			}
+		}
+	}
+
+	private String readString() {
+		position++;                                                                       // Opening quote
+		StringBuilder value = new StringBuilder();
+		while (position < text.length()) {
+			char c = text.charAt(position++);
+			if (c == '"') {
+				return value.toString();
+			} else if (c != '\\') {
+				value.append(c);
+			} else if (position < text.length()) {
+				char escape = text.charAt(position++);
+				switch (escape) {
+					case '"': case '\\': case '/': value.append(escape); break;
+					case 'b': value.append('\b'); break;
+					case 'f': value.append('\f'); break;
+					case 'n': value.append('\n'); break;
+					case 'r': value.append('\r'); break;
+					case 't': value.append('\t'); break;
+					case 'u':
+						if (position + 4 > text.length()) {
+							throw error("four hex digits");
+						}
+						try {
+							value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+						} catch (NumberFormatException event) {
+							throw error("four hex digits");
+						}
+						position += 4;
+						break;
+					default:
+						throw error("an escape character");
+				}
+			}
+		}
+		throw error("closing quote");
+	}
+
+	private Double readNumber() {
+		int start = position;
+		while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) {
+			position++;
+		}
+		try {
+			return Double.valueOf(text.substring(start, position));
+		} catch (NumberFormatException event) {
+			position = start;
+			throw error("a value");
+		}
+	}
+
+	private Object readWord(String word, Object value) {
+		if (!text.startsWith(word, position)) {
+			throw error("a value");
+		}
+		position += word.length();
+		return value;
+	}
+
+	private void skipWhitespace() {
+		while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+			position++;
+		}
+	}
+
+	private boolean peek(char c) {
+		return position < text.length() && text.charAt(position) == c;
+	}
+
+	private void expect(char c) {
+		if (!peek(c)) {
+			throw error("'" + c + "'");
+		}
+		position++;
+	}
+
+	private IllegalArgumentException error(String expected) {
+		return new IllegalArgumentException("Invalid JSON: expected " + expected + " at position " + position);
+	}
+}
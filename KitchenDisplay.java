@@ -0,0 +1,81 @@
+//Title: Joe's Deli Kitchen Display
+//Desc: Drains confirmed orders from the kitchen queue on its own thread and hands them to the screen in batches. The
+//      screen has one batch at a time: the next is only drained once it says the last one is shown, so a slow screen
+//      fills the queue and the registers feel it (see KitchenQueue) instead of tickets piling up out of sight.
+//      Records the time from confirm to display of every ticket as the "kitchen.confirmToDisplay" metric.
+//Author: JIAYUAN YU
+//Date: 05/18/2023
+
+package application;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;          // The one batch the screen may have
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import application.KitchenQueue.KitchenTicket;
+
+
+final class KitchenDisplay implements AutoCloseable {
+
+  static final Metrics.Latency CONFIRM_TO_DISPLAY = Metrics.latency("kitchen.confirmToDisplay");
+
+  private static final int MAX_BATCH = 64;                     // Tickets handed to the screen at once
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);   // Longest park on an empty queue, so close() is noticed
+
+  private final KitchenQueue queue;
+  private final BiConsumer<List<KitchenTicket>, Runnable> screen;
+  private final Semaphore screenFree = new Semaphore(1);
+  private final Thread drainer;
+  private volatile boolean running = true;
+
+
+  // Start draining; the screen gets every batch with a callback to run once the batch is on screen, from any thread
+  KitchenDisplay(KitchenQueue queue, BiConsumer<List<KitchenTicket>, Runnable> screen) {
+    this.queue = queue;
+    this.screen = screen;
+    this.drainer = new Thread(this::drain, "kitchen-display");
+    drainer.setDaemon(true);                                   // Never keep the register alive after its window closes
+    drainer.start();
+  }
+
+
+  private void drain() {
+    while (running) {
+      try {
+        screenFree.acquire();
+      } catch (InterruptedException event) {
+        return;
+      }
+      List<KitchenTicket> batch = new ArrayList<>();           // A new list each time, the screen keeps it until it is shown
+      while (running && queue.drainTo(batch::add, MAX_BATCH) == 0) {
+        queue.awaitTickets(IDLE_PARK_NANOS);
+      }
+      if (batch.isEmpty()) {
+        return;
+      }
+      screen.accept(batch, () -> shown(batch));
+    }
+  }
+
+  private void shown(List<KitchenTicket> batch) {
+    for (KitchenTicket ticket : batch) {
+      CONFIRM_TO_DISPLAY.recordSince(ticket.confirmedNanos);
+    }
+    screenFree.release();
+  }
+
+
+  // Stop draining; tickets still in the queue stay there
+  @Override
+  public void close() {
+    running = false;
+    drainer.interrupt();
+    try {
+      drainer.join(TimeUnit.SECONDS.toMillis(1));
+    } catch (InterruptedException event) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
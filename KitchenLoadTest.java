@@ -0,0 +1,137 @@
+//Title: Joe's Deli Kitchen Load Test
+//Desc: Registers on their own threads confirm random orders into one kitchen queue as fast as they can, or at a set
+//      rate, while a kitchen display drains it; without a window, the screen only counts the tickets it is given.
+//      Prints the orders per second the kitchen got, the confirm to display latency and how often registers had to
+//      wait for room, and checks that every ticket reached the screen once and in each register's order.
+//      A slow screen (-Dbenchmark.screenMicros) shows the back-pressure: registers wait and the latency is bounded
+//      by the queue size instead of growing.
+//      Usage: java application.KitchenLoadTest
+//      -Dbenchmark.registers=<n> (default 4) -Dbenchmark.ordersPerSecond=<n> (all registers together, 0 = as fast
+//      as they can, the default) -Dbenchmark.seconds=<n> (default 10) -Dbenchmark.screenMicros=<n> (time to show a
+//      batch, default 0) -DjoesDeli.kitchenQueueSize=<n>
+//Author: JIAYUAN YU
+//Date: 05/18/2023
+
+package application;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import application.KitchenQueue.KitchenTicket;
+
+
+class KitchenLoadTest {
+
+  private static final int REGISTERS = Integer.getInteger("benchmark.registers", 4);
+  private static final int ORDERS_PER_SECOND = Integer.getInteger("benchmark.ordersPerSecond", 0);
+  private static final int SECONDS = Integer.getInteger("benchmark.seconds", 10);
+  private static final int SCREEN_MICROS = Integer.getInteger("benchmark.screenMicros", 0);
+
+  private final MenuCatalog menu = MenuCatalog.parse(MenuCatalog.DEFAULT_MENU.lines().toList(), 0);
+  private final KitchenQueue queue = new KitchenQueue(Integer.getInteger("joesDeli.kitchenQueueSize", KitchenQueue.DEFAULT_CAPACITY));
+  private final AtomicBoolean confirming = new AtomicBoolean(true);
+  private final long[] confirmed = new long[REGISTERS];        // Tickets each register got into the queue
+  private final long[] rejected = new long[REGISTERS];         // Tickets each register gave up on
+  private final long[] shown = new long[REGISTERS];            // Tickets of each register on the screen, only the drainer thread
+  private final long[] lastShownNanos = new long[REGISTERS];   // Confirm time of each register's last ticket on the screen
+  private long outOfOrder;
+
+
+  public static void main(String[] args) throws Exception {
+    new KitchenLoadTest().run();
+  }
+
+
+  private void run() throws InterruptedException {
+    System.out.printf(Locale.ROOT, "%d registers, %s, %d s, queue of %d, screen %d us a batch%n", REGISTERS,
+        ORDERS_PER_SECOND == 0 ? "as fast as they can" : ORDERS_PER_SECOND + " orders/s", SECONDS, queue.capacity(), SCREEN_MICROS);
+    KitchenDisplay.CONFIRM_TO_DISPLAY.reset();
+    long queueFullBefore = KitchenQueue.QUEUE_FULL.getCount();
+    KitchenDisplay display = new KitchenDisplay(queue, this::screen);
+
+    Thread[] registers = new Thread[REGISTERS];
+    for (int register = 0; register < REGISTERS; register++) {
+      int number = register;
+      registers[register] = new Thread(() -> confirmOrders(number), "register-" + (register + 1));
+    }
+    long start = System.nanoTime();
+    for (Thread register : registers) {
+      register.start();
+    }
+    Thread.sleep(TimeUnit.SECONDS.toMillis(SECONDS));
+    confirming.set(false);
+    for (Thread register : registers) {
+      register.join();
+    }
+    long confirmedTotal = 0, rejectedTotal = 0;
+    for (int register = 0; register < REGISTERS; register++) {
+      confirmedTotal += confirmed[register];
+      rejectedTotal += rejected[register];
+    }
+    while (KitchenDisplay.CONFIRM_TO_DISPLAY.getCount() < confirmedTotal) {
+      Thread.sleep(10);                                        // The last tickets reaching the screen
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    display.close();
+
+    System.out.printf(Locale.ROOT, "%d orders shown in %.1f s: %.0f orders/s%n", confirmedTotal, seconds, confirmedTotal / seconds);
+    System.out.printf(Locale.ROOT, "confirm to display: p50 %.3f ms  p99 %.3f ms  max %.3f ms%n",
+        KitchenDisplay.CONFIRM_TO_DISPLAY.getP50Millis(), KitchenDisplay.CONFIRM_TO_DISPLAY.getP99Millis(),
+        KitchenDisplay.CONFIRM_TO_DISPLAY.getMaxMillis());
+    System.out.printf(Locale.ROOT, "queue full %d times, %d orders rejected%n",
+        KitchenQueue.QUEUE_FULL.getCount() - queueFullBefore, rejectedTotal);
+    long lost = 0;
+    for (int register = 0; register < REGISTERS; register++) {
+      lost += Math.abs(confirmed[register] - shown[register]);
+    }
+    System.out.println(lost == 0 && outOfOrder == 0 ? "Every ticket shown once, in order"
+        : lost + " tickets lost or shown twice, " + outOfOrder + " out of order");
+  }
+
+  // One register: a random order of one to four items, confirmed, then the next one
+  private void confirmOrders(int register) {
+    SplittableRandom random = new SplittableRandom(register);
+    DeliOrder order = new DeliOrder(menu);
+    String name = "Register " + (register + 1);
+    long intervalNanos = ORDERS_PER_SECOND == 0 ? 0 : TimeUnit.SECONDS.toNanos(REGISTERS) / ORDERS_PER_SECOND;
+    long next = System.nanoTime();
+    while (confirming.get()) {
+      if (intervalNanos > 0) {
+        next += intervalNanos;
+        long wait = next - System.nanoTime();
+        if (wait > 0) {
+          LockSupport.parkNanos(wait);
+        }
+      }
+      order.clear();
+      for (int items = 1 + random.nextInt(4); items > 0; items--) {
+        order.add(menu.item(random.nextInt(menu.size())).id, 1);
+      }
+      if (queue.publish(KitchenTicket.of(name, order), 1, TimeUnit.SECONDS)) {
+        confirmed[register]++;
+      } else {
+        rejected[register]++;
+      }
+    }
+  }
+
+  // The kitchen window without the window: count every ticket by register and check it came after the last one
+  private void screen(List<KitchenTicket> batch, Runnable shownCallback) {
+    for (KitchenTicket ticket : batch) {
+      int register = Integer.parseInt(ticket.register.substring("Register ".length())) - 1;
+      if (ticket.confirmedNanos < lastShownNanos[register]) {
+        outOfOrder++;
+      }
+      lastShownNanos[register] = ticket.confirmedNanos;
+      shown[register]++;
+    }
+    if (SCREEN_MICROS > 0) {
+      LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(SCREEN_MICROS));
+    }
+    shownCallback.run();
+  }
+}
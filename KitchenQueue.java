@@ -0,0 +1,182 @@
+//Title: Joe's Deli Kitchen Queue
+//Desc: Confirmed orders on their way to the kitchen display. A bounded ring buffer that any number of registers
+//      publish to at once without a lock, and that one kitchen display drains: a register claims a slot by moving the
+//      tail with a compare-and-set, writes its ticket and publishes it through the slot's sequence number, so
+//      registers only ever retry when two claim the same slot at the same moment. When the kitchen falls behind the
+//      queue fills up and registers are told to wait (back-pressure) instead of the queue growing without bound.
+//      -DjoesDeli.kitchenQueueSize=<n> (rounded up to a power of two, default 1024)
+//Author: JIAYUAN YU
+//Date: 05/18/2023
+
+package application;
+
+import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;   // Parks the kitchen display on an empty queue and a register on a full one
+import java.util.function.Consumer;
+
+
+final class KitchenQueue {
+
+  static final int DEFAULT_CAPACITY = 1024;
+
+  // Seen in JConsole with the other metrics (see Metrics)
+  static final Metrics.Counter PUBLISHED = Metrics.counter("kitchen.published");
+  static final Metrics.Counter QUEUE_FULL = Metrics.counter("kitchen.queueFull");       // Publishes that found no room and had to wait
+  static final Metrics.Counter REJECTED = Metrics.counter("kitchen.rejected");          // Publishes that gave up waiting
+
+  private static KitchenQueue shared;                          // Guarded by KitchenQueue.class
+
+  private final int capacity;
+  private final int mask;
+  private final KitchenTicket[] tickets;
+  private final AtomicLongArray sequences;                     // Per slot: the position it is free for, that position + 1 once its ticket is published
+  private final AtomicLong tail = new AtomicLong();            // Next position a register claims
+  private long head;                                           // Next position the kitchen reads, only used by the consumer thread
+  private volatile Thread waitingConsumer;                     // The kitchen display while it is parked on an empty queue
+
+
+  KitchenQueue(int capacity) {
+    if (capacity < 2 || capacity > 1 << 24) {
+      throw new IllegalArgumentException("Kitchen queue size must be 2 to " + (1 << 24) + ": " + capacity);
+    }
+    this.capacity = Integer.highestOneBit(capacity - 1) << 1;  // Slot of a position is position & mask
+    this.mask = this.capacity - 1;
+    this.tickets = new KitchenTicket[this.capacity];
+    this.sequences = new AtomicLongArray(this.capacity);
+    for (int slot = 0; slot < this.capacity; slot++) {
+      sequences.set(slot, slot);
+    }
+  }
+
+  // The queue every register in this process publishes to
+  static synchronized KitchenQueue shared() {
+    if (shared == null) {
+      shared = new KitchenQueue(Integer.getInteger("joesDeli.kitchenQueueSize", DEFAULT_CAPACITY));
+    }
+    return shared;
+  }
+
+
+  // Publish a ticket if there is room; false, without waiting, if the kitchen is a full queue behind
+  boolean offer(KitchenTicket ticket) {
+    while (true) {
+      long position = tail.get();
+      int slot = (int) position & mask;
+      long sequence = sequences.get(slot);
+      if (sequence == position) {
+        if (tail.compareAndSet(position, position + 1)) {
+          tickets[slot] = ticket;
+          sequences.set(slot, position + 1);                   // Published; a volatile write so the check for a parked consumer below cannot be seen before it
+          PUBLISHED.increment();
+          Thread consumer = waitingConsumer;
+          if (consumer != null) {
+            LockSupport.unpark(consumer);
+          }
+          return true;
+        }
+      } else if (sequence < position) {
+        return false;                                          // The slot still holds the ticket of a lap ago
+      }
+      // Another register claimed this position first, try the next one
+    }
+  }
+
+  // Publish a ticket, waiting up to the timeout for the kitchen to make room; false if it did not
+  boolean publish(KitchenTicket ticket, long timeout, TimeUnit unit) {
+    if (offer(ticket)) {
+      return true;
+    }
+    QUEUE_FULL.increment();
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (int attempt = 1; !offer(ticket); attempt++) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        REJECTED.increment();
+        return false;
+      }
+      if (attempt < 100) {
+        Thread.onSpinWait();                                   // The kitchen usually frees a slot within microseconds
+      } else {
+        LockSupport.parkNanos(Math.min(remaining, 100_000));
+      }
+    }
+    return true;
+  }
+
+
+  // Hand up to max published tickets to the sink in the order they were claimed, returns how many. Only the kitchen
+  // display's thread may call this and awaitTickets
+  int drainTo(Consumer<KitchenTicket> sink, int max) {
+    int drained = 0;
+    while (drained < max) {
+      int slot = (int) head & mask;
+      if (sequences.get(slot) != head + 1) {
+        break;                                                 // Not claimed yet, or claimed and still being written
+      }
+      KitchenTicket ticket = tickets[slot];
+      tickets[slot] = null;
+      sequences.set(slot, head + capacity);                    // Free for the register that claims it on the next lap
+      head++;
+      drained++;
+      sink.accept(ticket);
+    }
+    return drained;
+  }
+
+  // Park until a ticket may have been published or the timeout is up
+  void awaitTickets(long timeoutNanos) {
+    waitingConsumer = Thread.currentThread();
+    if (sequences.get((int) head & mask) != head + 1) {        // Checked after saying we wait, so a publish in between unparks us
+      LockSupport.parkNanos(this, timeoutNanos);
+    }
+    waitingConsumer = null;
+  }
+
+  int capacity() {
+    return capacity;
+  }
+
+
+  // A confirmed order as the kitchen sees it, made on the register and never changed after
+  static final class KitchenTicket {
+
+    final String register;
+    final LocalTime confirmedAt;
+    final long confirmedNanos;                                 // System.nanoTime() at confirm, for the confirm to display latency
+    final List<String> lines;                                  // "2 x Coffee", then "  + 2 x Oat Milk" under it
+
+    KitchenTicket(String register, LocalTime confirmedAt, long confirmedNanos, List<String> lines) {
+      this.register = register;
+      this.confirmedAt = confirmedAt;
+      this.confirmedNanos = confirmedNanos;
+      this.lines = List.copyOf(lines);
+    }
+
+    // The order's items and their modifiers with their quantities, prices are none of the kitchen's business
+    static KitchenTicket of(String register, DeliOrder order) {
+      MenuCatalog menu = order.menu();
+      List<String> lines = new ArrayList<>();
+      for (int line = 0; line < order.lineCount(); line++) {
+        MenuCatalog.Item item = menu.itemWithID(order.lineItemID(line));
+        lines.add(order.quantity(item.id) + " x " + item.name);
+        for (int modifierID : item.modifierIDs()) {
+          if (order.quantity(modifierID) > 0) {
+            lines.add("  + " + order.quantity(modifierID) + " x " + menu.itemWithID(modifierID).name);
+          }
+        }
+      }
+      return new KitchenTicket(register, LocalTime.now().truncatedTo(ChronoUnit.SECONDS), System.nanoTime(), lines);
+    }
+
+    @Override
+    public String toString() {
+      return register + " at " + confirmedAt + "\n" + String.join("\n", lines);
+    }
+  }
+}
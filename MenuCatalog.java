@@ -0,0 +1,335 @@
+//Title: Joe's Deli Menu Catalog
+//Desc: The menu of Joe's Deli, loaded from a catalog file (JoesDeliMenu.txt) instead of being compiled into the register.
+//      One line per item: item ID, name, category, price and limit. The category is eat or drink, or +<item ID> for a
+//      modifier of that item (extra cheese, oat milk), added to some or all of that item's units at its own price. The
+//      limit is the most units of the item one order can have: any, one or a number. Prices are kept in integer cents.
+//      A catalog is never changed once loaded; the register swaps in a new one when the file is edited.
+//Author: JIAYUAN YU
+//Date: 05/18/2023
+
+package application;
+
+import java.io.IOException;                     // Thrown when the catalog file cannot be read
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+
+final class MenuCatalog {
+
+  static final String DEFAULT_FILE_NAME = "JoesDeliMenu.txt";
+  static final int MAX_ITEM_ID = 9999;                         // Item IDs index arrays, so they are kept small
+  static final int MAX_QUANTITY = 999;                         // Units of an item with limit "any", enough for a catering order
+  static final int MAX_PRICE_DOLLARS_DIGITS = 7;               // Up to $9,999,999.99, so a price fits the int cents of an order journal line
+
+  static final String EAT = "eat", DRINK = "drink";             // Categories, each is one section of the register
+  static final String MODIFIER_PREFIX = "+";                    // Category of a modifier: "+" and the item ID it modifies
+  static final String ANY = "any", ONE = "one";                 // Limits without a number
+
+  // Written to the catalog file the first time a register starts without one: the menu the register used to have built in
+  static final String DEFAULT_MENU =
+        "# Joe's Deli menu, edits are picked up by every running register\n"
+      + "# item ID, name, category (eat, drink, or +<item ID> for a modifier of that item), price, limit per order (any, one or a number)\n"
+      + "1, Egg Sandwich, eat, 7.99, any\n"
+      + "2, Chicken Sandwich, eat, 9.99, any\n"
+      + "3, Bagel, eat, 2.50, any\n"
+      + "4, Potato Salad, eat, 4.49, any\n"
+      + "5, Black Tea, drink, 1.25, any\n"
+      + "6, Green Tea, drink, 0.99, any\n"
+      + "7, Coffee, drink, 1.99, any\n"
+      + "8, Orange Juice, drink, 2.25, any\n"
+      + "# A modifier, for example: 101, Extra Cheese, +1, 0.75, any\n";
+
+
+  // One menu item or modifier, the index is its position in the catalog
+  static final class Item {
+    final int index;
+    final int id;
+    final String name;
+    final String category;                                     // For a modifier, the category of the item it modifies
+    final long priceCents;
+    final int maxQuantity;                                     // Most units one order can have
+    final int modifiesID;                                      // Item ID this modifier is added to, 0 for an item
+    final String priceText;                                    // "$7.99", made once so the bill does not format it
+    private int[] modifierIDs = new int[0];                    // Modifiers of this item, in catalog order
+
+    private Item(int index, int id, String name, String category, long priceCents, int maxQuantity, int modifiesID) {
+      this.index = index;
+      this.id = id;
+      this.name = name;
+      this.category = category;
+      this.priceCents = priceCents;
+      this.maxQuantity = maxQuantity;
+      this.modifiesID = modifiesID;
+      this.priceText = "$" + formatCents(priceCents);
+    }
+
+    boolean isModifier() {
+      return modifiesID != 0;
+    }
+
+    // IDs of the modifiers of this item; do not change the array
+    int[] modifierIDs() {
+      return modifierIDs;
+    }
+
+    @Override
+    public String toString() {
+      return id + ", " + name + ", " + (isModifier() ? MODIFIER_PREFIX + modifiesID : category) + ", " + priceText + ", "
+          + (maxQuantity == MAX_QUANTITY ? ANY : String.valueOf(maxQuantity));
+    }
+  }
+
+
+  private final Item[] items;                                  // Catalog order, the order the register shows them in
+  private final Item[] itemsByID;                              // Indexed by item ID, null where there is no item
+  private final long modifiedMillis;                           // File time of the catalog file this was loaded from
+
+
+  private MenuCatalog(Item[] items, long modifiedMillis) {
+    this.items = items;
+    this.modifiedMillis = modifiedMillis;
+    int maxID = 0;
+    for (Item item : items) {
+      maxID = Math.max(maxID, item.id);
+    }
+    this.itemsByID = new Item[maxID + 1];
+    for (Item item : items) {
+      itemsByID[item.id] = item;
+    }
+  }
+
+
+  // Load the catalog file, writing the default menu to it first if there is none
+  static MenuCatalog loadOrCreate(Path catalogFile) throws IOException {
+    if (Files.notExists(catalogFile)) {
+      Files.writeString(catalogFile, DEFAULT_MENU, StandardCharsets.UTF_8);
+    }
+    return load(catalogFile);
+  }
+
+  static MenuCatalog load(Path catalogFile) throws IOException {
+    long modifiedMillis = Files.getLastModifiedTime(catalogFile).toMillis();
+    return parse(Files.readAllLines(catalogFile, StandardCharsets.UTF_8), modifiedMillis);
+  }
+
+  // Throws IllegalArgumentException naming the line for anything that is not a valid item, a menu is loaded whole or not at all
+  static MenuCatalog parse(List<String> lines, long modifiedMillis) {
+    List<Item> items = new ArrayList<>();
+    List<Integer> itemLineNumbers = new ArrayList<>();
+    boolean[] usedIDs = new boolean[MAX_ITEM_ID + 1];
+    for (int lineNumber = 1; lineNumber <= lines.size(); lineNumber++) {
+      String line = lines.get(lineNumber - 1).strip();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] fields = line.split(",");
+      if (fields.length != 5) {
+        throw new IllegalArgumentException("Menu line " + lineNumber + " needs 5 fields, has " + fields.length + ": " + line);
+      }
+      for (int field = 0; field < fields.length; field++) {
+        fields[field] = fields[field].strip();
+      }
+
+      int id = parseItemID(fields[0], lineNumber);
+      if (usedIDs[id]) {
+        throw new IllegalArgumentException("Menu line " + lineNumber + " repeats item ID " + id);
+      }
+      usedIDs[id] = true;
+
+      if (fields[1].isEmpty()) {
+        throw new IllegalArgumentException("Menu line " + lineNumber + " has no item name");
+      }
+      String category = fields[2].toLowerCase(Locale.ROOT);
+      int modifiesID = 0;
+      if (category.startsWith(MODIFIER_PREFIX)) {
+        modifiesID = parseItemID(category.substring(MODIFIER_PREFIX.length()).strip(), lineNumber);
+      } else if (!category.equals(EAT) && !category.equals(DRINK)) {
+        throw new IllegalArgumentException("Menu line " + lineNumber + " has category " + fields[2] + ", not eat, drink or +<item ID>");
+      }
+      items.add(new Item(items.size(), id, fields[1], category, parseCents(fields[3], lineNumber), parseLimit(fields[4], lineNumber), modifiesID));
+      itemLineNumbers.add(lineNumber);
+    }
+    if (items.isEmpty()) {
+      throw new IllegalArgumentException("Menu has no items");                 // Most likely a file caught half written
+    }
+
+    // Modifiers can come before or after their item, so they are checked once every item is known
+    MenuCatalog catalog = new MenuCatalog(items.toArray(new Item[0]), modifiedMillis);
+    for (int index = 0; index < catalog.items.length; index++) {
+      Item modifier = catalog.items[index];
+      if (!modifier.isModifier()) {
+        continue;
+      }
+      Item item = catalog.itemWithID(modifier.modifiesID);
+      if (item == null || item.isModifier()) {
+        throw new IllegalArgumentException("Menu line " + itemLineNumbers.get(index) + " modifies item " + modifier.modifiesID
+            + ", which is not an item on the menu");
+      }
+      Item resolved = new Item(modifier.index, modifier.id, modifier.name, item.category, modifier.priceCents,
+          modifier.maxQuantity, modifier.modifiesID);
+      catalog.items[index] = resolved;
+      catalog.itemsByID[resolved.id] = resolved;
+      item.modifierIDs = Arrays.copyOf(item.modifierIDs, item.modifierIDs.length + 1);
+      item.modifierIDs[item.modifierIDs.length - 1] = resolved.id;
+    }
+    return catalog;
+  }
+
+
+  int size() {
+    return items.length;
+  }
+
+  Item item(int index) {
+    return items[index];
+  }
+
+  // Returns null if there is no item with that ID
+  Item itemWithID(int id) {
+    return id >= 0 && id < itemsByID.length ? itemsByID[id] : null;
+  }
+
+  // Largest item ID on the menu, arrays indexed by item ID need one more element than this
+  int maxItemID() {
+    return itemsByID.length - 1;
+  }
+
+  // Items of one category, in catalog order, without their modifiers
+  List<Item> itemsIn(String category) {
+    List<Item> categoryItems = new ArrayList<>();
+    for (Item item : items) {
+      if (item.category.equals(category) && !item.isModifier()) {
+        categoryItems.add(item);
+      }
+    }
+    return categoryItems;
+  }
+
+  long modifiedMillis() {
+    return modifiedMillis;
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(items);
+  }
+
+
+  private static int parseItemID(String text, int lineNumber) {
+    int id;
+    try {
+      id = Integer.parseInt(text);
+    } catch (NumberFormatException event) {
+      throw new IllegalArgumentException("Menu line " + lineNumber + " has an item ID that is not a number: " + text);
+    }
+    if (id < 1 || id > MAX_ITEM_ID) {
+      throw new IllegalArgumentException("Menu line " + lineNumber + " has an item ID outside 1 to " + MAX_ITEM_ID + ": " + id);
+    }
+    return id;
+  }
+
+  // "any", "one" or a number of units from 1 to MAX_QUANTITY
+  private static int parseLimit(String text, int lineNumber) {
+    String limit = text.toLowerCase(Locale.ROOT);
+    if (limit.equals(ANY)) {
+      return MAX_QUANTITY;
+    }
+    if (limit.equals(ONE)) {
+      return 1;
+    }
+    if (!limit.isEmpty() && limit.length() <= 3 && isDigits(limit) && Integer.parseInt(limit) >= 1) {
+      return Integer.parseInt(limit);
+    }
+    throw new IllegalArgumentException("Menu line " + lineNumber + " has limit " + text + ", not any, one or 1 to " + MAX_QUANTITY);
+  }
+
+
+  // "7.99" or "7" to 799 or 700 cents, exactly, without going through a double
+  static long parseCents(String price, int lineNumber) {
+    String digits = price.startsWith("$") ? price.substring(1) : price;
+    int point = digits.indexOf('.');
+    String dollars = point < 0 ? digits : digits.substring(0, point);
+    String cents = point < 0 ? "" : digits.substring(point + 1);
+    if (dollars.isEmpty() || cents.length() > 2 || !isDigits(dollars) || !isDigits(cents)) {
+      throw new IllegalArgumentException("Menu line " + lineNumber + " has a price that is not dollars and cents: " + price);
+    }
+    if (dollars.length() > MAX_PRICE_DOLLARS_DIGITS) {
+      throw new IllegalArgumentException("Menu line " + lineNumber + " has a price over $9,999,999.99: " + price);
+    }
+    return Long.parseLong(dollars) * 100 + (cents.isEmpty() ? 0 : Long.parseLong(cents.length() == 1 ? cents + "0" : cents));
+  }
+
+  // 799 to "7.99"
+  static String formatCents(long cents) {
+    return BillingEngine.appendCents(new StringBuilder(), cents).toString();
+  }
+
+  private static boolean isDigits(String text) {
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) < '0' || text.charAt(i) > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  // Watch the catalog file on a daemon thread and hand every new catalog that loads to the listener; a catalog that does
+  // not load is reported and the current one is kept. Close the returned service to stop watching
+  static WatchService watch(Path catalogFile, MenuCatalog current, Consumer<MenuCatalog> listener) throws IOException {
+    Path file = catalogFile.toAbsolutePath();
+    WatchService watchService = file.getFileSystem().newWatchService();
+    file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+    Thread watcher = new Thread(() -> {
+      long loadedMillis = current.modifiedMillis();
+      try {
+        while (true) {
+          WatchKey key = watchService.take();
+          boolean catalogChanged = key.pollEvents().stream().anyMatch(event -> file.getFileName().equals(event.context()));
+          if (!key.reset()) {
+            return;                                                              // The directory itself is gone
+          }
+          if (!catalogChanged) {
+            continue;
+          }
+
+          // Editors write a file in several steps, wait until it has been quiet for a moment
+          WatchKey more;
+          while ((more = watchService.poll(250, TimeUnit.MILLISECONDS)) != null) {
+            more.pollEvents();
+            more.reset();
+          }
+          try {
+            MenuCatalog reloaded = load(file);
+            if (reloaded.modifiedMillis() != loadedMillis) {
+              loadedMillis = reloaded.modifiedMillis();
+              listener.accept(reloaded);
+            }
+          } catch (NoSuchFileException event) {
+            // Deleted, or replaced and the new file is not there yet, keep the current menu
+          } catch (IOException | IllegalArgumentException event) {
+            System.err.println("Menu not reloaded, the current menu stays: " + event.getMessage());
+          }
+        }
+      } catch (ClosedWatchServiceException | InterruptedException event) {
+        // Closed with the register
+      }
+    }, "menu-catalog-watcher");
+    watcher.setDaemon(true);
+    watcher.start();
+    return watchService;
+  }
+}
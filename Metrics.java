@@ -0,0 +1,304 @@
+// Title: Metrics
+// Desc: Latency histograms and counters for every UI action and file read and write of the Heart Health System, so
+//       when a station feels slow we can see where the time goes. Recording a latency is a bucket increment, no lock
+//       and no allocation. Every metric is registered as a JMX MXBean (domain "application", see it in JConsole or
+//       VisualVM), and a summary of the metrics that changed is printed every few minutes.
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import java.lang.management.ManagementFactory;  // Platform MBean server the metrics are registered with
+import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+
+final class Metrics {
+
+	private static final Map<String, Latency> LATENCIES = new ConcurrentSkipListMap<>();   // By name, so reports list them in order
+	private static final Map<String, Counter> COUNTERS = new ConcurrentSkipListMap<>();
+
+	// Shared by every file the record service reads or writes
+	static final Latency FILE_READ = latency("file.read");
+	static final Latency FILE_WRITE = latency("file.write");
+	static final Latency FILE_FORCE = latency("file.force");
+	static final Counter BYTES_READ = counter("file.bytesRead");
+	static final Counter BYTES_WRITTEN = counter("file.bytesWritten");
+
+	private static ScheduledExecutorService logger;                                       // Guarded by Metrics.class
+
+
+	private Metrics() {
+	}
+
+
+	// What JConsole shows for a latency histogram, in milliseconds
+	public interface LatencyMXBean {
+		long getCount();
+		double getMeanMillis();
+		double getP50Millis();
+		double getP99Millis();
+		double getMaxMillis();
+		void reset();
+	}
+
+	public interface CounterMXBean {
+		long getCount();
+	}
+
+
+	// Latencies from 1 µs to about 4.5 minutes in buckets 1/8 of a power of two wide, so a percentile is at most 12.5% high
+	static final class Latency implements LatencyMXBean {
+
+		private static final int MIN_EXPONENT = 10;                                       // Bucket 0 holds everything under 2^10 ns
+		private static final int MAX_EXPONENT = 38;                                       // The last bucket holds everything from 2^38 ns
+		private static final int SUB_BUCKET_BITS = 3;
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+		private static final int BUCKETS = 2 + (MAX_EXPONENT - MIN_EXPONENT) * SUB_BUCKETS;
+
+		private final String name;
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+		private long loggedCount;                                                          // Count at the last log dump, only read by the logger thread
+
+
+		private Latency(String name) {
+			this.name = name;
+		}
+
+		void record(long nanos) {
+			if (nanos < 0) {
+				return;                                                                    // The clock cannot go backwards, but do not count it if it does
+			}
+			buckets.incrementAndGet(bucketOf(nanos));
+			count.increment();
+			totalNanos.add(nanos);
+			maxNanos.accumulate(nanos);
+		}
+
+		// Record the time since a System.nanoTime() taken when the action started
+		void recordSince(long startNanos) {
+			record(System.nanoTime() - startNanos);
+		}
+
+		String name() {
+			return name;
+		}
+
+		@Override
+		public long getCount() {
+			return count.sum();
+		}
+
+		@Override
+		public double getMeanMillis() {
+			long n = count.sum();
+			return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+		}
+
+		@Override
+		public double getP50Millis() {
+			return percentileNanos(0.50) / 1e6;
+		}
+
+		@Override
+		public double getP99Millis() {
+			return percentileNanos(0.99) / 1e6;
+		}
+
+		@Override
+		public double getMaxMillis() {
+			return maxNanos.get() / 1e6;
+		}
+
+		// Upper bound of the bucket holding the percentile, never more than the largest latency recorded
+		long percentileNanos(double percentile) {
+			long total = 0;
+			long[] counts = new long[BUCKETS];
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				total += counts[bucket] = buckets.get(bucket);
+			}
+			if (total == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(percentile * total);
+			long seen = 0;
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				seen += counts[bucket];
+				if (seen >= Math.max(rank, 1)) {
+					return Math.min(upperBoundOf(bucket), maxNanos.get());
+				}
+			}
+			return maxNanos.get();
+		}
+
+		// Recordings made while resetting may be lost, which is fine for a diagnostics counter
+		@Override
+		public void reset() {
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				buckets.set(bucket, 0);
+			}
+			count.reset();
+			totalNanos.reset();
+			maxNanos.reset();
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%-28s %8d calls   mean %9.3f ms   p50 %9.3f ms   p99 %9.3f ms   max %9.3f ms",
+					name, getCount(), getMeanMillis(), getP50Millis(), getP99Millis(), getMaxMillis());
+		}
+
+		static int bucketOf(long nanos) {
+			int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+			if (exponent < MIN_EXPONENT) {
+				return 0;
+			}
+			if (exponent >= MAX_EXPONENT) {
+				return BUCKETS - 1;
+			}
+			int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+			return 1 + (exponent - MIN_EXPONENT) * SUB_BUCKETS + subBucket;
+		}
+
+		static long upperBoundOf(int bucket) {
+			if (bucket == 0) {
+				return 1L << MIN_EXPONENT;
+			}
+			if (bucket == BUCKETS - 1) {
+				return Long.MAX_VALUE;
+			}
+			int exponent = MIN_EXPONENT + (bucket - 1) / SUB_BUCKETS;
+			int subBucket = (bucket - 1) % SUB_BUCKETS;
+			return (long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS);
+		}
+	}
+
+
+	static final class Counter implements CounterMXBean {
+
+		private final String name;
+		private final LongAdder count = new LongAdder();
+		private long loggedCount;                                                          // Count at the last log dump, only read by the logger thread
+
+
+		private Counter(String name) {
+			this.name = name;
+		}
+
+		void increment() {
+			count.increment();
+		}
+
+		void add(long amount) {
+			count.add(amount);
+		}
+
+		@Override
+		public long getCount() {
+			return count.sum();
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%-28s %8d", name, getCount());
+		}
+	}
+
+
+	// The latency histogram with this name, created and registered the first time it is asked for
+	static Latency latency(String name) {
+		Latency latency = LATENCIES.get(name);
+		if (latency == null) {
+			synchronized (Metrics.class) {                                             // Registered once, even when two threads ask at once
+				latency = LATENCIES.computeIfAbsent(name, newName -> register("Latency", newName, new Latency(newName)));
+			}
+		}
+		return latency;
+	}
+
+	static Counter counter(String name) {
+		Counter counter = COUNTERS.get(name);
+		if (counter == null) {
+			synchronized (Metrics.class) {
+				counter = COUNTERS.computeIfAbsent(name, newName -> register("Counter", newName, new Counter(newName)));
+			}
+		}
+		return counter;
+	}
+
+	// Every metric with at least one recording, latencies first, one line each
+	static String report() {
+		StringBuilder report = new StringBuilder();
+		for (Latency latency : LATENCIES.values()) {
+			if (latency.getCount() > 0) {
+				report.append(latency).append('\n');
+			}
+		}
+		for (Counter counter : COUNTERS.values()) {
+			if (counter.getCount() > 0) {
+				report.append(counter).append('\n');
+			}
+		}
+		return report.toString();
+	}
+
+
+	// Print the metrics that changed every given number of seconds on a daemon thread; 0 turns it off. Can be changed
+	// with -DheartHealth.metricsLogSeconds=<n>
+	static synchronized void startLogging(int seconds) {
+		if (seconds <= 0 || logger != null) {
+			return;
+		}
+		logger = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "metrics-log");
+			thread.setDaemon(true);                                                        // Never keep the application alive after the window closes
+			return thread;
+		});
+		logger.scheduleAtFixedRate(Metrics::logChanges, seconds, seconds, TimeUnit.SECONDS);
+	}
+
+	private static void logChanges() {
+		StringBuilder changes = new StringBuilder();
+		for (Latency latency : LATENCIES.values()) {
+			long count = latency.getCount();
+			if (count != latency.loggedCount) {
+				latency.loggedCount = count;
+				changes.append("  ").append(latency).append('\n');
+			}
+		}
+		for (Counter counter : COUNTERS.values()) {
+			long count = counter.getCount();
+			if (count != counter.loggedCount) {
+				counter.loggedCount = count;
+				changes.append("  ").append(counter).append('\n');
+			}
+		}
+		if (changes.length() > 0) {
+			System.out.print("Metrics at " + LocalTime.now().truncatedTo(ChronoUnit.SECONDS) + " (totals since start)\n" + changes);
+		}
+	}
+
+	private static <T> T register(String type, String name, T metric) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metric,
+					new ObjectName("application:type=" + type + ",name=" + ObjectName.quote(name)));
+		} catch (JMException | SecurityException event) {
+			// Still recorded and logged, only not visible over JMX
+		}
+		return metric;
+	}
+}
@@ -0,0 +1,472 @@
+//Title: Joe's Deli Order Journal
+//Desc: Every confirmed order, appended as a small binary record to a memory-mapped journal file, one file a day
+//      (orders-2023-05-18.journal). Appending copies the record into the mapping, so confirming an order costs
+//      microseconds; the written pages are forced to the disk together by a background thread every few hundred
+//      milliseconds. A crash of the register loses nothing (the pages are the operating system's), a power cut at
+//      most the orders since the last flush. Records carry a checksum, so the recovery scan that runs when a day's
+//      file is opened again stops at a record cut short and appending carries on from there. A register holds a lock on
+//      today's file while its journal is open, so two registers can never append to the same file.
+//      -DjoesDeli.journalDir=<dir> (default orders), -DjoesDeli.journalFlushMillis=<n> (default 200)
+//      Usage: java application.OrderJournal [journal directory] lists the orders in every journal file
+//Author: JIAYUAN YU
+//Date: 05/18/2023
+
+package application;
+
+import java.io.IOException;                     // Thrown when a journal file cannot be opened, mapped or forced
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;               // The part of today's file being appended to
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;              // Keeps a second register from appending to today's file
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;                    // Tells a whole record from one cut short by a crash
+
+
+final class OrderJournal implements AutoCloseable {
+
+  static final String DEFAULT_DIRECTORY = "orders";
+
+  static final Metrics.Latency APPEND = Metrics.latency("journal.append");
+  static final Metrics.Latency FLUSH = Metrics.latency("journal.flush");
+
+  // File layout: a header, then records back to back; a record length of 0 (the zeros of a new mapping) ends the file
+  private static final int MAGIC = 0x4A444F4A;                 // "JDOJ"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 16;                   // magic, version, long epoch day
+  private static final int RECORD_HEADER_SIZE = 8;             // int body length, int CRC of the body
+  private static final int LINE_SIZE = 10;                     // int price in cents (see MenuCatalog.MAX_PRICE_DOLLARS_DIGITS), short item ID, short ID of the item it modifies (0 for an item), short quantity
+  private static final int MAX_BODY = 1 << 20;                 // A longer length can only come from a damaged record
+  private static final int MAP_BYTES = 4 << 20;                // The file is mapped and grown this much at a time
+
+  // Journal files open in this JVM. A file locked here must not be opened a second time either: file locks belong to
+  // the process, so closing the second channel would release the first one's lock
+  private static final Set<Path> OPEN_FILES = ConcurrentHashMap.newKeySet();
+
+  private final Path directory;
+  private final ZoneId zone = ZoneId.systemDefault();          // Whose midnight rolls the journal over
+  private final CRC32C crc = new CRC32C();                     // Used under the journal's monitor only
+  private final ScheduledExecutorService flusher;
+
+  // Today's file, changed under the journal's monitor only
+  private LocalDate day;
+  private Path file;
+  private FileChannel channel;                                 // Locked until the day is closed
+  private MappedByteBuffer mapping;                            // File from mappingStart on, appended to at its position
+  private long mappingStart;
+  private int flushedPosition;                                 // Position in the mapping up to which it has been forced
+
+
+  private OrderJournal(Path directory, int flushMillis) {
+    this.directory = directory;
+    this.flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+      Thread thread = new Thread(task, "order-journal-flush");
+      thread.setDaemon(true);                                  // close() flushes, the thread must not keep the register alive
+      return thread;
+    });
+    flusher.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+  }
+
+  // Open the journal in the given directory (created if needed), recovering today's file if there is one. Throws
+  // IOException if another journal, in this register or another one, has today's file open
+  static OrderJournal open(Path directory) throws IOException {
+    Files.createDirectories(directory);
+    OrderJournal journal = new OrderJournal(directory, Integer.getInteger("joesDeli.journalFlushMillis", 200));
+    try {
+      journal.openDay(LocalDate.now(journal.zone));
+    } catch (IOException event) {
+      journal.flusher.shutdownNow();
+      throw event;
+    }
+    return journal;
+  }
+
+  static Path fileOf(Path directory, LocalDate day) {
+    return directory.resolve("orders-" + day + ".journal");
+  }
+
+
+  // Append a confirmed order, rolling over to a new file at midnight; it is on the disk after the next flush
+  synchronized void append(String register, long confirmedMillis, DeliOrder order, long taxCents) throws IOException {
+    long start = System.nanoTime();
+    if (flusher.isShutdown()) {
+      throw new IOException("Order journal is closed");
+    }
+    LocalDate confirmedDay = Instant.ofEpochMilli(confirmedMillis).atZone(zone).toLocalDate();
+    if (!confirmedDay.equals(day)) {
+      closeDay();
+      openDay(confirmedDay);
+    }
+
+    MenuCatalog menu = order.menu();
+    int lines = 0;
+    for (int line = 0; line < order.lineCount(); line++) {
+      lines++;
+      for (int modifierID : menu.itemWithID(order.lineItemID(line)).modifierIDs()) {
+        if (order.quantity(modifierID) > 0) {
+          lines++;
+        }
+      }
+    }
+    byte[] registerBytes = register.getBytes(StandardCharsets.UTF_8);
+    int registerLength = Math.min(registerBytes.length, 255);
+    int bodySize = Long.BYTES + 2 * Long.BYTES + 1 + registerLength + Short.BYTES + lines * LINE_SIZE;
+    if (mapping.remaining() < RECORD_HEADER_SIZE + bodySize + RECORD_HEADER_SIZE) {  // Room for the zero length after it too
+      remap(mappingStart + mapping.position());
+    }
+
+    int recordStart = mapping.position();
+    mapping.position(recordStart + RECORD_HEADER_SIZE);
+    mapping.putLong(confirmedMillis).putLong(order.subtotalCents()).putLong(taxCents);
+    mapping.put((byte) registerLength).put(registerBytes, 0, registerLength);
+    mapping.putShort((short) lines);
+    for (int line = 0; line < order.lineCount(); line++) {
+      MenuCatalog.Item item = menu.itemWithID(order.lineItemID(line));
+      putLine(item, order.quantity(item.id));
+      for (int modifierID : item.modifierIDs()) {
+        if (order.quantity(modifierID) > 0) {
+          putLine(menu.itemWithID(modifierID), order.quantity(modifierID));
+        }
+      }
+    }
+    crc.reset();
+    crc.update(mapping.duplicate().position(recordStart + RECORD_HEADER_SIZE).limit(mapping.position()));
+    mapping.putInt(recordStart + 4, (int) crc.getValue());
+    mapping.putInt(recordStart, bodySize);                     // Length last, the scan stops at a record whose length is still 0
+    APPEND.recordSince(start);
+  }
+
+  private void putLine(MenuCatalog.Item item, int quantity) {
+    mapping.putInt((int) item.priceCents).putShort((short) item.id).putShort((short) item.modifiesID).putShort((short) quantity);
+  }
+
+  // Force the records appended since the last flush to the disk
+  void flush() {
+    MappedByteBuffer flushMapping;
+    int from, to;
+    synchronized (this) {
+      if (mapping == null || mapping.position() == flushedPosition) {
+        return;
+      }
+      flushMapping = mapping;
+      from = flushedPosition;
+      to = mapping.position();
+    }
+    long start = System.nanoTime();
+    flushMapping.force(from, to - from);                       // Outside the monitor, registers keep appending while the disk works
+    FLUSH.recordSince(start);
+    synchronized (this) {
+      if (mapping == flushMapping) {                           // Only once forced, a failed flush is tried again from the same place
+        flushedPosition = Math.max(flushedPosition, to);
+      }
+    }
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (RuntimeException event) {
+      System.err.println("Order journal could not be flushed, retrying: " + event.getMessage());
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    flusher.shutdownNow();
+    closeDay();
+  }
+
+
+  // Lock the day's file and find where the next record goes; the file's end is only read once it is locked
+  private void openDay(LocalDate newDay) throws IOException {
+    Path dayFile = fileOf(directory.toRealPath(), newDay);
+    if (!OPEN_FILES.add(dayFile)) {
+      throw new IOException("Order journal " + dayFile + " is already open in this register");
+    }
+    FileChannel dayChannel = null;
+    try {
+      dayChannel = FileChannel.open(dayFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      FileLock lock;
+      try {
+        lock = dayChannel.tryLock();
+      } catch (OverlappingFileLockException event) {          // Locked in this JVM by something other than a journal
+        lock = null;
+      }
+      if (lock == null) {
+        throw new IOException("Order journal " + dayFile + " is open in another register, give each register its own journal directory");
+      }
+      channel = dayChannel;
+      file = dayFile;
+      day = newDay;
+      if (channel.size() == 0 || isUnwritten(channel)) {    // New, or a crash came before the header reached the disk
+        mappingStart = 0;
+        mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, MAP_BYTES);
+        mapping.putInt(MAGIC).putInt(VERSION).putLong(newDay.toEpochDay());
+        mapping.force(0, HEADER_SIZE);
+        flushedPosition = HEADER_SIZE;
+      } else {
+        recover();
+      }
+    } catch (IOException | RuntimeException event) {
+      if (dayChannel != null) {
+        dayChannel.close();
+      }
+      OPEN_FILES.remove(dayFile);
+      channel = null;
+      mapping = null;
+      file = null;
+      day = null;                                              // The next append tries to open the day again
+      throw event;
+    }
+  }
+
+  // Find the end of the whole records of the locked file, the next record goes there. Read through the locked channel,
+  // closing any other channel on the file would release the lock
+  private void recover() throws IOException {
+    long[] orders = new long[1];
+    long end = scan(map(channel, file), record -> orders[0]++);
+    remap(end);
+    for (int position = mapping.position(); position + Long.BYTES <= mapping.limit(); position += Long.BYTES) {
+      if (mapping.getLong(position) != 0) {                    // What a crash left of a record, cleared so no scan can mistake it for one
+        System.err.println("Order journal " + file + ": cleared a record cut short after " + orders[0] + " orders");
+        mapping.put(mapping.position(), new byte[mapping.remaining()]);
+        mapping.force();
+        break;
+      }
+    }
+  }
+
+  // Whether the header is still all zero: the file was grown to MAP_BYTES but the header never forced
+  private static boolean isUnwritten(FileChannel dayChannel) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    int read = 0;
+    while (read < HEADER_SIZE && (read = dayChannel.read(header, header.position())) >= 0) {
+      read = header.position();
+    }
+    return isUnwritten(header.flip());
+  }
+
+  private static boolean isUnwritten(ByteBuffer journal) {
+    if (journal.limit() < HEADER_SIZE) {
+      return false;
+    }
+    return journal.getLong(0) == 0 && journal.getLong(8) == 0;
+  }
+
+  // Map the file from the given position on, growing it; what was appended to the old mapping is forced first
+  private void remap(long position) throws IOException {
+    if (mapping != null) {
+      mapping.force();
+    }
+    mappingStart = position;
+    mapping = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(MAP_BYTES, channel.size() - position));
+    flushedPosition = 0;
+  }
+
+  private void closeDay() throws IOException {
+    if (channel == null) {
+      return;
+    }
+    try {
+      mapping.force();
+    } finally {
+      channel.close();                                         // Releases the lock
+      OPEN_FILES.remove(file);
+      channel = null;
+      mapping = null;
+      file = null;
+    }
+  }
+
+
+  // One order of a journal, as the scan reads it. The scan reuses one for every record: read what you need before
+  // the visitor returns. Read the lines by index, they are read straight from the mapping
+  static final class JournalRecord {
+
+    private ByteBuffer body;
+    private int linesStart;
+
+    long confirmedMillis() {
+      return body.getLong(0);
+    }
+
+    long subtotalCents() {
+      return body.getLong(8);
+    }
+
+    long taxCents() {
+      return body.getLong(16);
+    }
+
+    String register() {
+      int length = body.get(24) & 0xFF;
+      byte[] bytes = new byte[length];
+      body.get(25, bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Items and modifiers, each modifier right after its item
+    int lineCount() {
+      return body.getShort(linesStart - Short.BYTES);
+    }
+
+    long priceCents(int line) {
+      return body.getInt(linesStart + line * LINE_SIZE);
+    }
+
+    int itemID(int line) {
+      return body.getShort(linesStart + line * LINE_SIZE + 4);
+    }
+
+    // Item ID the line's modifier modifies, 0 if the line is an item
+    int modifiesID(int line) {
+      return body.getShort(linesStart + line * LINE_SIZE + 6);
+    }
+
+    int quantity(int line) {
+      return body.getShort(linesStart + line * LINE_SIZE + 8);
+    }
+
+    private void set(ByteBuffer recordBody) {
+      body = recordBody;
+      linesStart = 25 + (body.get(24) & 0xFF) + Short.BYTES;
+    }
+  }
+
+
+  // Read every whole record of a journal file in order, returns the file position after the last one. A record cut
+  // short or damaged ends the scan, its order was never confirmed to the customer as saved
+  static long scan(Path file, Consumer<JournalRecord> visitor) throws IOException {
+    return scan(map(file), visitor);
+  }
+
+  private static long scan(ByteBuffer journal, Consumer<JournalRecord> visitor) {
+    CRC32C checksum = new CRC32C();
+    JournalRecord record = new JournalRecord();
+    int position = HEADER_SIZE;
+    while (read(journal, position, record, checksum)) {
+      visitor.accept(record);
+      position += RECORD_HEADER_SIZE + record.body.limit();
+    }
+    return position;
+  }
+
+  // Map a journal file for reading, the records stay readable after the file is closed. Not for a file a journal of
+  // this JVM has open, closing the read channel would release its lock
+  static ByteBuffer map(Path file) throws IOException {
+    try (FileChannel readChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+      return map(readChannel, file);
+    }
+  }
+
+  private static ByteBuffer map(FileChannel readChannel, Path file) throws IOException {
+    if (readChannel.size() > Integer.MAX_VALUE) {
+      throw new IOException(file + " is too large to scan: " + readChannel.size() + " bytes");
+    }
+    ByteBuffer journal = readChannel.map(FileChannel.MapMode.READ_ONLY, 0, readChannel.size());
+    if (isUnwritten(journal)) {                                // Created by a register that crashed before writing its header, no orders
+      return ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).putLong(dayOf(file).toEpochDay()).flip();
+    }
+    if (journal.limit() < HEADER_SIZE || journal.getInt(0) != MAGIC || journal.getInt(4) != VERSION) {
+      throw new IOException(file + " is not an order journal");
+    }
+    return journal;
+  }
+
+  static LocalDate dayOf(ByteBuffer journal) {
+    return LocalDate.ofEpochDay(journal.getLong(8));
+  }
+
+  // Day of a journal file by its name, see fileOf
+  static LocalDate dayOf(Path file) {
+    String name = file.getFileName().toString();
+    return LocalDate.parse(name.substring("orders-".length(), name.length() - ".journal".length()));
+  }
+
+  // Where every record of a mapped journal starts, following the record lengths only; read() checks the records, so
+  // the records can be read in parallel
+  static int[] recordStarts(ByteBuffer journal) {
+    int[] starts = new int[1024];
+    int count = 0;
+    int position = HEADER_SIZE;
+    while (journal.limit() - position >= RECORD_HEADER_SIZE) {
+      int bodySize = journal.getInt(position);
+      if (bodySize <= 0 || bodySize > MAX_BODY || journal.limit() - position - RECORD_HEADER_SIZE < bodySize) {
+        break;
+      }
+      if (count == starts.length) {
+        starts = Arrays.copyOf(starts, count * 2);
+      }
+      starts[count++] = position;
+      position += RECORD_HEADER_SIZE + bodySize;
+    }
+    return Arrays.copyOf(starts, count);
+  }
+
+  // Point the record at the one starting at the position of a mapped journal; false if there is no whole record there
+  static boolean read(ByteBuffer journal, int position, JournalRecord into, CRC32C checksum) {
+    if (journal.limit() - position < RECORD_HEADER_SIZE) {
+      return false;
+    }
+    int bodySize = journal.getInt(position);
+    if (bodySize <= 0 || bodySize > MAX_BODY || journal.limit() - position - RECORD_HEADER_SIZE < bodySize) {
+      return false;
+    }
+    ByteBuffer body = journal.slice(position + RECORD_HEADER_SIZE, bodySize);
+    checksum.reset();
+    checksum.update(body.duplicate());
+    if (journal.getInt(position + 4) != (int) checksum.getValue()) {
+      return false;
+    }
+    into.set(body);
+    return true;
+  }
+
+  // Journal files of the directory, oldest day first
+  static List<Path> files(Path directory) throws IOException {
+    List<Path> files = new ArrayList<>();
+    if (!Files.isDirectory(directory)) {
+      return files;
+    }
+    try (DirectoryStream<Path> journals = Files.newDirectoryStream(directory, "orders-????-??-??.journal")) {
+      for (Path file : journals) {
+        files.add(file);
+      }
+    }
+    files.sort(null);                                          // The ISO date in the name sorts by day
+    return files;
+  }
+
+
+  public static void main(String[] args) throws IOException {
+    Path directory = Paths.get(args.length > 0 ? args[0] : System.getProperty("joesDeli.journalDir", DEFAULT_DIRECTORY));
+    for (Path file : files(directory)) {
+      long[] totals = new long[2];                             // Orders, total cents
+      long start = System.nanoTime();
+      scan(file, record -> {
+        totals[0]++;
+        totals[1] += record.subtotalCents() + record.taxCents();
+      });
+      StringBuilder line = new StringBuilder().append(file.getFileName()).append(": ").append(totals[0]).append(" orders, $");
+      BillingEngine.appendCents(line, totals[1]).append(" with tax, scanned in ").append((System.nanoTime() - start) / 1000).append(" us");
+      System.out.println(line);
+    }
+  }
+}
@@ -0,0 +1,52 @@
+// Title: Patient
+// Desc: Holds the information collected by the patient intake form (Receptionist view) of the Heart Health System.
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import java.time.LocalDate;                    // To schedule a exam for the patient after collected all the required information
+
+
+// A class to hold patient's information
+class Patient {
+	private String patientID, FirstName, LastName, Email, PhoneNumber, HealthHistory, InsuranceID;  // private instance variables for storing the patient's info
+	private LocalDate examDate;
+
+	// constructor of the Patient class takes the necessary information to create a Patient object and initializes the instance variables with the provided values
+	public Patient (String patientID, String FirstName, String LastName, String Email, String PhoneNumber, String HealthHistory, String InsuranceID, LocalDate examDate) {
+		this.patientID = patientID;
+		this.FirstName =  FirstName;
+		this.LastName = LastName;
+		this.Email = Email;
+		this.PhoneNumber = PhoneNumber;
+		this.HealthHistory = HealthHistory;
+		this.InsuranceID = InsuranceID;
+		this.examDate = examDate;
+	}
+
+	public String getPatientID() {                                                        // getter method that returns the patient's ID
+		return patientID;
+	}
+	public String getFirstName() {                                                        // getter method that returns the patient's first name
+		return FirstName;
+	}
+	public String getLastName() {                                                         // getter method that returns the patient's last name
+		return LastName;
+	}
+	public String getEmail() {                                                            // getter method that returns the patient's email
+		return Email;
+	}
+	public String getPhoneNumber() {                                                      // getter method that returns the patient's phone number
+		return PhoneNumber;
+	}
+	public String getHealthHistory() {                                                    // getter method that returns the patient's health history
+		return HealthHistory;
+	}
+	public String getInsuranceID() {                                                      // getter method that returns the patient's insurance ID
+		return InsuranceID;
+	}
+	public LocalDate examDate() {                                                         // getter method that returns the patient's exam date
+		return examDate;
+	}
+}
@@ -0,0 +1,226 @@
+// Title: Patient ID Allocator
+// Desc: Hands out random patient IDs that are never used twice. Every ID that has been given out is appended to
+//       PatientIDs.used (negated if it is given back because no patient could be saved under it), and the free IDs
+//       are kept as a shuffled free-list, so picking the next ID takes the same time
+//       whether the ID space is empty or 95% full. Several intake stations can share the file: each allocation locks
+//       it and first catches up with the IDs the other stations appended.
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import java.io.IOException;                    // Exception class that is thrown when an I/O operation encounters an error or fails
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;             // Keeps two intake stations from allocating at the same moment
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;                       // To pick a random free patient ID
+import java.util.concurrent.locks.ReentrantLock;
+
+
+class PatientIDAllocator implements AutoCloseable {
+
+	static final String USED_IDS_FILE_NAME = "PatientIDs.used";                           // Append-only list of every patient ID given out
+	static final int DEFAULT_DIGITS = 5;                                                  // Patient IDs have been 5 digits since the first release
+
+	private static final long TAKEN = -1;                                                 // Marks an ID that is no longer in the free-list
+
+	private final int digits;                                                             // Number of digits of every patient ID
+	private final long firstID;                                                           // Smallest ID of that width, e.g. 10000
+	private final FileChannel usedIDsChannel;                                             // Channel on PatientIDs.used
+	private final Random random = new Random();                                           // Created once instead of once per ID
+
+	// The free-list is the range [firstID, firstID + count) shuffled in place. Only the positions that differ
+	// from the unshuffled range are stored, so memory grows with the number of IDs used, not the size of the range.
+	private long freeCount;                                                               // Free IDs are at positions [0, freeCount)
+	private final Map<Long, Long> idAtPosition = new HashMap<>();                         // Position -> ID, when not firstID + position
+	private final Map<Long, Long> positionOfID = new HashMap<>();                         // ID -> position, or TAKEN once the ID is used
+	private long usedIDsRead;                                                             // Bytes of PatientIDs.used already applied
+	private final ReentrantLock allocatorLock = new ReentrantLock();                      // Guards the free-list, a virtual thread waiting on PatientIDs.used can unmount
+
+
+	private PatientIDAllocator(int digits, FileChannel usedIDsChannel) {
+		this.digits = digits;
+		this.firstID = pow10(digits - 1);
+		this.freeCount = pow10(digits) - firstID;
+		this.usedIDsChannel = usedIDsChannel;
+	}
+
+
+	// Open the allocator for IDs of the given width, every ID in existingIDs is treated as used
+	static PatientIDAllocator open(Path directory, int digits, Iterable<Long> existingIDs) throws IOException {
+		if (digits < 1 || digits > 18) {
+			throw new IllegalArgumentException("Patient ID width must be between 1 and 18 digits: " + digits);
+		}
+
+		FileChannel usedIDsChannel = FileChannel.open(directory.resolve(USED_IDS_FILE_NAME),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		PatientIDAllocator allocator = new PatientIDAllocator(digits, usedIDsChannel);
+		try {
+			for (long patientID : existingIDs) {
+				allocator.take(patientID);
+			}
+			allocator.readUsedIDs();
+		} catch (IOException event) {
+			usedIDsChannel.close();
+			throw event;
+		}
+		return allocator;
+	}
+
+
+	// Give out a patient ID that no station has used before
+	@SuppressWarnings("try")
+	String allocate() throws IOException {
+		allocatorLock.lock();
+		try (FileLock lock = usedIDsChannel.lock()) {
+			readUsedIDs();                                                                 // Pick up the IDs other stations gave out since the last call
+			if (freeCount == 0) {
+				throw new IllegalStateException("All " + digits + " digit patient IDs are in use");
+			}
+
+			long patientID = idAt(random.nextLong(freeCount));
+			take(patientID);
+
+			ByteBuffer entry = ByteBuffer.allocate(Long.BYTES);
+			entry.putLong(patientID).flip();
+			PatientStore.writeFully(usedIDsChannel, entry, usedIDsRead);
+			usedIDsRead += Long.BYTES;
+
+			return String.valueOf(patientID);
+		} finally {
+			allocatorLock.unlock();
+		}
+	}
+
+
+	// Put back an ID that was given out but that no patient was saved under, such as after a failed save, so a station can
+	// give it out again; an ID that is not given out is left alone
+	@SuppressWarnings("try")
+	void release(long patientID) throws IOException {
+		allocatorLock.lock();
+		try (FileLock lock = usedIDsChannel.lock()) {
+			readUsedIDs();
+			if (positionOfID.getOrDefault(patientID, 0L) != TAKEN) {
+				return;
+			}
+			free(patientID);
+
+			ByteBuffer entry = ByteBuffer.allocate(Long.BYTES);
+			entry.putLong(-patientID).flip();
+			PatientStore.writeFully(usedIDsChannel, entry, usedIDsRead);
+			usedIDsRead += Long.BYTES;
+		} finally {
+			allocatorLock.unlock();
+		}
+	}
+
+
+	// True if a station gave the ID out, or a patient had it when the allocator was opened; catches up with the file first
+	@SuppressWarnings("try")
+	boolean isAllocated(long patientID) throws IOException {
+		allocatorLock.lock();
+		try {
+			try (FileLock lock = usedIDsChannel.lock()) {
+				readUsedIDs();
+			}
+			return positionOfID.getOrDefault(patientID, 0L) == TAKEN;
+		} finally {
+			allocatorLock.unlock();
+		}
+	}
+
+
+	int digits() {
+		return digits;
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		allocatorLock.lock();
+		try {
+			usedIDsChannel.close();
+		} finally {
+			allocatorLock.unlock();
+		}
+	}
+
+
+	// Apply every ID appended to PatientIDs.used since the last read
+	private void readUsedIDs() throws IOException {
+		long end = usedIDsChannel.size() - usedIDsChannel.size() % Long.BYTES;
+		if (end <= usedIDsRead) {
+			return;
+		}
+
+		ByteBuffer entries = ByteBuffer.allocate((int) Math.min(end - usedIDsRead, Long.BYTES * 4096));
+		while (usedIDsRead < end) {
+			entries.clear().limit((int) Math.min(entries.capacity(), end - usedIDsRead));
+			PatientStore.readFully(usedIDsChannel, entries, usedIDsRead);
+			usedIDsRead += entries.flip().remaining();
+			while (entries.hasRemaining()) {
+				long patientID = entries.getLong();
+				if (patientID >= 0) {
+					take(patientID);
+				} else {
+					free(-patientID);                                                      // Given back by a station
+				}
+			}
+		}
+	}
+
+
+	// Remove an ID from the free-list by moving the last free ID into its position
+	private void take(long patientID) {
+		if (patientID < firstID || patientID - firstID >= pow10(digits) - firstID) {
+			return;                                                                        // ID of another width, it can never collide
+		}
+
+		long position = positionOfID.getOrDefault(patientID, patientID - firstID);
+		if (position == TAKEN) {
+			return;
+		}
+
+		long lastPosition = freeCount - 1;
+		long lastID = idAt(lastPosition);
+		if (position != lastPosition) {
+			idAtPosition.put(position, lastID);
+			positionOfID.put(lastID, position);
+		}
+		idAtPosition.remove(lastPosition);
+		positionOfID.put(patientID, TAKEN);
+		freeCount--;
+	}
+
+	// Put a taken ID back at the end of the free-list
+	private void free(long patientID) {
+		if (patientID < firstID || patientID - firstID >= pow10(digits) - firstID || positionOfID.get(patientID) != TAKEN) {
+			return;
+		}
+
+		long position = freeCount++;
+		if (patientID - firstID == position) {
+			idAtPosition.remove(position);
+			positionOfID.remove(patientID);
+		} else {
+			idAtPosition.put(position, patientID);
+			positionOfID.put(patientID, position);
+		}
+	}
+
+	private long idAt(long position) {
+		return idAtPosition.getOrDefault(position, firstID + position);
+	}
+
+	private static long pow10(int exponent) {
+		long value = 1;
+		for (int i = 0; i < exponent; i++) {
+			value *= 10;
+		}
+		return value;
+	}
+}
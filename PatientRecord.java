@@ -0,0 +1,55 @@
+// Title: Patient Record
+// Desc: What the patient view needs about one patient: the intake information and the latest CT scan scores,
+//       loaded together in a single pass by the Patient Record Service.
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+
+// A class to hold a patient's information together with the patient's CT scan report
+class PatientRecord {
+	private final Patient patient;                                                        // Information from the patient intake form
+	private final CTScoreRecord ctScores;                                                 // CT scan report, null when the technician has not saved one yet
+	private final ctScanData ctReportText;                                                // Report saved before scores had to be numbers, shown as it was typed
+
+	public PatientRecord(Patient patient, CTScoreRecord ctScores) {
+		this.patient = patient;
+		this.ctScores = ctScores;
+		this.ctReportText = null;
+	}
+
+	// A report with a score that is not a number, written by a release that saved the text as typed
+	public PatientRecord(Patient patient, ctScanData ctReportText) {
+		this.patient = patient;
+		this.ctScores = null;
+		this.ctReportText = ctReportText;
+	}
+
+	private PatientRecord(Patient patient, CTScoreRecord ctScores, ctScanData ctReportText) {
+		this.patient = patient;
+		this.ctScores = ctScores;
+		this.ctReportText = ctReportText;
+	}
+
+	// The same report with the patient's information as it is now, for example after the exam was moved
+	PatientRecord withPatient(Patient patient) {
+		return new PatientRecord(patient, ctScores, ctReportText);
+	}
+
+	public Patient getPatient() {                                                         // getter method that returns the patient's information
+		return patient;
+	}
+	public CTScoreRecord getCTScores() {                                                  // getter method that returns the patient's CT scan scores, null if they are not all numbers
+		return ctScores;
+	}
+	public ctScanData getCTReport() {                                                     // getter method that returns the patient's CT scan report as text
+		return ctScores != null ? ctScores.toCTScanData() : ctReportText;
+	}
+	public boolean isReportExist() {                                                      // check if the patient has a CT scan report
+		return ctScores != null || ctReportText != null;
+	}
+	public String getPatientName() {                                                      // getter method that returns the patient's full name
+		return (patient.getFirstName().trim() + " " + patient.getLastName().trim()).trim();
+	}
+}
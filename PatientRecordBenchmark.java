@@ -0,0 +1,156 @@
+// Title: Patient Record Benchmark
+// Desc: JMH benchmarks of the persistence and lookup paths of the Heart Health System with 1k, 100k and 1M patients
+//       already stored: intake save (new patient ID plus patient record), CT save (CTResults.txt plus column archive),
+//       login lookup (patient record plus CT report) and CT results parsing. Every call is sampled, so the results
+//       carry the percentiles as well as the average.
+//       Usage: java application.PatientRecordBenchmark [results file] [stored patients ...]
+//       or any JMH options: java -jar benchmarks/target/benchmarks.jar PatientRecordBenchmark -p storedPatients=1000 -rf json
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import java.io.IOException;                    // Exception class that is thrown when an I/O operation encounters an error or fails
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)                                                           // Every call timed, for the percentiles
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatientRecordBenchmark {
+
+	private static final int PATIENT_ID_DIGITS = 8;                                       // Room for 1M stored patients plus the ones saved while measuring
+	private static final long FIRST_PATIENT_ID = 10_000_000L;
+	private static final int PATIENTS_WITH_CT_REPORT = 10_000;                            // One CTResults.txt file each, logins pick among these patients
+
+	@Param({ "1000", "100000", "1000000" })
+	public int storedPatients;
+
+	private final SplittableRandom random = new SplittableRandom(42);
+	private final CTScoreRecord ctScores = new CTScoreRecord();                           // Saved again with new scores by every CT save
+	private final CTResultsParser parser = new CTResultsParser();
+	private final CTScoreRecord parsed = new CTScoreRecord();
+	private final byte[] ctResults = ctResultsText(FIRST_PATIENT_ID, 120, 10, 20, 30, 40, 20).getBytes(StandardCharsets.US_ASCII);
+	private Path directory;
+	private PatientRecordService recordService;
+	private int patientsWithReport;
+	private LocalDate examDate;
+
+
+	public static void main(String[] args) throws Exception {
+		OptionsBuilder options = new OptionsBuilder();
+		options.include(PatientRecordBenchmark.class.getSimpleName())
+				.resultFormat(ResultFormatType.JSON)
+				.result(args.length > 0 ? args[0] : "benchmark-results.json");
+		if (args.length > 1) {
+			options.param("storedPatients", Arrays.copyOfRange(args, 1, args.length));
+		}
+		new Runner(options.build()).run();
+	}
+
+
+	// Fill a new record directory with the given number of patients and open the record service on it
+	@Setup(Level.Trial)
+	public void openRecordDirectory() throws IOException {
+		directory = Files.createTempDirectory("heart-health-benchmark");
+		fillRecordDirectory(directory, storedPatients);
+		recordService = PatientRecordService.open(directory, PATIENT_ID_DIGITS, PatientRecordCache.DEFAULT_CAPACITY);
+		patientsWithReport = Math.min(storedPatients, PATIENTS_WITH_CT_REPORT);
+		examDate = LocalDate.now().plusDays(3);
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteRecordDirectory() throws IOException {
+		try {
+			recordService.close();
+		} finally {
+			try (Stream<Path> files = Files.walk(directory)) {
+				for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+					Files.delete(file);
+				}
+			}
+		}
+	}
+
+
+	@Benchmark
+	public String intakeSave() {
+		String patientID = recordService.allocatePatientID().join();
+		recordService.savePatientInfo(new Patient(patientID, "Jane", "Doe", "jane.doe@example.com", "4805550100",
+				"None", "INS" + patientID, examDate)).join();
+		return patientID;
+	}
+
+	@Benchmark
+	public CTScoreRecord ctSave() {
+		long patientID = FIRST_PATIENT_ID + random.nextInt(patientsWithReport);
+		ctScores.set(patientID, random.nextInt(1000), 10, 20, 30, 40, 0);
+		recordService.savePatientCTScanData(ctScores).join();
+		return ctScores;
+	}
+
+	@Benchmark
+	public long loginLookup() {
+		String patientID = String.valueOf(FIRST_PATIENT_ID + random.nextInt(patientsWithReport));
+		return recordService.loadPatientRecord(patientID).join().getCTScores().getPatientID();
+	}
+
+	@Benchmark
+	public long scoreParsing() {
+		parser.parse(ctResults, 0, ctResults.length, parsed);
+		return parsed.getPatientID();
+	}
+
+
+	// Patients go straight into the patient store, the first PATIENTS_WITH_CT_REPORT of them also get a CT scan report
+	private static void fillRecordDirectory(Path directory, int storedPatients) throws IOException {
+		try (PatientStore patientStore = PatientStore.open(directory)) {
+			LocalDate examDate = LocalDate.now().plusDays(3);
+			for (int i = 0; i < storedPatients; i++) {
+				String patientID = String.valueOf(FIRST_PATIENT_ID + i);
+				patientStore.append(new Patient(patientID, "First" + i, "Last" + i, "patient" + i + "@example.com",
+						String.format(Locale.ROOT, "480%07d", i), "None", "INS" + patientID, examDate));
+			}
+		}
+
+		for (int i = 0; i < Math.min(storedPatients, PATIENTS_WITH_CT_REPORT); i++) {
+			long patientID = FIRST_PATIENT_ID + i;
+			Files.write(directory.resolve(patientID + "CTResults.txt"),
+					ctResultsText(patientID, i % 1000, 10, 20, 30, 40, 0).getBytes(StandardCharsets.US_ASCII));
+		}
+	}
+
+	private static String ctResultsText(long patientID, int total, int lm, int lad, int lcx, int rca, int pda) {
+		return "Patient ID: " + patientID + "\nTotal Agatston CAC score: " + total + "\nLM Score: " + lm
+				+ "\nLAD Score: " + lad + "\nLCX Score: " + lcx + "\nRCA Score: " + rca + "\nPDA Score: " + pda;
+	}
+}
@@ -0,0 +1,67 @@
+// Title: Patient Record Cache
+// Desc: Keeps the most recently used patient records in memory, so a patient logging in again on exam day
+//       does not read the record files again. The cache holds at most a fixed number of records and drops
+//       the least recently used one when it is full.
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import java.util.LinkedHashMap;                // Keeps the records in least recently used order
+import java.util.Map;
+
+
+class PatientRecordCache {
+
+	static final int DEFAULT_CAPACITY = 1024;                                             // Records kept when no size is configured
+	private static final Metrics.Counter CACHE_HITS = Metrics.counter("cache.hits");      // Summed over every cache, for the diagnostics screen and JMX
+	private static final Metrics.Counter CACHE_MISSES = Metrics.counter("cache.misses");
+
+	private final int capacity;                                                           // Most records the cache holds
+	private final LinkedHashMap<String, PatientRecord> records;                           // Patient ID -> record, least recently used first
+	private long invalidations;                                                           // Bumped on every save, so a load that raced with a save is not cached
+
+
+	PatientRecordCache(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Patient record cache needs room for at least 1 record: " + capacity);
+		}
+		this.capacity = capacity;
+		this.records = new LinkedHashMap<>(16, 0.75f, true) {                            // Access order, so every get moves the record to the end
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PatientRecord> eldest) {
+				return size() > PatientRecordCache.this.capacity;
+			}
+		};
+	}
+
+
+	// Returns the cached record, or null (counted as a miss) when it has to be loaded
+	synchronized PatientRecord get(String patientID) {
+		PatientRecord record = records.get(patientID);
+		if (record == null) {
+			CACHE_MISSES.increment();
+		} else {
+			CACHE_HITS.increment();
+		}
+		return record;
+	}
+
+	// Take this before reading the record files and hand it to put
+	synchronized long generation() {
+		return invalidations;
+	}
+
+	// Cache a loaded record, unless a save happened while it was being loaded
+	synchronized void put(String patientID, PatientRecord record, long generation) {
+		if (generation == invalidations) {
+			records.put(patientID, record);
+		}
+	}
+
+	// Drop the record after the patient's information or CT scan report has been saved
+	synchronized void invalidate(String patientID) {
+		invalidations++;
+		records.remove(patientID);
+	}
+}
@@ -0,0 +1,737 @@
+// Title: Patient Record Service
+// Desc: Does all patient and CT scan file I/O of the Heart Health System on a small, bounded pool of background threads.
+//       Every save and load returns a CompletableFuture, so the JavaFX application thread never waits on the disk
+//       (or on the network share the record files live on). Every CT scan report saved also goes into the CT column
+//       archive used for population queries, and is appended to the patient's CT scan history as a new version. Saves
+//       go through the write-ahead log (PatientRecords.wal) and only complete once the log is on the disk; the log is
+//       replayed when the service is opened. The column archive and the history are the durable copy of the CT scan
+//       reports and are forced at every checkpoint; the CTResults.txt files are kept up to date for stations and tools
+//       that read them, but are not forced one by one. The record catalog watches the directory, so patients and CT
+//       scan reports other stations save show up here too.
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import java.io.FileWriter;                     // Used for writing the CT scan results file
+import java.io.IOException;                    // Exception class that is thrown when an I/O operation encounters an error or fails
+import java.io.UncheckedIOException;           // Carries an IOException out of a background task
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;          // Used to force the record directory at a checkpoint
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;      // A patient without a CT scan report has no CTResults.txt file
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+
+class PatientRecordService implements RecordService {
+
+	private static final int IO_THREADS = 4;                                              // Background threads doing file I/O
+	private static final int MAX_QUEUED_CALLS = 64;                                       // Calls waiting for a thread before new calls are rejected
+	private static final int SEARCH_RESULTS = 20;                                         // Patients one search returns at most
+
+	private final Path directory;                                                         // Directory holding every record file
+	private final PatientStore patientStore;                                              // Single indexed file holding every patient's information
+	private final PatientSearchIndex searchIndex;                                         // Patients by name, email, phone number and insurance ID
+	private final PatientIDAllocator patientIDAllocator;                                  // Hands out patient IDs that are never used twice
+	private final ExamScheduler examScheduler;                                            // Books CT scanner slots for exams
+	private final PatientRecordCache recordCache;                                         // Recently loaded patient records
+	private final CTColumnArchive ctArchive;                                              // Latest CT scan report of every patient, one column per score
+	private final CTScanHistory ctHistory;                                                // Every CT scan report of every patient, oldest first
+	private final WriteAheadLog recordLog;                                                // Every save is logged here before it is applied
+	private final RecordCatalog catalog;                                                  // CT scan reports and old patient files in the directory
+	private final LoggedChanges loggedChanges = new LoggedChanges();                      // Redoes the log into the record files at a checkpoint
+	private final ExecutorService ioExecutor;                                             // Runs every call of this service
+	private final ThreadLocal<CTResultsParser> ctResultsParser = ThreadLocal.withInitial(CTResultsParser::new);   // Parsers keep a buffer, one per I/O thread
+
+
+	private PatientRecordService(Path directory, PatientStore patientStore, PatientIDAllocator patientIDAllocator, ExamScheduler examScheduler,
+			PatientRecordCache recordCache, CTColumnArchive ctArchive, CTScanHistory ctHistory, WriteAheadLog recordLog,
+			RecordCatalog catalog, ExecutorService ioExecutor) {
+		this.directory = directory;
+		this.patientStore = patientStore;
+		this.searchIndex = PatientSearchIndex.build(patientStore);                         // Built in the background, patients replayed from the log are added to it
+		this.patientIDAllocator = patientIDAllocator;
+		this.examScheduler = examScheduler;
+		this.recordCache = recordCache;
+		this.ctArchive = ctArchive;
+		this.ctHistory = ctHistory;
+		this.recordLog = recordLog;
+		this.catalog = catalog;
+		this.ioExecutor = ioExecutor;
+	}
+
+
+	// Open the patient store, ID allocator, exam scheduler, CT column archive, CT scan history and write-ahead log in the given directory, with a cache of
+	// recordCacheSize patient records; saves a crash left in the log are replayed first
+	// Calls run on a small bounded pool, which is all one station needs
+	static PatientRecordService open(Path directory, int patientIDDigits, int recordCacheSize) throws IOException {
+		return open(directory, patientIDDigits, recordCacheSize, newIOPool());
+	}
+
+	// Same, with every call run on the given executor; the server gives each call a virtual thread
+	// close() shuts the executor down, if opening fails the executor is left to the caller
+	static PatientRecordService open(Path directory, int patientIDDigits, int recordCacheSize, ExecutorService ioExecutor) throws IOException {
+		CompletableFuture<RecordCatalog> catalogScan = CompletableFuture.supplyAsync(() -> {   // The directory is listed while the files below are opened
+			try {
+				return RecordCatalog.scan(directory);
+			} catch (IOException event) {
+				throw new UncheckedIOException(event);
+			}
+		});
+		try {
+			PatientStore patientStore = PatientStore.open(directory);
+			try {
+				PatientIDAllocator patientIDAllocator = PatientIDAllocator.open(directory, patientIDDigits, patientStore.patientIDs());
+				try {
+					ExamScheduler examScheduler = ExamScheduler.open(directory, ExamScheduler.SLOTS_PER_DAY, patientStore);
+					try {
+						CTColumnArchive ctArchive = CTColumnArchive.open(directory);
+						try {
+							CTScanHistory ctHistory = CTScanHistory.open(directory, ctArchive);
+							try {
+								WriteAheadLog recordLog = WriteAheadLog.open(directory);
+								try {
+									PatientRecordService service = new PatientRecordService(directory, patientStore, patientIDAllocator, examScheduler,
+											new PatientRecordCache(recordCacheSize), ctArchive, ctHistory, recordLog, joinCatalogScan(catalogScan), ioExecutor);
+									recordLog.checkpoint(service.loggedChanges);
+									service.importPatientInfoFiles();
+									service.catalog.watch(service.new DirectoryChanges());
+									service.catalog.markReady();
+									return service;
+								} catch (IOException | RuntimeException event) {
+									recordLog.close();
+									throw event;
+								}
+							} catch (IOException | RuntimeException event) {
+								ctHistory.close();
+								throw event;
+							}
+						} catch (IOException | RuntimeException event) {
+							ctArchive.close();
+							throw event;
+						}
+					} catch (IOException | RuntimeException event) {
+						examScheduler.close();
+						throw event;
+					}
+				} catch (IOException | RuntimeException event) {
+					patientIDAllocator.close();
+					throw event;
+				}
+			} catch (IOException | RuntimeException event) {
+				patientStore.close();
+				throw event;
+			}
+		} catch (IOException | RuntimeException event) {
+			catalogScan.thenAccept(catalog -> {                                           // Stop watching, whether or not the scan was used yet
+				try {
+					catalog.close();
+				} catch (IOException closeFailed) {
+					// Nothing more to release
+				}
+			});
+			throw event;
+		}
+	}
+
+	private static RecordCatalog joinCatalogScan(CompletableFuture<RecordCatalog> catalogScan) throws IOException {
+		try {
+			return catalogScan.join();
+		} catch (CompletionException event) {
+			if (event.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) event.getCause()).getCause();
+			}
+			throw event;
+		}
+	}
+
+
+	@Override
+	public int patientIDDigits() {
+		return patientIDAllocator.digits();
+	}
+
+	PatientRecordCache recordCache() {
+		return recordCache;
+	}
+
+	CTColumnArchive ctArchive() {
+		return ctArchive;
+	}
+
+	ExamScheduler examScheduler() {
+		return examScheduler;
+	}
+
+	RecordCatalog catalog() {
+		return catalog;
+	}
+
+	int patientCount() {
+		return patientStore.size();
+	}
+
+	// Check the in-memory patient index, no file is read
+	boolean isValidPatientID(long patientID) {
+		return patientStore.contains(patientID);
+	}
+
+	// Patients whose latest CT scan was saved on the given day, for batch jobs such as the nightly reports
+	long[] patientsScannedOn(LocalDate day) {
+		ZoneId zone = ZoneId.systemDefault();
+		return ctHistory.patientsScannedBetween(day.atStartOfDay(zone).toInstant().toEpochMilli(),
+				day.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli());
+	}
+
+	// The patient and the latest version of their CT scan report, read on the calling thread; null if either is missing
+	PatientRecord loadLatestRecord(long patientID) throws IOException {
+		CTScanHistory.Version latest = ctHistory.latest(patientID);
+		Patient patient = latest == null ? null : patientStore.find(String.valueOf(patientID));
+		return patient == null ? null : new PatientRecord(withUpcomingExam(patient), latest.scores);
+	}
+
+
+	// Save and load calls, each one runs on the I/O pool
+
+	@Override
+	public CompletableFuture<String> allocatePatientID() {
+		return call(() -> {
+			try {
+				return patientIDAllocator.allocate();
+			} catch (IOException event) {
+				throw new UncheckedIOException(event);
+			}
+		});
+	}
+
+	// Book the earliest free scanner slot from the lead time on, a patient who has an exam is moved to it
+	@Override
+	public CompletableFuture<ExamScheduler.Booking> bookExam(String patientID) {
+		return bookExam(patientID, LocalDate.now());
+	}
+
+	// Same, on or after the given day if that is later than the lead time
+	CompletableFuture<ExamScheduler.Booking> bookExam(String patientID, LocalDate earliest) {
+		return call(() -> {
+			try {
+				LocalDate leadDay = LocalDate.now().plusDays(ExamScheduler.LEAD_DAYS);
+				return examScheduler.book(numericPatientID(patientID), earliest.isAfter(leadDay) ? earliest : leadDay);
+			} catch (IOException event) {
+				throw new UncheckedIOException(event);
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<Boolean> cancelExam(String patientID) {
+		return call(() -> {
+			try {
+				return examScheduler.cancel(numericPatientID(patientID));
+			} catch (IOException event) {
+				throw new UncheckedIOException(event);
+			}
+		});
+	}
+
+	// Give back an ID from allocatePatientID() that no patient was saved under, such as when the save failed
+	CompletableFuture<Void> releasePatientID(String patientID) {
+		return call(() -> {
+			try {
+				if (patientStore.find(patientID) == null) {
+					patientIDAllocator.release(numericPatientID(patientID));
+				}
+				return null;
+			} catch (IOException event) {
+				throw new UncheckedIOException(event);
+			}
+		});
+	}
+
+	// Only under an ID from allocatePatientID(), so an ID that is typed in can never take one another station will give out
+	@Override
+	public CompletableFuture<Void> savePatientInfo(Patient newPatient) {
+		return call(() -> {
+			try {
+				if (!patientIDAllocator.isAllocated(numericPatientID(newPatient.getPatientID()))) {
+					throw new IllegalArgumentException("Patient ID " + newPatient.getPatientID() + " was not given out by this system");
+				}
+				savePatient(newPatient);
+				return null;
+			} catch (IOException event) {
+				throw new UncheckedIOException(event);
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<Void> savePatientCTScanData(CTScoreRecord newPatientData) {
+		return call(() -> {
+			try {
+				syncLog(logCTScores(newPatientData));
+				return null;
+			} catch (IOException event) {
+				throw new UncheckedIOException(event);
+			}
+		});
+	}
+
+	// Save many CT scan reports in one call, in list order: one write to the log, one lock of the history and of the
+	// archive for the whole batch, and one wait for the log at the end
+	CompletableFuture<Void> savePatientCTScanDataBatch(List<CTScoreRecord> batch) {
+		return call(() -> {
+			try {
+				syncLog(logCTScores(batch));
+				return null;
+			} catch (IOException event) {
+				throw new UncheckedIOException(event);
+			}
+		});
+	}
+
+	// Load the patient's information and CT scan report for the login, returns null if there is no such patient
+	@Override
+	public CompletableFuture<PatientRecord> loadPatientRecord(String patientLoginID) {
+		return call(() -> {
+			try {
+				long patientID = PatientStore.parsePatientID(patientLoginID);
+				if (patientID < 0) {
+					return null;                                                           // Not a patient ID, nothing to look up
+				}
+				String cacheKey = String.valueOf(patientID);                               // "012345" and "12345" are one patient, saves invalidate this form
+				PatientRecord record = recordCache.get(cacheKey);
+				if (record == null) {
+					long generation = recordCache.generation();
+					Patient patient = patientStore.find(cacheKey);                         // Seek to the patient's record through the in-memory index
+					if (patient == null) {
+						return null;                                                       // Unknown IDs are not cached, another station may add them
+					}
+					record = readPatientRecord(patient);
+					recordCache.put(cacheKey, record, generation);
+				}
+				Patient patient = withUpcomingExam(record.getPatient());                   // The cached record keeps the date saved at intake
+				return patient == record.getPatient() ? record : record.withPatient(patient);
+			} catch (IOException event) {
+				throw new UncheckedIOException(event);
+			}
+		});
+	}
+
+
+	// Patients whose last name, first name, email, phone number or insurance ID starts with the text (or is the text,
+	// when exact is true), the patient with that ID first if the text is one
+	@Override
+	public CompletableFuture<List<Patient>> searchPatients(String text, boolean exact) {
+		return call(() -> {
+			try {
+				List<Patient> patients = new ArrayList<>();
+				Patient patientWithID = patientStore.find(text.strip());
+				if (patientWithID != null) {
+					patients.add(withUpcomingExam(patientWithID));
+				}
+				for (long patientID : searchIndex.search(text, exact, SEARCH_RESULTS)) {
+					if (patients.size() < SEARCH_RESULTS && (patientWithID == null || !patientWithID.getPatientID().equals(String.valueOf(patientID)))) {
+						patients.add(withUpcomingExam(patientStore.find(String.valueOf(patientID))));
+					}
+				}
+				return patients;
+			} catch (IOException event) {
+				throw new UncheckedIOException(event);
+			}
+		});
+	}
+
+
+	// Every CT scan report of the patient, oldest first; empty if the patient has none
+	@Override
+	public CompletableFuture<List<CTScanHistory.Version>> loadCTHistory(String patientID) {
+		return call(() -> {
+			try {
+				return ctHistory.trend(numericPatientID(patientID));
+			} catch (IOException event) {
+				throw new UncheckedIOException(event);
+			}
+		});
+	}
+
+
+	// Risk bands and score distributions of every patient, computed from the CT column archive on the fork/join common pool
+	@Override
+	public CompletableFuture<CTRiskAnalytics.RiskSummary> summarizeCTRisk() {
+		return CompletableFuture.supplyAsync(() -> CTRiskAnalytics.summarize(ctArchive));
+	}
+
+
+	// Stop the I/O pool after the calls already submitted, checkpoint the log, then release the record files
+	@Override
+	public void close() throws IOException {
+		ioExecutor.shutdown();
+		try {
+			ioExecutor.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException event) {
+			Thread.currentThread().interrupt();
+		}
+		catalog.close();                                                                   // Stop watching the directory
+		try {
+			try {
+				recordLog.checkpoint(loggedChanges);                                       // The next start has nothing to replay
+			} finally {
+				recordLog.close();
+			}
+		} finally {
+			try {
+				ctArchive.close();
+				ctHistory.close();
+				examScheduler.close();
+				patientIDAllocator.close();
+			} finally {
+				patientStore.close();
+			}
+		}
+	}
+
+
+	private static ExecutorService newIOPool() {
+		AtomicInteger threadNumber = new AtomicInteger();
+		ThreadPoolExecutor ioPool = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, 30, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(MAX_QUEUED_CALLS), task -> {
+					Thread thread = new Thread(task, "patient-record-io-" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);                                                // Never keep the application alive after the window closes
+					return thread;
+				});                                                                        // The default AbortPolicy fails the call when the queue is full
+		ioPool.allowCoreThreadTimeOut(true);
+		return ioPool;
+	}
+
+	// Run a call on the I/O executor, a full queue fails the returned future instead of blocking the caller
+	private <T> CompletableFuture<T> call(Supplier<T> task) {
+		try {
+			return CompletableFuture.supplyAsync(task, ioExecutor);
+		} catch (RuntimeException event) {
+			return CompletableFuture.failedFuture(event);
+		}
+	}
+
+
+	private static long numericPatientID(String patientID) {
+		long numericID = PatientStore.parsePatientID(patientID);
+		if (numericID < 0) {
+			throw new IllegalArgumentException("Patient ID must be numeric: " + patientID);
+		}
+		return numericID;
+	}
+
+	// The stored patient with the exam date the scheduler has now: the record keeps the date given at intake, and the
+	// exam may have been cancelled or moved since
+	private Patient withUpcomingExam(Patient patient) throws IOException {
+		LocalDate examDate = examScheduler.upcomingExamDate(PatientStore.parsePatientID(patient.getPatientID()), patient.examDate());
+		if (Objects.equals(examDate, patient.examDate())) {
+			return patient;
+		}
+		return new Patient(patient.getPatientID(), patient.getFirstName(), patient.getLastName(), patient.getEmail(),
+				patient.getPhoneNumber(), patient.getHealthHistory(), patient.getInsuranceID(), examDate);
+	}
+
+	private Path ctResultsFile(String patientID) {
+		return directory.resolve(patientID + "CTResults.txt");                            // Patient file named xxxxxCTResults.txt
+	}
+
+	private void savePatient(Patient newPatient) throws IOException {
+		patientStore.checkNewPatient(newPatient);                                          // A patient that would be refused is never logged
+		long logPosition = recordLog.write(WriteAheadLog.PATIENT, PatientStore.encode(newPatient), () -> {
+			patientStore.append(newPatient);                                               // One append to PatientRecords.dat plus one index entry
+			searchIndex.add(newPatient);
+		});
+		recordCache.invalidate(newPatient.getPatientID());
+		syncLog(logPosition);
+	}
+
+	// Move patients from old xxxxx_PatientInfo.txt files into the store, for stations that have not been updated yet
+	private void importPatientInfoFiles() throws IOException {
+		for (long patientID : catalog.patientInfoFiles()) {
+			if (!patientStore.contains(patientID)) {
+				importPatientInfoFile(directory.resolve(patientID + RecordCatalog.PATIENT_INFO_SUFFIX));
+			}
+		}
+	}
+
+	// The file is deleted once the patient is safe in the log; a file another station moved in first is left to it
+	private void importPatientInfoFile(Path patientFile) throws IOException {
+		try {
+			Patient patient = PatientStore.readPatientInfoFile(patientFile);
+			if (patient != null && !patientStore.contains(patient.getPatientID())) {
+				savePatient(patient);
+				Files.delete(patientFile);
+			}
+		} catch (NoSuchFileException | IllegalArgumentException | IllegalStateException event) {
+			// Gone again, not a patient file, or another station moved it in first
+		}
+	}
+
+	// Pick up the patients other stations appended to PatientRecords.idx and make them searchable
+	private void refreshPatients() throws IOException {
+		for (long patientID : patientStore.refresh()) {
+			Patient patient = patientStore.find(String.valueOf(patientID));
+			if (patient != null) {
+				searchIndex.add(patient);
+			}
+		}
+	}
+
+	// Wait for the log to reach the disk, then checkpoint it if it has grown too large
+	private void syncLog(long logPosition) throws IOException {
+		recordLog.sync(logPosition);
+		recordLog.checkpointIfFull(loggedChanges);
+	}
+
+	// Log a CT scan report with the time it is saved at and apply it, returns the log position to wait for. The time is
+	// picked under the log's lock after catching up with the history, so no other station's save can come in between
+	private long logCTScores(CTScoreRecord newPatientData) throws IOException {
+		long[] savedAt = new long[1];
+		return recordLog.write(WriteAheadLog.CT_SCORES, () -> {
+			savedAt[0] = ctHistory.nextVersionTime(newPatientData.getPatientID());
+			ByteBuffer payload = ByteBuffer.allocate(CTScoreRecord.BINARY_SIZE + Long.BYTES);
+			newPatientData.writeTo(payload);
+			payload.putLong(savedAt[0]);
+			return payload.array();
+		}, () -> {
+			ctHistory.appendSaved(newPatientData, savedAt[0]);                             // A new version, the previous reports stay in the history
+			saveCTScores(newPatientData);
+		});
+	}
+
+	// Same for a batch of reports, each with its own entry in the log
+	private long logCTScores(List<CTScoreRecord> batch) throws IOException {
+		long[][] savedAt = new long[1][];
+		return recordLog.writeAll(WriteAheadLog.CT_SCORES, () -> {
+			savedAt[0] = ctHistory.nextVersionTimes(batch);
+			List<byte[]> payloads = new ArrayList<>(batch.size());
+			for (int i = 0; i < batch.size(); i++) {
+				ByteBuffer payload = ByteBuffer.allocate(CTScoreRecord.BINARY_SIZE + Long.BYTES);
+				batch.get(i).writeTo(payload);
+				payload.putLong(savedAt[0][i]);
+				payloads.add(payload.array());
+			}
+			return payloads;
+		}, () -> {
+			ctHistory.appendSaved(batch, savedAt[0]);
+			saveCTScores(batch);
+		});
+	}
+
+	// Write the patient's CT scan results file, then update the column archive and drop the cached record
+	private void saveCTScores(CTScoreRecord newPatientData) throws IOException {
+		savePatientCTScanDataToFile(newPatientData.toCTScanData());
+		ctArchive.put(newPatientData);
+		recordCache.invalidate(String.valueOf(newPatientData.getPatientID()));
+	}
+
+	// Same for a batch, with one lock of the archive. A patient who is in the batch twice only gets the last report
+	// written: the file never holds a report older than the patient's latest version, which the history would take for
+	// a newer one another station saved
+	private void saveCTScores(List<CTScoreRecord> batch) throws IOException {
+		Map<Long, CTScoreRecord> latest = new LinkedHashMap<>();
+		for (CTScoreRecord newPatientData : batch) {
+			latest.put(newPatientData.getPatientID(), newPatientData);
+		}
+		for (CTScoreRecord newPatientData : latest.values()) {
+			savePatientCTScanDataToFile(newPatientData.toCTScanData());
+		}
+		ctArchive.putAll(latest.values());
+		for (long patientID : latest.keySet()) {
+			recordCache.invalidate(String.valueOf(patientID));
+		}
+	}
+
+	// Write a new file next to the old one and rename it over it, a reader sees the old report or the new one, never half of one
+	private void savePatientCTScanDataToFile(ctScanData newPatientData) throws IOException {
+		long start = System.nanoTime();
+		Path ctResultsFile = ctResultsFile(newPatientData.getPatientID());
+		Path newFile = ctResultsFile.resolveSibling(ctResultsFile.getFileName() + ".new");
+		byte[] report = ("Patient ID: " + newPatientData.getPatientID()
+				+ "\nTotal Agatston CAC score: " + newPatientData.getTotalAgatstionCACScore()
+				+ "\nLM Score: " + newPatientData.getLM()
+				+ "\nLAD Score: " + newPatientData.getLAD()
+				+ "\nLCX Score: " + newPatientData.getLCX()
+				+ "\nRCA Score: " + newPatientData.getRCA()
+				+ "\nPDA Score: " + newPatientData.getPDA()).getBytes(Charset.defaultCharset());   // Charset of the FileWriter the file was written with before
+		Files.write(newFile, report);                                                      // One open, write and close
+		Metrics.BYTES_WRITTEN.add(report.length);
+		Files.move(newFile, ctResultsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		Metrics.FILE_WRITE.recordSince(start);
+	}
+
+	// The patient's latest CT scan report from the column archive, which checkpoints force to the disk. A patient the
+	// archive has no report of may still have a CTResults.txt file, saved before the archive, read in one pass; the
+	// record has no report if the patient has none yet
+	private PatientRecord readPatientRecord(Patient patient) throws IOException {
+		CTScoreRecord ctScores = new CTScoreRecord();
+		if (ctArchive.read(numericPatientID(patient.getPatientID()), ctScores)) {
+			return new PatientRecord(patient, ctScores);
+		}
+		Path ctResultsFile = ctResultsFile(patient.getPatientID());
+		try {
+			if (ctResultsParser.get().parse(ctResultsFile, ctScores)) {
+				return new PatientRecord(patient, ctScores);
+			}
+			return new PatientRecord(patient, readCTReportText(patient.getPatientID(), ctResultsFile));
+		} catch (NoSuchFileException event) {
+			return new PatientRecord(patient, (CTScoreRecord) null);
+		}
+	}
+
+	// A report with a score that is not a number, saved before scores were checked, is shown as it was typed; a
+	// missing line is shown empty
+	private static ctScanData readCTReportText(String patientID, Path ctResultsFile) throws IOException {
+		String[] labels = { "Total Agatston CAC score:", "LM Score:", "LAD Score:", "LCX Score:", "RCA Score:", "PDA Score:" };
+		String[] scores = { "", "", "", "", "", "" };
+		for (String line : new String(Files.readAllBytes(ctResultsFile), Charset.defaultCharset()).split("\\R")) {   // Charset of FileWriter
+			for (int score = 0; score < labels.length; score++) {
+				if (line.startsWith(labels[score])) {
+					scores[score] = line.substring(labels[score].length()).trim();
+				}
+			}
+		}
+		return new ctScanData(patientID, scores[0], scores[1], scores[2], scores[3], scores[4], scores[5]);
+	}
+
+
+	// Redoes the write-ahead log at a checkpoint, always under the log's monitor
+	private final class LoggedChanges implements WriteAheadLog.Target {
+
+		private final Map<Long, CTScoreRecord> ctScores = new LinkedHashMap<>();          // Latest logged report of each patient, only that one is checked
+		private final CTScoreRecord archivedScores = new CTScoreRecord();
+
+		@Override
+		public void redo(byte type, ByteBuffer payload) throws IOException {
+			if (type == WriteAheadLog.PATIENT) {
+				payload.getInt();                                                          // Record length
+				Patient patient = PatientStore.decode(payload);
+				refreshPatients();                                                         // Another station may have redone this entry already
+				if (!patientStore.contains(patient.getPatientID())) {
+					patientStore.append(patient);
+					searchIndex.add(patient);
+					recordCache.invalidate(patient.getPatientID());
+				}
+			} else if (type == WriteAheadLog.CT_SCORES) {
+				CTScoreRecord ctScores = new CTScoreRecord();
+				ctScores.readFrom(payload);
+				long savedAt = payload.remaining() >= Long.BYTES ? payload.getLong() : System.currentTimeMillis();   // Logs written before the history have no time
+				ctHistory.append(ctScores, savedAt);                                       // Every version, in log order; versions already there are skipped
+				this.ctScores.put(ctScores.getPatientID(), ctScores);
+			} else {
+				throw new IOException(WriteAheadLog.LOG_FILE_NAME + " has an entry of unknown type " + type);
+			}
+		}
+
+		// A report is applied once the archive holds it, saveCTScores puts it there last. Only a report whose writer
+		// crashed before that is applied again, the others are on the disk once the archive and history are forced
+		@Override
+		public void flush() throws IOException {
+			boolean rewritten = false;
+			for (CTScoreRecord newPatientData : ctScores.values()) {
+				if (!(ctArchive.read(newPatientData.getPatientID(), archivedScores) && newPatientData.sameScores(archivedScores))) {
+					saveCTScores(newPatientData);
+					rewritten = true;
+				}
+			}
+			ctScores.clear();
+			if (rewritten) {
+				forceDirectory();                                                          // Keeps the replaced files, which are not forced themselves
+			}
+			patientStore.force();
+			ctArchive.force();
+			ctHistory.force();
+		}
+
+		private void forceDirectory() {
+			try (FileChannel directoryChannel = FileChannel.open(directory.toAbsolutePath(), StandardOpenOption.READ)) {
+				directoryChannel.force(true);
+			} catch (IOException event) {
+				// Windows cannot open a directory, NTFS journals the rename itself
+			}
+		}
+	}
+
+	// Applies what the record catalog sees other stations save, always on the catalog's watcher thread
+	private final class DirectoryChanges implements RecordCatalog.Changes {
+
+		private final CTResultsParser parser = new CTResultsParser();
+		private final CTScoreRecord fileScores = new CTScoreRecord();
+		private final CTScoreRecord archivedScores = new CTScoreRecord();
+
+		@Override
+		public void patientIndexChanged() {
+			try {
+				refreshPatients();
+			} catch (IOException event) {
+				System.err.println("Patients saved by other stations could not be read: " + event.getMessage());
+			}
+		}
+
+		@Override
+		public void ctResultsChanged(long patientID, boolean deleted) {
+			if (!deleted) {
+				updateArchive(patientID);
+			}
+			recordCache.invalidate(String.valueOf(patientID));                             // After the archive, logins read the report there
+		}
+
+		private void updateArchive(long patientID) {
+			try {
+				// This station's own saves come back here too; those are already in the history and the archive, and are
+				// told apart without locking either file
+				Path ctResultsFile = ctResultsFile(String.valueOf(patientID));
+				long changedAt = Files.getLastModifiedTime(ctResultsFile).toMillis();        // Before reading, a newer report can only make it look older
+				if (parser.parse(ctResultsFile, fileScores) && fileScores.getPatientID() == patientID) {
+					if (!ctHistory.isLatest(fileScores)) {
+						ctHistory.appendIfChanged(fileScores, changedAt);
+					}
+					if (!(ctArchive.read(patientID, archivedScores) && fileScores.sameScores(archivedScores))) {
+						ctArchive.put(fileScores);
+					}
+				}
+			} catch (NoSuchFileException event) {
+				// Replaced or deleted again, the next event has it
+			} catch (IOException event) {
+				System.err.println("CT report of patient " + patientID + " could not be read: " + event.getMessage());
+			}
+		}
+
+		@Override
+		public void patientInfoFileChanged(Path patientFile) {
+			try {
+				importPatientInfoFile(patientFile);
+			} catch (IOException event) {
+				System.err.println(patientFile.getFileName() + " could not be moved into the patient store: " + event.getMessage());
+			}
+		}
+
+		@Override
+		public void overflow() {
+			patientIndexChanged();
+			try {
+				importPatientInfoFiles();
+			} catch (IOException event) {
+				System.err.println("Old patient files could not be moved into the patient store: " + event.getMessage());
+			}
+		}
+	}
+}
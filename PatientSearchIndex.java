@@ -0,0 +1,173 @@
+// Title: Patient Search Index
+// Desc: In-memory secondary indexes over the patient fields front-desk staff search by when a patient has forgotten
+//       their ID: last name, first name, email, phone number and insurance ID. Each field is a sorted array of
+//       "normalized value \0 patient ID" entries, so an exact or prefix lookup is a binary search plus a short scan.
+//       The arrays are built once, in parallel, from every record in the patient store; patients saved after that go
+//       into a small sorted set per field that every lookup also reads.
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import java.io.IOException;                    // Exception class that is thrown when an I/O operation encounters an error or fails
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.IntStream;
+
+
+class PatientSearchIndex {
+
+	// Indexed fields, in the order search() lists their matches
+	static final int LAST_NAME = 0, FIRST_NAME = 1, EMAIL = 2, PHONE_NUMBER = 3, INSURANCE_ID = 4;
+	static final int FIELDS = 5;
+
+	private static final char SEPARATOR = '\0';                                           // Sorts before every character of a value
+	private static final int RECORDS_PER_READ = 4096;                                     // Records one build task reads at a time
+
+	private final CompletableFuture<String[][]> built;                                    // Sorted entries per field, read-only once built
+	private final List<NavigableSet<String>> added = new ArrayList<>();                   // Entries of patients saved since the build started
+
+
+	private PatientSearchIndex(CompletableFuture<String[][]> built) {
+		this.built = built;
+		for (int field = 0; field < FIELDS; field++) {
+			added.add(new ConcurrentSkipListSet<>());
+		}
+	}
+
+
+	// Start building the index of every patient in the store on the fork/join common pool; add() can be called at
+	// once, lookups wait for the build to finish
+	static PatientSearchIndex build(PatientStore patientStore) {
+		return new PatientSearchIndex(CompletableFuture.supplyAsync(() -> {
+			try {
+				return buildEntries(patientStore);
+			} catch (IOException event) {
+				throw new UncheckedIOException(event);
+			}
+		}));
+	}
+
+	// Index a newly saved patient
+	void add(Patient patient) {
+		long patientID = PatientStore.parsePatientID(patient.getPatientID());
+		for (int field = 0; field < FIELDS; field++) {
+			String value = normalize(field, fieldOf(patient, field));
+			if (!value.isEmpty()) {
+				added.get(field).add(value + SEPARATOR + patientID);
+			}
+		}
+	}
+
+	// Patient IDs with any indexed field starting with the text, or equal to it when exact is true, last name matches
+	// first, at most limit of them
+	List<Long> search(String text, boolean exact, int limit) {
+		Set<Long> patientIDs = new LinkedHashSet<>();
+		for (int field = 0; field < FIELDS && patientIDs.size() < limit; field++) {
+			collect(field, normalize(field, text), exact, limit, patientIDs);
+		}
+		return new ArrayList<>(patientIDs);
+	}
+
+
+	private void collect(int field, String value, boolean exact, int limit, Set<Long> patientIDs) {
+		if (value.isEmpty()) {
+			return;                                                                        // For example letters searched as a phone number
+		}
+		String from = exact ? value + SEPARATOR : value;                                   // Exact: the value followed by the separator only
+		String to = exact ? value + (char) (SEPARATOR + 1) : value + Character.MAX_VALUE;
+
+		String[] entries = built.join()[field];
+		for (int i = lowerBound(entries, from); i < entries.length && entries[i].compareTo(to) < 0 && patientIDs.size() < limit; i++) {
+			patientIDs.add(patientIDOf(entries[i]));
+		}
+		for (String entry : added.get(field).subSet(from, to)) {
+			if (patientIDs.size() >= limit) {
+				break;
+			}
+			patientIDs.add(patientIDOf(entry));
+		}
+	}
+
+	private static int lowerBound(String[] entries, String key) {
+		int low = 0;
+		int high = entries.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (entries[middle].compareTo(key) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private static long patientIDOf(String entry) {
+		return Long.parseLong(entry, entry.lastIndexOf(SEPARATOR) + 1, entry.length(), 10);
+	}
+
+
+	// Read the store in ranges of records on every core, then sort each field's entries
+	private static String[][] buildEntries(PatientStore patientStore) throws IOException {
+		long[] bounds = patientStore.recordBounds();
+		int patients = bounds.length - 1;
+		String[][] entries = new String[FIELDS][patients];
+
+		IntStream.range(0, (patients + RECORDS_PER_READ - 1) / RECORDS_PER_READ).parallel().forEach(range -> {
+			int from = range * RECORDS_PER_READ;
+			int to = Math.min(from + RECORDS_PER_READ, patients);
+			int[] next = { from };
+			try {
+				patientStore.readRecords(bounds, from, to, patient -> {
+					int i = next[0]++;
+					for (int field = 0; field < FIELDS; field++) {
+						entries[field][i] = normalize(field, fieldOf(patient, field)) + SEPARATOR + patient.getPatientID();
+					}
+				});
+			} catch (IOException event) {
+				throw new UncheckedIOException(event);
+			}
+		});
+
+		for (int field = 0; field < FIELDS; field++) {
+			Arrays.parallelSort(entries[field]);                                            // Empty values sort first and are never matched
+		}
+		return entries;
+	}
+
+	private static String fieldOf(Patient patient, int field) {
+		switch (field) {
+			case LAST_NAME:    return patient.getLastName();
+			case FIRST_NAME:   return patient.getFirstName();
+			case EMAIL:        return patient.getEmail();
+			case PHONE_NUMBER: return patient.getPhoneNumber();
+			default:           return patient.getInsuranceID();
+		}
+	}
+
+	// Lower case without surrounding spaces; phone numbers keep only their digits, so "(480) 555-0100" matches "480555"
+	static String normalize(int field, String value) {
+		if (value == null) {
+			return "";
+		}
+		if (field == PHONE_NUMBER) {
+			StringBuilder digits = new StringBuilder(value.length());
+			for (int i = 0; i < value.length(); i++) {
+				if (Character.isDigit(value.charAt(i))) {
+					digits.append(value.charAt(i));
+				}
+			}
+			return digits.toString();
+		}
+		return value.strip().replace(SEPARATOR, ' ').toLowerCase(Locale.ROOT);
+	}
+}
@@ -0,0 +1,477 @@
+// Title: Patient Store
+// Desc: Keeps every patient of the Heart Health System in one append-only data file (PatientRecords.dat) with an
+//       on-disk index of patient ID -> record offset (PatientRecords.idx). The index is loaded into memory at startup,
+//       so intake is a single append and a lookup is a single positioned read.
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import java.io.BufferedReader;                 // Used to read the old xxxxx_PatientInfo.txt files during migration
+import java.io.ByteArrayOutputStream;          // Used to build a whole record in memory before it is appended
+import java.io.DataOutputStream;               // Used to write the fields of a record
+import java.io.IOException;                    // Exception class that is thrown when an I/O operation encounters an error or fails
+import java.nio.ByteBuffer;                    // Buffer used for positioned reads and writes on the file channels
+import java.nio.channels.FileChannel;          // Gives positioned (seek) access to the data and index files
+import java.nio.charset.StandardCharsets;      // Every text field is stored as UTF-8
+import java.nio.file.DirectoryStream;          // Used to list the old patient files during migration
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+
+class PatientStore implements AutoCloseable {
+
+	static final String DATA_FILE_NAME = "PatientRecords.dat";                            // Append-only file holding every patient record
+	static final String INDEX_FILE_NAME = "PatientRecords.idx";                           // Append-only file holding (patient ID, record offset) pairs
+
+	private static final int INDEX_ENTRY_SIZE = 16;                                       // Each index entry is a long patient ID followed by a long offset
+	private static final int NULL_FIELD = -1;                                             // Length written for a field that has no value
+
+	private final FileChannel dataChannel;                                                // Channel on PatientRecords.dat
+	private final FileChannel indexChannel;                                               // Channel on PatientRecords.idx
+	private final Map<Long, Long> offsets = new HashMap<>();                              // In-memory copy of the index: patient ID -> record offset
+	private long indexRead;                                                               // Bytes of PatientRecords.idx already in offsets
+	private final ReentrantLock storeLock = new ReentrantLock();                          // Guards offsets; a lock, so a virtual thread reading a record does not pin its carrier
+
+
+	private PatientStore(FileChannel dataChannel, FileChannel indexChannel) {
+		this.dataChannel = dataChannel;
+		this.indexChannel = indexChannel;
+	}
+
+
+	// Open (or create) the patient store in the given directory and load its index into memory
+	static PatientStore open(Path directory) throws IOException {
+		Path dataFile = directory.resolve(DATA_FILE_NAME);
+		boolean newStore = !Files.exists(dataFile);
+
+		FileChannel dataChannel = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		FileChannel indexChannel = FileChannel.open(directory.resolve(INDEX_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		PatientStore store = new PatientStore(dataChannel, indexChannel);
+		try {
+			store.loadIndex();
+
+			// The first time the store is created, move the old one-file-per-patient records into it
+			if (newStore) {
+				store.importPatientInfoFiles(directory);
+			}
+		} catch (IOException event) {
+			store.close();
+			throw event;
+		}
+		return store;
+	}
+
+
+	// Append a patient record to the data file and its offset to the index
+	void append(Patient patient) throws IOException {
+		storeLock.lock();
+		try {
+			long patientID = checkNewPatient(patient);
+			byte[] record = encode(patient);
+			long offset = dataChannel.size();
+			writeFully(dataChannel, ByteBuffer.wrap(record), offset);                     // Data first, so the index never points past the end of the data file
+
+			ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+			long indexOffset = indexChannel.size();
+			indexEntry.putLong(patientID).putLong(offset).flip();
+			writeFully(indexChannel, indexEntry, indexOffset);
+
+			offsets.put(patientID, offset);
+			if (indexOffset == indexRead) {
+				indexRead += INDEX_ENTRY_SIZE;                                             // Otherwise refresh() reads the other stations' entries first
+			}
+		} finally {
+			storeLock.unlock();
+		}
+	}
+
+
+	// Pick up the patients other stations appended since the last call, returns their IDs
+	List<Long> refresh() throws IOException {
+		storeLock.lock();
+		try {
+			long indexLength = indexChannel.size() - indexChannel.size() % INDEX_ENTRY_SIZE;
+			List<Long> newPatientIDs = new ArrayList<>();
+			if (indexLength <= indexRead) {
+				return newPatientIDs;
+			}
+
+			ByteBuffer entries = ByteBuffer.allocate((int) Math.min(indexLength - indexRead, INDEX_ENTRY_SIZE * 4096));
+			while (indexRead < indexLength) {
+				entries.clear().limit((int) Math.min(entries.capacity(), indexLength - indexRead));
+				readFully(indexChannel, entries, indexRead);
+				indexRead += entries.flip().remaining();
+				while (entries.hasRemaining()) {
+					long patientID = entries.getLong();
+					long offset = entries.getLong();
+					if (offsets.putIfAbsent(patientID, offset) == null) {
+						newPatientIDs.add(patientID);
+					}
+				}
+			}
+			return newPatientIDs;
+		} finally {
+			storeLock.unlock();
+		}
+	}
+
+
+	// Throws the exception append() would throw for this patient, returns the numeric patient ID
+	long checkNewPatient(Patient patient) {
+		storeLock.lock();
+		try {
+			long patientID = parsePatientID(patient.getPatientID());
+			if (patientID < 0) {
+				throw new IllegalArgumentException("Patient ID must be numeric: " + patient.getPatientID());
+			}
+			if (offsets.containsKey(patientID)) {
+				throw new IllegalStateException("Patient ID " + patient.getPatientID() + " is already in use");   // Never replace another patient's record
+			}
+			return patientID;
+		} finally {
+			storeLock.unlock();
+		}
+	}
+
+
+	// Look up a patient by ID, returns null if there is no such patient
+	Patient find(String patientID) throws IOException {
+		storeLock.lock();
+		try {
+			Long offset = offsets.get(parsePatientID(patientID));
+			if (offset == null) {
+				return null;
+			}
+
+			// Read the record length, then the record itself
+			ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+			readFully(dataChannel, lengthBuffer, offset);
+			ByteBuffer record = ByteBuffer.allocate(lengthBuffer.flip().getInt());
+			readFully(dataChannel, record, offset + Integer.BYTES);
+
+			return decode(record.flip());
+		} finally {
+			storeLock.unlock();
+		}
+	}
+
+
+	// Check if there is a patient with the given ID, without touching the disk
+	boolean contains(String patientID) {
+		storeLock.lock();
+		try {
+			return offsets.containsKey(parsePatientID(patientID));
+		} finally {
+			storeLock.unlock();
+		}
+	}
+
+	boolean contains(long patientID) {
+		storeLock.lock();
+		try {
+			return offsets.containsKey(patientID);
+		} finally {
+			storeLock.unlock();
+		}
+	}
+
+
+	// Returns a copy of every patient ID in the store
+	Set<Long> patientIDs() {
+		storeLock.lock();
+		try {
+			return Set.copyOf(offsets.keySet());
+		} finally {
+			storeLock.unlock();
+		}
+	}
+
+
+	int size() {
+		storeLock.lock();
+		try {
+			return offsets.size();
+		} finally {
+			storeLock.unlock();
+		}
+	}
+
+
+	// Sorted offsets of every record, followed by the end of the last one. Records are appended back to back,
+	// so record i is the bytes [bounds[i], bounds[i + 1]) and stays there; bounds taken now stay valid after later appends
+	long[] recordBounds() throws IOException {
+		storeLock.lock();
+		try {
+			long[] bounds = new long[offsets.size() + 1];
+			int i = 0;
+			for (long offset : offsets.values()) {
+				bounds[i++] = offset;
+			}
+			bounds[i] = dataChannel.size();
+			Arrays.sort(bounds, 0, i);
+			return bounds;
+		} finally {
+			storeLock.unlock();
+		}
+	}
+
+	// Decode records [from, to) of the given bounds with one read, without the store's lock, so several threads can
+	// read different ranges at once
+	void readRecords(long[] bounds, int from, int to, Consumer<Patient> action) throws IOException {
+		ByteBuffer records = ByteBuffer.allocate((int) (bounds[to] - bounds[from]));
+		readFully(dataChannel, records, bounds[from]);
+		records.flip();
+		for (int i = from; i < to; i++) {
+			int recordStart = (int) (bounds[i] - bounds[from]);
+			int recordLength = records.getInt(recordStart);
+			action.accept(decode(records.duplicate().position(recordStart + Integer.BYTES).limit(recordStart + Integer.BYTES + recordLength).slice()));
+		}
+	}
+
+
+	// Force the data and index files to the disk
+	void force() throws IOException {
+		storeLock.lock();
+		try {
+			dataChannel.force(false);
+			indexChannel.force(false);
+		} finally {
+			storeLock.unlock();
+		}
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		storeLock.lock();
+		try {
+			try {
+				dataChannel.close();
+			} finally {
+				indexChannel.close();
+			}
+		} finally {
+			storeLock.unlock();
+		}
+	}
+
+
+	// Read the index file into memory, then index any record that was appended to the data file
+	// but did not make it into the index (for example when the program stopped between the two writes)
+	private void loadIndex() throws IOException {
+		long indexLength = indexChannel.size() - indexChannel.size() % INDEX_ENTRY_SIZE;    // Drop a partly written last entry
+		indexChannel.truncate(indexLength);
+
+		long indexedEnd = 0;
+		ByteBuffer entries = ByteBuffer.allocate((int) Math.min(indexLength, INDEX_ENTRY_SIZE * 4096));
+		for (long position = 0; position < indexLength; ) {
+			entries.clear().limit((int) Math.min(entries.capacity(), indexLength - position));
+			readFully(indexChannel, entries, position);
+			position += entries.flip().remaining();
+
+			while (entries.hasRemaining()) {
+				long patientID = entries.getLong();
+				long offset = entries.getLong();
+				offsets.put(patientID, offset);
+				indexedEnd = Math.max(indexedEnd, offset);
+			}
+		}
+
+		if (!offsets.isEmpty()) {
+			indexedEnd += Integer.BYTES + readRecordLength(indexedEnd);                     // End of the last indexed record
+		}
+
+		// Recover records that are in the data file but not in the index
+		long dataLength = dataChannel.size();
+		while (indexedEnd + Integer.BYTES <= dataLength) {
+			int recordLength = readRecordLength(indexedEnd);
+			if (recordLength < 0 || indexedEnd + Integer.BYTES + recordLength > dataLength) {
+				break;                                                                     // Half-written record at the end of the file
+			}
+
+			ByteBuffer record = ByteBuffer.allocate(recordLength);
+			readFully(dataChannel, record, indexedEnd + Integer.BYTES);
+			long patientID = parsePatientID(decode(record.flip()).getPatientID());
+
+			ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+			indexEntry.putLong(patientID).putLong(indexedEnd).flip();
+			writeFully(indexChannel, indexEntry, indexChannel.size());
+			offsets.put(patientID, indexedEnd);
+
+			indexedEnd += Integer.BYTES + recordLength;
+		}
+		dataChannel.truncate(indexedEnd);                                                  // Throw away anything after the last complete record
+		indexRead = indexChannel.size();
+	}
+
+
+	// Move every xxxxx_PatientInfo.txt file of the directory into the store. The files are deleted once every patient
+	// moved in is forced to the disk, with one force for the whole migration instead of one per patient
+	private void importPatientInfoFiles(Path directory) throws IOException {
+		List<Path> importedFiles = new ArrayList<>();
+		try (DirectoryStream<Path> patientFiles = Files.newDirectoryStream(directory, "*_PatientInfo.txt")) {
+			for (Path patientFile : patientFiles) {
+				Patient patient = readPatientInfoFile(patientFile);
+				if (patient != null && parsePatientID(patient.getPatientID()) >= 0 && !contains(patient.getPatientID())) {
+					append(patient);
+					importedFiles.add(patientFile);
+				}
+			}
+		}
+		if (importedFiles.isEmpty()) {
+			return;
+		}
+		dataChannel.force(true);
+		indexChannel.force(true);
+		for (Path patientFile : importedFiles) {
+			Files.deleteIfExists(patientFile);
+		}
+	}
+
+
+	// Read one patient file in the format written by the old savePatientInfoToFile, returns null if its last line,
+	// the exam date, is missing or cut short because the file is still being written
+	static Patient readPatientInfoFile(Path patientFile) throws IOException {
+		Map<String, String> fields = new HashMap<>();
+		try (BufferedReader fileReader = Files.newBufferedReader(patientFile)) {
+			String line;
+			while ((line = fileReader.readLine()) != null) {
+				int colon = line.indexOf(": ");
+				if (colon > 0) {
+					fields.put(line.substring(0, colon), line.substring(colon + 2));
+				}
+			}
+		}
+
+		String examDate = fields.get("Exam Date");
+		if (examDate == null) {
+			return null;
+		}
+		LocalDate parsedExamDate = null;
+		if (!examDate.equals("null")) {
+			try {
+				parsedExamDate = LocalDate.parse(examDate);
+			} catch (DateTimeParseException event) {
+				return null;
+			}
+		}
+		return new Patient(fields.get("Patient ID"), fields.get("First Name"), fields.get("Last Name"), fields.get("Email"),
+				fields.get("Phone Number"), fields.get("Health History"), fields.get("Insurance ID"), parsedExamDate);
+	}
+
+
+	// Record layout: int length, then every Patient field as (int byte count, UTF-8 bytes), byte count -1 means null
+	static byte[] encode(Patient patient) throws IOException {
+		ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+		DataOutputStream record = new DataOutputStream(recordBytes);
+		record.writeInt(0);                                                                // Placeholder for the record length
+		writeField(record, patient.getPatientID());
+		writeField(record, patient.getFirstName());
+		writeField(record, patient.getLastName());
+		writeField(record, patient.getEmail());
+		writeField(record, patient.getPhoneNumber());
+		writeField(record, patient.getHealthHistory());
+		writeField(record, patient.getInsuranceID());
+		writeField(record, patient.examDate() == null ? null : patient.examDate().toString());
+
+		byte[] bytes = recordBytes.toByteArray();
+		ByteBuffer.wrap(bytes).putInt(bytes.length - Integer.BYTES);
+		return bytes;
+	}
+
+	static Patient decode(ByteBuffer record) {
+		String patientID = readField(record);
+		String firstName = readField(record);
+		String lastName = readField(record);
+		String email = readField(record);
+		String phoneNumber = readField(record);
+		String healthHistory = readField(record);
+		String insuranceID = readField(record);
+		String examDate = readField(record);
+		return new Patient(patientID, firstName, lastName, email, phoneNumber, healthHistory, insuranceID,
+				examDate == null ? null : LocalDate.parse(examDate));
+	}
+
+	private static void writeField(DataOutputStream record, String value) throws IOException {
+		if (value == null) {
+			record.writeInt(NULL_FIELD);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		record.writeInt(bytes.length);
+		record.write(bytes);
+	}
+
+	private static String readField(ByteBuffer record) {
+		int length = record.getInt();
+		if (length == NULL_FIELD) {
+			return null;
+		}
+		String value = new String(record.array(), record.arrayOffset() + record.position(), length, StandardCharsets.UTF_8);
+		record.position(record.position() + length);
+		return value;
+	}
+
+
+	private int readRecordLength(long offset) throws IOException {
+		ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+		readFully(dataChannel, lengthBuffer, offset);
+		return lengthBuffer.flip().getInt();
+	}
+
+
+	// Patient IDs are digits only, returns -1 for anything else (such as a mistyped login ID)
+	static long parsePatientID(String patientID) {
+		if (patientID == null || patientID.isEmpty() || patientID.length() > 18) {
+			return -1;
+		}
+		long value = 0;
+		for (int i = 0; i < patientID.length(); i++) {
+			char digit = patientID.charAt(i);
+			if (digit < '0' || digit > '9') {
+				return -1;
+			}
+			value = value * 10 + (digit - '0');
+		}
+		return value;
+	}
+
+
+	// Every record file is read and written through these two, so they feed the file metrics
+	static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		long start = System.nanoTime();
+		int length = buffer.remaining();
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new IOException("Unexpected end of file at offset " + position);
+			}
+			position += read;
+		}
+		Metrics.FILE_READ.recordSince(start);
+		Metrics.BYTES_READ.add(length);
+	}
+
+	static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		long start = System.nanoTime();
+		int length = buffer.remaining();
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+		Metrics.FILE_WRITE.recordSince(start);
+		Metrics.BYTES_WRITTEN.add(length);
+	}
+}
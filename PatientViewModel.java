@@ -0,0 +1,86 @@
+// Title: Patient View Model
+// Desc: Text shown by the Patient View, held in JavaFX properties. The Patient View is built once and its labels are
+//       bound to these properties, so showing another patient only sets seven strings instead of building new labels.
+//       The progression line sums up the patient's CT scan history once it has been loaded.
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
+
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+
+class PatientViewModel {
+
+	final StringProperty greeting = new SimpleStringProperty(this, "greeting", "");                    // Title of the view, with the patient's name
+	final StringProperty totalAgatstonCACScore = new SimpleStringProperty(this, "totalAgatstonCACScore", "");
+	final StringProperty lm = new SimpleStringProperty(this, "lm", "");
+	final StringProperty lad = new SimpleStringProperty(this, "lad", "");
+	final StringProperty lcx = new SimpleStringProperty(this, "lcx", "");
+	final StringProperty rca = new SimpleStringProperty(this, "rca", "");
+	final StringProperty pda = new SimpleStringProperty(this, "pda", "");
+	final StringProperty progression = new SimpleStringProperty(this, "progression", "");   // Change of the total score over every scan
+
+	private String patientID;                                                             // Patient shown, null after log out
+
+
+	// Show the given patient, the patient must have a CT scan report
+	void setPatientRecord(PatientRecord patientRecord) {
+		ctScanData agatstonScores = patientRecord.getCTReport();                          // Scores as text, also for a report typed before scores had to be numbers
+		patientID = patientRecord.getPatient().getPatientID();
+		greeting.set("Hello <" + patientRecord.getPatientName() + ">");
+		totalAgatstonCACScore.set("Total Agatston CAC score: " + agatstonScores.getTotalAgatstionCACScore());
+		lm.set("LM: " + agatstonScores.getLM());
+		lad.set("LAD: " + agatstonScores.getLAD());
+		lcx.set("LCX: " + agatstonScores.getLCX());
+		rca.set("RCA: " + agatstonScores.getRCA());
+		pda.set("PDA: " + agatstonScores.getPDA());
+		progression.set("");                                                               // Set by setHistory once the history is loaded
+	}
+
+	// Sum up the patient's CT scan history, oldest version first
+	void setHistory(List<CTScanHistory.Version> history, DateTimeFormatter dateFormatter) {
+		if (history.isEmpty()) {
+			progression.set("");
+			return;
+		}
+		CTScanHistory.Version first = history.get(0);
+		String firstDate = first.savedAt.atZone(ZoneId.systemDefault()).toLocalDate().format(dateFormatter);
+		if (history.size() == 1) {
+			progression.set("First CT scan, " + firstDate);
+			return;
+		}
+		float firstTotal = first.scores.getTotalAgatstonCACScore();
+		float latestTotal = history.get(history.size() - 1).scores.getTotalAgatstonCACScore();
+		progression.set(history.size() + " CT scans since " + firstDate + ": total score " + CTScoreRecord.formatScore(firstTotal)
+				+ " -> " + CTScoreRecord.formatScore(latestTotal) + " (" + signedChange(latestTotal - firstTotal) + ")");
+	}
+
+	boolean isShowing(String patientID) {
+		return patientID.equals(this.patientID);
+	}
+
+	// Change of a score with its sign, "+15", "-2.5" or "0"; rounded to hundredths, as scores are typed
+	static String signedChange(float change) {
+		float rounded = (float) (Math.round(change * 100.0) / 100.0);
+		return (rounded > 0 ? "+" : "") + CTScoreRecord.formatScore(rounded);
+	}
+
+	// Drop the patient's data when they log out
+	void clear() {
+		greeting.set("");
+		totalAgatstonCACScore.set("");
+		lm.set("");
+		lad.set("");
+		lcx.set("");
+		rca.set("");
+		pda.set("");
+		progression.set("");
+		patientID = null;
+	}
+}
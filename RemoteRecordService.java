@@ -0,0 +1,144 @@
+// Title: Remote Record Service
+// Desc: Thin client side of the Heart Health server: every record call of the UI is sent as an HTTP/JSON request
+//       instead of touching the record files, so a station only needs the server's address
+//       (-DheartHealth.server=http://host:8360). Requests are sent asynchronously by the JDK HTTP client.
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import java.io.IOException;                    // Exception class that is thrown when an I/O operation encounters an error or fails
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+
+class RemoteRecordService implements RecordService {
+
+	private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+
+	private final URI server;                                                             // Base address of the Heart Health server
+	private final HttpClient httpClient;
+	private final int patientIDDigits;                                                    // Asked from the server once, when the client connects
+
+
+	private RemoteRecordService(URI server, HttpClient httpClient, int patientIDDigits) {
+		this.server = server;
+		this.httpClient = httpClient;
+		this.patientIDDigits = patientIDDigits;
+	}
+
+
+	// Connect to the server at the given address, throws IOException if it does not answer
+	static RemoteRecordService connect(String serverAddress) throws IOException {
+		URI server = URI.create(serverAddress.endsWith("/") ? serverAddress : serverAddress + "/");
+		HttpClient httpClient = HttpClient.newBuilder().connectTimeout(REQUEST_TIMEOUT).build();
+		RemoteRecordService client = new RemoteRecordService(server, httpClient, 0);
+		try {
+			Map<String, Object> info = Json.parseObject(client.send("GET", "info", null).join());
+			return new RemoteRecordService(server, httpClient, ((Number) info.get("patientIDDigits")).intValue());
+		} catch (CompletionException event) {
+			httpClient.close();
+			throw new IOException("Heart Health server at " + serverAddress + " is not available: " + event.getCause().getMessage(), event.getCause());
+		}
+	}
+
+
+	@Override
+	public int patientIDDigits() {
+		return patientIDDigits;
+	}
+
+	@Override
+	public CompletableFuture<String> allocatePatientID() {
+		return send("POST", "patient-ids", null).thenApply(body -> RecordJson.requiredText(Json.parseObject(body), "patientID"));
+	}
+
+	@Override
+	public CompletableFuture<ExamScheduler.Booking> bookExam(String patientID) {
+		return send("POST", "patients/" + patientID + "/exam", null).thenApply(body -> RecordJson.bookingFrom(Json.parseObject(body)));
+	}
+
+	@Override
+	public CompletableFuture<Boolean> cancelExam(String patientID) {
+		return send("DELETE", "patients/" + patientID + "/exam", null).thenApply(body -> body != null);
+	}
+
+	@Override
+	public CompletableFuture<Void> savePatientInfo(Patient newPatient) {
+		return send("PUT", "patients/" + newPatient.getPatientID(), RecordJson.toJson(newPatient)).thenApply(body -> null);
+	}
+
+	@Override
+	public CompletableFuture<Void> savePatientCTScanData(CTScoreRecord newPatientData) {
+		return send("PUT", "patients/" + newPatientData.getPatientID() + "/ct", RecordJson.toJson(newPatientData)).thenApply(body -> null);
+	}
+
+	@Override
+	public CompletableFuture<PatientRecord> loadPatientRecord(String patientLoginID) {
+		if (!patientLoginID.chars().allMatch(Character::isDigit)) {
+			return CompletableFuture.completedFuture(null);                                // Only digits can be a patient ID, and only digits are safe in the path
+		}
+		return send("GET", "patients/" + patientLoginID, null).thenApply(body -> body == null ? null : RecordJson.patientRecordFrom(Json.parseObject(body)));
+	}
+
+	@Override
+	public CompletableFuture<List<CTScanHistory.Version>> loadCTHistory(String patientID) {
+		if (!patientID.chars().allMatch(Character::isDigit)) {
+			return CompletableFuture.failedFuture(new IllegalArgumentException("Patient ID must be numeric: " + patientID));
+		}
+		return send("GET", "patients/" + patientID + "/ct/history", null).thenApply(body -> RecordJson.historyFrom(patientID, Json.parseObject(body)));
+	}
+
+	@Override
+	public CompletableFuture<List<Patient>> searchPatients(String text, boolean exact) {
+		return send("GET", "patients?q=" + URLEncoder.encode(text, StandardCharsets.UTF_8) + (exact ? "&exact=true" : ""), null)
+				.thenApply(body -> RecordJson.patientsFrom(Json.parseObject(body)));
+	}
+
+	@Override
+	public CompletableFuture<CTRiskAnalytics.RiskSummary> summarizeCTRisk() {
+		return send("GET", "ct/risk-summary", null).thenApply(body -> RecordJson.riskSummaryFrom(Json.parseObject(body)));
+	}
+
+	@Override
+	public void close() {
+		httpClient.close();                                                                // Waits for requests still being sent, then closes the connections
+	}
+
+
+	// Send one request, completes with the response body ("" if there is none), or null for 404 on a GET or DELETE; other
+	// errors fail with the server's message
+	private CompletableFuture<String> send(String method, String path, String json) {
+		HttpRequest.Builder request = HttpRequest.newBuilder(server.resolve(path)).timeout(REQUEST_TIMEOUT);
+		if (json != null) {
+			request.header("Content-Type", "application/json; charset=utf-8").method(method, HttpRequest.BodyPublishers.ofString(json));
+		} else {
+			request.method(method, HttpRequest.BodyPublishers.noBody());
+		}
+
+		return httpClient.sendAsync(request.build(), HttpResponse.BodyHandlers.ofString()).thenApply(response -> {
+			int status = response.statusCode();
+			if (status / 100 == 2) {
+				return response.body();
+			} else if (status == 404 && (method.equals("GET") || method.equals("DELETE"))) {
+				return null;
+			}
+			String message = response.body();
+			try {
+				message = RecordJson.requiredText(Json.parseObject(message), "error");
+			} catch (IllegalArgumentException notJson) {
+				// Keep the plain response body as the message
+			}
+			throw new CompletionException(new IOException("Heart Health server answered " + status + ": " + message));
+		});
+	}
+}
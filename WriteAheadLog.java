@@ -0,0 +1,243 @@
+// Title: Write Ahead Log
+// Desc: Every patient intake and CT scan report save is first appended to PatientRecords.wal and made durable there,
+//       so a crash can never leave a half-written record behind. Entries are written and applied to the record files
+//       one save at a time under a lock on the log file, which keeps two stations saving the same patient in one order;
+//       a batch of imported reports is one save, written to the log in one write.
+//       Writers then wait for the log to reach the disk: whichever writer finds no flush running forces the log once
+//       for everything written so far (group commit), so ten stations saving at once pay for one fsync, not ten.
+//       A checkpoint redoes the log into the record files, makes them durable and empties the log; it runs at
+//       startup to replay whatever a crash left behind, and again whenever the log grows past a few megabytes.
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import java.io.IOException;                    // Exception class that is thrown when an I/O operation encounters an error or fails
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;             // Keeps the log in one order when several stations share the directory
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;                   // Tells a whole entry from one cut short by a crash
+
+
+class WriteAheadLog implements AutoCloseable {
+
+	static final String LOG_FILE_NAME = "PatientRecords.wal";
+
+	// Entry types
+	static final byte PATIENT = 1;                                                        // Payload is a PatientStore record
+	static final byte CT_SCORES = 2;                                                      // Payload is a CTScoreRecord in binary form
+
+	private static final int ENTRY_HEADER_SIZE = 9;                                       // int payload length, int CRC of type and payload, byte type
+	private static final int MAX_PAYLOAD = 1 << 20;                                       // A longer length can only come from a damaged entry
+	private static final int CHECKPOINT_BYTES = Integer.getInteger("heartHealth.logCheckpointBytes", 4 << 20);
+
+	// Entries written per sync is the average group size, see Metrics
+	private static final Metrics.Counter ENTRIES_WRITTEN = Metrics.counter("wal.entriesWritten");
+	private static final Metrics.Counter SYNCS = Metrics.counter("wal.syncs");            // Times a writer forced the log
+
+	// What the log is a log of
+	interface Target {
+		// Apply one logged change to the record files again; must do no harm if the change is already there
+		void redo(byte type, ByteBuffer payload) throws IOException;
+
+		// Force every change redone or applied so far to the disk
+		void flush() throws IOException;
+	}
+
+	// A change to the record files, applied right after its entry is written
+	interface Change {
+		void apply() throws IOException;
+	}
+
+	// The payload of an entry that depends on what is saved already, built once no other writer can run
+	interface Payload {
+		byte[] build() throws IOException;
+	}
+
+	// Same, for the payloads of several entries written together
+	interface Payloads {
+		List<byte[]> build() throws IOException;
+	}
+
+	private final FileChannel logChannel;                                                 // Channel on PatientRecords.wal
+	private final CRC32C crc = new CRC32C();                                              // Used under writeLock only
+
+	// Positions count every byte this process has written to the log since it was opened, so a checkpoint
+	// that empties the file does not move them back
+	private volatile long writtenPosition;                                                // Changed under writeLock only
+	private long durablePosition;                                                         // Guarded by syncLock
+	private boolean syncing;                                                              // A writer is forcing the log, guarded by syncLock
+	private final ReentrantLock syncLock = new ReentrantLock();
+	// One writer or checkpoint at a time. A lock, not the log's monitor: the server runs the record service on virtual
+	// threads, and one blocked on file I/O inside a monitor would pin its carrier thread until the I/O is done
+	private final ReentrantLock writeLock = new ReentrantLock();
+	private final Condition syncDone = syncLock.newCondition();
+
+
+	private WriteAheadLog(FileChannel logChannel) {
+		this.logChannel = logChannel;
+	}
+
+
+	// Open (or create) the log in the given directory; call checkpoint() before the first write to replay it
+	static WriteAheadLog open(Path directory) throws IOException {
+		return new WriteAheadLog(FileChannel.open(directory.resolve(LOG_FILE_NAME),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+	}
+
+
+	// Append an entry and apply its change while no other writer can, returns the position to pass to sync()
+	// The change is not durable until sync() returns
+	long write(byte type, byte[] payload, Change change) throws IOException {
+		return write(type, () -> payload, change);
+	}
+
+	// Same, with the payload built under the log's lock
+	long write(byte type, Payload payload, Change change) throws IOException {
+		return writeAll(type, () -> List.of(payload.build()), change);
+	}
+
+	// Append several entries of one type in one write and apply their change, which covers all of them; a replay redoes
+	// the entries one by one
+	@SuppressWarnings("try")
+	long writeAll(byte type, Payloads payloads, Change change) throws IOException {
+		writeLock.lock();
+		try (FileLock lock = logChannel.lock()) {
+			List<byte[]> payloadBytes = payloads.build();
+			int size = 0;
+			for (byte[] payload : payloadBytes) {
+				size += ENTRY_HEADER_SIZE + payload.length;
+			}
+			ByteBuffer entries = ByteBuffer.allocate(size);
+			for (byte[] payload : payloadBytes) {
+				int start = entries.position();
+				entries.putInt(payload.length).putInt(0).put(type).put(payload);
+				crc.reset();
+				crc.update(entries.array(), start + 8, 1 + payload.length);
+				entries.putInt(start + 4, (int) crc.getValue());
+			}
+			entries.flip();
+
+			PatientStore.writeFully(logChannel, entries, logChannel.size());             // Always at the end, another station may have appended
+			writtenPosition += size;
+			ENTRIES_WRITTEN.add(payloadBytes.size());
+			change.apply();                                                                // In log order, so a replay ends in the same state
+			return writtenPosition;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	// Wait until the log is on the disk up to the given position. The first writer to arrive forces the log for every
+	// entry written so far; writers arriving meanwhile wait and are usually covered by that one force
+	void sync(long position) throws IOException {
+		syncLock.lock();
+		try {
+			while (durablePosition < position) {
+				if (syncing) {
+					syncDone.awaitUninterruptibly();
+					continue;
+				}
+
+				syncing = true;
+				long forcedPosition = writtenPosition;                                    // Not under writeLock: a checkpoint holds writeLock, then takes syncLock
+				boolean forced = false;
+				syncLock.unlock();
+				try {
+					long forceStart = System.nanoTime();
+					logChannel.force(false);
+					Metrics.FILE_FORCE.recordSince(forceStart);                                // What every save waits for at least once
+					forced = true;
+				} finally {
+					syncLock.lock();
+					syncing = false;
+					if (forced) {
+						durablePosition = Math.max(durablePosition, forcedPosition);
+						SYNCS.increment();
+					}
+					syncDone.signalAll();
+				}
+			}
+		} finally {
+			syncLock.unlock();
+		}
+	}
+
+	// Checkpoint if the log has grown past the limit, writers call this after sync()
+	void checkpointIfFull(Target target) throws IOException {
+		if (logChannel.size() >= CHECKPOINT_BYTES) {
+			checkpoint(target);
+		}
+	}
+
+	// Redo every whole entry of the log in order, force the record files, then empty the log
+	// An entry cut short by a crash ends the log: its writer was never told the change was saved
+	void checkpoint(Target target) throws IOException {
+		writeLock.lock();
+		try {
+			replay(target);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@SuppressWarnings("try")
+	private void replay(Target target) throws IOException {
+		try (FileLock lock = logChannel.lock()) {
+			long logSize = logChannel.size();
+			if (logSize > Integer.MAX_VALUE) {
+				throw new IOException(LOG_FILE_NAME + " is too large to replay: " + logSize + " bytes");
+			}
+			ByteBuffer log = ByteBuffer.allocate((int) logSize);                           // Read in one pass, the log is a few megabytes at most
+			PatientStore.readFully(logChannel, log, 0);
+			log.flip();
+
+			while (log.remaining() >= ENTRY_HEADER_SIZE) {
+				int start = log.position();
+				int payloadLength = log.getInt(start);
+				if (payloadLength < 0 || payloadLength > MAX_PAYLOAD || log.remaining() < ENTRY_HEADER_SIZE + payloadLength) {
+					break;
+				}
+				crc.reset();
+				crc.update(log.array(), start + 8, 1 + payloadLength);
+				if (log.getInt(start + 4) != (int) crc.getValue()) {
+					break;
+				}
+
+				byte type = log.get(start + 8);
+				ByteBuffer payload = log.duplicate().position(start + ENTRY_HEADER_SIZE).limit(start + ENTRY_HEADER_SIZE + payloadLength).slice();
+				target.redo(type, payload);
+				log.position(start + ENTRY_HEADER_SIZE + payloadLength);
+			}
+
+			target.flush();
+			logChannel.truncate(0);
+			logChannel.force(true);
+		}
+
+		// Everything written so far is now in the record files on the disk
+		syncLock.lock();
+		try {
+			durablePosition = Math.max(durablePosition, writtenPosition);
+			syncDone.signalAll();
+		} finally {
+			syncLock.unlock();
+		}
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		writeLock.lock();
+		try {
+			logChannel.close();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+}
@@ -0,0 +1,96 @@
+//Title: Joe's Deli Billing Engine Test
+//Desc: Unit tests of BillingEngine: tax is rounded to the cent once by the chosen rule, the total is the subtotal plus
+//      the tax shown, and the bill lists every item and modifier with its quantity
+//Author: JIAYUAN YU
+//Date: 05/18/2023
+
+package application;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.RoundingMode;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+
+class BillingEngineTest {
+
+  @Test
+  void taxIsRoundedByTheChosenRule() {
+    // 7% of 50 cents is 3.5 cents, of 150 cents 10.5 cents, of 7 cents 0.49 cents, of 20 cents 1.4 cents
+    assertTax(RoundingMode.HALF_UP, 4, 11, 0, 1);
+    assertTax(RoundingMode.HALF_EVEN, 4, 10, 0, 1);
+    assertTax(RoundingMode.UP, 4, 11, 1, 2);
+    assertTax(RoundingMode.DOWN, 3, 10, 0, 1);
+  }
+
+  @Test
+  void taxOfAWholeCentNeedsNoRounding() {
+    for (RoundingMode rounding : List.of(RoundingMode.HALF_UP, RoundingMode.HALF_EVEN, RoundingMode.UP, RoundingMode.DOWN)) {
+      BillingEngine engine = new BillingEngine(700, rounding);
+      assertEquals(0, engine.taxCents(0));
+      assertEquals(7, engine.taxCents(100));
+      assertEquals(70_000_000_000L, engine.taxCents(1_000_000_000_000L));
+    }
+  }
+
+  @Test
+  void totalIsSubtotalPlusTheRoundedTax() {
+    BillingEngine engine = new BillingEngine(825, RoundingMode.HALF_UP);
+    engine.price(2397);                                        // 8.25% is 197.7525 cents
+    assertEquals(2397, engine.subtotalCents());
+    assertEquals(198, engine.taxCents());
+    assertEquals(2595, engine.totalCents());
+  }
+
+  @Test
+  void billListsEveryLineAndTheTotals() {
+    MenuCatalog menu = MenuCatalog.parse(List.of(
+        "1, Egg Sandwich, eat, 7.99, any",
+        "7, Coffee, drink, 1.99, any",
+        "101, Oat Milk, +7, 0.50, any"), 0);
+    DeliOrder order = new DeliOrder(menu);
+    order.setQuantity(1, 3);
+    order.setQuantity(7, 2);
+    order.setQuantity(101, 1);
+
+    assertEquals("------Item Info------\n"
+        + "3 x Egg Sandwich: $7.99 each = $23.97\n"
+        + "2 x Coffee: $1.99 each = $3.98\n"
+        + "  + Oat Milk: $0.50 each\n"
+        + "------Bill Info------\n"
+        + "Subtotal Cost: 28.45\n"
+        + "Tax(7%): 1.99\n"
+        + "Total Cost: 30.44\n", new BillingEngine(700, RoundingMode.HALF_UP).bill(order).toString());
+  }
+
+  @Test
+  void taxLineShowsTheRateWithoutTrailingZeros() {
+    MenuCatalog menu = MenuCatalog.parse(List.of("1, Bagel, eat, 2.50, any"), 0);
+    DeliOrder order = new DeliOrder(menu);
+    order.setQuantity(1, 1);
+
+    assertTrue(new BillingEngine(750, RoundingMode.HALF_UP).bill(order).toString().contains("Tax(7.5%): 0.19\n"));
+    assertTrue(new BillingEngine(825, RoundingMode.HALF_UP).bill(order).toString().contains("Tax(8.25%): 0.21\n"));
+    assertTrue(new BillingEngine(0, RoundingMode.HALF_UP).bill(order).toString().contains("Tax(0%): 0.00\n"));
+  }
+
+  @Test
+  void rejectsARateOrRuleItCannotApply() {
+    assertThrows(IllegalArgumentException.class, () -> new BillingEngine(-1, RoundingMode.HALF_UP));
+    assertThrows(IllegalArgumentException.class, () -> new BillingEngine(10_001, RoundingMode.HALF_UP));
+    assertThrows(IllegalArgumentException.class, () -> new BillingEngine(700, RoundingMode.HALF_DOWN));
+  }
+
+
+  private static void assertTax(RoundingMode rounding, long taxOf50, long taxOf150, long taxOf7, long taxOf20) {
+    BillingEngine engine = new BillingEngine(700, rounding);
+    assertEquals(taxOf50, engine.taxCents(50), rounding + " of 50");
+    assertEquals(taxOf150, engine.taxCents(150), rounding + " of 150");
+    assertEquals(taxOf7, engine.taxCents(7), rounding + " of 7");
+    assertEquals(taxOf20, engine.taxCents(20), rounding + " of 20");
+  }
+}
@@ -0,0 +1,158 @@
+// Title: CT Scan History Test
+// Desc: Unit tests of the CTResults.history encoding: every version reads back with exactly the scores and time it was
+//       saved with, whether a score is stored as a change in hundredths or as a raw float, a follow-up scan is a small
+//       entry, and an entry cut short by a crash is dropped when the history is opened again
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+class CTScanHistoryTest {
+
+	private static final long SAVED_AT = 1_686_000_000_000L;                              // 2023-06-05, any time will do
+
+	@TempDir
+	Path directory;
+
+	private CTColumnArchive ctArchive;
+
+
+	@BeforeEach
+	void openArchive() throws IOException {
+		ctArchive = CTColumnArchive.open(directory);
+	}
+
+	@AfterEach
+	void closeArchive() throws IOException {
+		ctArchive.close();
+	}
+
+
+	@Test
+	void everyVersionReadsBackExactly() throws IOException {
+		List<CTScoreRecord> reports = List.of(
+				new CTScoreRecord(10001, 120, 12.5f, 40, 0, 67.5f, 0),                      // Whole hundredths, stored as changes
+				new CTScoreRecord(10001, 95.25f, 0, 40, 3.75f, 51.5f, 0),                   // Some scores went down
+				new CTScoreRecord(10001, 0.3333f, 99999.9999f, 1e-4f, 0, 0, 7));            // Not whole hundredths, stored as floats
+		try (CTScanHistory history = CTScanHistory.open(directory, ctArchive)) {
+			for (int version = 0; version < reports.size(); version++) {
+				assertTrue(history.append(reports.get(version), SAVED_AT + version * 86_400_000L));
+			}
+		}
+
+		try (CTScanHistory history = CTScanHistory.open(directory, ctArchive)) {
+			List<CTScanHistory.Version> trend = history.trend(10001);
+			assertEquals(reports.size(), trend.size());
+			for (int version = 0; version < reports.size(); version++) {
+				assertEquals(SAVED_AT + version * 86_400_000L, trend.get(version).savedAt.toEpochMilli());
+				assertSameScores(reports.get(version), trend.get(version).scores);
+			}
+			assertSameScores(reports.get(2), history.latest(10001).scores);
+			assertEquals(3, history.versionCount(10001));
+		}
+	}
+
+	@Test
+	void aFollowUpScanIsStoredAsASmallChange() throws IOException {
+		try (CTScanHistory history = CTScanHistory.open(directory, ctArchive)) {
+			history.append(new CTScoreRecord(10001, 412.5f, 20, 180.25f, 90, 110.5f, 11.75f), SAVED_AT);
+			long firstSize = Files.size(historyFile());
+			history.append(new CTScoreRecord(10001, 418.5f, 20, 183.25f, 91, 112.5f, 11.75f), SAVED_AT + 90 * 86_400_000L);
+
+			assertTrue(Files.size(historyFile()) - firstSize <= 20, "follow-up entry took " + (Files.size(historyFile()) - firstSize) + " bytes");
+		}
+	}
+
+	@Test
+	void patientsAreEncodedIndependently() throws IOException {
+		try (CTScanHistory history = CTScanHistory.open(directory, ctArchive)) {
+			history.append(new CTScoreRecord(10001, 10, 1, 2, 3, 4, 0), SAVED_AT);
+			history.append(new CTScoreRecord(10002, 500, 100, 200, 100, 50, 50), SAVED_AT + 1);
+			history.append(new CTScoreRecord(10001, 12, 1, 4, 3, 4, 0), SAVED_AT + 2);
+		}
+
+		try (CTScanHistory history = CTScanHistory.open(directory, ctArchive)) {
+			assertSameScores(new CTScoreRecord(10001, 12, 1, 4, 3, 4, 0), history.latest(10001).scores);
+			assertSameScores(new CTScoreRecord(10002, 500, 100, 200, 100, 50, 50), history.latest(10002).scores);
+			assertEquals(3, history.versionCount());
+			assertNull(history.latest(10003));
+			assertEquals(List.of(), history.trend(10003));
+		}
+	}
+
+	@Test
+	void appendKeepsVersionsInTimeOrder() throws IOException {
+		try (CTScanHistory history = CTScanHistory.open(directory, ctArchive)) {
+			assertTrue(history.append(new CTScoreRecord(10001, 10, 0, 0, 0, 0, 0), SAVED_AT));
+			assertFalse(history.append(new CTScoreRecord(10001, 20, 0, 0, 0, 0, 0), SAVED_AT));
+			assertFalse(history.append(new CTScoreRecord(10001, 20, 0, 0, 0, 0, 0), SAVED_AT - 1));
+			assertEquals(1, history.versionCount(10001));
+		}
+	}
+
+	@Test
+	void aLiveSaveIsKeptAfterAVersionAnotherStationAppended() throws IOException {
+		try (CTScanHistory history = CTScanHistory.open(directory, ctArchive);
+				CTScanHistory otherStation = CTScanHistory.open(directory, ctArchive)) {
+			long savedAt = history.nextVersionTime(10001);
+			otherStation.appendIfChanged(new CTScoreRecord(10001, 10, 0, 0, 0, 0, 0), savedAt);
+			assertEquals(savedAt + 1, history.appendSaved(new CTScoreRecord(10001, 20, 0, 0, 0, 0, 0), savedAt));
+			assertEquals(2, history.versionCount(10001));
+			assertEquals(20, history.latest(10001).scores.getTotalAgatstonCACScore());
+		}
+	}
+
+	@Test
+	void openDropsAnEntryCutShortByACrash() throws IOException {
+		try (CTScanHistory history = CTScanHistory.open(directory, ctArchive)) {
+			history.append(new CTScoreRecord(10001, 10, 1, 2, 3, 4, 0), SAVED_AT);
+			history.append(new CTScoreRecord(10001, 12, 1, 4, 3, 4, 0), SAVED_AT + 1);
+		}
+		long size = Files.size(historyFile());
+		try (FileChannel file = FileChannel.open(historyFile(), StandardOpenOption.WRITE)) {
+			file.truncate(size - 3);
+		}
+
+		try (CTScanHistory history = CTScanHistory.open(directory, ctArchive)) {
+			assertEquals(1, history.versionCount(10001));
+			assertSameScores(new CTScoreRecord(10001, 10, 1, 2, 3, 4, 0), history.latest(10001).scores);
+			assertTrue(history.append(new CTScoreRecord(10001, 12, 1, 4, 3, 4, 0), SAVED_AT + 1));
+		}
+		try (CTScanHistory history = CTScanHistory.open(directory, ctArchive)) {
+			assertEquals(2, history.versionCount(10001));
+		}
+	}
+
+
+	private Path historyFile() {
+		return directory.resolve(CTScanHistory.HISTORY_FILE_NAME);
+	}
+
+	private static void assertSameScores(CTScoreRecord expected, CTScoreRecord actual) {
+		assertEquals(expected.getPatientID(), actual.getPatientID());
+		assertEquals(expected.getTotalAgatstonCACScore(), actual.getTotalAgatstonCACScore());
+		assertEquals(expected.getLM(), actual.getLM());
+		assertEquals(expected.getLAD(), actual.getLAD());
+		assertEquals(expected.getLCX(), actual.getLCX());
+		assertEquals(expected.getRCA(), actual.getRCA());
+		assertEquals(expected.getPDA(), actual.getPDA());
+	}
+}
@@ -0,0 +1,120 @@
+//Title: Joe's Deli Order Test
+//Desc: Unit tests of DeliOrder: the subtotal and lines follow every change of quantity, modifiers stay within their
+//      item's units, limits are enforced, and a new menu reprices the order
+//Author: JIAYUAN YU
+//Date: 05/18/2023
+
+package application;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+
+class DeliOrderTest {
+
+  private static final MenuCatalog MENU = MenuCatalog.parse(List.of(
+      "1, Egg Sandwich, eat, 7.99, any",
+      "3, Bagel, eat, 2.50, 2",
+      "7, Coffee, drink, 1.99, any",
+      "101, Extra Cheese, +1, 0.75, any",
+      "102, Oat Milk, +7, 0.50, one"), 0);
+
+
+  @Test
+  void subtotalUnitsAndLinesFollowEveryChange() {
+    DeliOrder order = new DeliOrder(MENU);
+    assertTrue(order.isEmpty());
+
+    order.setQuantity(7, 2);
+    order.setQuantity(1, 3);
+    order.setQuantity(101, 2);
+    assertEquals(2 * 199 + 3 * 799 + 2 * 75, order.subtotalCents());
+    assertEquals(5, order.units());                            // Modifiers are not units
+    assertEquals(2, order.lineCount());
+    assertEquals(7, order.lineItemID(0));                      // In the order they were rung up
+    assertEquals(1, order.lineItemID(1));
+
+    order.setQuantity(7, 0);
+    assertEquals(3 * 799 + 2 * 75, order.subtotalCents());
+    assertEquals(1, order.lineCount());
+    assertEquals(1, order.lineItemID(0));
+  }
+
+  @Test
+  void modifiersStayWithinTheirItemsUnits() {
+    DeliOrder order = new DeliOrder(MENU);
+    assertEquals(0, order.setQuantity(101, 1));                // No sandwich to add cheese to
+    order.setQuantity(1, 2);
+    assertEquals(2, order.setQuantity(101, 5));
+
+    order.setQuantity(1, 1);
+    assertEquals(1, order.quantity(101));
+    assertEquals(799 + 75, order.subtotalCents());
+
+    order.setQuantity(1, 0);
+    assertEquals(0, order.quantity(101));
+    assertEquals(0, order.subtotalCents());
+    assertTrue(order.isEmpty());
+  }
+
+  @Test
+  void limitsAreEnforced() {
+    DeliOrder order = new DeliOrder(MENU);
+    assertThrows(IllegalArgumentException.class, () -> order.setQuantity(3, 3));
+    assertThrows(IllegalArgumentException.class, () -> order.setQuantity(1, -1));
+    assertThrows(IllegalArgumentException.class, () -> order.setQuantity(1, MenuCatalog.MAX_QUANTITY + 1));
+    assertThrows(IllegalArgumentException.class, () -> order.setQuantity(2, 1));
+    assertThrows(IllegalArgumentException.class, () -> order.add(9999, 1));
+
+    assertEquals(2, order.add(3, 5));                          // add stays within the limit instead of throwing
+    assertEquals(0, order.add(3, -5));
+    order.setQuantity(7, 3);
+    assertThrows(IllegalArgumentException.class, () -> order.setQuantity(102, 2));
+    assertEquals(1, order.add(102, 1));
+    assertEquals(1, order.add(102, 1));
+    assertEquals(3 * 199 + 50, order.subtotalCents());
+  }
+
+  @Test
+  void clearEmptiesTheOrder() {
+    DeliOrder order = new DeliOrder(MENU);
+    order.setQuantity(1, 2);
+    order.setQuantity(101, 2);
+    order.setQuantity(7, 1);
+    order.clear();
+
+    assertTrue(order.isEmpty());
+    assertEquals(0, order.subtotalCents());
+    assertEquals(0, order.units());
+    assertEquals(0, order.quantity(101));
+    order.setQuantity(1, 1);
+    assertEquals(799, order.subtotalCents());
+    assertEquals(0, order.quantity(101));
+  }
+
+  @Test
+  void aNewMenuRepricesTheOrder() {
+    DeliOrder order = new DeliOrder(MENU);
+    order.setQuantity(1, 4);
+    order.setQuantity(101, 3);
+    order.setQuantity(3, 2);
+    order.setQuantity(7, 1);
+
+    order.setMenu(MenuCatalog.parse(List.of(
+        "1, Egg Sandwich, eat, 8.49, 2",                         // New price and a lower limit
+        "3, Bagel, eat, 2.50, 2",
+        "101, Extra Cheese, +1, 0.80, any"), 0));                // Coffee is gone
+
+    assertEquals(2, order.quantity(1));
+    assertEquals(2, order.quantity(101));
+    assertEquals(0, order.quantity(7));
+    assertEquals(2 * 849 + 2 * 80 + 2 * 250, order.subtotalCents());
+    assertEquals(4, order.units());
+    assertEquals(2, order.lineCount());
+  }
+}
@@ -0,0 +1,114 @@
+//Title: Joe's Deli Kitchen Queue Test
+//Desc: Unit tests of KitchenQueue: tickets reach the kitchen once each and in the order they were claimed, a full queue
+//      turns registers away until the kitchen drains it, and registers publishing at once lose no ticket
+//Author: JIAYUAN YU
+//Date: 05/18/2023
+
+package application;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+
+class KitchenQueueTest {
+
+  @Test
+  void capacityIsRoundedUpToAPowerOfTwo() {
+    assertEquals(2, new KitchenQueue(2).capacity());
+    assertEquals(8, new KitchenQueue(5).capacity());
+    assertEquals(1024, new KitchenQueue(1024).capacity());
+    assertThrows(IllegalArgumentException.class, () -> new KitchenQueue(1));
+    assertThrows(IllegalArgumentException.class, () -> new KitchenQueue((1 << 24) + 1));
+  }
+
+  @Test
+  void ticketsAreDrainedInOrder() {
+    KitchenQueue queue = new KitchenQueue(8);
+    for (int order = 0; order < 5; order++) {
+      assertTrue(queue.offer(ticket("R1", order)));
+    }
+
+    List<String> drained = new ArrayList<>();
+    assertEquals(3, queue.drainTo(ticket -> drained.add(ticket.lines.get(0)), 3));
+    assertEquals(2, queue.drainTo(ticket -> drained.add(ticket.lines.get(0)), 10));
+    assertEquals(0, queue.drainTo(ticket -> drained.add(ticket.lines.get(0)), 10));
+    assertEquals(List.of("order 0", "order 1", "order 2", "order 3", "order 4"), drained);
+  }
+
+  @Test
+  void aFullQueueTurnsRegistersAwayUntilTheKitchenDrainsIt() {
+    KitchenQueue queue = new KitchenQueue(4);
+    for (int order = 0; order < 4; order++) {
+      assertTrue(queue.offer(ticket("R1", order)));
+    }
+    assertFalse(queue.offer(ticket("R1", 4)));
+    assertFalse(queue.publish(ticket("R1", 4), 1, TimeUnit.MILLISECONDS));
+
+    assertEquals(1, queue.drainTo(ticket -> { }, 1));
+    assertTrue(queue.offer(ticket("R1", 4)));                   // The freed slot is reused on the next lap
+
+    List<String> drained = new ArrayList<>();
+    queue.drainTo(ticket -> drained.add(ticket.lines.get(0)), 10);
+    assertEquals(List.of("order 1", "order 2", "order 3", "order 4"), drained);
+  }
+
+  @Test
+  void registersPublishingAtOnceLoseNoTicket() throws InterruptedException {
+    int registers = 4, ordersPerRegister = 20_000;
+    KitchenQueue queue = new KitchenQueue(64);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int register = 0; register < registers; register++) {
+      String name = "R" + register;
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException event) {
+          return;
+        }
+        for (int order = 0; order < ordersPerRegister; order++) {
+          if (!queue.publish(ticket(name, order), 10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Kitchen queue stayed full");
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+
+    // The kitchen display: every ticket once, and each register's tickets in the order it published them
+    Set<String> seen = new HashSet<>();
+    int[] nextOrder = new int[registers];
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+    while (seen.size() < registers * ordersPerRegister && System.nanoTime() < deadline) {
+      queue.drainTo(ticket -> {
+        assertTrue(seen.add(ticket.register + " " + ticket.lines.get(0)));
+        int register = Integer.parseInt(ticket.register.substring(1));
+        assertEquals("order " + nextOrder[register]++, ticket.lines.get(0));
+      }, 256);
+      queue.awaitTickets(TimeUnit.MILLISECONDS.toNanos(1));
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(registers * ordersPerRegister, seen.size());
+  }
+
+
+  private static KitchenQueue.KitchenTicket ticket(String register, int order) {
+    return new KitchenQueue.KitchenTicket(register, LocalTime.NOON, System.nanoTime(), List.of("order " + order));
+  }
+}
@@ -0,0 +1,93 @@
+//Title: Joe's Deli Order Journal Test
+//Desc: Unit tests of OrderJournal: orders read back as they were appended, a day's file opened again carries on after
+//      its last order, a file whose header a crash kept off the disk is started again, and only one journal at a time
+//      can have today's file open
+//Author: JIAYUAN YU
+//Date: 05/18/2023
+
+package application;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+class OrderJournalTest {
+
+  private static final MenuCatalog MENU = MenuCatalog.parse(List.of(
+      "1, Egg Sandwich, eat, 7.99, any",
+      "7, Coffee, drink, 1.99, any",
+      "101, Extra Cheese, +1, 0.75, any"), 0);
+
+  private static final long NOON = LocalDate.now().atTime(12, 0).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+  @TempDir
+  Path directory;
+
+
+  @Test
+  void ordersReadBackAfterTheDayIsOpenedAgain() throws IOException {
+    try (OrderJournal journal = OrderJournal.open(directory)) {
+      journal.append("R1", NOON, order(2, 1), 80);
+    }
+    try (OrderJournal journal = OrderJournal.open(directory)) {
+      journal.append("R2", NOON, order(1, 0), 16);
+    }
+
+    List<String> orders = new ArrayList<>();
+    OrderJournal.scan(OrderJournal.fileOf(directory, LocalDate.now()), record -> {
+      StringBuilder line = new StringBuilder(record.register()).append(' ').append(record.subtotalCents());
+      for (int i = 0; i < record.lineCount(); i++) {
+        line.append(' ').append(record.itemID(i)).append('x').append(record.quantity(i)).append('@').append(record.priceCents(i));
+      }
+      orders.add(line.toString());
+    });
+    assertEquals(List.of("R1 1872 1x2@799 101x1@75 7x1@199", "R2 799 1x1@799"), orders);
+  }
+
+  @Test
+  void aFileWhoseHeaderNeverReachedTheDiskIsStartedAgain() throws IOException {
+    Path today = OrderJournal.fileOf(directory, LocalDate.now());
+    Files.write(today, new byte[4 << 20]);                      // Grown by the mapping, then the register crashed
+    assertEquals(16, OrderJournal.scan(today, record -> { }));
+
+    try (OrderJournal journal = OrderJournal.open(directory)) {
+      journal.append("R1", NOON, order(1, 1), 32);
+    }
+    List<String> registers = new ArrayList<>();
+    OrderJournal.scan(today, record -> registers.add(record.register()));
+    assertEquals(List.of("R1"), registers);
+  }
+
+  @Test
+  void aSecondJournalCannotOpenTodaysFile() throws IOException {
+    try (OrderJournal journal = OrderJournal.open(directory)) {
+      assertThrows(IOException.class, () -> OrderJournal.open(directory));
+      journal.append("R1", NOON, order(1, 0), 64);         // Still holds the file
+    }
+    OrderJournal.open(directory).close();                      // Free again once closed
+  }
+
+
+  private static DeliOrder order(int sandwiches, int coffees) {
+    DeliOrder order = new DeliOrder(MENU);
+    order.setQuantity(1, sandwiches);
+    if (sandwiches > 1) {
+      order.setQuantity(101, 1);
+    }
+    if (coffees > 0) {
+      order.setQuantity(7, coffees);
+    }
+    return order;
+  }
+}
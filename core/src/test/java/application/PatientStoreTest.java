@@ -0,0 +1,142 @@
+// Title: Patient Store Test
+// Desc: Unit tests of PatientStore: records read back as written, the index survives a restart, a crash between the
+//       data and index writes is recovered, and a second station's appends are picked up by refresh()
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+class PatientStoreTest {
+
+	@TempDir
+	Path directory;
+
+
+	@Test
+	void findReturnsEveryFieldAsAppended() throws IOException {
+		try (PatientStore store = PatientStore.open(directory)) {
+			store.append(patient("10001", LocalDate.of(2023, 6, 12)));
+			store.append(new Patient("10002", "Zoë", "Ångström", null, null, null, null, null));
+
+			assertPatient(patient("10001", LocalDate.of(2023, 6, 12)), store.find("10001"));
+			assertPatient(new Patient("10002", "Zoë", "Ångström", null, null, null, null, null), store.find("10002"));
+			assertNull(store.find("10003"));
+			assertNull(store.find("not a number"));
+			assertEquals(2, store.size());
+		}
+	}
+
+	@Test
+	void appendRejectsUsedAndNonNumericIDs() throws IOException {
+		try (PatientStore store = PatientStore.open(directory)) {
+			store.append(patient("10001", null));
+
+			assertThrows(IllegalStateException.class, () -> store.append(patient("10001", null)));
+			assertThrows(IllegalArgumentException.class, () -> store.append(patient("10A01", null)));
+			assertEquals(1, store.size());
+		}
+	}
+
+	@Test
+	void reopenLoadsTheIndex() throws IOException {
+		try (PatientStore store = PatientStore.open(directory)) {
+			for (int i = 0; i < 100; i++) {
+				store.append(patient(String.valueOf(20000 + i), null));
+			}
+		}
+
+		try (PatientStore store = PatientStore.open(directory)) {
+			assertEquals(100, store.size());
+			assertPatient(patient("20057", null), store.find("20057"));
+			assertTrue(store.contains(20099));
+		}
+	}
+
+	@Test
+	void openRecoversRecordsMissingFromTheIndexAndDropsATornRecord() throws IOException {
+		try (PatientStore store = PatientStore.open(directory)) {
+			store.append(patient("10001", null));
+			store.append(patient("10002", null));
+		}
+
+		// The station stopped after writing the second record but before its index entry, in the middle of a third record
+		Path indexFile = directory.resolve(PatientStore.INDEX_FILE_NAME);
+		try (FileChannel index = FileChannel.open(indexFile, StandardOpenOption.WRITE)) {
+			index.truncate(16 + 7);
+		}
+		byte[] torn = PatientStore.encode(patient("10003", null));
+		Files.write(directory.resolve(PatientStore.DATA_FILE_NAME), Arrays.copyOf(torn, torn.length / 2), StandardOpenOption.APPEND);
+
+		try (PatientStore store = PatientStore.open(directory)) {
+			assertEquals(Set.of(10001L, 10002L), store.patientIDs());
+			assertPatient(patient("10002", null), store.find("10002"));
+
+			store.append(patient("10003", null));
+			assertPatient(patient("10003", null), store.find("10003"));
+		}
+		assertEquals(3 * 16, Files.size(indexFile));
+	}
+
+	@Test
+	void refreshPicksUpAnotherStationsAppends() throws IOException {
+		try (PatientStore station1 = PatientStore.open(directory); PatientStore station2 = PatientStore.open(directory)) {
+			station1.append(patient("10001", null));
+			station2.append(patient("10002", null));
+
+			assertFalse(station1.contains("10002"));
+			assertEquals(List.of(10002L), station1.refresh());
+			assertPatient(patient("10002", null), station1.find("10002"));
+			assertEquals(List.of(10001L), station2.refresh());
+			assertEquals(List.of(), station2.refresh());
+		}
+	}
+
+	@Test
+	void newStoreMovesInTheOldPatientInfoFiles() throws IOException {
+		Files.writeString(directory.resolve("30001_PatientInfo.txt"), "Patient ID: 30001\nFirst Name: Ada\nLast Name: Lovelace\n"
+				+ "Email: ada@example.com\nPhone Number: 4805550100\nHealth History: none\nInsurance ID: INS-1\nExam Date: 2023-06-20\n");
+
+		try (PatientStore store = PatientStore.open(directory)) {
+			assertPatient(new Patient("30001", "Ada", "Lovelace", "ada@example.com", "4805550100", "none", "INS-1", LocalDate.of(2023, 6, 20)),
+					store.find("30001"));
+		}
+		assertFalse(Files.exists(directory.resolve("30001_PatientInfo.txt")));                  // Moved in, not copied
+	}
+
+
+	private static Patient patient(String patientID, LocalDate examDate) {
+		return new Patient(patientID, "First" + patientID, "Last" + patientID, patientID + "@example.com", "480555" + patientID,
+				"History of " + patientID, "INS-" + patientID, examDate);
+	}
+
+	private static void assertPatient(Patient expected, Patient actual) {
+		assertEquals(expected.getPatientID(), actual.getPatientID());
+		assertEquals(expected.getFirstName(), actual.getFirstName());
+		assertEquals(expected.getLastName(), actual.getLastName());
+		assertEquals(expected.getEmail(), actual.getEmail());
+		assertEquals(expected.getPhoneNumber(), actual.getPhoneNumber());
+		assertEquals(expected.getHealthHistory(), actual.getHealthHistory());
+		assertEquals(expected.getInsuranceID(), actual.getInsuranceID());
+		assertEquals(expected.examDate(), actual.examDate());
+	}
+}
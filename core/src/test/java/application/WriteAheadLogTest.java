@@ -0,0 +1,139 @@
+// Title: Write Ahead Log Test
+// Desc: Unit tests of the replay of WriteAheadLog: a checkpoint redoes every whole entry in the order it was written,
+//       stops at an entry cut short or damaged by a crash, and empties the log once the record files are flushed
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+class WriteAheadLogTest {
+
+	@TempDir
+	Path directory;
+
+
+	// Target that remembers what it was asked to redo
+	private static class RecordingTarget implements WriteAheadLog.Target {
+		final List<String> redone = new ArrayList<>();
+		int flushes;
+
+		@Override
+		public void redo(byte type, ByteBuffer payload) {
+			redone.add(type + ":" + StandardCharsets.UTF_8.decode(payload));
+		}
+
+		@Override
+		public void flush() {
+			flushes++;
+		}
+	}
+
+
+	@Test
+	void writeAppliesTheChangeAndSyncReturnsOnceDurable() throws IOException {
+		List<String> applied = new ArrayList<>();
+		try (WriteAheadLog log = WriteAheadLog.open(directory)) {
+			log.checkpoint(new RecordingTarget());
+			long position = log.write(WriteAheadLog.PATIENT, bytes("10001"), () -> applied.add("10001"));
+			log.sync(position);
+			log.sync(position);                                                            // Already durable, returns at once
+		}
+		assertEquals(List.of("10001"), applied);
+		assertEquals(9 + 5, Files.size(logFile()));
+	}
+
+	@Test
+	void checkpointAfterARestartRedoesEveryEntryInOrderAndEmptiesTheLog() throws IOException {
+		try (WriteAheadLog log = WriteAheadLog.open(directory)) {
+			log.checkpoint(new RecordingTarget());
+			log.write(WriteAheadLog.PATIENT, bytes("10001"), () -> { });
+			log.write(WriteAheadLog.CT_SCORES, bytes("scores of 10001"), () -> { });
+			log.write(WriteAheadLog.PATIENT, bytes("10002"), () -> { });
+		}
+
+		RecordingTarget target = new RecordingTarget();
+		try (WriteAheadLog log = WriteAheadLog.open(directory)) {
+			log.checkpoint(target);
+			assertEquals(List.of("1:10001", "2:scores of 10001", "1:10002"), target.redone);
+			assertEquals(1, target.flushes);
+			assertEquals(0, Files.size(logFile()));
+
+			log.checkpoint(target);
+			assertEquals(3, target.redone.size());
+		}
+	}
+
+	@Test
+	void replayStopsAtAnEntryCutShortByACrash() throws IOException {
+		try (WriteAheadLog log = WriteAheadLog.open(directory)) {
+			log.write(WriteAheadLog.PATIENT, bytes("10001"), () -> { });
+			log.write(WriteAheadLog.PATIENT, bytes("10002"), () -> { });
+		}
+		try (FileChannel file = FileChannel.open(logFile(), StandardOpenOption.WRITE)) {
+			file.truncate(file.size() - 2);
+		}
+
+		RecordingTarget target = new RecordingTarget();
+		try (WriteAheadLog log = WriteAheadLog.open(directory)) {
+			log.checkpoint(target);
+		}
+		assertEquals(List.of("1:10001"), target.redone);
+		assertEquals(0, Files.size(logFile()));
+	}
+
+	@Test
+	void replayStopsAtADamagedEntry() throws IOException {
+		try (WriteAheadLog log = WriteAheadLog.open(directory)) {
+			log.write(WriteAheadLog.PATIENT, bytes("10001"), () -> { });
+			log.write(WriteAheadLog.PATIENT, bytes("10002"), () -> { });
+			log.write(WriteAheadLog.PATIENT, bytes("10003"), () -> { });
+		}
+		byte[] entries = Files.readAllBytes(logFile());
+		entries[14 + 9 + 2] ^= 0x01;                                                       // A payload byte of the second entry, its CRC no longer matches
+		Files.write(logFile(), entries);
+
+		RecordingTarget target = new RecordingTarget();
+		try (WriteAheadLog log = WriteAheadLog.open(directory)) {
+			log.checkpoint(target);
+		}
+		assertEquals(List.of("1:10001"), target.redone);
+	}
+
+	@Test
+	void replayIgnoresAnImpossibleLength() throws IOException {
+		Files.write(logFile(), ByteBuffer.allocate(16).putInt(-5).array());
+
+		RecordingTarget target = new RecordingTarget();
+		try (WriteAheadLog log = WriteAheadLog.open(directory)) {
+			log.checkpoint(target);
+		}
+		assertTrue(target.redone.isEmpty());
+		assertEquals(1, target.flushes);
+	}
+
+
+	private Path logFile() {
+		return directory.resolve(WriteAheadLog.LOG_FILE_NAME);
+	}
+
+	private static byte[] bytes(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+}
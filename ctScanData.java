@@ -0,0 +1,46 @@
+// Title: CT Scan Data
+// Desc: Holds the Agatston CAC scores recorded by the CT Scan Tech View (Technician) of the Heart Health System.
+// Author: JIAYUAN YU
+// Date: 06/04/2023
+
+package application;
+
+
+// A class to hold CT Scan data 
+class ctScanData {
+	private String PatientID, TotalAgatstionCACScore, LM, LAD, LCX, RCA, PDA;     // private instance variables for storing the patient's CT scan data
+	
+	// constructor of the Patient class takes the necessary information to create a Patient object and initializes the instance variables with the provided values
+	public ctScanData (String PatientID, String TotalAgatstionCACScore, String LM, String LAD, String LCX, String RCA, String PDA) {
+		this.PatientID = PatientID;
+		this.TotalAgatstionCACScore =  TotalAgatstionCACScore;
+		this.LM = LM;
+		this.LAD = LAD;
+		this.LCX = LCX;
+		this.RCA = RCA;
+		this.PDA = PDA;	
+	}
+	
+	public String getPatientID() {                                               // getter method that returns the patient's ID
+		return PatientID;
+	}
+	public String getTotalAgatstionCACScore() {                                  // getter method that returns the patient's total agatstion CAC Score
+		return TotalAgatstionCACScore;
+	}
+	public String getLM() {                                                      // getter method that returns the patient's LM Score
+		return LM;
+	}
+	public String getLAD() {                                                     // getter method that returns the patient's LAD Score
+		return LAD;
+	}
+	public String getLCX() {                                                     // getter method that returns the patient's LCX Score
+		return LCX;			
+	} 
+	public String getRCA() {                                                     // getter method that returns the patient's RCA Score
+		return RCA;
+	}
+	public String getPDA() {                                                     // getter method that returns the patient's PDA Score
+		return PDA;
+	}
+
+}